@@ -0,0 +1,72 @@
+package com.flyingspaniel.net.weather;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ * Finding the TimeInterval closest to random times, with the List based {@link TimeInterval#findClosestTime(List, Date, double)}
+ * and the primitive {@link TimeLayout#findClosestTimeIndex(Date, double)}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@OperationsPerInvocation(FindClosestTimeBenchmark.QUERIES)
+public class FindClosestTimeBenchmark {
+
+   static final int QUERIES = 256;
+
+   @Param({ "24", "168", "8760" })
+   public int size;
+
+   TimeLayout layout;
+   List<TimeInterval> intervals;
+   Date[] desired;
+
+
+   @Setup
+   public void setup() {
+      layout = new TimeLayout("k-p3h-n" + size + "-1");
+      for (int i=0; i<size; i++)
+         layout.add(ScaledDWML.START_MS + 3 * i * TimeInterval.HOURL, ScaledDWML.START_MS + 3 * (i+1) * TimeInterval.HOURL);
+      intervals = layout.getIntervals();
+
+      Random random = new Random(size);
+      desired = new Date[QUERIES];
+      for (int q=0; q<QUERIES; q++)
+         desired[q] = new Date(ScaledDWML.START_MS + (long)(random.nextDouble() * 3 * size * TimeInterval.HOURL));
+   }
+
+
+   @Benchmark
+   public void findClosestTime(Blackhole blackhole) {
+      for (Date date : desired)
+         blackhole.consume(TimeInterval.findClosestTime(intervals, date, 6.0));
+   }
+
+
+   @Benchmark
+   public void findClosestTimeIndex(Blackhole blackhole) {
+      for (Date date : desired)
+         blackhole.consume(layout.findClosestTimeIndex(date, 6.0));
+   }
+}
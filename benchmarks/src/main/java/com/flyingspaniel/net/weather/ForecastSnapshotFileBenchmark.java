@@ -0,0 +1,78 @@
+package com.flyingspaniel.net.weather;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ * A warm restart of "locations" forecasts: re-parsing their kept DWML vs. reading a ForecastSnapshotFile
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ForecastSnapshotFileBenchmark {
+
+   @Param({ "100", "1000" })
+   public int locations;
+
+   byte[] bytes;
+   File file;
+
+
+   @Setup
+   public void setup() throws Exception {
+      bytes = ScaledDWML.load("testdata/noaaweather.xml");
+      Map<String, ForecastSnapshot> snapshots = new LinkedHashMap<String, ForecastSnapshot>();
+      for (int i=0; i<locations; i++)
+         snapshots.put("location" + i, reparse());
+      
+      file = File.createTempFile("ForecastSnapshotFileBenchmark", ".bin");
+      ForecastSnapshotFile.write(file, snapshots);
+   }
+   
+   @TearDown
+   public void tearDown() {
+      file.delete();
+   }
+
+
+   @Benchmark
+   public void reparseDWML(Blackhole blackhole) throws Exception {
+      for (int i=0; i<locations; i++)
+         blackhole.consume(reparse());
+   }
+
+
+   @Benchmark
+   public Map<String, ForecastSnapshot> readFile() throws Exception {
+      return ForecastSnapshotFile.open(file).getAll();
+   }
+
+
+   ForecastSnapshot reparse() throws Exception {
+      NOAAWeather weather = new NOAAWeather();
+      weather.setEngine(NOAAWeather.Engine.STREAMING);
+      weather.loadFromStream(new ByteArrayInputStream(bytes));
+      return weather.callSnapshot();
+   }
+}
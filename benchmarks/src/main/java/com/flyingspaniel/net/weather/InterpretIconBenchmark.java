@@ -0,0 +1,69 @@
+package com.flyingspaniel.net.weather;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ * Interpreting every icon in a document: the original substring version, the char scanning version, 
+ * and the memoized interpretIconName()
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpretIconBenchmark {
+
+   @Param({ "testdata/noaaweather.xml", "1x720" })
+   public String dwml;
+
+   NOAAWeather weather;
+   List<String> icons;
+
+
+   @Setup
+   public void setup() throws Exception {
+      weather = new NOAAWeather();
+      weather.setEngine(NOAAWeather.Engine.STREAMING);
+      weather.loadFromStream(new ByteArrayInputStream(ScaledDWML.load(dwml)));
+      weather.call();
+      icons = weather.getNDFDSeries(NDFD.icons).getValues();
+   }
+
+
+   @Benchmark
+   public void interpretWithStrings(Blackhole blackhole) {
+      for (String icon : icons)
+         blackhole.consume(IconInterpreter.interpretWithStrings(icon));
+   }
+
+
+   @Benchmark
+   public void scan(Blackhole blackhole) {
+      for (String icon : icons)
+         blackhole.consume(IconInterpreter.scan(icon));
+   }
+
+
+   @Benchmark
+   public void interpretIconName(Blackhole blackhole) {
+      for (String icon : icons)
+         blackhole.consume(weather.interpretIconName(icon));
+   }
+}
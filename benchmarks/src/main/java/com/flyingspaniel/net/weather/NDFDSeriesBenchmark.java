@@ -0,0 +1,61 @@
+package com.flyingspaniel.net.weather;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Reading every value of an hourly NDFDSeries with getFloatValue()
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NDFDSeriesBenchmark {
+
+   @Param({ "168", "8760" })
+   public int hours;
+
+   NDFDSeries series;
+
+
+   @Setup
+   public void setup() {
+      Random random = new Random(hours);
+      TimeLayout layout = new TimeLayout("k-p1h-n" + hours + "-1");
+      List<String> values = new ArrayList<String>(hours);
+      for (int h=0; h<hours; h++) {
+         layout.add(ScaledDWML.START_MS + h * TimeInterval.HOURL, ScaledDWML.START_MS + h * TimeInterval.HOURL);
+         values.add(random.nextInt(10) == 0 ? "" : Integer.toString(40 + random.nextInt(60)));
+      }
+      series = NDFDSeries.create(NDFD.temp, layout, "Fahrenheit", values);
+   }
+
+
+   @Benchmark
+   public float getFloatValue() {
+      float sum = 0;
+      for (int i=0; i<series.size(); i++) {
+         float f = series.getFloatValue(i);
+         if (!Float.isNaN(f))
+            sum += f;
+      }
+      return sum;
+   }
+}
@@ -0,0 +1,84 @@
+package com.flyingspaniel.net.weather;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+
+
+/**
+ * NOAAWeather.call() on already fetched DWML, with the DOM load and the XPath extraction also measured separately,
+ * plus the streaming engine for comparison.
+ *
+ * <p>"dwml" is either a file or POINTSxHOURS of {@link ScaledDWML}, only the first point is extracted.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NOAAWeatherBenchmark {
+
+   @Param({ "testdata/noaaweather.xml", "1x168", "100x168", "1000x168" })
+   public String dwml;
+
+   byte[] bytes;
+   Document document;
+
+
+   @Setup
+   public void setup() throws Exception {
+      bytes = ScaledDWML.load(dwml);
+      document = newWeather(NOAAWeather.Engine.DOM).loadDOM(new ByteArrayInputStream(bytes));
+   }
+
+
+   @Benchmark
+   public Document loadDOM() throws Exception {
+      return newWeather(NOAAWeather.Engine.DOM).loadDOM(new ByteArrayInputStream(bytes));
+   }
+
+
+   @Benchmark
+   public NOAAWeather extractFromDocument() throws Exception {
+      NOAAWeather weather = newWeather(NOAAWeather.Engine.DOM);
+      weather.NDFDs.addAll(NOAAWeather.STANDARD_NDFDS);
+      weather.extractFromDocument(document);
+      return weather;
+   }
+
+
+   @Benchmark
+   public NOAAWeather callDOM() throws Exception {
+      NOAAWeather weather = newWeather(NOAAWeather.Engine.DOM);
+      weather.loadFromStream(new ByteArrayInputStream(bytes));
+      return weather.call();
+   }
+
+
+   @Benchmark
+   public NOAAWeather callStreaming() throws Exception {
+      NOAAWeather weather = newWeather(NOAAWeather.Engine.STREAMING);
+      weather.loadFromStream(new ByteArrayInputStream(bytes));
+      return weather.call();
+   }
+
+
+   static NOAAWeather newWeather(NOAAWeather.Engine engine) {
+      NOAAWeather weather = new NOAAWeather();
+      weather.setEngine(engine);
+      return weather;
+   }
+}
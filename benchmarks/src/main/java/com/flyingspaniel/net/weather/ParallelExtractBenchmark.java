@@ -0,0 +1,72 @@
+package com.flyingspaniel.net.weather;
+
+import java.io.ByteArrayInputStream;
+import java.util.EnumSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Stream parsing and extracting every series, sequentially (threads=0) or in parallel with
+ * {@link NOAAWeather#setExtractExecutor(java.util.concurrent.Executor)}.
+ *
+ * <p>"dwml" is either testdata/noaaweather.xml, with every NDFD, or POINTSxHOURS of {@link ScaledDWML},
+ * with the standard NDFDs for every point, as {@link NOAABatch} extracts them.
+ * The parse itself is single threaded, so the win is bounded by the share of time spent creating the NDFDSeries.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParallelExtractBenchmark {
+
+   @Param({ "testdata/noaaweather.xml", "100x168" })
+   public String dwml;
+
+   @Param({ "0", "2", "4", "8" })
+   public int threads;
+
+   byte[] bytes;
+   ExecutorService executor;
+
+
+   @Setup
+   public void setup() throws Exception {
+      bytes = ScaledDWML.load(dwml);
+      executor = threads > 0 ? Executors.newFixedThreadPool(threads) : null;
+   }
+
+   @TearDown
+   public void shutdown() {
+      if (executor != null)
+         executor.shutdown();
+   }
+
+
+   @Benchmark
+   public DWMLStreamParser streamAndExtract() throws Exception {
+      NOAAWeather weather = new NOAAWeather();
+      weather.setEngine(NOAAWeather.Engine.STREAMING);
+      weather.setExtractExecutor(executor);
+      if (dwml.contains("/"))
+         weather.NDFDs = EnumSet.allOf(NDFD.class);
+      weather.loadFromStream(new ByteArrayInputStream(bytes));
+      return weather.streamed;
+   }
+}
@@ -0,0 +1,88 @@
+package com.flyingspaniel.net.weather;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ * Parsing RFC 3339 timestamps: the old synchronized SimpleDateFormat code, {@link NOAAWeather#parseRFC3339(String)},
+ * {@link RFC3339#parseMillis(CharSequence)} and a {@link TimestampTable}.
+ * Run with -t 8 to see the contention on the legacy lock.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(1)
+@Fork(1)
+@OperationsPerInvocation(RFC3339Benchmark.COUNT)
+public class RFC3339Benchmark {
+
+   static final int COUNT = 1000;
+   static final SimpleDateFormat LEGACY_FORMAT = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
+
+   String[] timestamps;
+
+
+   static synchronized long legacyParse(String dateString) throws ParseException {
+      int len = dateString.length();
+      String removeLastColon = dateString.substring(0, len-3) + dateString.substring(len-2);
+      return LEGACY_FORMAT.parse(removeLastColon).getTime();
+   }
+
+
+   @Setup
+   public void setup() {
+      TimeZone pacific = TimeZone.getTimeZone("America/Los_Angeles");
+      timestamps = new String[COUNT];
+      for (int i=0; i<COUNT; i++)
+         timestamps[i] = RFC3339.format(1345478400000L + i * TimeInterval.HOURL, pacific);
+   }
+
+
+   @Benchmark
+   public void legacy(Blackhole blackhole) throws ParseException {
+      for (String s : timestamps)
+         blackhole.consume(legacyParse(s));
+   }
+
+
+   @Benchmark
+   public void parseRFC3339(Blackhole blackhole) throws ParseException {
+      for (String s : timestamps)
+         blackhole.consume(NOAAWeather.parseRFC3339(s));
+   }
+
+
+   @Benchmark
+   public void parseMillis(Blackhole blackhole) throws ParseException {
+      for (String s : timestamps)
+         blackhole.consume(RFC3339.parseMillis(s));
+   }
+
+
+   // as in a document, where every timestamp repeats
+   @Benchmark
+   public void timestampTable(Blackhole blackhole) throws ParseException {
+      TimestampTable table = new TimestampTable();
+      for (int i=0; i<COUNT; i++)
+         blackhole.consume(table.parseMillis(timestamps[i % 200]));
+   }
+}
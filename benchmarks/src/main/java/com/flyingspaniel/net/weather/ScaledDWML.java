@@ -0,0 +1,38 @@
+package com.flyingspaniel.net.weather;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Scaled up DWML for the benchmarks, with the standard NDFDs (maxt, mint, temp, icons)
+ * for any number of points and hours, or one of the testdata files.
+ * For other element mixes, hazards or missing values, use a {@link DWMLGenerator} directly.
+ */
+public class ScaledDWML {
+
+   static final long START_MS = DWMLGenerator.DEFAULT_START_MS;   // 2012-08-20T08:00:00-07:00
+
+
+   /**
+    * @param spec  a file, e.g. "testdata/noaaweather.xml", or "POINTSxHOURS", e.g. "1000x168"
+    * @return the DWML
+    */
+   public static byte[] load(String spec) throws IOException {
+      int x = spec.indexOf('x');
+      if ((x > 0) && !spec.contains("/"))
+         return generate(Integer.parseInt(spec.substring(0, x)), Integer.parseInt(spec.substring(x+1)));
+
+      return NOAAFetcher.readFully(new java.io.FileInputStream(new File(spec)));
+   }
+
+
+   /**
+    * @return DWML from a {@link DWMLGenerator} with the standard NDFDs (maxt, mint, temp, icons), seeded by the size
+    */
+   public static byte[] generate(int points, int hours) {
+      DWMLGenerator generator = new DWMLGenerator(points * 31L + hours);
+      generator.setPoints(points);
+      generator.setHours(hours);
+      return generator.generate();
+   }
+}
@@ -0,0 +1,53 @@
+package com.flyingspaniel.net.weather;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+
+
+/**
+ * TimeLayout.parseXML() of every time-layout in a document, sharing one TimestampTable, as NOAAWeather does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TimeLayoutBenchmark {
+
+   @Param({ "testdata/noaaweather.xml", "1x168", "1x720" })
+   public String dwml;
+
+   NodeList timeLayouts;
+
+
+   @Setup
+   public void setup() throws Exception {
+      NOAAWeather weather = new NOAAWeather();
+      Document document = weather.loadDOM(new ByteArrayInputStream(ScaledDWML.load(dwml)));
+      timeLayouts = weather.getNodeListFromXPath(weather.getNodeFromXPath(document, "dwml/data"), NOAAWeather.TIME_LAYOUT);
+   }
+
+
+   @Benchmark
+   public void parseXML(Blackhole blackhole) throws Exception {
+      TimestampTable table = new TimestampTable();
+      for (int n=0; n<timeLayouts.getLength(); n++)
+         blackhole.consume(TimeLayout.parseXML(timeLayouts.item(n), table));
+   }
+}
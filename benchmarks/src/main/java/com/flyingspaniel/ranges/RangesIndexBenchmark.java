@@ -0,0 +1,81 @@
+package com.flyingspaniel.ranges;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.flyingspaniel.net.weather.TimeInterval;
+
+
+/**
+ * Compares {@link RangesIndex} to the linear {@link RangesPredicates#exemplarAcceptsIndices}
+ * for hourly TimeIntervals, queried with random 24 hour windows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@OperationsPerInvocation(RangesIndexBenchmark.QUERIES)
+public class RangesIndexBenchmark {
+
+   static final int QUERIES = 64;
+
+   @Param({ "168", "10000", "1000000" })
+   public int size;
+
+   @Param({ "Contains", "ContainedBy", "Overlaps", "StrictlyLT", "StrictlyGT" })
+   public String predicate;
+
+   List<TimeInterval> intervals;
+   RangesIndex index;
+   RangesPredicates rangesPredicate;
+   TimeInterval[] exemplars;
+
+
+   @Setup
+   public void setup() throws Exception {
+      intervals = new ArrayList<TimeInterval>(size);
+      for (int i=0; i<size; i++)
+         intervals.add(new TimeInterval(i * TimeInterval.HOURL, (i+1) * TimeInterval.HOURL));
+      index = new RangesIndex(intervals);
+      rangesPredicate = (RangesPredicates) RangesPredicates.class.getField(predicate).get(null);
+
+      Random random = new Random(size);
+      exemplars = new TimeInterval[QUERIES];
+      for (int q=0; q<QUERIES; q++) {
+         long start = (long)random.nextInt(size) * TimeInterval.HOURL;
+         exemplars[q] = new TimeInterval(start, start + 24 * TimeInterval.HOURL);
+      }
+   }
+
+
+   @Benchmark
+   public void linear(Blackhole blackhole) {
+      for (TimeInterval exemplar : exemplars)
+         blackhole.consume(RangesPredicates.exemplarAcceptsIndices(exemplar, intervals, rangesPredicate));
+   }
+
+
+   @Benchmark
+   public void indexed(Blackhole blackhole) {
+      for (TimeInterval exemplar : exemplars)
+         blackhole.consume(index.exemplarAcceptsIndices(exemplar, rangesPredicate));
+   }
+}
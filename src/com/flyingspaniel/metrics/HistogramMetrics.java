@@ -0,0 +1,185 @@
+package com.flyingspaniel.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * A MetricsListener that keeps everything in memory, for tests, benchmarks, or a simple status page.
+ * 
+ * <p>Each name gets a {@link Histogram} for its timings and another for its counts, plus a count of errors.
+ * The Histograms use power of two buckets, so percentiles are approximate (within a factor of 2)
+ * but memory is fixed, no matter how many values are recorded.
+ * 
+ * @author Morgan Conrad
+ * @since Copyright(c) 2013  Morgan Conrad
+ *
+ * @see <a href="http://www.gnu.org/copyleft/lesser.html">This software is released under the LGPL</a>
+ */
+public class HistogramMetrics implements MetricsListener {
+
+   protected final ConcurrentMap<String, Histogram> timings = new ConcurrentHashMap<String, Histogram>();
+   protected final ConcurrentMap<String, Histogram> counts = new ConcurrentHashMap<String, Histogram>();
+   protected final ConcurrentMap<String, Histogram> errors = new ConcurrentHashMap<String, Histogram>();
+   
+   
+   @Override
+   public void timing(String name, long nanos) {
+      histogram(timings, name).record(nanos);
+   }
+
+   @Override
+   public void count(String name, long amount) {
+      histogram(counts, name).record(amount);
+   }
+
+   @Override
+   public void error(String name, Throwable failure) {
+      histogram(errors, name).record(1);
+   }
+   
+   
+   /**
+    * @param name
+    * @return Histogram of the nanos passed to timing(), or null if there were none
+    */
+   public Histogram getTimings(String name) {
+      return timings.get(name);
+   }
+   
+   /**
+    * @param name
+    * @return Histogram of the amounts passed to count(), or null if there were none
+    */
+   public Histogram getCounts(String name) {
+      return counts.get(name);
+   }
+   
+   /**
+    * @param name
+    * @return number of calls to error()
+    */
+   public long getErrors(String name) {
+      Histogram histogram = errors.get(name);
+      return histogram != null ? histogram.getCount() : 0L;
+   }
+   
+   
+   public void clear() {
+      timings.clear();
+      counts.clear();
+      errors.clear();
+   }
+   
+   
+   /**
+    * One line per name, sorted, with the timings in ms
+    */
+   @Override
+   public String toString() {
+      StringBuilder sb = new StringBuilder();
+      for (Map.Entry<String, Histogram> entry : new TreeMap<String, Histogram>(timings).entrySet()) {
+         Histogram h = entry.getValue();
+         sb.append(String.format("%s count=%d mean=%.3fms p50=%.3fms p99=%.3fms max=%.3fms%n", entry.getKey(), h.getCount(), 
+               h.getMean() / 1e6, h.getPercentile(50) / 1e6, h.getPercentile(99) / 1e6, h.getMax() / 1e6));
+      }
+      for (Map.Entry<String, Histogram> entry : new TreeMap<String, Histogram>(counts).entrySet()) {
+         Histogram h = entry.getValue();
+         sb.append(String.format("%s count=%d sum=%d mean=%.1f max=%d%n", entry.getKey(), h.getCount(), h.getSum(), h.getMean(), h.getMax()));
+      }
+      for (Map.Entry<String, Histogram> entry : new TreeMap<String, Histogram>(errors).entrySet())
+         sb.append(entry.getKey()).append(" errors=").append(entry.getValue().getCount()).append(String.format("%n"));
+      
+      return sb.toString();
+   }
+   
+   
+   protected Histogram histogram(ConcurrentMap<String, Histogram> map, String name) {
+      Histogram histogram = map.get(name);
+      if (histogram == null) {
+         Histogram created = new Histogram();
+         histogram = map.putIfAbsent(name, created);
+         if (histogram == null)
+            histogram = created;
+      }
+      return histogram;
+   }
+   
+   
+   
+   /**
+    * Counts of non-negative values in power of two buckets: bucket 0 holds 0, bucket b holds [2^(b-1), 2^b)
+    */
+   public static class Histogram {
+      
+      protected final long[] buckets = new long[64];
+      protected long count = 0;
+      protected long sum = 0;
+      protected long min = Long.MAX_VALUE;
+      protected long max = Long.MIN_VALUE;
+      
+      
+      /**
+       * @param value  negative values are treated as 0
+       */
+      public synchronized void record(long value) {
+         if (value < 0)
+            value = 0;
+         buckets[64 - Long.numberOfLeadingZeros(value)]++;
+         count++;
+         sum += value;
+         min = Math.min(min, value);
+         max = Math.max(max, value);
+      }
+      
+      public synchronized long getCount() {
+         return count;
+      }
+      
+      public synchronized long getSum() {
+         return sum;
+      }
+      
+      /**
+       * @return smallest value, 0 if none
+       */
+      public synchronized long getMin() {
+         return count > 0 ? min : 0L;
+      }
+      
+      /**
+       * @return largest value, 0 if none
+       */
+      public synchronized long getMax() {
+         return count > 0 ? max : 0L;
+      }
+      
+      /**
+       * @return average, 0 if none
+       */
+      public synchronized double getMean() {
+         return count > 0 ? (double)sum / count : 0.0;
+      }
+      
+      
+      /**
+       * Approximate percentile: the upper bound of the bucket it falls in, but never more than the max
+       * @param percent  0 to 100
+       * @return value, 0 if none
+       */
+      public synchronized long getPercentile(double percent) {
+         if (count == 0)
+            return 0L;
+         long rank = (long)Math.ceil(percent / 100.0 * count);
+         long seen = 0;
+         for (int b=0; b<buckets.length; b++) {
+            seen += buckets[b];
+            if ((seen >= rank) && (seen > 0))
+               return b == 0 ? 0L : Math.min(max, (1L << b) - 1);
+         }
+         return max;
+      }
+   }
+}
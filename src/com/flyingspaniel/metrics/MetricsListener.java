@@ -0,0 +1,64 @@
+package com.flyingspaniel.metrics;
+
+
+/**
+ * Receives timings, counts and errors from the code doing the work, e.g. fetching or parsing, 
+ * identified by names like "noaa.fetch" or "xml.loadDOM".
+ * 
+ * <p>Implementations must be thread safe, and quick, since they are called inline.
+ * The default everywhere is {@link #NONE}, which does nothing and, since the names are constants
+ * and the values primitives, allocates nothing.
+ * 
+ * @author Morgan Conrad
+ * @since Copyright(c) 2013  Morgan Conrad
+ *
+ * @see <a href="http://www.gnu.org/copyleft/lesser.html">This software is released under the LGPL</a>
+ */
+public interface MetricsListener {
+
+   /**
+    * Ignores everything
+    */
+   public static final MetricsListener NONE = new NoOp();
+   
+   
+   /**
+    * A phase completed
+    * @param name   non-null
+    * @param nanos  how long it took
+    */
+   public void timing(String name, long nanos);
+   
+   
+   /**
+    * Something was counted, e.g. bytes fetched, or nodes in a Document
+    * @param name    non-null
+    * @param amount
+    */
+   public void count(String name, long amount);
+   
+   
+   /**
+    * A phase failed
+    * @param name     non-null, usually the same as for timing()
+    * @param failure
+    */
+   public void error(String name, Throwable failure);
+   
+   
+   
+   /**
+    * Does nothing, for you to extend if you only care about some of the methods
+    */
+   public static class NoOp implements MetricsListener {
+      
+      @Override
+      public void timing(String name, long nanos) {}
+      
+      @Override
+      public void count(String name, long amount) {}
+      
+      @Override
+      public void error(String name, Throwable failure) {}
+   }
+}
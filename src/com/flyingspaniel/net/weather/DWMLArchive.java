@@ -0,0 +1,398 @@
+package com.flyingspaniel.net.weather;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+
+/**
+ * Keeps the raw DWML of every fetch, gzipped, in rolling local files, e.g. to replay them later.  
+ * Set it with {@link NOAAFetcher#setArchive(DWMLArchive)}.
+ * 
+ * <ul>
+ * <li>{@link #write(NOAAFetcher.Response)} just queues the Response, a single background thread gzips and writes them,
+ * and goes away when idle.  If maxQueued are already waiting, besides the one being written, 
+ * the newest are dropped, and counted, rather than slowing the fetches.
+ * <li>Responses that arrived gzipped are written as is, others are gzipped first.
+ * <li>A new file is started once the current one reaches maxFileBytes, and the oldest files beyond maxFiles are deleted.
+ * <li>Files are named "dwml-yyyyMMdd-HHmmss-NNNN.arc" (UTC), so sort by name in the order written.
+ * </ul>
+ * 
+ * Each record is: int MAGIC, UTF url, long fetchedMS, int length, then the gzipped DWML.
+ * 
+ * <p>Archiving never fails a fetch.  If a write fails, it's available from {@link #getFailure()}, and
+ * that file is closed, so any partial record is at its end, where {@link #read(File)} ignores it.
+ * 
+ * @author Morgan Conrad
+ * @since Copyright(c) 2013  Morgan Conrad
+ *
+ * @see <a href="http://www.gnu.org/copyleft/lesser.html">This software is released under the LGPL</a>
+ */
+public class DWMLArchive implements Closeable {
+
+   public static final long DEFAULT_MAX_FILE_BYTES = 64L * 1024 * 1024;
+   public static final int DEFAULT_MAX_FILES = 100;
+   public static final int DEFAULT_MAX_QUEUED = 64;
+   
+   static final String PREFIX = "dwml-";
+   static final String SUFFIX = ".arc";
+   static final int MAGIC = 0x44574D4C;  // "DWML"
+   
+   protected final File directory;
+   protected final long maxFileBytes;
+   protected final int maxFiles;
+   protected final int maxQueued;
+   
+   // the writer thread's work: records to write, and close()s, in order
+   protected final BlockingQueue<Runnable> queue = new LinkedBlockingQueue<Runnable>();
+   protected final AtomicInteger pendingRecords = new AtomicInteger();  // queued or being written
+   protected final ThreadFactory threadFactory = new NOAAFetcher.DaemonThreadFactory("DWMLArchive-");
+   protected boolean writerRunning = false;  // guarded by this
+   
+   // only used by the writer thread
+   protected OutputStream out = null;
+   protected long fileBytes = 0;
+   protected int sequence = 0;
+   
+   protected final AtomicLong recordCount = new AtomicLong();
+   protected final AtomicLong dropped = new AtomicLong();
+   protected volatile IOException failure = null;
+   
+   
+   /**
+    * Constructor
+    * @param directory     created if needed
+    * @param maxFileBytes  when to start a new file
+    * @param maxFiles      how many files to keep
+    * @param maxQueued     how many Responses may wait to be written before more are dropped
+    * @throws IOException
+    */
+   public DWMLArchive(File directory, long maxFileBytes, int maxFiles, int maxQueued) throws IOException {
+      if (maxFiles <= 0)
+         throw new IllegalArgumentException("maxFiles=" + maxFiles);
+      this.directory = directory;
+      this.maxFileBytes = maxFileBytes;
+      this.maxFiles = maxFiles;
+      this.maxQueued = maxQueued;
+      if (!directory.isDirectory() && !directory.mkdirs())
+         throw new IOException("Cannot create " + directory);
+   }
+   
+   
+   public DWMLArchive(File directory, long maxFileBytes, int maxFiles) throws IOException {
+      this(directory, maxFileBytes, maxFiles, DEFAULT_MAX_QUEUED);
+   }
+   
+   
+   public DWMLArchive(File directory) throws IOException {
+      this(directory, DEFAULT_MAX_FILE_BYTES, DEFAULT_MAX_FILES);
+   }
+   
+   
+   /**
+    * Queues a Response to be archived, or drops it if too many are waiting.  Doesn't block.
+    * @param response
+    */
+   public void write(final NOAAFetcher.Response response) {
+      if (pendingRecords.incrementAndGet() > maxQueued + 1) {
+         pendingRecords.decrementAndGet();
+         dropped.incrementAndGet();
+         return;
+      }
+      
+      enqueue(new Runnable() {
+         @Override
+         public void run() {
+            try {
+               writeRecord(response);
+            }
+            finally {
+               pendingRecords.decrementAndGet();
+            }
+         }
+      });
+   }
+   
+   
+   /**
+    * Waits for everything queued to be written, then closes the current file.  Any later write() starts a new one.
+    */
+   @Override
+   public void close() throws IOException {
+      FutureTask<Void> closing = new FutureTask<Void>(new Callable<Void>() {
+         @Override
+         public Void call() throws IOException {
+            closeFile();
+            return null;
+         }
+      });
+      
+      try {
+         enqueue(closing);  // after everything already queued, and never dropped
+         closing.get();
+      } catch (InterruptedException ie) {
+         Thread.currentThread().interrupt();
+         throw new InterruptedIOException("Closing " + this);
+      } catch (ExecutionException ee) {
+         if (ee.getCause() instanceof IOException)
+            throw (IOException)ee.getCause();
+         throw new IOException(ee.getCause());
+      }
+   }
+   
+   
+   /**
+    * Adds work for the writer thread, starting it if it had gone idle
+    * @param task
+    */
+   protected void enqueue(Runnable task) {
+      queue.add(task);
+      synchronized(this) {
+         if (!writerRunning) {
+            writerRunning = true;
+            threadFactory.newThread(new Runnable() {
+               @Override
+               public void run() {
+                  drain();
+               }
+            }).start();
+         }
+      }
+   }
+   
+   
+   /**
+    * The writer thread, runs the queued work in order, and exits once idle for a second
+    */
+   protected void drain() {
+      while (true) {
+         Runnable task;
+         try {
+            task = queue.poll(1L, TimeUnit.SECONDS);
+         } catch (InterruptedException ie) {
+            task = null;
+         }
+         
+         if (task != null)
+            task.run();
+         else {
+            synchronized(this) {
+               if (queue.isEmpty()) {  // else enqueue() has just added something, expecting us to run it
+                  writerRunning = false;
+                  return;
+               }
+            }
+         }
+      }
+   }
+   
+   
+   /**
+    * Gzips, if needed, and appends one record, on the writer thread.
+    * The record is written in one piece, and if that fails the file is abandoned, so it's never left mid-file.
+    * @param response
+    */
+   protected void writeRecord(NOAAFetcher.Response response) {
+      try {
+         byte[] gzipped = "gzip".equals(response.contentEncoding) ? response.body : gzip(response.decompress());
+         ByteArrayOutputStream record = new ByteArrayOutputStream(gzipped.length + 256);
+         DataOutputStream recordOut = new DataOutputStream(record);
+         recordOut.writeInt(MAGIC);
+         recordOut.writeUTF(response.url);
+         recordOut.writeLong(response.fetchedMS);
+         recordOut.writeInt(gzipped.length);
+         recordOut.write(gzipped);
+         recordOut.flush();
+         
+         if ((out != null) && (fileBytes >= maxFileBytes))
+            closeFile();
+         if (out == null)
+            roll();
+         try {
+            record.writeTo(out);
+            out.flush();
+         } catch (IOException ioe) {
+            abandonFile();
+            throw ioe;
+         }
+         fileBytes += record.size();
+         recordCount.incrementAndGet();
+      } catch (IOException ioe) {
+         failure = ioe;
+      }
+   }
+   
+   
+   protected void closeFile() throws IOException {
+      OutputStream was = out;
+      out = null;
+      if (was != null)
+         was.close();
+   }
+   
+   
+   protected void abandonFile() {
+      try {
+         closeFile();
+      } catch (IOException ioe) {
+         ;  // already failing
+      }
+   }
+   
+   
+   /**
+    * @return the archive files, oldest first
+    */
+   public List<File> getFiles() {
+      return listFiles(directory);
+   }
+   
+   
+   /**
+    * Number of responses written
+    */
+   public long getRecordCount() {
+      return recordCount.get();
+   }
+   
+   /**
+    * Number of responses dropped because too many were waiting to be written
+    */
+   public long getDropped() {
+      return dropped.get();
+   }
+   
+   /**
+    * @return the last write failure, null if none
+    */
+   public IOException getFailure() {
+      return failure;
+   }
+   
+   
+   @Override
+   public String toString() {
+      return "DWMLArchive " + directory + " " + getRecordCount() + " responses";
+   }
+   
+   
+   /**
+    * @param directory
+    * @return the archive files in directory, oldest first
+    */
+   public static List<File> listFiles(File directory) {
+      List<File> files = new ArrayList<File>();
+      File[] all = directory.listFiles();
+      if (all != null) {
+         Arrays.sort(all);
+         for (File file : all)
+            if (file.getName().startsWith(PREFIX) && file.getName().endsWith(SUFFIX))
+               files.add(file);
+      }
+      return files;
+   }
+   
+   
+   /**
+    * Reads one archive file.  A partial record at the end, e.g. from a crash, is ignored.
+    * @param file
+    * @return NOAAFetcher.Responses, gzipped, in the order written
+    * @throws IOException  if it's not an archive file
+    */
+   public static List<NOAAFetcher.Response> read(File file) throws IOException {
+      List<NOAAFetcher.Response> responses = new ArrayList<NOAAFetcher.Response>();
+      DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+      try {
+         while (true) {
+            int magic;
+            try {
+               magic = in.readInt();
+            } catch (EOFException eof) {
+               break;
+            }
+            if (magic != MAGIC)
+               throw new IOException("Not a DWMLArchive file: " + file);
+            
+            String url = in.readUTF();
+            long fetchedMS = in.readLong();
+            byte[] gzipped = new byte[in.readInt()];
+            in.readFully(gzipped);
+            responses.add(new NOAAFetcher.Response(url, fetchedMS, "gzip", gzipped));
+         }
+      } catch (EOFException partial) {
+         ;  // the last record wasn't completely written
+      }
+      finally {
+         in.close();
+      }
+      
+      return responses;
+   }
+   
+   
+   /**
+    * Reads every archive file in directory
+    * @param directory
+    * @return NOAAFetcher.Responses, gzipped, in the order written
+    * @throws IOException
+    */
+   public static List<NOAAFetcher.Response> readAll(File directory) throws IOException {
+      List<NOAAFetcher.Response> responses = new ArrayList<NOAAFetcher.Response>();
+      for (File file : listFiles(directory))
+         responses.addAll(read(file));
+      return responses;
+   }
+   
+   
+   protected void roll() throws IOException {
+      SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd-HHmmss");
+      format.setTimeZone(TimeZone.getTimeZone("UTC"));
+      String timestamp = format.format(new Date());
+      File file;
+      do {
+         file = new File(directory, PREFIX + timestamp + "-" + String.format("%04d", sequence++ % 10000) + SUFFIX);
+      } while (file.exists());
+      
+      out = new BufferedOutputStream(new FileOutputStream(file), 64 * 1024);
+      fileBytes = 0;
+      
+      List<File> files = listFiles(directory);
+      for (int i=0; i<files.size() - maxFiles; i++)
+         files.get(i).delete();
+   }
+   
+   
+   static byte[] gzip(byte[] bytes) throws IOException {
+      ByteArrayOutputStream baos = new ByteArrayOutputStream(bytes.length / 8 + 64);
+      GZIPOutputStream gzip = new GZIPOutputStream(baos, 8192);
+      gzip.write(bytes);
+      gzip.close();
+      return baos.toByteArray();
+   }
+}
@@ -0,0 +1,617 @@
+package com.flyingspaniel.net.weather;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.zip.GZIPOutputStream;
+
+
+/**
+ * Generates synthetic, but valid, DWML of any size, for scale testing and benchmarks.
+ *
+ * <p>The output is deterministic: the same settings and seed always give the same bytes.  It is written
+ * as it is generated, never held in memory, so gigabyte documents are fine.  What can be set:
+ * <ul>
+ * <li>the number of points (applicable-locations), which share the time-layouts, as in a multi-point request
+ * <li>the hours forecast, and the granularity (hours between values) of the hourly elements
+ * <li>how many time-layouts each kind of element gets.  NOAA often sends several for the same period,
+ * e.g. k-p1h-n61-17 and k-p1h-n62-19, each starting a little later than the previous.
+ * <li>the NDFD elements, by default the ones NOAAWeather always asks for: maxt, mint, temp and icons.
+ * call() needs at least those.
+ * <li>the fraction of hours with a hazard (watch, warning or advisory), and the fraction of numeric values that
+ * are missing (xsi:nil)
+ * </ul>
+ *
+ * <pre>
+ *    DWMLGenerator generator = new DWMLGenerator(42L);
+ *    generator.setPoints(1000);
+ *    generator.setNDFDs(EnumSet.allOf(NDFD.class));
+ *    generator.write(outputStream);
+ * </pre>
+ *
+ * Or from the command line: <code>java com.flyingspaniel.net.weather.DWMLGenerator [-seed 0] [-points 1] [-hours 168]
+ * [-step 1] [-layouts 1] [-ndfds maxt,mint,temp,icons|all] [-hazards 0.05] [-missing 0] file[.gz]</code>
+ *
+ * @author Morgan Conrad
+ * @since Copyright(c) 2013  Morgan Conrad
+ *
+ * @see <a href="http://www.gnu.org/copyleft/lesser.html">This software is released under the LGPL</a>
+ */
+public class DWMLGenerator {
+
+   public static final long DEFAULT_START_MS = 1345474800000L;   // 2012-08-20T08:00:00-07:00, like the testdata
+   public static final double DEFAULT_HAZARD_DENSITY = 0.05;
+
+   static final TimeZone PACIFIC = TimeZone.getTimeZone("America/Los_Angeles");
+
+   static final String[] ICONS = { "skc", "few", "sct", "bkn", "ovc", "fg", "hi_tsra", "ra", "shra", "sn" };
+   static final String[] COVERAGES = { "slight chance", "chance", "likely", "patchy", "areas" };
+   static final String[] WEATHER_TYPES = { "fog", "rain", "rain showers", "thunderstorms", "snow", "drizzle" };
+   static final String[][] HAZARDS = {
+      { "FW.A", "Fire Weather", "Watch" },
+      { "HT.Y", "Heat", "Advisory" },
+      { "WI.Y", "Wind", "Advisory" },
+      { "FG.Y", "Dense Fog", "Advisory" },
+      { "WS.W", "Winter Storm", "Warning" }
+   };
+
+   // how each NDFD appears in DWML.  interpretation isn't sent by NOAA, it's computed from the icons
+   static final EnumMap<NDFD, Element> ELEMENTS = new EnumMap<NDFD, Element>(NDFD.class);
+
+   static {
+      ELEMENTS.put(NDFD.maxt, new Element("temperature", "maximum", "Fahrenheit", "Daily Maximum Temperature", 24, 0, 12, 60, 100, 0));
+      ELEMENTS.put(NDFD.mint, new Element("temperature", "minimum", "Fahrenheit", "Daily Minimum Temperature", 24, 12, 13, 40, 70, 0));
+      ELEMENTS.put(NDFD.temp, new Element("temperature", "hourly", "Fahrenheit", "Temperature", 1, 0, 0, 40, 100, 0));
+      ELEMENTS.put(NDFD.dew, new Element("temperature", "dew point", "Fahrenheit", "Dew Point Temperature", 1, 0, 0, 30, 70, 0));
+      ELEMENTS.put(NDFD.icons, new Element("conditions-icon", "forecast-NWS", null, "Conditions Icons", 3, 0, 0, 0, 0, 0));
+      ELEMENTS.put(NDFD.qpf, new Element("precipitation", "liquid", "inches", "Liquid Precipitation Amount", 6, 0, -1, 0, 50, 2));
+      ELEMENTS.put(NDFD.rh, new Element("humidity", "relative", "percent", "Relative Humidity", 3, 0, 0, 10, 100, 0));
+      ELEMENTS.put(NDFD.sky, new Element("cloud-amount", "total", "percent", "Cloud Cover Amount", 1, 0, 0, 0, 100, 0));
+      ELEMENTS.put(NDFD.snow, new Element("precipitation", "snow", "inches", "Snow Amount", 6, 0, -1, 0, 30, 1));
+      ELEMENTS.put(NDFD.waveh, new Element("waves", "significant", "feet", "Wave Height", 6, 0, 0, 1, 12, 0));
+      ELEMENTS.put(NDFD.wdir, new Element("direction", "wind", "degrees true", "Wind Direction", 1, 0, 0, 0, 35, -1));
+      ELEMENTS.put(NDFD.wgust, new Element("wind-speed", "gust", "knots", "Wind Speed Gust", 3, 0, 0, 10, 40, 0));
+      ELEMENTS.put(NDFD.wspd, new Element("wind-speed", "sustained", "knots", "Wind Speed", 1, 0, 0, 0, 25, 0));
+      ELEMENTS.put(NDFD.wwa, new Element("hazards", null, null, "Watches, Warnings, and Advisories", 1, 0, -1, 0, 0, 0));
+      ELEMENTS.put(NDFD.wx, new Element("weather", null, null, "Weather Type, Coverage, and Intensity", 3, 0, 0, 0, 0, 0));
+   }
+
+   protected final long seed;
+   protected int points = 1;
+   protected int hours = 168;
+   protected int stepHours = 1;
+   protected int layoutVariants = 1;
+   protected EnumSet<NDFD> ndfds = EnumSet.copyOf(NOAAWeather.STANDARD_NDFDS);
+   protected double hazardDensity = DEFAULT_HAZARD_DENSITY;
+   protected double missingRatio = 0.0;
+   protected long startMS = DEFAULT_START_MS;
+
+
+   /**
+    * Constructor
+    * @param seed  for the Random that picks all the values
+    */
+   public DWMLGenerator(long seed) {
+      this.seed = seed;
+   }
+
+
+   public DWMLGenerator() {
+      this(0L);
+   }
+
+
+   /**
+    * @param newPoints  number of applicable-locations, must be > 0
+    * @return previous value
+    */
+   public int setPoints(int newPoints) {
+      if (newPoints <= 0)
+         throw new IllegalArgumentException("points=" + newPoints);
+      int was = points;
+      points = newPoints;
+      return was;
+   }
+
+   /**
+    * @param newHours  length of the forecast, must be >= 24
+    * @return previous value
+    */
+   public int setHours(int newHours) {
+      if (newHours < 24)
+         throw new IllegalArgumentException("hours=" + newHours);
+      int was = hours;
+      hours = newHours;
+      return was;
+   }
+
+   /**
+    * @param newStepHours  hours between values of the hourly elements (temp, dew, sky, wdir, wspd, wwa), must be > 0.
+    * The elements NOAA sends less often, e.g. every 3 or 6 hours, use whichever is longer.
+    * @return previous value
+    */
+   public int setStepHours(int newStepHours) {
+      if (newStepHours <= 0)
+         throw new IllegalArgumentException("stepHours=" + newStepHours);
+      int was = stepHours;
+      stepHours = newStepHours;
+      return was;
+   }
+
+   /**
+    * @param newLayoutVariants  how many time-layouts each period gets, shared round robin by the elements
+    * with that period.  Must be > 0.
+    * @return previous value
+    */
+   public int setLayoutVariants(int newLayoutVariants) {
+      if (newLayoutVariants <= 0)
+         throw new IllegalArgumentException("layoutVariants=" + newLayoutVariants);
+      int was = layoutVariants;
+      layoutVariants = newLayoutVariants;
+      return was;
+   }
+
+   /**
+    * @param newNDFDs  non-null, which elements to generate.  interpretation is ignored, NOAA doesn't send it.
+    */
+   public void setNDFDs(Collection<NDFD> newNDFDs) {
+      ndfds = newNDFDs.isEmpty() ? EnumSet.noneOf(NDFD.class) : EnumSet.copyOf(newNDFDs);
+      ndfds.remove(NDFD.interpretation);
+   }
+
+   public EnumSet<NDFD> getNDFDs() {
+      return EnumSet.copyOf(ndfds);
+   }
+
+   /**
+    * @param newHazardDensity  fraction of the wwa hours that have a hazard, 0 to 1
+    * @return previous value
+    */
+   public double setHazardDensity(double newHazardDensity) {
+      if ((newHazardDensity < 0) || (newHazardDensity > 1))
+         throw new IllegalArgumentException("hazardDensity=" + newHazardDensity);
+      double was = hazardDensity;
+      hazardDensity = newHazardDensity;
+      return was;
+   }
+
+   /**
+    * @param newMissingRatio  fraction of the numeric values that are missing, 0 to 1
+    * @return previous value
+    */
+   public double setMissingRatio(double newMissingRatio) {
+      if ((newMissingRatio < 0) || (newMissingRatio > 1))
+         throw new IllegalArgumentException("missingRatio=" + newMissingRatio);
+      double was = missingRatio;
+      missingRatio = newMissingRatio;
+      return was;
+   }
+
+   /**
+    * @param newStartMS  time of the first maxt, best at 8AM Pacific.  Default is DEFAULT_START_MS.
+    * @return previous value
+    */
+   public long setStartMS(long newStartMS) {
+      long was = startMS;
+      startMS = newStartMS;
+      return was;
+   }
+
+
+   /**
+    * Convenience to generate into memory, for smaller documents
+    * @return the DWML, as UTF-8
+    */
+   public byte[] generate() {
+      ByteArrayOutputStream baos = new ByteArrayOutputStream(64 * 1024);
+      try {
+         write(baos);
+      } catch (IOException ioe) {
+         throw new Weather.Exception(ioe);  // can't happen
+      }
+      return baos.toByteArray();
+   }
+
+
+   /**
+    * Writes the DWML, as UTF-8
+    * @param out  flushed but not closed
+    * @throws IOException
+    */
+   public void write(OutputStream out) throws IOException {
+      Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), 64 * 1024);
+      write(writer);
+      writer.flush();
+   }
+
+
+   /**
+    * Writes the DWML
+    * @param out  not flushed or closed
+    * @throws IOException
+    */
+   public void write(Writer out) throws IOException {
+      Random random = new Random(seed);
+      List<Layout> allLayouts = new ArrayList<Layout>();
+      Map<NDFD, Layout> layouts = planLayouts(allLayouts);
+
+      out.write("<?xml version=\"1.0\"?>\n");
+      out.write("<dwml version=\"1.0\" xmlns:xsd=\"http://www.w3.org/2001/XMLSchema\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"");
+      out.write(" xsi:noNamespaceSchemaLocation=\"http://graphical.weather.gov/xml/DWMLgen/schema/DWML.xsd\">\n");
+      out.write("  <head>\n    <product srsName=\"WGS 1984\" concise-name=\"time-series\" operational-mode=\"official\">\n");
+      out.write("      <creation-date refresh-frequency=\"PT1H\">");
+      out.write(RFC3339.format(startMS - NOAAWeather.ONE_HOUR, PACIFIC));
+      out.write("</creation-date>\n    </product>\n  </head>\n  <data>\n");
+
+      for (int p=1; p<=points; p++) {
+         out.write("    <location>\n      <location-key>point");
+         out.write(Integer.toString(p));
+         out.write("</location-key>\n      <point latitude=\"");
+         out.write(latitude(p));
+         out.write("\" longitude=\"");
+         out.write(longitude(p));
+         out.write("\"/>\n    </location>\n");
+      }
+      for (int p=1; p<=points; p++) {
+         out.write("    <moreWeatherInformation applicable-location=\"point");
+         out.write(Integer.toString(p));
+         out.write("\">http://forecast.weather.gov/MapClick.php?textField1=");
+         out.write(latitude(p));
+         out.write("&amp;textField2=");
+         out.write(longitude(p));
+         out.write("</moreWeatherInformation>\n");
+      }
+
+      for (Layout layout : allLayouts)
+         writeLayout(out, layout);
+
+      for (int p=1; p<=points; p++) {
+         out.write("    <parameters applicable-location=\"point");
+         out.write(Integer.toString(p));
+         out.write("\">\n");
+         for (NDFD ndfd : ndfds)
+            writeElement(out, ndfd, ELEMENTS.get(ndfd), layouts.get(ndfd), random);
+         out.write("    </parameters>\n");
+      }
+
+      out.write("  </data>\n</dwml>\n");
+   }
+
+
+   /**
+    * Decides which time-layout each NDFD uses.  Elements with the same period and interval length are a family,
+    * whose members take turns among the layoutVariants, each variant starting one period later.
+    * @param allLayouts  filled in with the distinct layouts, in order
+    * @return Map, never null
+    */
+   protected Map<NDFD, Layout> planLayouts(List<Layout> allLayouts) {
+      Map<NDFD, Layout> plan = new EnumMap<NDFD, Layout>(NDFD.class);
+      Map<String, Integer> familyMembers = new HashMap<String, Integer>();
+      Map<String, Layout> created = new HashMap<String, Layout>();
+
+      for (NDFD ndfd : ndfds) {
+         Element element = ELEMENTS.get(ndfd);
+         int period = element.periodHours == 24 ? 24 : Math.max(element.periodHours, stepHours);
+         int length = element.lengthHours < 0 ? period : element.lengthHours;
+         String family = period + "/" + element.offsetHours + "/" + length;
+         Integer members = familyMembers.get(family);
+         int variant = (members != null ? members : 0) % layoutVariants;
+         familyMembers.put(family, members != null ? members + 1 : 1);
+
+         String variantKey = family + "/" + variant;
+         Layout layout = created.get(variantKey);
+         if (layout == null) {
+            int offset = element.offsetHours + variant * period;
+            int count = Math.max(1, (hours - variant * period) / period);  // night runs past the end, like NOAA's
+            layout = new Layout("k-p" + period + "h-n" + count + "-" + (allLayouts.size() + 1), offset, period, length, count);
+            created.put(variantKey, layout);
+            allLayouts.add(layout);
+         }
+         plan.put(ndfd, layout);
+      }
+
+      return plan;
+   }
+
+
+   protected void writeLayout(Writer out, Layout layout) throws IOException {
+      out.write("    <time-layout time-coordinate=\"local\" summarization=\"none\">\n      <layout-key>");
+      out.write(layout.key);
+      out.write("</layout-key>\n");
+      for (int i=0; i<layout.count; i++) {
+         long start = startMS + (layout.offsetHours + (long)i * layout.periodHours) * TimeInterval.HOURL;
+         out.write("      <start-valid-time>");
+         out.write(RFC3339.format(start, PACIFIC));
+         out.write("</start-valid-time>\n");
+         if (layout.lengthHours > 0) {
+            out.write("      <end-valid-time>");
+            out.write(RFC3339.format(start + layout.lengthHours * TimeInterval.HOURL, PACIFIC));
+            out.write("</end-valid-time>\n");
+         }
+      }
+      out.write("    </time-layout>\n");
+   }
+
+
+   protected void writeElement(Writer out, NDFD ndfd, Element element, Layout layout, Random random) throws IOException {
+      String indent = "      ";
+      if (ndfd == NDFD.waveh) {
+         out.write("      <water-state time-layout=\"");
+         out.write(layout.key);
+         out.write("\">\n");
+         indent = "        ";
+      }
+
+      out.write(indent);
+      out.write('<');
+      out.write(element.tag);
+      if (element.type != null) {
+         out.write(" type=\"");
+         out.write(element.type);
+         out.write('"');
+      }
+      if (element.units != null) {
+         out.write(" units=\"");
+         out.write(element.units);
+         out.write('"');
+      }
+      if (ndfd != NDFD.waveh) {
+         out.write(" time-layout=\"");
+         out.write(layout.key);
+         out.write('"');
+      }
+      out.write(">\n");
+      out.write(indent);
+      out.write("  <name>");
+      out.write(element.name);
+      out.write("</name>\n");
+
+      for (int i=0; i<layout.count; i++) {
+         out.write(indent);
+         if (ndfd == NDFD.icons)
+            writeIcon(out, random);
+         else if (ndfd == NDFD.wx)
+            writeWeather(out, indent, random);
+         else if (ndfd == NDFD.wwa)
+            writeHazard(out, indent, random);
+         else
+            writeValue(out, element, random);
+      }
+
+      out.write(indent);
+      out.write("</");
+      out.write(element.tag);
+      out.write(">\n");
+      if (ndfd == NDFD.waveh)
+         out.write("      </water-state>\n");
+   }
+
+
+   protected void writeValue(Writer out, Element element, Random random) throws IOException {
+      if ((missingRatio > 0) && (random.nextDouble() < missingRatio)) {
+         out.write("  <value xsi:nil=\"true\"/>\n");
+         return;
+      }
+
+      int value = element.min + random.nextInt(element.max - element.min + 1);
+      out.write("  <value>");
+      if (element.decimals < 0)  // tens, e.g. wind direction
+         out.write(Integer.toString(value * 10));
+      else if (element.decimals == 0)
+         out.write(Integer.toString(value));
+      else {
+         int scale = element.decimals == 1 ? 10 : 100;
+         out.write(Integer.toString(value / scale));
+         out.write('.');
+         String fraction = Integer.toString(scale + value % scale);
+         out.write(fraction, 1, fraction.length() - 1);
+      }
+      out.write("</value>\n");
+   }
+
+
+   protected void writeIcon(Writer out, Random random) throws IOException {
+      out.write("  <icon-link>http://forecast.weather.gov/images/wtf/");
+      out.write(ICONS[random.nextInt(ICONS.length)]);
+      if (random.nextBoolean())
+         out.write(Integer.toString((random.nextInt(9) + 1) * 10));
+      out.write(".jpg</icon-link>\n");
+   }
+
+
+   protected void writeWeather(Writer out, String indent, Random random) throws IOException {
+      if (random.nextInt(3) != 0) {
+         out.write("  <weather-conditions/>\n");
+         return;
+      }
+
+      out.write("  <weather-conditions>\n");
+      out.write(indent);
+      out.write("    <value coverage=\"");
+      out.write(COVERAGES[random.nextInt(COVERAGES.length)]);
+      out.write("\" intensity=\"");
+      out.write(random.nextBoolean() ? "none" : "light");
+      out.write("\" weather-type=\"");
+      out.write(WEATHER_TYPES[random.nextInt(WEATHER_TYPES.length)]);
+      out.write("\" qualifier=\"none\">\n");
+      out.write(indent);
+      out.write("      <visibility xsi:nil=\"true\"/>\n");
+      out.write(indent);
+      out.write("    </value>\n");
+      out.write(indent);
+      out.write("  </weather-conditions>\n");
+   }
+
+
+   protected void writeHazard(Writer out, String indent, Random random) throws IOException {
+      if ((hazardDensity == 0) || (random.nextDouble() >= hazardDensity)) {
+         out.write("  <hazard-conditions/>\n");
+         return;
+      }
+
+      String[] hazard = HAZARDS[random.nextInt(HAZARDS.length)];
+      out.write("  <hazard-conditions>\n");
+      out.write(indent);
+      out.write("    <hazard hazardCode=\"");
+      out.write(hazard[0]);
+      out.write("\" phenomena=\"");
+      out.write(hazard[1]);
+      out.write("\" significance=\"");
+      out.write(hazard[2]);
+      out.write("\" hazardType=\"long duration\">\n");
+      out.write(indent);
+      out.write("      <hazardTextURL>http://forecast.weather.gov/wwamap/wwatxtget.php?cwa=usa&amp;wwa=");
+      out.write(hazard[1].replace(" ", "%20"));
+      out.write("%20");
+      out.write(hazard[2]);
+      out.write("</hazardTextURL>\n");
+      out.write(indent);
+      out.write("    </hazard>\n");
+      out.write(indent);
+      out.write("  </hazard-conditions>\n");
+   }
+
+
+   // a grid, 0.01 degrees apart, across the western US
+   static String latitude(int point) {
+      return coordinate(3000 + (point - 1) % 1500);
+   }
+
+   static String longitude(int point) {
+      return coordinate(-12000 + (point - 1) / 1500);
+   }
+
+   static String coordinate(int hundredths) {
+      String sign = hundredths < 0 ? "-" : "";
+      hundredths = Math.abs(hundredths);
+      return sign + (hundredths / 100) + "." + (hundredths % 100 < 10 ? "0" : "") + (hundredths % 100);
+   }
+
+
+   /**
+    * Generates a file from the command line, gzipped if the name ends with .gz
+    * @param args  [-seed n] [-points n] [-hours n] [-step n] [-layouts n] [-ndfds a,b,c] [-hazards f] [-missing f] file
+    * @throws IOException
+    */
+   public static void main(String[] args) throws IOException {
+      long seed = 0L;
+      for (int i=0; i<args.length-1; i++)
+         if ("-seed".equals(args[i]))
+            seed = Long.parseLong(args[i+1]);
+
+      DWMLGenerator generator = new DWMLGenerator(seed);
+      File file = null;
+      for (int i=0; i<args.length; i++) {
+         if ("-seed".equals(args[i]))
+            i++;
+         else if ("-points".equals(args[i]))
+            generator.setPoints(Integer.parseInt(args[++i]));
+         else if ("-hours".equals(args[i]))
+            generator.setHours(Integer.parseInt(args[++i]));
+         else if ("-step".equals(args[i]))
+            generator.setStepHours(Integer.parseInt(args[++i]));
+         else if ("-layouts".equals(args[i]))
+            generator.setLayoutVariants(Integer.parseInt(args[++i]));
+         else if ("-hazards".equals(args[i]))
+            generator.setHazardDensity(Double.parseDouble(args[++i]));
+         else if ("-missing".equals(args[i]))
+            generator.setMissingRatio(Double.parseDouble(args[++i]));
+         else if ("-ndfds".equals(args[i])) {
+            EnumSet<NDFD> ndfds = EnumSet.noneOf(NDFD.class);
+            for (String name : args[++i].split(",")) {
+               if ("all".equals(name)) {
+                  ndfds.addAll(ELEMENTS.keySet());
+                  continue;
+               }
+               NDFD ndfd = NDFD.lookup(name.trim());
+               if (ndfd == null)
+                  throw new IllegalArgumentException("Unknown NDFD: " + name);
+               ndfds.add(ndfd);
+            }
+            generator.setNDFDs(ndfds);
+         }
+         else
+            file = new File(args[i]);
+      }
+      if (file == null) {
+         System.err.println("usage: DWMLGenerator [-seed n] [-points n] [-hours n] [-step n] [-layouts n] [-ndfds a,b,c] [-hazards f] [-missing f] file[.gz]");
+         System.exit(1);
+      }
+
+      OutputStream out = new FileOutputStream(file);
+      try {
+         if (file.getName().endsWith(".gz"))
+            out = new GZIPOutputStream(out, 64 * 1024);
+         generator.write(out);
+      }
+      finally {
+         out.close();
+      }
+   }
+
+
+
+   /**
+    * How an NDFD appears in DWML
+    */
+   static class Element {
+      final String tag;
+      final String type;
+      final String units;
+      final String name;
+      final int periodHours;   // at the finest
+      final int offsetHours;   // from startMS
+      final int lengthHours;   // of each interval, 0 for instants, -1 for the whole period
+      final int min;           // of the values, before the decimals are applied
+      final int max;
+      final int decimals;      // -1 means the value is in tens
+
+      Element(String tag, String type, String units, String name, int periodHours, int offsetHours, int lengthHours,
+              int min, int max, int decimals) {
+         this.tag = tag;
+         this.type = type;
+         this.units = units;
+         this.name = name;
+         this.periodHours = periodHours;
+         this.offsetHours = offsetHours;
+         this.lengthHours = lengthHours;
+         this.min = min;
+         this.max = max;
+         this.decimals = decimals;
+      }
+   }
+
+
+   /**
+    * One time-layout
+    */
+   static class Layout {
+      final String key;
+      final int offsetHours;
+      final int periodHours;
+      final int lengthHours;   // 0 for instants
+      final int count;
+
+      Layout(String key, int offsetHours, int periodHours, int lengthHours, int count) {
+         this.key = key;
+         this.offsetHours = offsetHours;
+         this.periodHours = periodHours;
+         this.lengthHours = lengthHours;
+         this.count = count;
+      }
+   }
+}
@@ -0,0 +1,372 @@
+package com.flyingspaniel.net.weather;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.flyingspaniel.metrics.HistogramMetrics;
+import com.flyingspaniel.metrics.MetricsListener;
+
+
+/**
+ * Replays saved DWML through the parser as fast as it will go, on several threads, to measure parse throughput
+ * with real documents instead of the network.
+ *
+ * <p>The documents come from {@link #load(File)}: a {@link DWMLArchive} file, a plain or gzipped .xml file,
+ * or a directory of them.  They are decompressed up front, so only the parsing (and computing) is timed.
+ * Each document is parsed by a copy of the template, so the engine, NDFDs, dates etc. are whatever it has.
+ *
+ * <pre>
+ *    NOAAWeather template = new NOAAWeather();
+ *    template.setEngine(NOAAWeather.Engine.STREAMING);
+ *    DWMLReplay replay = new DWMLReplay(template, DWMLReplay.load(new File("archive")));
+ *    replay.setThreads(4);
+ *    DWMLReplay.Result result = replay.call();
+ * </pre>
+ *
+ * Or from the command line: <code>java com.flyingspaniel.net.weather.DWMLReplay [-threads 4] [-engine STREAMING]
+ * [-passes 1] [-warmup 1] fileOrDirectory</code>
+ *
+ * @author Morgan Conrad
+ * @since Copyright(c) 2013  Morgan Conrad
+ *
+ * @see <a href="http://www.gnu.org/copyleft/lesser.html">This software is released under the LGPL</a>
+ */
+public class DWMLReplay implements Callable<DWMLReplay.Result> {
+
+   // name for the MetricsListener, load plus call() of one document
+   public static final String PARSE = "replay.parse";
+
+   protected final NOAAWeather template;
+   protected final List<NOAAFetcher.Response> documents;
+   protected final long totalBytes;
+   protected int threads = 1;
+   protected int passes = 1;
+   protected int warmupPasses = 1;
+
+
+   /**
+    * Constructor
+    * @param template   non-null, its settings are used to parse every document.  Its MetricsListener is not.
+    * @param documents  non-null, e.g. from load(), may be compressed
+    * @throws IOException  if one can't be decompressed
+    */
+   public DWMLReplay(NOAAWeather template, List<NOAAFetcher.Response> documents) throws IOException {
+      this.template = template;
+      this.documents = new ArrayList<NOAAFetcher.Response>(documents.size());
+      long bytes = 0;
+      for (NOAAFetcher.Response response : documents) {
+         NOAAFetcher.Response plain = response.isCompressed() ?
+               new NOAAFetcher.Response(response.url, response.fetchedMS, null, response.decompress()) : response;
+         this.documents.add(plain);
+         bytes += plain.size();
+      }
+      totalBytes = bytes;
+   }
+
+
+   /**
+    * Loads DWML to replay
+    * @param fileOrDirectory  a DWMLArchive file, a .xml or .xml.gz file, or a directory of any of those
+    * @return NOAAFetcher.Responses, in file name order
+    * @throws IOException
+    */
+   public static List<NOAAFetcher.Response> load(File fileOrDirectory) throws IOException {
+      List<NOAAFetcher.Response> responses = new ArrayList<NOAAFetcher.Response>();
+      if (fileOrDirectory.isDirectory()) {
+         File[] files = fileOrDirectory.listFiles();
+         if (files != null) {
+            Arrays.sort(files);
+            for (File file : files)
+               if (file.isFile() && isReplayable(file))
+                  responses.addAll(load(file));
+         }
+      }
+      else if (fileOrDirectory.getName().endsWith(DWMLArchive.SUFFIX))
+         responses.addAll(DWMLArchive.read(fileOrDirectory));
+      else {
+         byte[] bytes = NOAAFetcher.readFully(new FileInputStream(fileOrDirectory));
+         String encoding = fileOrDirectory.getName().endsWith(".gz") ? "gzip" : null;
+         responses.add(new NOAAFetcher.Response(fileOrDirectory.toURI().toString(), fileOrDirectory.lastModified(), encoding, bytes));
+      }
+
+      return responses;
+   }
+
+
+   static boolean isReplayable(File file) {
+      String name = file.getName();
+      return name.endsWith(DWMLArchive.SUFFIX) || name.endsWith(".xml") || name.endsWith(".xml.gz");
+   }
+
+
+   /**
+    * @param newThreads  number of parsing threads, must be > 0
+    * @return previous value
+    */
+   public int setThreads(int newThreads) {
+      if (newThreads <= 0)
+         throw new IllegalArgumentException("threads=" + newThreads);
+      int was = threads;
+      threads = newThreads;
+      return was;
+   }
+
+   /**
+    * @param newPasses  how many times each document is parsed for the Result, must be > 0
+    * @return previous value
+    */
+   public int setPasses(int newPasses) {
+      if (newPasses <= 0)
+         throw new IllegalArgumentException("passes=" + newPasses);
+      int was = passes;
+      passes = newPasses;
+      return was;
+   }
+
+   /**
+    * @param newWarmupPasses  how many times each document is parsed, untimed, before that, to let the JIT settle.  May be 0.
+    * @return previous value
+    */
+   public int setWarmupPasses(int newWarmupPasses) {
+      int was = warmupPasses;
+      warmupPasses = Math.max(0, newWarmupPasses);
+      return was;
+   }
+
+
+   public int size() {
+      return documents.size();
+   }
+
+   /**
+    * Total size of the documents, uncompressed
+    */
+   public long getTotalBytes() {
+      return totalBytes;
+   }
+
+
+   /**
+    * Does the warmup passes, then the timed passes
+    * @return Result of the timed passes
+    */
+   @Override
+   public Result call() throws InterruptedException {
+      if (warmupPasses > 0)
+         replay(warmupPasses, MetricsListener.NONE);
+      return replay(passes, new HistogramMetrics());
+   }
+
+
+   /**
+    * Parses every document passes times on the threads
+    * @param passes
+    * @param metrics  non-null, reported to by every NOAAWeather, plus PARSE
+    * @return Result
+    * @throws InterruptedException
+    */
+   protected Result replay(int passes, final MetricsListener metrics) throws InterruptedException {
+      final int tasks = documents.size() * passes;
+      final long[] latencies = new long[tasks];
+      final AtomicInteger next = new AtomicInteger();
+      final AtomicInteger errors = new AtomicInteger();
+      final AtomicReference<Throwable> firstFailure = new AtomicReference<Throwable>();
+      final AtomicLong allocated = new AtomicLong();
+      final CountDownLatch startGate = new CountDownLatch(1);
+      final CountDownLatch done = new CountDownLatch(threads);
+
+      NOAAFetcher.DaemonThreadFactory factory = new NOAAFetcher.DaemonThreadFactory("DWMLReplay-");
+      for (int t=0; t<threads; t++) {
+         factory.newThread(new Runnable() {
+            @Override
+            public void run() {
+               try {
+                  startGate.await();
+                  long allocatedAtStart = allocatedBytes();
+                  for (int task = next.getAndIncrement(); task < tasks; task = next.getAndIncrement()) {
+                     long start = System.nanoTime();
+                     try {
+                        parse(documents.get(task % documents.size()), metrics);
+                     } catch (Throwable failure) {
+                        errors.incrementAndGet();
+                        firstFailure.compareAndSet(null, failure);
+                     }
+                     latencies[task] = System.nanoTime() - start;
+                     metrics.timing(PARSE, latencies[task]);
+                  }
+                  long allocatedAtEnd = allocatedBytes();
+                  if ((allocatedAtStart < 0) || (allocatedAtEnd < 0))
+                     allocated.set(Long.MIN_VALUE);  // stays negative
+                  else
+                     allocated.addAndGet(allocatedAtEnd - allocatedAtStart);
+               } catch (InterruptedException ie) {
+                  ;  // just quit
+               }
+               finally {
+                  done.countDown();
+               }
+            }
+         }).start();
+      }
+
+      long start = System.nanoTime();
+      startGate.countDown();
+      done.await();
+      long elapsed = System.nanoTime() - start;
+
+      Arrays.sort(latencies);
+      HistogramMetrics histogramMetrics = metrics instanceof HistogramMetrics ? (HistogramMetrics)metrics : null;
+      return new Result(template.getEngine(), threads, tasks, totalBytes * passes, elapsed, latencies,
+                        allocated.get() >= 0 ? allocated.get() : -1L, errors.get(), firstFailure.get(), histogramMetrics);
+   }
+
+
+   /**
+    * Parses and computes one document, as call() would had it been fetched
+    * @param response  uncompressed
+    * @param metrics
+    * @throws IOException
+    */
+   protected void parse(NOAAFetcher.Response response, MetricsListener metrics) throws IOException {
+      NOAAWeather weather = template.copySettings();
+      weather.setMetrics(metrics);
+      if (weather.timestampTable != null)
+         weather.setTimestampTable(TimestampTable.forCurrentThread());  // they aren't thread safe
+      weather.moreInfo.put(NOAAWeather.MoreInfoKeys.IN_URL.name(), response.url);
+      weather.loadFromStream(response.openStream());
+      weather.call();
+   }
+
+
+   /**
+    * Bytes allocated so far by this thread, if the JVM can say (HotSpot can, Android can't)
+    * @return bytes, or -1 if unknown
+    */
+   static long allocatedBytes() {
+      try {
+         ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+         if (bean instanceof com.sun.management.ThreadMXBean)
+            return ((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+      } catch (Throwable t) {
+         ;  // no java.lang.management, or not supported
+      }
+      return -1L;
+   }
+
+
+   /**
+    * Replays from the command line, printing the Result and the MetricsListener breakdown
+    * @param args  [-threads n] [-engine DOM|STREAMING] [-passes n] [-warmup n] fileOrDirectory
+    * @throws Exception
+    */
+   public static void main(String[] args) throws Exception {
+      NOAAWeather template = new NOAAWeather();
+      int threads = Runtime.getRuntime().availableProcessors();
+      int passes = 1;
+      int warmup = 1;
+      File input = null;
+      for (int i=0; i<args.length; i++) {
+         if ("-threads".equals(args[i]))
+            threads = Integer.parseInt(args[++i]);
+         else if ("-engine".equals(args[i]))
+            template.setEngine(NOAAWeather.Engine.valueOf(args[++i].toUpperCase()));
+         else if ("-passes".equals(args[i]))
+            passes = Integer.parseInt(args[++i]);
+         else if ("-warmup".equals(args[i]))
+            warmup = Integer.parseInt(args[++i]);
+         else
+            input = new File(args[i]);
+      }
+      if (input == null) {
+         System.err.println("usage: DWMLReplay [-threads n] [-engine DOM|STREAMING] [-passes n] [-warmup n] fileOrDirectory");
+         System.exit(1);
+      }
+
+      DWMLReplay replay = new DWMLReplay(template, load(input));
+      replay.setThreads(threads);
+      replay.setPasses(passes);
+      replay.setWarmupPasses(warmup);
+      Result result = replay.call();
+      System.out.println(result);
+      System.out.print(result.metrics);
+   }
+
+
+
+   /**
+    * What a replay measured.  Latencies are exact, not bucketed.
+    */
+   public static class Result {
+      public final NOAAWeather.Engine engine;
+      public final int threads;
+      public final int documents;   // parsed, including any that failed
+      public final long bytes;      // uncompressed
+      public final long elapsedNanos;
+      public final long allocatedBytes;   // by all the threads, -1 if unknown
+      public final int errors;
+      public final Throwable firstFailure;   // null if none
+      public final HistogramMetrics metrics; // from every phase, see NOAAWeather, null for a warmup
+      protected final long[] sortedLatencies;
+
+      Result(NOAAWeather.Engine engine, int threads, int documents, long bytes, long elapsedNanos, long[] sortedLatencies,
+             long allocatedBytes, int errors, Throwable firstFailure, HistogramMetrics metrics) {
+         this.engine = engine;
+         this.threads = threads;
+         this.documents = documents;
+         this.bytes = bytes;
+         this.elapsedNanos = elapsedNanos;
+         this.sortedLatencies = sortedLatencies;
+         this.allocatedBytes = allocatedBytes;
+         this.errors = errors;
+         this.firstFailure = firstFailure;
+         this.metrics = metrics;
+      }
+
+      public double getDocsPerSecond() {
+         return elapsedNanos > 0 ? documents * 1e9 / elapsedNanos : 0.0;
+      }
+
+      /**
+       * @return megabytes (of 1024*1024) of uncompressed DWML per second
+       */
+      public double getMBPerSecond() {
+         return elapsedNanos > 0 ? bytes * 1e9 / elapsedNanos / (1024 * 1024) : 0.0;
+      }
+
+      /**
+       * @param percent  e.g. 50 or 99
+       * @return latency of one document, in nanos, at that percentile (nearest rank), or 0 if there were none
+       */
+      public long getLatencyPercentile(double percent) {
+         if (sortedLatencies.length == 0)
+            return 0L;
+         int rank = (int)Math.ceil(percent / 100.0 * sortedLatencies.length);
+         return sortedLatencies[Math.min(Math.max(rank, 1), sortedLatencies.length) - 1];
+      }
+
+      /**
+       * @return average bytes allocated per document, or -1 if unknown
+       */
+      public long getAllocatedBytesPerDoc() {
+         return (allocatedBytes >= 0) && (documents > 0) ? allocatedBytes / documents : -1L;
+      }
+
+      @Override
+      public String toString() {
+         return String.format("DWMLReplay %s threads=%d docs=%d %.1f docs/sec %.2f MB/sec p50=%.3fms p99=%.3fms alloc/doc=%d errors=%d",
+               engine, threads, documents, getDocsPerSecond(), getMBPerSecond(),
+               getLatencyPercentile(50) / 1e6, getLatencyPercentile(99) / 1e6, getAllocatedBytesPerDoc(), errors);
+      }
+   }
+}
@@ -0,0 +1,581 @@
+package com.flyingspaniel.net.weather;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+
+/**
+ * Single pass, streaming (SAX) parser for the DWML returned by the NOAA REST service.
+ *
+ * <p>Produces the same TimeLayouts, NDFDSeries and moreInfo as the DOM + XPath code in {@link NOAAWeather},
+ * without ever building a Document.  Like the XPath code, only the first "dwml/data" is read,
+ * and for each NDFD only the first matching parameter element per location.
+ *
+ * <p>Multi-point (listLatLon) documents have one "parameters" element per location, distinguished by
+ * their applicable-location attribute, e.g. "point2", and all of them are read in the single pass.
+ * The methods without a locationKey return the results for the first location.
+ *
+ * <p>The values of each series are collected during the pass, and converted into NDFDSeries (e.g. parsing the floats
+ * of a {@link NDFDSeries.Numeric}) at the end, optionally in parallel, see {@link #setExecutor(Executor)}.
+ *
+ * <p>Instances are not thread safe and are meant to parse a single document.
+ *
+ * @author Morgan Conrad
+ * @since Copyright(c) 2013  Morgan Conrad
+ *
+ * @see <a href="http://www.gnu.org/copyleft/lesser.html">This software is released under the LGPL</a>
+ */
+public class DWMLStreamParser extends DefaultHandler {
+
+   /**
+    * Another Initialization On Demand Holder idiom
+    */
+   static class SingletonFactoryHolder {
+      protected static final SAXParserFactory sSAXParserFactory = SAXParserFactory.newInstance();
+
+      static {
+         sSAXParserFactory.setNamespaceAware(true);
+      }
+   }
+
+
+   protected final Map<String, TimeLayout> timeLayoutMap = new LinkedHashMap<String, TimeLayout>();
+   protected TimeLayout timeLayout0 = null;
+   protected final Map<String, Location> locations = new LinkedHashMap<String, Location>();
+   protected String creationDate = null;
+   protected String refreshFrequency = null;
+
+   // what we are looking for, parsed from NDFD.xPathToNode, copied for each Location
+   protected final List<ElementPath> wanted = new ArrayList<ElementPath>();
+   protected final List<NDFD> unparsed = new ArrayList<NDFD>();
+
+   protected TimestampTable timestampTable = new TimestampTable();
+   protected Executor executor = null;  // if non-null, the NDFDSeries get created in parallel
+
+   // parse state
+   private final List<String> names = new ArrayList<String>();   // element stack, starting at "dwml"
+   private final List<String> types = new ArrayList<String>();   // their "type" attributes
+   private final StringBuilder text = new StringBuilder();
+   private boolean inText = false;
+   private int textDepth;
+   private int dataCount = 0;
+
+   private String layoutKey;
+   private boolean inTimeLayout = false;
+   private long[] startTimes = new long[16];
+   private long[] endTimes = new long[16];
+   private int startCount;
+   private int endCount;
+
+   private ElementPath current = null;   // the parameter element being read
+   private int currentDepth;
+   private String currentLayout;
+   private String currentUnits;
+   private List<String> currentValues;
+   private String phenomena;
+   private String significance;
+   private Location location = null;     // of the current "parameters" or "moreWeatherInformation"
+
+
+   /**
+    * Constructor
+    * @param ndfds  which NDFDs to extract.  Those with no xPathToNode (e.g. interpretation) get an empty series.
+    */
+   public DWMLStreamParser(Collection<NDFD> ndfds) {
+      for (NDFD ndfd : ndfds) {
+         if (ndfd.xPathToNode != null)
+            wanted.add(new ElementPath(ndfd));
+         else
+            unparsed.add(ndfd);
+      }
+   }
+
+
+   /**
+    * Parse the DWML
+    * @param in  InputStream, not closed here
+    * @return this, for convenience
+    * @throws IOException
+    * @throws SAXException
+    */
+   public DWMLStreamParser parse(InputStream in) throws IOException, SAXException {
+      newSAXParser().parse(new InputSource(in), this);
+      return this;
+   }
+
+
+   /**
+    * Parse the DWML from a File
+    * @param file
+    * @return this, for convenience
+    * @throws IOException
+    * @throws SAXException
+    */
+   public DWMLStreamParser parse(File file) throws IOException, SAXException {
+      newSAXParser().parse(file, this);
+      return this;
+   }
+
+
+   /**
+    * Share a TimestampTable, e.g. {@link TimestampTable#forCurrentThread()}, instead of the default of a new one per parser.
+    * Must be called before parsing.
+    * @param table  non-null
+    * @return this, for convenience
+    */
+   public DWMLStreamParser setTimestampTable(TimestampTable table) {
+      timestampTable = table;
+      return this;
+   }
+
+
+   /**
+    * Create the NDFDSeries from the collected values in parallel, one task per series (of every location), 
+    * which helps when many NDFDs or locations are requested.  The results are identical to the sequential creation.
+    * The tasks only read their own values and the finished TimeLayouts, and the parsing thread runs any tasks 
+    * the executor hasn't started, so it can't deadlock even on a busy or shared pool.
+    * Must be called before parsing.
+    * @param executor  e.g. a ForkJoinPool or a fixed thread pool.  null (the default) means sequential
+    * @return this, for convenience
+    */
+   public DWMLStreamParser setExecutor(Executor executor) {
+      this.executor = executor;
+      return this;
+   }
+
+
+   /**
+    * All TimeLayouts, in document order, keyed by their layoutKey
+    */
+   public Map<String, TimeLayout> getTimeLayouts() {
+      return timeLayoutMap;
+   }
+
+   /**
+    * The first TimeLayout in the document
+    * @return null if there were none
+    */
+   public TimeLayout getFirstTimeLayout() {
+      return timeLayout0;
+   }
+
+   /**
+    * All NDFDSeries that were requested (and found) for the first location
+    */
+   public Map<NDFD, NDFDSeries> getNDFDSeriesMap() {
+      return getNDFDSeriesMap(null);
+   }
+
+   /**
+    * Keys are {@link NOAAWeather.MoreInfoKeys#DATE}, {@link NOAAWeather.MoreInfoKeys#REFRESH_FREQUENCY} and {@link NOAAWeather.MoreInfoKeys#OUT_URL}, for the first location
+    */
+   public Map<String, String> getMoreInfo() {
+      return getMoreInfo(null);
+   }
+
+   /**
+    * The location keys, e.g. "point1", "point2", in document order
+    */
+   public List<String> getLocationKeys() {
+      return new ArrayList<String>(locations.keySet());
+   }
+
+   /**
+    * All NDFDSeries that were requested (and found) for a location
+    * @param locationKey  e.g. "point2", if null, the first location
+    * @return null if no such location
+    */
+   public Map<NDFD, NDFDSeries> getNDFDSeriesMap(String locationKey) {
+      Location loc = getLocation(locationKey);
+      return loc != null ? loc.ndfdSeriesMap : null;
+   }
+
+   /**
+    * Keys are {@link NOAAWeather.MoreInfoKeys#DATE}, {@link NOAAWeather.MoreInfoKeys#REFRESH_FREQUENCY} and {@link NOAAWeather.MoreInfoKeys#OUT_URL}
+    * @param locationKey  e.g. "point2", if null, the first location
+    * @return never null
+    */
+   public Map<String, String> getMoreInfo(String locationKey) {
+      Map<String, String> moreInfo = new HashMap<String, String>();
+      if (creationDate != null)
+         moreInfo.put(NOAAWeather.MoreInfoKeys.DATE.name(), creationDate);
+      if ((refreshFrequency != null) && (refreshFrequency.length() > 0))
+         moreInfo.put(NOAAWeather.MoreInfoKeys.REFRESH_FREQUENCY.name(), refreshFrequency);
+      Location loc = getLocation(locationKey);
+      if ((loc != null) && (loc.outURL != null))
+         moreInfo.put(NOAAWeather.MoreInfoKeys.OUT_URL.name(), loc.outURL);
+      return moreInfo;
+   }
+
+
+
+   @Override
+   public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+      names.add(localName);
+      types.add(attributes.getValue("type"));
+      int depth = names.size() - 1;
+
+      if (depth == 1 && "data".equals(localName))
+         dataCount++;
+      if (depth == 3 && "creation-date".equals(localName) && "head".equals(names.get(1)) && "product".equals(names.get(2))) {
+         if (creationDate == null) {
+            refreshFrequency = attributes.getValue("refresh-frequency");
+            startText(depth);
+         }
+      }
+      if (!inFirstData())
+         return;
+
+      if (current != null) {
+         if (depth == currentDepth + 1 && current.ndfd.listTag.equals(localName)) {
+            if (current.ndfd == NDFD.wwa)
+               currentValues.add("");  // hazards get appended as they are found
+            else
+               startText(depth);
+         }
+         else if (current.ndfd == NDFD.wwa && depth == currentDepth + 2 && "hazard".equals(localName)) {
+            phenomena = attributes.getValue("phenomena");
+            significance = attributes.getValue("significance");
+         }
+         else if (current.ndfd == NDFD.wwa && depth == currentDepth + 3 && "hazardTextURL".equals(localName))
+            startText(depth);
+      }
+      else if (depth == 2) {
+         if (NOAAWeather.TIME_LAYOUT.equals(localName)) {
+            layoutKey = null;
+            inTimeLayout = true;
+            startCount = 0;
+            endCount = 0;
+         }
+         else if ("parameters".equals(localName))
+            location = getOrCreateLocation(attributes.getValue("applicable-location"));
+         else if ("moreWeatherInformation".equals(localName)) {
+            location = getOrCreateLocation(attributes.getValue("applicable-location"));
+            if (location.outURL == null)
+               startText(depth);
+         }
+      }
+      else if (depth == 3 && "location-key".equals(localName) && "location".equals(names.get(2)))
+         startText(depth);
+      else if (depth == 3 && inTimeLayout) {
+         if ("layout-key".equals(localName) || "start-valid-time".equals(localName) || "end-valid-time".equals(localName))
+            startText(depth);
+      }
+      else if (depth >= 3 && location != null) {
+         for (ElementPath path : location.wanted) {
+            if (path.matches(names, types)) {
+               location.wanted.remove(path);
+               current = path;
+               currentDepth = depth;
+               currentLayout = attributes.getValue(NOAAWeather.TIME_LAYOUT);
+               currentUnits = attributes.getValue("units");
+               currentValues = new ArrayList<String>();
+               break;
+            }
+         }
+      }
+   }
+
+
+   @Override
+   public void endElement(String uri, String localName, String qName) throws SAXException {
+      int depth = names.size() - 1;
+
+      if (inText && depth == textDepth) {
+         inText = false;
+         endText(localName);
+      }
+
+      if (current != null) {
+         if (depth == currentDepth) {
+            location.pending.add(new Pending(current.ndfd, currentLayout, currentUnits, currentValues));
+            current = null;
+         }
+      }
+      else if (depth == 2 && "parameters".equals(localName))
+         location = null;
+      else if (depth == 2 && inTimeLayout && NOAAWeather.TIME_LAYOUT.equals(localName) && inFirstData()) {
+         TimeLayout timeLayout = TimeLayout.fromMillis(layoutKey != null ? layoutKey : "", 
+                                                       startTimes, startCount, endTimes, endCount);
+         timeLayoutMap.put(timeLayout.layoutKey, timeLayout);
+         if (timeLayout0 == null)
+            timeLayout0 = timeLayout;
+         inTimeLayout = false;
+      }
+
+      names.remove(depth);
+      types.remove(depth);
+   }
+
+
+   @Override
+   public void characters(char[] ch, int start, int length) throws SAXException {
+      if (inText)
+         text.append(ch, start, length);
+   }
+
+
+   @Override
+   public void endDocument() throws SAXException {
+      if (locations.isEmpty())
+         getOrCreateLocation(null);
+
+      int seriesCount = 0;
+      for (Location loc : locations.values()) {
+         if (!loc.wanted.isEmpty())
+            throw new SAXException("No element found for " + loc.wanted.get(0).ndfd.xPathToNode +
+                                   (loc.key != null ? " at " + loc.key : ""));
+         seriesCount += loc.pending.size();
+      }
+
+      if ((executor != null) && (seriesCount > 1))
+         createSeriesInParallel(seriesCount);
+      else {
+         for (Location loc : locations.values()) {
+            for (Pending p : loc.pending)
+               loc.ndfdSeriesMap.put(p.ndfd, createSeries(p));
+         }
+      }
+   }
+
+
+   protected NDFDSeries createSeries(Pending p) {
+      return NDFDSeries.create(p.ndfd, timeLayoutMap.get(p.layoutName), p.units, p.values);
+   }
+
+
+   /**
+    * createSeries() for every Pending, on the executor.
+    * Results are collected in document order, so they are the same as the sequential loop.
+    * @param seriesCount  total number of Pending
+    * @throws SAXException
+    */
+   protected void createSeriesInParallel(int seriesCount) throws SAXException {
+      List<FutureTask<NDFDSeries>> tasks = new ArrayList<FutureTask<NDFDSeries>>(seriesCount);
+      for (Location loc : locations.values()) {
+         for (final Pending p : loc.pending) {
+            FutureTask<NDFDSeries> task = new FutureTask<NDFDSeries>(new Callable<NDFDSeries>() {
+               @Override
+               public NDFDSeries call() {
+                  return createSeries(p);
+               }
+            });
+            tasks.add(task);
+            try {
+               executor.execute(task);
+            } catch (RejectedExecutionException ree) {
+               ;  // we'll run it ourself, below
+            }
+         }
+      }
+
+      int t = 0;
+      try {
+         for (Location loc : locations.values()) {
+            for (Pending p : loc.pending) {
+               FutureTask<NDFDSeries> task = tasks.get(t++);
+               task.run();  // does nothing if the executor already started it
+               loc.ndfdSeriesMap.put(p.ndfd, task.get());
+            }
+         }
+      } catch (ExecutionException ee) {
+         Throwable cause = ee.getCause();
+         if (cause instanceof RuntimeException)
+            throw (RuntimeException) cause;
+         if (cause instanceof Error)
+            throw (Error) cause;
+         throw new SAXException((Exception) cause);
+      } catch (InterruptedException ie) {
+         Thread.currentThread().interrupt();
+         throw new SAXException(ie);
+      }
+   }
+
+
+   protected boolean inFirstData() {
+      return (names.size() > 1) && (dataCount == 1) && "data".equals(names.get(1));
+   }
+
+
+   protected Location getLocation(String locationKey) {
+      if (locationKey != null)
+         return locations.get(locationKey);
+      return locations.isEmpty() ? null : locations.values().iterator().next();
+   }
+
+
+   protected Location getOrCreateLocation(String locationKey) {
+      Location loc = locations.get(locationKey);
+      if (loc == null) {
+         loc = new Location(locationKey);
+         locations.put(locationKey, loc);
+      }
+      return loc;
+   }
+
+
+   protected void startText(int depth) {
+      text.setLength(0);
+      inText = true;
+      textDepth = depth;
+   }
+
+
+   protected void endText(String localName) throws SAXException {
+      if (inTimeLayout && (current == null) && !"layout-key".equals(localName)) {
+         // parse straight from text, no Strings
+         try {
+            long ms = timestampTable.parseMillis(text);
+            if ("start-valid-time".equals(localName)) {
+               if (startCount == startTimes.length)
+                  startTimes = TimeLayout.copyOf(startTimes, startCount * 2);
+               startTimes[startCount++] = ms;
+            }
+            else {
+               if (endCount == endTimes.length)
+                  endTimes = TimeLayout.copyOf(endTimes, endCount * 2);
+               endTimes[endCount++] = ms;
+            }
+         } catch (ParseException pe) {
+            throw new SAXException(pe);
+         }
+         return;
+      }
+
+      String s = text.toString();
+
+      if (current != null) {
+         if (current.ndfd != NDFD.wwa)
+            currentValues.add(s);
+         else {  // NDFD.wwa, match NDFD.parseWWAContent()
+            int last = currentValues.size() - 1;
+            currentValues.set(last, currentValues.get(last) + "  " + phenomena + " " + significance + " @link:" + s);
+         }
+      }
+      else if (inTimeLayout) {
+         if (layoutKey == null)
+            layoutKey = s;
+      }
+      else if ("moreWeatherInformation".equals(localName)) {
+         location.outURL = s;
+         location = null;
+      }
+      else if ("location-key".equals(localName))
+         getOrCreateLocation(s);
+      else if ("creation-date".equals(localName))
+         creationDate = s;
+   }
+
+
+   protected SAXParser newSAXParser() throws SAXException {
+      try {
+         synchronized(SingletonFactoryHolder.sSAXParserFactory) {
+            return SingletonFactoryHolder.sSAXParserFactory.newSAXParser();
+         }
+      } catch (ParserConfigurationException pce) {
+         throw new SAXException(pce);
+      }
+   }
+
+
+
+   /**
+    * The simple XPaths in {@link NDFD#xPathToNode}, e.g. "parameters/temperature[@type='maximum']",
+    * broken into element names and optional type attributes
+    */
+   static class ElementPath {
+      final NDFD ndfd;
+      final String[] names;
+      final String[] types;
+
+      ElementPath(NDFD ndfd) {
+         this.ndfd = ndfd;
+         String[] steps = ndfd.xPathToNode.split("/");
+         names = new String[steps.length];
+         types = new String[steps.length];
+         for (int i=0; i<steps.length; i++) {
+            String step = steps[i];
+            int bracket = step.indexOf("[@type='");
+            if (bracket < 0)
+               names[i] = step;
+            else {
+               names[i] = step.substring(0, bracket);
+               types[i] = step.substring(bracket + 8, step.lastIndexOf('\''));
+            }
+         }
+      }
+
+
+      /**
+       * Whether the element stack (which starts with "dwml", "data") matches
+       */
+      boolean matches(List<String> stackNames, List<String> stackTypes) {
+         if (stackNames.size() != names.length + 2)
+            return false;
+         for (int i=0; i<names.length; i++) {
+            if (!names[i].equals(stackNames.get(i+2)))
+               return false;
+            if ((types[i] != null) && !types[i].equals(stackTypes.get(i+2)))
+               return false;
+         }
+         return true;
+      }
+   }
+
+
+   /**
+    * Everything parsed for one applicable-location
+    */
+   class Location {
+      final String key;
+      final List<ElementPath> wanted = new ArrayList<ElementPath>(DWMLStreamParser.this.wanted);
+      final List<Pending> pending = new ArrayList<Pending>();
+      final Map<NDFD, NDFDSeries> ndfdSeriesMap = new EnumMap<NDFD, NDFDSeries>(NDFD.class);
+      String outURL = null;
+
+      Location(String key) {
+         this.key = key;
+         for (NDFD ndfd : unparsed)
+            ndfdSeriesMap.put(ndfd, new NDFDSeries(ndfd));
+      }
+   }
+
+
+   static class Pending {
+      final NDFD ndfd;
+      final String layoutName;
+      final String units;
+      final List<String> values;
+
+      Pending(NDFD ndfd, String layoutName, String units, List<String> values) {
+         this.ndfd = ndfd;
+         this.layoutName = layoutName;
+         this.units = units;
+         this.values = values;
+      }
+   }
+
+}
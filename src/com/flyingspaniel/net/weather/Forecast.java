@@ -1,6 +1,7 @@
 package com.flyingspaniel.net.weather;
 
 import java.text.DateFormat;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Map;
 import java.util.TreeMap;
@@ -78,6 +79,25 @@ public class Forecast extends TimeInterval {
       this.iconPath = iconPath;
    }
    
+   
+   /**
+    * "Copy constructor", including any moreInfo
+    * @param copyMe
+    */
+   public Forecast(Forecast copyMe) {
+      super(copyMe);
+      this.date = new Date(copyMe.date.getTime());
+      this.lowF = copyMe.lowF;
+      this.highF = copyMe.highF;
+      this.iconInterpretation = copyMe.iconInterpretation;
+      this.iconPath = copyMe.iconPath;
+      synchronized(copyMe) {
+         if (copyMe.moreInfo != null)
+            this.moreInfo = new TreeMap<String, Object>(copyMe.moreInfo);
+      }
+   }
+   
+   
    /**
     * Returns a nice String representation
     * @param inCelsius
@@ -228,5 +248,51 @@ public class Forecast extends TimeInterval {
          sb.append(value);
       }
    }
+   
+   
+   
+   /**
+    * A Forecast that can't be modified, for sharing between threads, e.g. in a {@link ForecastSnapshot}.
+    * The setters and putMoreInfo() throw UnsupportedOperationException.
+    */
+   public static class ReadOnly extends Forecast {
+      
+      protected final Map<String, Object> readOnlyInfo;
+      
+      /**
+       * Constructor
+       * @param copyMe  gets copied, including moreInfo
+       */
+      public ReadOnly(Forecast copyMe) {
+         super(copyMe);
+         readOnlyInfo = Collections.unmodifiableMap(super.getMoreInfo());
+      }
+      
+      @Override
+      public void setLow(float low, boolean inCelsius) {
+         throw new UnsupportedOperationException();
+      }
+      
+      @Override
+      public void setHigh(float high, boolean inCelsius) {
+         throw new UnsupportedOperationException();
+      }
+      
+      /**
+       * @return unmodifiable Map, non-null
+       */
+      @Override
+      public Map<String, Object> getMoreInfo() {
+         return readOnlyInfo;
+      }
+      
+      /**
+       * @return a copy of date, since Dates are mutable
+       */
+      @Override
+      public Date getDate() {
+         return new Date(date.getTime());
+      }
+   }
 
 }
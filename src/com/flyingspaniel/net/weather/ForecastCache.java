@@ -0,0 +1,249 @@
+package com.flyingspaniel.net.weather;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Cache of parsed NOAA forecasts, shared by any NOAAWeathers that {@link NOAAWeather#setCache(ForecastCache)}.
+ *
+ * <p>Entries are keyed by the normalized request, {@link NOAAWeather#getRequestKey()}, and loaded for it,
+ * e.g. with latitude and longitude rounded to 0.01 degrees, so every caller gets the forecast for the rounded point.
+ * <ul>
+ * <li>An entry expires after the creation-date refresh-frequency NOAA sent with it (e.g. "PT1H"), or defaultTTL if none.
+ * <li>The least recently used entries are evicted beyond maxEntries.
+ * <li>Concurrent misses for the same key are coalesced by a {@link SingleFlight}, so only one thread fetches and parses,
+ * and the others wait for it.
+ * </ul>
+ *
+ * The cached results are immutable {@link ForecastSnapshot}s, which never reference the Document.
+ *
+ * @author Morgan Conrad
+ * @since Copyright(c) 2013  Morgan Conrad
+ *
+ * @see <a href="http://www.gnu.org/copyleft/lesser.html">This software is released under the LGPL</a>
+ */
+public class ForecastCache {
+
+   public static final int DEFAULT_MAX_ENTRIES = 1000;
+   public static final long DEFAULT_TTL_MS = NOAAWeather.ONE_HOUR;
+
+   protected final int maxEntries;
+   protected final long defaultTTL;
+
+   // guarded by this
+   protected final LinkedHashMap<String, CacheEntry> entries;
+   protected final SingleFlight<String, ForecastSnapshot> singleFlight = new SingleFlight<String, ForecastSnapshot>();
+
+   protected final AtomicLong hits = new AtomicLong();
+   protected final AtomicLong misses = new AtomicLong();
+   protected final AtomicLong evictions = new AtomicLong();
+   protected final AtomicLong expirations = new AtomicLong();
+
+
+   /**
+    * Constructor
+    * @param maxEntries   maximum number of forecasts to hold
+    * @param defaultTTL   in ms, used when NOAA didn't send a refresh-frequency
+    */
+   public ForecastCache(final int maxEntries, long defaultTTL) {
+      this.maxEntries = maxEntries;
+      this.defaultTTL = defaultTTL;
+
+      entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+         private static final long serialVersionUID = 1L;
+
+         @Override
+         protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+            if (size() > ForecastCache.this.maxEntries) {
+               evictions.incrementAndGet();
+               return true;
+            }
+            return false;
+         }
+      };
+   }
+
+
+   public ForecastCache() {
+      this(DEFAULT_MAX_ENTRIES, DEFAULT_TTL_MS);
+   }
+
+
+   /**
+    * Returns the cached result for weather's request, loading it if needed.
+    *
+    * @param weather  the request
+    * @param loader   does the actual fetching and parsing.  Called at most once per key at a time.
+    * @return ForecastSnapshot
+    * @throws IOException  from the loader
+    */
+   public ForecastSnapshot get(NOAAWeather weather, final Callable<ForecastSnapshot> loader) throws IOException {
+      final String key = weather.getRequestKey();
+      ForecastSnapshot cached = getFresh(key);
+      if (cached != null)
+         return cached;
+
+      return singleFlight.execute(key, new Callable<ForecastSnapshot>() {
+         @Override
+         public ForecastSnapshot call() throws Exception {
+            ForecastSnapshot cached = getFresh(key);  // in case another flight just finished
+            if (cached != null)
+               return cached;
+
+            misses.incrementAndGet();
+            ForecastSnapshot loaded = loader.call();
+            synchronized(ForecastCache.this) {
+               entries.put(key, new CacheEntry(loaded, System.currentTimeMillis() + ttlFor(loaded)));
+            }
+            return loaded;
+         }
+      });
+   }
+
+
+   /**
+    * Removes all entries.  Does not reset the statistics.
+    */
+   public synchronized void clear() {
+      entries.clear();
+   }
+
+
+   public synchronized int size() {
+      return entries.size();
+   }
+
+   public long getHits() {
+      return hits.get();
+   }
+
+   /**
+    * Misses that actually loaded, i.e. not counting the coalesced ones
+    */
+   public long getMisses() {
+      return misses.get();
+   }
+
+   /**
+    * Misses that waited for another thread's load instead of loading
+    */
+   public long getCoalesced() {
+      return singleFlight.getShared();
+   }
+
+   public long getEvictions() {
+      return evictions.get();
+   }
+
+   public long getExpirations() {
+      return expirations.get();
+   }
+
+   /**
+    * @return fraction of requests that did not load, 0 if there have been none
+    */
+   public double getHitRate() {
+      long notLoaded = hits.get() + getCoalesced();
+      long total = notLoaded + misses.get();
+      return total > 0 ? (double)notLoaded / total : 0.0;
+   }
+
+
+   @Override
+   public String toString() {
+      return "ForecastCache size=" + size() + " hits=" + getHits() + " misses=" + getMisses() + " coalesced=" + getCoalesced() +
+             " evictions=" + getEvictions() + " expirations=" + getExpirations();
+   }
+
+
+   /**
+    * @return the unexpired entry for key, else null
+    */
+   protected synchronized ForecastSnapshot getFresh(String key) {
+      CacheEntry entry = entries.get(key);
+      if (entry == null)
+         return null;
+      if (entry.expiresMS > System.currentTimeMillis()) {
+         hits.incrementAndGet();
+         return entry.snapshot;
+      }
+
+      entries.remove(key);
+      expirations.incrementAndGet();
+      return null;
+   }
+
+
+   protected long ttlFor(ForecastSnapshot loaded) {
+      long ttl = parseDuration(loaded.getMoreInfo().get(NOAAWeather.MoreInfoKeys.REFRESH_FREQUENCY.name()));
+      return ttl > 0 ? ttl : defaultTTL;
+   }
+
+
+   /**
+    * Parses the simple ISO 8601 durations used by NOAA, e.g. "PT1H", "P1DT6H", "PT30M"
+    * @param duration  may be null
+    * @return milliseconds, or -1 if it can't be parsed (Years and Months aren't supported)
+    */
+   public static long parseDuration(String duration) {
+      if ((duration == null) || (duration.length() < 3) || (duration.charAt(0) != 'P'))
+         return -1L;
+
+      long ms = 0;
+      double number = 0;
+      int numberStart = -1;
+      boolean inTime = false;
+      for (int i=1; i<duration.length(); i++) {
+         char c = duration.charAt(i);
+         if (((c >= '0') && (c <= '9')) || (c == '.')) {
+            if (numberStart < 0)
+               numberStart = i;
+            continue;
+         }
+         if (c == 'T') {
+            inTime = true;
+            continue;
+         }
+         if (numberStart < 0)
+            return -1L;
+
+         try {
+            number = Double.parseDouble(duration.substring(numberStart, i));
+         } catch (NumberFormatException nfe) {
+            return -1L;
+         }
+         numberStart = -1;
+
+         if (!inTime && (c == 'W'))
+            ms += number * 7 * 24 * NOAAWeather.ONE_HOUR;
+         else if (!inTime && (c == 'D'))
+            ms += number * 24 * NOAAWeather.ONE_HOUR;
+         else if (inTime && (c == 'H'))
+            ms += number * NOAAWeather.ONE_HOUR;
+         else if (inTime && (c == 'M'))
+            ms += number * 60 * 1000;
+         else if (inTime && (c == 'S'))
+            ms += number * 1000;
+         else
+            return -1L;
+      }
+
+      return numberStart < 0 ? ms : -1L;
+   }
+
+
+
+   static class CacheEntry {
+      final ForecastSnapshot snapshot;
+      final long expiresMS;
+
+      CacheEntry(ForecastSnapshot snapshot, long expiresMS) {
+         this.snapshot = snapshot;
+         this.expiresMS = expiresMS;
+      }
+   }
+}
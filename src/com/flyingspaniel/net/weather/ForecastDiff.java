@@ -0,0 +1,287 @@
+package com.flyingspaniel.net.weather;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * The changes between two forecasts for the same location, e.g. from successive refreshes, 
+ * so that downstream only needs to hear about what changed.
+ * 
+ * <p>NDFDSeries values are matched by NDFD and TimeInterval, and reported as one {@link Change} each.
+ * If an interval repeats within a series, its first occurrence is matched with the first, and so on.
+ * Series that are derived from others rather than parsed, i.e. {@link NDFD#interpretation} from {@link NDFD#icons}, 
+ * are skipped, their changes are already reported for what they were derived from.
+ * <ul>
+ * <li>CHANGED:  the interval is in both, with a different value
+ * <li>ADDED:    the interval is new, e.g. the forecast now reaches a day further
+ * <li>EXPIRED:  the interval is gone, e.g. it is now in the past
+ * <li>HAZARD_ISSUED, HAZARD_CLEARED: for {@link NDFD#wwa}, individual hazards, instead of CHANGED, ADDED or EXPIRED.
+ * A hazard in a new interval is ISSUED, one in an interval that is gone is CLEARED.
+ * </ul>
+ * The daily Forecasts that are new or differ are in {@link #getChangedForecasts()}.
+ * 
+ * <pre>
+ *    ForecastDiff diff = ForecastDiff.compare(previousSnapshot, newSnapshot);
+ *    if (!diff.isEmpty())
+ *       push(diff.getChanges());
+ * </pre>
+ * 
+ * @author Morgan Conrad
+ * @since Copyright(c) 2013  Morgan Conrad
+ *
+ * @see <a href="http://www.gnu.org/copyleft/lesser.html">This software is released under the LGPL</a>
+ */
+public class ForecastDiff {
+
+   public enum Kind { CHANGED, ADDED, EXPIRED, HAZARD_ISSUED, HAZARD_CLEARED }
+   
+   
+   /**
+    * One change to one value
+    */
+   public static class Change {
+      public final Kind kind;
+      public final NDFD ndfd;
+      
+      /**
+       * layoutKey of the TimeLayout in the newer forecast (the older one for EXPIRED, or HAZARD_CLEARED when the interval is gone)
+       */
+      public final String layoutKey;
+      public final TimeInterval interval;
+      
+      /**
+       * null for ADDED and HAZARD_ISSUED.  For HAZARD_CLEARED, the hazard
+       */
+      public final String oldValue;
+      
+      /**
+       * null for EXPIRED and HAZARD_CLEARED.  For HAZARD_ISSUED, the hazard
+       */
+      public final String newValue;
+      
+      public Change(Kind kind, NDFD ndfd, String layoutKey, TimeInterval interval, String oldValue, String newValue) {
+         this.kind = kind;
+         this.ndfd = ndfd;
+         this.layoutKey = layoutKey;
+         this.interval = interval;
+         this.oldValue = oldValue;
+         this.newValue = newValue;
+      }
+      
+      @Override
+      public String toString() {
+         String when = interval.isInstant() ? new Date(interval.startMS).toString() : 
+                                              new Date(interval.startMS) + " to " + new Date(interval.stopMS);
+         return kind + " " + ndfd + " " + layoutKey + " " + when + " " + oldValue + " -> " + newValue;
+      }
+   }
+   
+   
+   protected final List<Change> changes = new ArrayList<Change>();
+   protected final List<Forecast> changedForecasts = new ArrayList<Forecast>();
+   protected int unchanged = 0;
+   
+   
+   protected ForecastDiff() {
+   }
+   
+   
+   /**
+    * Compare two forecasts for the same location
+    * @param before  may be null, in which case everything in after is ADDED (or HAZARD_ISSUED)
+    * @param after   non-null
+    * @return ForecastDiff
+    */
+   public static ForecastDiff compare(ForecastSnapshot before, ForecastSnapshot after) {
+      ForecastDiff diff = new ForecastDiff();
+      Map<NDFD, NDFDSeries> beforeSeries = before != null ? before.getNDFDSeriesMap() : Collections.<NDFD, NDFDSeries>emptyMap();
+      Map<NDFD, NDFDSeries> afterSeries = after.getNDFDSeriesMap();
+      
+      EnumSet<NDFD> ndfds = EnumSet.noneOf(NDFD.class);
+      ndfds.addAll(beforeSeries.keySet());
+      ndfds.addAll(afterSeries.keySet());
+      for (NDFD ndfd : ndfds)
+         if (ndfd.xPathToNode != null)  // else derived, e.g. interpretation
+            diff.compareSeries(ndfd, beforeSeries.get(ndfd), afterSeries.get(ndfd));
+      
+      diff.compareForecasts(before != null ? before.getForecasts() : Collections.<Forecast>emptyList(), after.getForecasts());
+      return diff;
+   }
+   
+   
+   /**
+    * @return unmodifiable List of the Changes, by NDFD
+    */
+   public List<Change> getChanges() {
+      return Collections.unmodifiableList(changes);
+   }
+   
+   /**
+    * @param kind
+    * @return the Changes of that kind
+    */
+   public List<Change> getChanges(Kind kind) {
+      List<Change> some = new ArrayList<Change>();
+      for (Change change : changes)
+         if (change.kind == kind)
+            some.add(change);
+      return some;
+   }
+   
+   /**
+    * @return unmodifiable List of the daily Forecasts, from the newer forecast, that are new or differ
+    */
+   public List<Forecast> getChangedForecasts() {
+      return Collections.unmodifiableList(changedForecasts);
+   }
+   
+   /**
+    * Number of values that were compared and found to be the same
+    */
+   public int getUnchangedCount() {
+      return unchanged;
+   }
+   
+   /**
+    * Whether nothing changed
+    */
+   public boolean isEmpty() {
+      return changes.isEmpty() && changedForecasts.isEmpty();
+   }
+   
+   
+   @Override
+   public String toString() {
+      return "ForecastDiff " + changes.size() + " changes, " + changedForecasts.size() + " forecasts, " + unchanged + " unchanged";
+   }
+   
+   
+   protected void compareSeries(NDFD ndfd, NDFDSeries before, NDFDSeries after) {
+      if (before == after) {  // e.g. the same cached snapshot
+         if (after != null)
+            unchanged += after.size();
+         return;
+      }
+      
+      // index the old values by interval, an interval may repeat
+      Map<TimeInterval, List<Integer>> beforeIndex = new HashMap<TimeInterval, List<Integer>>();
+      TimeLayout beforeLayout = before != null ? before.getTimeLayout() : null;
+      int beforeSize = (beforeLayout != null) ? Math.min(before.size(), beforeLayout.size()) : 0;
+      for (int i=0; i<beforeSize; i++) {
+         TimeInterval interval = beforeLayout.getInterval(i);
+         List<Integer> occurrences = beforeIndex.get(interval);
+         if (occurrences == null) {
+            occurrences = new ArrayList<Integer>(1);
+            beforeIndex.put(interval, occurrences);
+         }
+         occurrences.add(i);
+      }
+      boolean[] matched = new boolean[beforeSize];
+      
+      TimeLayout afterLayout = after != null ? after.getTimeLayout() : null;
+      if (afterLayout != null) {
+         int size = Math.min(after.size(), afterLayout.size());
+         for (int i=0; i<size; i++) {
+            TimeInterval interval = afterLayout.getInterval(i);
+            List<Integer> occurrences = beforeIndex.get(interval);
+            Integer b = ((occurrences != null) && !occurrences.isEmpty()) ? occurrences.remove(0) : null;
+            if (b != null)
+               matched[b.intValue()] = true;
+            String newValue = after.getValue(i);
+            if ((b == null) && (ndfd == NDFD.wwa))
+               compareHazards(afterLayout.layoutKey, interval, "", newValue);
+            else if (b == null)
+               changes.add(new Change(Kind.ADDED, ndfd, afterLayout.layoutKey, interval, null, newValue));
+            else if (sameValue(before, b.intValue(), after, i))
+               unchanged++;
+            else if (ndfd == NDFD.wwa)
+               compareHazards(afterLayout.layoutKey, interval, before.getValue(b.intValue()), newValue);
+            else
+               changes.add(new Change(Kind.CHANGED, ndfd, afterLayout.layoutKey, interval, before.getValue(b.intValue()), newValue));
+         }
+      }
+      
+      // whatever wasn't matched is gone.  Report in order
+      for (int i=0; i<beforeSize; i++) {
+         if (matched[i])
+            continue;
+         TimeInterval interval = beforeLayout.getInterval(i);
+         if (ndfd == NDFD.wwa)
+            compareHazards(beforeLayout.layoutKey, interval, before.getValue(i), "");
+         else
+            changes.add(new Change(Kind.EXPIRED, ndfd, beforeLayout.layoutKey, interval, before.getValue(i), null));
+      }
+   }
+   
+   
+   protected void compareHazards(String layoutKey, TimeInterval interval, String beforeValue, String afterValue) {
+      Set<String> beforeHazards = splitHazards(beforeValue);
+      Set<String> afterHazards = splitHazards(afterValue);
+      for (String hazard : afterHazards)
+         if (!beforeHazards.contains(hazard))
+            changes.add(new Change(Kind.HAZARD_ISSUED, NDFD.wwa, layoutKey, interval, null, hazard));
+      for (String hazard : beforeHazards)
+         if (!afterHazards.contains(hazard))
+            changes.add(new Change(Kind.HAZARD_CLEARED, NDFD.wwa, layoutKey, interval, hazard, null));
+   }
+   
+   
+   protected void compareForecasts(List<Forecast> before, List<Forecast> after) {
+      Map<Long, Forecast> beforeByDate = new HashMap<Long, Forecast>();
+      for (Forecast forecast : before)
+         beforeByDate.put(forecast.getDate().getTime(), forecast);
+      
+      for (Forecast forecast : after) {
+         Forecast was = beforeByDate.get(forecast.getDate().getTime());
+         if ((was == null) || !sameForecast(was, forecast))
+            changedForecasts.add(forecast);
+      }
+   }
+   
+   
+   /**
+    * Splits a {@link NDFD#wwa} value, e.g. "  FW A @link:http://...  HT Y @link:http://..." into its hazards
+    * @param wwaValue  may be null
+    * @return the hazards, in order
+    */
+   static Set<String> splitHazards(String wwaValue) {
+      Set<String> hazards = new LinkedHashSet<String>();
+      if (wwaValue != null) {
+         for (String hazard : wwaValue.split("  ")) {
+            hazard = hazard.trim();
+            if (hazard.length() > 0)
+               hazards.add(hazard);
+         }
+      }
+      return hazards;
+   }
+   
+   
+   static boolean sameValue(NDFDSeries before, int b, NDFDSeries after, int a) {
+      if ((before instanceof NDFDSeries.Numeric) && (after instanceof NDFDSeries.Numeric))
+         return Float.floatToIntBits(before.getFloatValue(b)) == Float.floatToIntBits(after.getFloatValue(a));  // NaN == NaN
+      return equals(before.getValue(b), after.getValue(a));
+   }
+   
+   
+   static boolean sameForecast(Forecast f1, Forecast f2) {
+      return (Float.floatToIntBits(f1.lowF) == Float.floatToIntBits(f2.lowF)) &&
+             (Float.floatToIntBits(f1.highF) == Float.floatToIntBits(f2.highF)) &&
+             equals(f1.iconInterpretation, f2.iconInterpretation) &&
+             equals(f1.iconPath, f2.iconPath) &&
+             equals(f1.getMoreInfo(), f2.getMoreInfo());
+   }
+   
+   
+   static boolean equals(Object o1, Object o2) {
+      return (o1 == null) ? (o2 == null) : o1.equals(o2);
+   }
+}
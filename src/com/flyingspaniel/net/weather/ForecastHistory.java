@@ -0,0 +1,667 @@
+package com.flyingspaniel.net.weather;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+
+/**
+ * An append-only local store of every forecast for each location, e.g. for forecast-skill analysis, 
+ * keyed by location and when NOAA issued the forecast (its creation-date, {@link NOAAWeather.MoreInfoKeys#DATE}).
+ * 
+ * <ul>
+ * <li>Forecasts are appended to segment files in the directory, one per partitionMS (a day by default) of issue time.
+ * <li>{@link #compact()} rewrites segments that can no longer be appended to, sorted by location and issue time,
+ * with a sparse index (every {@link #INDEX_INTERVAL}th record) in a ".idx" file, so scans can seek.  
+ * It may be done in the background, see {@link #startCompaction(long)}. 
+ * Anything appended to a compacted segment later is scanned linearly until the next compaction.
+ * <li>{@link #scan(String, long, long)} returns all the forecasts for a location issued between two times.
+ * </ul>
+ * 
+ * Each record is: a header of int length, int CRC32 of the length and int CRC32 of the payload, 
+ * then the payload: UTF location, long issuedMS and {@link ForecastSnapshotFile#encode(ForecastSnapshot)}.
+ * A partially written record at the end of a segment, e.g. after a crash, is ignored and then overwritten.
+ * That is either less than a header, or a valid header whose payload runs past the end of the file.
+ * A bad record anywhere else, including a bad header, is corruption: the segment is left as is and using it throws an IOException.
+ * 
+ * <p>Thread safe, but only one ForecastHistory should use a directory at a time, always with the same partitionMS.
+ * 
+ * @author Morgan Conrad
+ * @since Copyright(c) 2013  Morgan Conrad
+ *
+ * @see <a href="http://www.gnu.org/copyleft/lesser.html">This software is released under the LGPL</a>
+ */
+public class ForecastHistory implements Closeable {
+
+   public static final long DEFAULT_PARTITION_MS = 24 * NOAAWeather.ONE_HOUR;
+   public static final int INDEX_INTERVAL = 16;
+   
+   static final String SEGMENT_SUFFIX = ".seg";
+   static final String INDEX_SUFFIX = ".idx";
+   static final String SEGMENT_NAME_FORMAT = "yyyyMMdd-HHmm";
+   static final int INDEX_MAGIC = 0x4E4F4149;  // "NOAI"
+   static final int HEADER_SIZE = 12;
+   
+   protected final File directory;
+   protected final long partitionMS;
+   
+   // guarded by this
+   protected final TreeMap<Long, Segment> segments = new TreeMap<Long, Segment>();
+   protected ScheduledExecutorService compactor = null;
+   
+   protected volatile IOException compactionFailure = null;
+   
+   
+   /**
+    * Constructor, opens the store in directory, creating it if needed
+    * @param directory
+    * @param partitionMS  how much issue time each segment covers
+    * @throws IOException
+    */
+   public ForecastHistory(File directory, long partitionMS) throws IOException {
+      if (partitionMS <= 0)
+         throw new IllegalArgumentException("partitionMS=" + partitionMS);
+      this.directory = directory;
+      this.partitionMS = partitionMS;
+      
+      if (!directory.isDirectory() && !directory.mkdirs())
+         throw new IOException("Cannot create " + directory);
+      
+      File[] files = directory.listFiles();
+      for (File file : files) {
+         String name = file.getName();
+         if (name.endsWith(SEGMENT_SUFFIX)) {
+            try {
+               long startMS = segmentNameFormat().parse(name.substring(0, name.length() - SEGMENT_SUFFIX.length())).getTime();
+               segments.put(startMS, new Segment(startMS, file));
+            } catch (ParseException pe) {
+               ;  // not ours
+            }
+         }
+      }
+   }
+   
+   
+   public ForecastHistory(File directory) throws IOException {
+      this(directory, DEFAULT_PARTITION_MS);
+   }
+   
+   
+   /**
+    * When NOAA issued the forecast
+    * @param snapshot
+    * @return the DATE in its moreInfo, else when it was created
+    */
+   public static long issuedMS(ForecastSnapshot snapshot) {
+      String date = snapshot.getMoreInfo().get(NOAAWeather.MoreInfoKeys.DATE.name());
+      if (date != null) {
+         try {
+            return RFC3339.parseMillis(date.trim());
+         } catch (ParseException pe) {
+            ;  // fall through
+         }
+      }
+      return snapshot.getCreatedMS();
+   }
+   
+   
+   /**
+    * Add a forecast
+    * @param location  non-null, your name for it
+    * @param snapshot
+    * @return when it was issued, see {@link #issuedMS(ForecastSnapshot)}
+    * @throws IOException
+    */
+   public long append(String location, ForecastSnapshot snapshot) throws IOException {
+      long issuedMS = issuedMS(snapshot);
+      
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(8192);
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(0);  // the header, filled in below
+      out.writeInt(0);
+      out.writeInt(0);
+      out.writeUTF(location);
+      out.writeLong(issuedMS);
+      out.write(ForecastSnapshotFile.encode(snapshot));
+      out.flush();
+      
+      ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+      int length = record.limit() - HEADER_SIZE;
+      CRC32 crc = new CRC32();
+      crc.update(record.array(), HEADER_SIZE, length);
+      record.putInt(0, length);
+      record.putInt(4, lengthCRC(length));
+      record.putInt(8, (int)crc.getValue());
+      
+      segmentFor(issuedMS).append(record);
+      return issuedMS;
+   }
+   
+   
+   /**
+    * All the forecasts for location issued from fromMS to toMS, inclusive
+    * @param location
+    * @param fromMS
+    * @param toMS
+    * @return SortedMap by issue time, never null
+    * @throws IOException
+    */
+   public SortedMap<Long, ForecastSnapshot> scan(String location, long fromMS, long toMS) throws IOException {
+      SortedMap<Long, ForecastSnapshot> results = new TreeMap<Long, ForecastSnapshot>();
+      for (Segment segment : segmentsFor(fromMS, toMS))
+         segment.scan(location, fromMS, toMS, results);
+      return results;
+   }
+   
+   
+   /**
+    * One NDFDSeries from each forecast for location issued from fromMS to toMS, inclusive
+    * @param location
+    * @param ndfd
+    * @param fromMS
+    * @param toMS
+    * @return SortedMap by issue time, never null.  Forecasts without that NDFD are skipped.
+    * @throws IOException
+    */
+   public SortedMap<Long, NDFDSeries> scanSeries(String location, NDFD ndfd, long fromMS, long toMS) throws IOException {
+      SortedMap<Long, NDFDSeries> results = new TreeMap<Long, NDFDSeries>();
+      for (Map.Entry<Long, ForecastSnapshot> entry : scan(location, fromMS, toMS).entrySet()) {
+         NDFDSeries series = entry.getValue().getNDFDSeries(ndfd);
+         if (series != null)
+            results.put(entry.getKey(), series);
+      }
+      return results;
+   }
+   
+   
+   /**
+    * Compacts every segment whose partition has passed and has anything uncompacted
+    * @return number of segments compacted
+    * @throws IOException
+    */
+   public int compact() throws IOException {
+      long now = System.currentTimeMillis();
+      List<Segment> toCompact = new ArrayList<Segment>();
+      synchronized(this) {
+         for (Segment segment : segments.values())
+            if (segment.startMS + partitionMS <= now)
+               toCompact.add(segment);
+      }
+      
+      int compacted = 0;
+      for (Segment segment : toCompact)
+         if (segment.compact())
+            compacted++;
+      return compacted;
+   }
+   
+   
+   /**
+    * Calls compact() every periodMS, on a daemon thread, until close()
+    * @param periodMS
+    */
+   public synchronized void startCompaction(long periodMS) {
+      if (compactor != null)
+         return;
+      compactor = new ScheduledThreadPoolExecutor(1, new NOAAFetcher.DaemonThreadFactory("ForecastHistory-compact-"));
+      compactor.scheduleWithFixedDelay(new Runnable() {
+         @Override
+         public void run() {
+            try {
+               compact();
+            } catch (IOException ioe) {
+               compactionFailure = ioe;
+            }
+         }
+      }, periodMS, periodMS, TimeUnit.MILLISECONDS);
+   }
+   
+   
+   /**
+    * @return the last background compaction failure, null if none
+    */
+   public IOException getCompactionFailure() {
+      return compactionFailure;
+   }
+   
+   
+   public synchronized int getSegmentCount() {
+      return segments.size();
+   }
+   
+   public File getDirectory() {
+      return directory;
+   }
+   
+   
+   /**
+    * Stops any background compaction and closes the segments
+    */
+   @Override
+   public void close() throws IOException {
+      List<Segment> toClose;
+      synchronized(this) {
+         if (compactor != null)
+            compactor.shutdownNow();
+         compactor = null;
+         toClose = new ArrayList<Segment>(segments.values());
+      }
+      for (Segment segment : toClose)
+         segment.close();
+   }
+   
+   
+   @Override
+   public String toString() {
+      return "ForecastHistory " + directory + " " + getSegmentCount() + " segments";
+   }
+   
+   
+   protected synchronized Segment segmentFor(long issuedMS) {
+      long startMS = RFC3339.floorDiv(issuedMS, partitionMS) * partitionMS;
+      Segment segment = segments.get(startMS);
+      if (segment == null) {
+         segment = new Segment(startMS, new File(directory, segmentNameFormat().format(new Date(startMS)) + SEGMENT_SUFFIX));
+         segments.put(startMS, segment);
+      }
+      return segment;
+   }
+   
+   
+   protected synchronized List<Segment> segmentsFor(long fromMS, long toMS) {
+      long firstStart = RFC3339.floorDiv(fromMS, partitionMS) * partitionMS;
+      return new ArrayList<Segment>(segments.subMap(firstStart, true, toMS, true).values());
+   }
+   
+   
+   static SimpleDateFormat segmentNameFormat() {
+      SimpleDateFormat format = new SimpleDateFormat(SEGMENT_NAME_FORMAT);
+      format.setTimeZone(TimeZone.getTimeZone("UTC"));
+      return format;
+   }
+   
+   
+   
+   /**
+    * The key of a record, and where it is
+    */
+   static class Key {
+      final String location;
+      final long issuedMS;
+      final long offset;
+      final long length;  // of the whole record, 0 if unknown (as in an index)
+      
+      Key(String location, long issuedMS, long offset, long length) {
+         this.location = location;
+         this.issuedMS = issuedMS;
+         this.offset = offset;
+         this.length = length;
+      }
+      
+      Key(String location, long issuedMS, long offset) {
+         this(location, issuedMS, offset, 0L);
+      }
+      
+      int compareTo(String otherLocation, long otherIssuedMS) {
+         int c = location.compareTo(otherLocation);
+         if (c != 0)
+            return c;
+         return issuedMS < otherIssuedMS ? -1 : (issuedMS == otherIssuedMS ? 0 : 1);
+      }
+      
+      static final Comparator<Key> ORDER = new Comparator<Key>() {
+         @Override
+         public int compare(Key k1, Key k2) {
+            return k1.compareTo(k2.location, k2.issuedMS);
+         }
+      };
+   }
+   
+   
+   
+   /**
+    * One segment file.  Up to compactedLength its records are sorted, and indexed, after that they are in the order appended.
+    */
+   static class Segment {
+      final long startMS;
+      final File file;
+      final File indexFile;
+      
+      // guarded by this
+      FileChannel channel = null;
+      long validLength = -1;  // end of the last complete record, -1 until opened
+      long compactedLength = 0;
+      List<Key> index = Collections.emptyList();
+      
+      Segment(long startMS, File file) {
+         this.startMS = startMS;
+         this.file = file;
+         String name = file.getName();
+         this.indexFile = new File(file.getParentFile(), name.substring(0, name.length() - SEGMENT_SUFFIX.length()) + INDEX_SUFFIX);
+      }
+      
+      
+      synchronized void append(ByteBuffer record) throws IOException {
+         open();
+         long position = validLength;
+         while (record.hasRemaining())
+            position += channel.write(record, position);
+         validLength = position;
+      }
+      
+      
+      synchronized void scan(String location, long fromMS, long toMS, SortedMap<Long, ForecastSnapshot> results) throws IOException {
+         if (!file.exists())
+            return;
+         open();
+         
+         // the sorted part, start at the last indexed record before what we want
+         long position = 0;
+         int i = Collections.binarySearch(index, new Key(location, fromMS, 0), Key.ORDER);
+         i = (i >= 0) ? i - 1 : -i - 2;
+         for (; i >= 0; i--) {
+            if (index.get(i).compareTo(location, fromMS) < 0) {
+               position = index.get(i).offset;
+               break;
+            }
+         }
+         ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+         while (position < compactedLength) {
+            ByteBuffer payload = readRecord(position, header);
+            if (payload == null)
+               break;
+            String recordLocation = ForecastSnapshotFile.readUTF(payload);
+            long issuedMS = payload.getLong();
+            int c = recordLocation.compareTo(location);
+            if ((c > 0) || ((c == 0) && (issuedMS > toMS)))
+               break;
+            if ((c == 0) && (issuedMS >= fromMS))
+               results.put(issuedMS, ForecastSnapshotFile.decode(payload));
+            position += HEADER_SIZE + payload.limit();
+         }
+         
+         // the rest, in the order appended
+         position = compactedLength;
+         while (position < validLength) {
+            ByteBuffer payload = readRecord(position, header);
+            if (payload == null)
+               break;
+            String recordLocation = ForecastSnapshotFile.readUTF(payload);
+            long issuedMS = payload.getLong();
+            if (recordLocation.equals(location) && (issuedMS >= fromMS) && (issuedMS <= toMS))
+               results.put(issuedMS, ForecastSnapshotFile.decode(payload));
+            position += HEADER_SIZE + payload.limit();
+         }
+      }
+      
+      
+      /**
+       * Rewrites the segment sorted, with a new index
+       * @return false if there was nothing to do
+       */
+      synchronized boolean compact() throws IOException {
+         if (!file.exists())
+            return false;
+         open();
+         if (compactedLength == validLength)
+            return false;
+         
+         // just the keys, and where each record is
+         List<Key> keys = new ArrayList<Key>();
+         ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+         for (long position = 0; position < validLength; ) {
+            ByteBuffer payload = readRecord(position, header);
+            if (payload == null)
+               throw new IOException("Corrupt record at " + position + " of " + file);
+            long length = HEADER_SIZE + payload.limit();
+            keys.add(new Key(ForecastSnapshotFile.readUTF(payload), payload.getLong(), position, length));
+            position += length;
+         }
+         Collections.sort(keys, Key.ORDER);  // stable, so duplicates stay in order
+         
+         // copy the records over sorted, and index every INDEX_INTERVALth one
+         File tempFile = new File(file.getPath() + ".tmp");
+         File tempIndexFile = new File(indexFile.getPath() + ".tmp");
+         List<Key> newIndex = new ArrayList<Key>(keys.size() / INDEX_INTERVAL + 1);
+         RandomAccessFile raf = new RandomAccessFile(tempFile, "rw");
+         long position = 0;
+         try {
+            raf.setLength(0);
+            FileChannel out = raf.getChannel();
+            for (int k=0; k<keys.size(); k++) {
+               Key key = keys.get(k);
+               if (k % INDEX_INTERVAL == 0)
+                  newIndex.add(new Key(key.location, key.issuedMS, position));
+               position += transferFully(channel, key.offset, key.length, out, position);
+            }
+            out.force(false);
+         }
+         finally {
+            raf.close();
+         }
+         writeIndex(tempIndexFile, position, newIndex);
+         
+         // swap them in.  Without the index, the segment is scanned linearly, so remove it first
+         close();
+         if (indexFile.exists() && !indexFile.delete())
+            throw new IOException("Cannot delete " + indexFile);
+         ForecastSnapshotFile.replace(tempFile, file);
+         ForecastSnapshotFile.replace(tempIndexFile, indexFile);
+         
+         validLength = -1;
+         open();
+         return true;
+      }
+      
+      
+      synchronized void close() throws IOException {
+         if (channel != null) {
+            channel.force(false);
+            channel.close();
+         }
+         channel = null;
+      }
+      
+      
+      /**
+       * Opens the channel, reads the index and finds the last complete record.
+       * Only a torn last record, a partial header or a valid header whose payload runs past the end of the file, is truncated.
+       * @throws IOException  if any other record is bad, leaving the file as is
+       */
+      void open() throws IOException {
+         if (channel != null)
+            return;
+         channel = new RandomAccessFile(file, "rw").getChannel();
+         long size = channel.size();
+         
+         compactedLength = 0;
+         index = Collections.emptyList();
+         if (indexFile.exists()) {
+            try {
+               readIndex(size);
+            } catch (IOException ioe) {
+               compactedLength = 0;  // scan it linearly
+               index = Collections.emptyList();
+            }
+         }
+         
+         // the last record may be incomplete
+         ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+         long position = compactedLength;
+         while (position < size) {
+            ByteBuffer payload = readRecord(position, header);
+            if (payload == null) {
+               boolean torn = (size - position < HEADER_SIZE) || 
+                              (validHeader(header) && (position + HEADER_SIZE + header.getInt(0) > size));
+               if (!torn) {
+                  channel.close();
+                  channel = null;
+                  throw new IOException("Corrupt record at " + position + " of " + file);
+               }
+               break;
+            }
+            position += HEADER_SIZE + payload.limit();
+         }
+         validLength = position;
+         if (validLength < size)
+            channel.truncate(validLength);
+      }
+      
+      
+      /**
+       * @return the payload, positioned at its start, or null if there's no complete, valid, record at position
+       */
+      ByteBuffer readRecord(long position, ByteBuffer header) throws IOException {
+         header.clear();
+         if (readFully(channel, header, position) < HEADER_SIZE)
+            return null;
+         if (!validHeader(header))
+            return null;
+         int length = header.getInt(0);
+         if (position + HEADER_SIZE + length > channel.size())
+            return null;
+         
+         ByteBuffer payload = ByteBuffer.allocate(length);
+         if (readFully(channel, payload, position + HEADER_SIZE) < length)
+            return null;
+         payload.flip();
+         if (crc(payload) != header.getInt(8))
+            return null;
+         return payload;
+      }
+      
+      
+      void readIndex(long segmentSize) throws IOException {
+         ByteBuffer in = ByteBuffer.allocate((int)indexFile.length());
+         RandomAccessFile raf = new RandomAccessFile(indexFile, "r");
+         try {
+            readFully(raf.getChannel(), in, 0);
+         }
+         finally {
+            raf.close();
+         }
+         in.flip();
+         
+         try {
+            if (in.getInt() != INDEX_MAGIC)
+               throw new IOException("Not an index: " + indexFile);
+            long length = in.getLong();
+            if (length > segmentSize)
+               throw new IOException("Index is for a longer segment: " + indexFile);
+            int count = in.getInt();
+            List<Key> keys = new ArrayList<Key>(count);
+            for (int i=0; i<count; i++)
+               keys.add(new Key(ForecastSnapshotFile.readUTF(in), in.getLong(), in.getLong()));
+            compactedLength = length;
+            index = keys;
+         } catch (RuntimeException corrupt) {
+            throw new IOException("Corrupt index: " + indexFile, corrupt);
+         }
+      }
+      
+      
+      static void writeIndex(File indexFile, long compactedLength, List<Key> keys) throws IOException {
+         ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+         DataOutputStream out = new DataOutputStream(bytes);
+         out.writeInt(INDEX_MAGIC);
+         out.writeLong(compactedLength);
+         out.writeInt(keys.size());
+         for (Key key : keys) {
+            out.writeUTF(key.location);
+            out.writeLong(key.issuedMS);
+            out.writeLong(key.offset);
+         }
+         out.flush();
+         
+         RandomAccessFile raf = new RandomAccessFile(indexFile, "rw");
+         try {
+            raf.setLength(0);
+            writeFully(raf.getChannel(), ByteBuffer.wrap(bytes.toByteArray()), 0);
+            raf.getChannel().force(false);
+         }
+         finally {
+            raf.close();
+         }
+      }
+   }
+   
+   
+   /**
+    * @return whether the header's length is positive and matches its CRC
+    */
+   static boolean validHeader(ByteBuffer header) {
+      int length = header.getInt(0);
+      return (length > 0) && (lengthCRC(length) == header.getInt(4));
+   }
+   
+   
+   static int lengthCRC(int length) {
+      CRC32 crc = new CRC32();
+      crc.update(ByteBuffer.allocate(4).putInt(0, length).array());
+      return (int)crc.getValue();
+   }
+   
+   
+   static int crc(ByteBuffer payload) {
+      CRC32 crc = new CRC32();
+      crc.update(payload.array(), payload.arrayOffset(), payload.limit());
+      return (int)crc.getValue();
+   }
+   
+   
+   static int readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+      int total = 0;
+      while (buffer.hasRemaining()) {
+         int read = channel.read(buffer, position + total);
+         if (read < 0)
+            break;
+         total += read;
+      }
+      return total;
+   }
+   
+   
+   /**
+    * Copies count bytes from one channel to another, without reading them onto the heap
+    * @return count
+    */
+   static long transferFully(FileChannel from, long fromPosition, long count, FileChannel to, long toPosition) throws IOException {
+      to.position(toPosition);
+      long total = 0;
+      while (total < count) {
+         long transferred = from.transferTo(fromPosition + total, count - total, to);
+         if (transferred <= 0)
+            throw new IOException("Cannot copy " + count + " bytes at " + fromPosition);
+         total += transferred;
+      }
+      return total;
+   }
+   
+   
+   static int writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+      int total = 0;
+      while (buffer.hasRemaining())
+         total += channel.write(buffer, position + total);
+      return total;
+   }
+}
@@ -0,0 +1,155 @@
+package com.flyingspaniel.net.weather;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * The results of a NOAAWeather call(): TimeLayouts, NDFDSeries, daily Forecasts and moreInfo, 
+ * without any of the request or parsing state.  From {@link NOAAWeather#snapshot()} or {@link NOAAWeather#callSnapshot()}.
+ * 
+ * <p>Immutable, so it may be shared by any number of threads without synchronization, 
+ * and cheap to hold, e.g. in a {@link ForecastCache}, since it never references the Document.
+ * The Forecasts are {@link Forecast.ReadOnly}, and the TimeLayouts and NDFDSeries have no public mutators.
+ * 
+ * @author Morgan Conrad
+ * @since Copyright(c) 2013  Morgan Conrad
+ *
+ * @see <a href="http://www.gnu.org/copyleft/lesser.html">This software is released under the LGPL</a>
+ */
+public final class ForecastSnapshot {
+
+   private final long createdMS;
+   private final Map<String, TimeLayout> timeLayoutMap;
+   private final TimeLayout timeLayout0;
+   private final Map<NDFD, NDFDSeries> ndfdSeriesMap;
+   private final List<Forecast> forecasts;
+   private final Map<String, String> moreInfo;
+   
+   
+   /**
+    * Constructor
+    * @param completed  a NOAAWeather after call().  Only its results are copied.
+    */
+   ForecastSnapshot(NOAAWeather completed) {
+      if (completed.forecasts == null)
+         throw new IllegalStateException("call() first");
+      
+      createdMS = System.currentTimeMillis();
+      timeLayoutMap = Collections.unmodifiableMap(new HashMap<String, TimeLayout>(completed.timeLayoutMap));
+      timeLayout0 = completed.timeLayout0;
+      
+      EnumMap<NDFD, NDFDSeries> seriesCopy = new EnumMap<NDFD, NDFDSeries>(NDFD.class);
+      seriesCopy.putAll(completed.ndfdSeriesMap);
+      ndfdSeriesMap = Collections.unmodifiableMap(seriesCopy);
+      
+      List<Forecast> forecastsCopy = new ArrayList<Forecast>(completed.forecasts.size());
+      for (Forecast forecast : completed.forecasts)
+         forecastsCopy.add(forecast instanceof Forecast.ReadOnly ? forecast : new Forecast.ReadOnly(forecast));
+      forecasts = Collections.unmodifiableList(forecastsCopy);
+      
+      moreInfo = Collections.unmodifiableMap(new HashMap<String, String>(completed.moreInfo));
+   }
+   
+   
+   /**
+    * Constructor for already built results, e.g. read by a {@link ForecastSnapshotFile}.  Takes ownership, no copies are made.
+    * @param createdMS
+    * @param timeLayoutMap  by layoutKey
+    * @param timeLayout0    may be null
+    * @param ndfdSeriesMap
+    * @param forecasts      should be {@link Forecast.ReadOnly}
+    * @param moreInfo
+    */
+   ForecastSnapshot(long createdMS, Map<String, TimeLayout> timeLayoutMap, TimeLayout timeLayout0, 
+                    EnumMap<NDFD, NDFDSeries> ndfdSeriesMap, List<Forecast> forecasts, Map<String, String> moreInfo) {
+      this.createdMS = createdMS;
+      this.timeLayoutMap = Collections.unmodifiableMap(timeLayoutMap);
+      this.timeLayout0 = timeLayout0;
+      this.ndfdSeriesMap = Collections.unmodifiableMap(ndfdSeriesMap);
+      this.forecasts = Collections.unmodifiableList(forecasts);
+      this.moreInfo = Collections.unmodifiableMap(moreInfo);
+   }
+   
+   
+   /**
+    * When this was taken, in ms since 1970
+    */
+   public long getCreatedMS() {
+      return createdMS;
+   }
+   
+   /**
+    * @return unmodifiable List of the daily Forecasts
+    */
+   public List<Forecast> getForecasts() {
+      return forecasts;
+   }
+   
+   /**
+    * @return unmodifiable Map, keys are usually from {@link NOAAWeather.MoreInfoKeys}
+    */
+   public Map<String, String> getMoreInfo() {
+      return moreInfo;
+   }
+   
+   /**
+    * @param ndfd
+    * @return null if that measurement was not requested
+    */
+   public NDFDSeries getNDFDSeries(NDFD ndfd) {
+      return ndfdSeriesMap.get(ndfd);
+   }
+   
+   /**
+    * @return unmodifiable Map of all the NDFDSeries
+    */
+   public Map<NDFD, NDFDSeries> getNDFDSeriesMap() {
+      return ndfdSeriesMap;
+   }
+   
+   /**
+    * @return unmodifiable Map of the TimeLayouts, by layoutKey
+    */
+   public Map<String, TimeLayout> getTimeLayouts() {
+      return timeLayoutMap;
+   }
+   
+   /**
+    * The first TimeLayout in the DWML, which has the daily dates
+    */
+   public TimeLayout getFirstTimeLayout() {
+      return timeLayout0;
+   }
+   
+   
+   /**
+    * The Forecast containing, or else closest to, date
+    * @param date  if null, now
+    * @return Forecast, null if none is within 24 hours
+    */
+   public Forecast getConditionAtTime(Date date) {
+      return NOAAWeather.conditionAtTime(forecasts, date);
+   }
+   
+   
+   /**
+    * All the values of every NDFDSeries whose time is contained by ti
+    * @param ti
+    * @return Map, non-null
+    */
+   public Map<NDFD, List<Condition>> getAllConditionsFor(TimeInterval ti) {
+      return NOAAWeather.allConditionsFor(ndfdSeriesMap.values(), ti);
+   }
+   
+   
+   @Override
+   public String toString() {
+      return "ForecastSnapshot " + ndfdSeriesMap.keySet() + " " + forecasts.size() + " forecasts";
+   }
+}
@@ -0,0 +1,566 @@
+package com.flyingspaniel.net.weather;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * A compact binary file of many {@link ForecastSnapshot}s, by id, for keeping parsed forecasts across restarts
+ * or sharing them between machines, without keeping and re-parsing the DWML.
+ * 
+ * <ul>
+ * <li>Written sequentially with {@link #write(File, Map)}.
+ * <li>Read with {@link #open(File)}, which memory maps the file and reads only the dictionary and index.
+ * Each snapshot is decoded when first asked for, using bulk gets of the long and float arrays.
+ * </ul>
+ * 
+ * Format (version 1), big-endian:
+ * <pre>
+ *   header      int MAGIC, int VERSION
+ *   snapshots   one after another, see {@link #writeSnapshot(DataOutputStream, ForecastSnapshot, Dictionary)}
+ *   dictionary  int count, then for each: UTF
+ *   index       int count, then for each: int idRef, long offset
+ *   trailer     long dictionaryOffset, long indexOffset, int MAGIC
+ * </pre>
+ * Every String (ids, layoutKeys, units, non-numeric values such as icons, wx and wwa, moreInfo) is written once, 
+ * in the dictionary, and everywhere else as an int reference to it, -1 for null.
+ * 
+ * <p>Forecast moreInfo values are written with String.valueOf(), so come back as Strings.
+ * 
+ * <p>Once opened, thread safe.
+ * 
+ * @author Morgan Conrad
+ * @since Copyright(c) 2013  Morgan Conrad
+ *
+ * @see <a href="http://www.gnu.org/copyleft/lesser.html">This software is released under the LGPL</a>
+ */
+public class ForecastSnapshotFile {
+
+   public static final int MAGIC = 0x4E4F4141;  // "NOAA"
+   public static final int VERSION = 1;
+   
+   static final int HEADER_SIZE = 8;
+   static final int TRAILER_SIZE = 20;
+   static final byte NUMERIC = 1;
+   static final byte STRINGS = 2;
+   static final byte NUMERIC_SCALED = 3;
+   
+   protected final File file;
+   protected final ByteBuffer buffer;
+   protected final String[] dictionary;
+   protected final Map<String, Integer> offsets;
+   
+   
+   protected ForecastSnapshotFile(File file, ByteBuffer buffer, String[] dictionary, Map<String, Integer> offsets) {
+      this.file = file;
+      this.buffer = buffer;
+      this.dictionary = dictionary;
+      this.offsets = offsets;
+   }
+   
+   
+   /**
+    * Writes snapshots to file, replacing anything there.
+    * They are written to a temporary file, which is then renamed over file, so a crash leaves the old file 
+    * and anyone who has it {@link #open(File)}ed keeps reading the old contents.
+    * @param file
+    * @param snapshots  by id
+    * @throws IOException
+    */
+   public static void write(File file, Map<String, ForecastSnapshot> snapshots) throws IOException {
+      write(file, snapshots, Integer.MAX_VALUE);
+   }
+   
+   
+   /**
+    * @param maxBytes  the file is mapped into one ByteBuffer when read, so at most Integer.MAX_VALUE
+    */
+   static void write(File file, Map<String, ForecastSnapshot> snapshots, long maxBytes) throws IOException {
+      Dictionary dictionary = new Dictionary();
+      List<long[]> index = new ArrayList<long[]>(snapshots.size());
+      
+      // never truncate file in place, it may be mapped
+      File tempFile = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+      FileOutputStream fos = new FileOutputStream(tempFile);
+      
+      // DataOutputStream.size() stops at Integer.MAX_VALUE, so count separately
+      CountingOutputStream counter = new CountingOutputStream(new BufferedOutputStream(fos, 64 * 1024), maxBytes, file);
+      DataOutputStream out = new DataOutputStream(counter);
+      boolean written = false;
+      try {
+         out.writeInt(MAGIC);
+         out.writeInt(VERSION);
+         for (Map.Entry<String, ForecastSnapshot> entry : snapshots.entrySet()) {
+            index.add(new long[] { dictionary.ref(entry.getKey()), counter.count });
+            writeSnapshot(out, entry.getValue(), dictionary);
+         }
+         
+         long dictionaryOffset = counter.count;
+         out.writeInt(dictionary.strings.size());
+         for (String s : dictionary.strings)
+            out.writeUTF(s);
+         
+         long indexOffset = counter.count;
+         out.writeInt(index.size());
+         for (long[] idAndOffset : index) {
+            out.writeInt((int)idAndOffset[0]);
+            out.writeLong(idAndOffset[1]);
+         }
+         
+         out.writeLong(dictionaryOffset);
+         out.writeLong(indexOffset);
+         out.writeInt(MAGIC);
+         out.flush();
+         fos.getChannel().force(false);
+         written = true;
+      }
+      finally {
+         out.close();
+         if (!written)
+            tempFile.delete();
+      }
+      
+      replace(tempFile, file);
+   }
+   
+   
+   /**
+    * Maps file and reads its dictionary and index
+    * @param file
+    * @return ForecastSnapshotFile
+    * @throws IOException  if it isn't one, or is another version
+    */
+   public static ForecastSnapshotFile open(File file) throws IOException {
+      MappedByteBuffer buffer;
+      RandomAccessFile raf = new RandomAccessFile(file, "r");
+      try {
+         FileChannel channel = raf.getChannel();
+         if (channel.size() > Integer.MAX_VALUE)
+            throw new IOException("Too large: " + file);
+         buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());  // remains valid after close
+      }
+      finally {
+         raf.close();
+      }
+      
+      try {
+         int size = buffer.limit();
+         if ((size < HEADER_SIZE + TRAILER_SIZE) || (buffer.getInt(0) != MAGIC) || (buffer.getInt(size - 4) != MAGIC))
+            throw new IOException("Not a ForecastSnapshotFile: " + file);
+         if (buffer.getInt(4) != VERSION)
+            throw new IOException("Unsupported version " + buffer.getInt(4) + " of " + file);
+         
+         ByteBuffer in = buffer.duplicate();
+         in.position((int)buffer.getLong(size - TRAILER_SIZE));
+         String[] dictionary = new String[in.getInt()];
+         for (int i=0; i<dictionary.length; i++)
+            dictionary[i] = readUTF(in);
+         
+         in.position((int)buffer.getLong(size - TRAILER_SIZE + 8));
+         int count = in.getInt();
+         Map<String, Integer> offsets = new LinkedHashMap<String, Integer>(count * 2);
+         for (int i=0; i<count; i++) {
+            String id = dictionary[in.getInt()];
+            offsets.put(id, (int)in.getLong());
+         }
+         
+         return new ForecastSnapshotFile(file, buffer, dictionary, offsets);
+      } catch (RuntimeException corrupt) {  // e.g. BufferUnderflowException, IndexOutOfBoundsException
+         throw new IOException("Corrupt ForecastSnapshotFile: " + file, corrupt);
+      }
+   }
+   
+   
+   /**
+    * @return the ids, in the order written
+    */
+   public Set<String> ids() {
+      return Collections.unmodifiableSet(offsets.keySet());
+   }
+   
+   public int size() {
+      return offsets.size();
+   }
+   
+   public File getFile() {
+      return file;
+   }
+   
+   
+   /**
+    * Decodes one snapshot
+    * @param id
+    * @return null if not in the file
+    * @throws IOException  if it's corrupt
+    */
+   public ForecastSnapshot get(String id) throws IOException {
+      Integer offset = offsets.get(id);
+      if (offset == null)
+         return null;
+      
+      ByteBuffer in = buffer.duplicate();
+      in.position(offset.intValue());
+      try {
+         return readSnapshot(in, dictionary, file);
+      } catch (RuntimeException corrupt) {
+         throw new IOException("Corrupt snapshot " + id + " in " + file, corrupt);
+      }
+   }
+   
+   
+   /**
+    * Decodes all the snapshots
+    * @return Map by id, in the order written
+    * @throws IOException
+    */
+   public Map<String, ForecastSnapshot> getAll() throws IOException {
+      Map<String, ForecastSnapshot> all = new LinkedHashMap<String, ForecastSnapshot>(offsets.size() * 2);
+      for (String id : offsets.keySet())
+         all.put(id, get(id));
+      return all;
+   }
+   
+   
+   @Override
+   public String toString() {
+      return "ForecastSnapshotFile " + file + " " + offsets.size() + " snapshots, " + dictionary.length + " strings";
+   }
+   
+   
+   /**
+    * A single snapshot, with its own dictionary, e.g. for a record in a {@link ForecastHistory}
+    * @param snapshot
+    * @return bytes, see {@link #decode(ByteBuffer)}
+    * @throws IOException
+    */
+   public static byte[] encode(ForecastSnapshot snapshot) throws IOException {
+      Dictionary dictionary = new Dictionary();
+      ByteArrayOutputStream body = new ByteArrayOutputStream(4096);
+      writeSnapshot(new DataOutputStream(body), snapshot, dictionary);
+      
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.size() + 1024);
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(dictionary.strings.size());
+      for (String s : dictionary.strings)
+         out.writeUTF(s);
+      body.writeTo(out);
+      out.flush();
+      return bytes.toByteArray();
+   }
+   
+   
+   /**
+    * The reverse of {@link #encode(ForecastSnapshot)}
+    * @param in  positioned at the start, is advanced past the snapshot
+    * @return ForecastSnapshot
+    * @throws IOException  if it's corrupt
+    */
+   public static ForecastSnapshot decode(ByteBuffer in) throws IOException {
+      try {
+         String[] dictionary = new String[in.getInt()];
+         for (int i=0; i<dictionary.length; i++)
+            dictionary[i] = readUTF(in);
+         return readSnapshot(in, dictionary, "snapshot");
+      } catch (RuntimeException corrupt) {
+         throw new IOException("Corrupt snapshot", corrupt);
+      }
+   }
+   
+   
+   /**
+    * <pre>
+    *   long createdMS
+    *   int layoutCount, for each: int keyRef, byte isIntervals, int size, long[size] starts, (if isIntervals) long[size] stops
+    *   int firstLayoutKeyRef
+    *   int seriesCount, for each: int ndfdNameRef, int layoutKeyRef, int unitsRef, 
+    *                              byte NUMERIC, int size, float[size]   or   byte STRINGS, int size, int[size] refs   or
+    *                              byte NUMERIC_SCALED, int size, float[size], byte[size] scales, int ref for each VERBATIM scale
+    *   int forecastCount, for each: long dateMS, float lowF, float highF, int interpretationRef, int iconPathRef,
+    *                                int moreInfoCount, for each: int keyRef, int valueRef
+    *   int moreInfoCount, for each: int keyRef, int valueRef
+    * </pre>
+    */
+   protected static void writeSnapshot(DataOutputStream out, ForecastSnapshot snapshot, Dictionary dictionary) throws IOException {
+      out.writeLong(snapshot.getCreatedMS());
+      
+      // the layouts, including any only referenced by a series
+      Map<TimeLayout, TimeLayout> layouts = new IdentityHashMap<TimeLayout, TimeLayout>();
+      for (TimeLayout layout : snapshot.getTimeLayouts().values())
+         layouts.put(layout, layout);
+      for (NDFDSeries series : snapshot.getNDFDSeriesMap().values())
+         if (series.getTimeLayout() != null)
+            layouts.put(series.getTimeLayout(), series.getTimeLayout());
+      if (snapshot.getFirstTimeLayout() != null)
+         layouts.put(snapshot.getFirstTimeLayout(), snapshot.getFirstTimeLayout());
+      
+      out.writeInt(layouts.size());
+      for (TimeLayout layout : layouts.keySet()) {
+         out.writeInt(dictionary.ref(layout.layoutKey));
+         out.writeByte(layout.isIntervals() ? 1 : 0);
+         out.writeInt(layout.size());
+         for (int i=0; i<layout.size(); i++)
+            out.writeLong(layout.startMS[i]);
+         if (layout.isIntervals())
+            for (int i=0; i<layout.size(); i++)
+               out.writeLong(layout.stopMS[i]);
+      }
+      out.writeInt(dictionary.ref(snapshot.getFirstTimeLayout() != null ? snapshot.getFirstTimeLayout().layoutKey : null));
+      
+      out.writeInt(snapshot.getNDFDSeriesMap().size());
+      for (NDFDSeries series : snapshot.getNDFDSeriesMap().values()) {
+         out.writeInt(dictionary.ref(series.ndfd.name()));
+         out.writeInt(dictionary.ref(series.getTimeLayout() != null ? series.getTimeLayout().layoutKey : null));
+         out.writeInt(dictionary.ref(series.getUnits()));
+         if (series instanceof NDFDSeries.Numeric) {
+            NDFDSeries.Numeric numeric = (NDFDSeries.Numeric)series;
+            float[] floats = numeric.floatValues;
+            out.writeByte(numeric.scales != null ? NUMERIC_SCALED : NUMERIC);
+            out.writeInt(floats.length);
+            for (float f : floats)
+               out.writeFloat(f);
+            if (numeric.scales != null) {
+               out.write(numeric.scales);
+               for (int i=0; i<floats.length; i++)
+                  if (numeric.scales[i] == NDFDSeries.Numeric.VERBATIM)
+                     out.writeInt(dictionary.ref(numeric.verbatim[i]));
+            }
+         }
+         else {
+            out.writeByte(STRINGS);
+            out.writeInt(series.size());
+            for (String value : series.getValues())
+               out.writeInt(dictionary.ref(value));
+         }
+      }
+      
+      out.writeInt(snapshot.getForecasts().size());
+      for (Forecast forecast : snapshot.getForecasts()) {
+         out.writeLong(forecast.date.getTime());
+         out.writeFloat(forecast.lowF);
+         out.writeFloat(forecast.highF);
+         out.writeInt(dictionary.ref(forecast.iconInterpretation));
+         out.writeInt(dictionary.ref(forecast.iconPath));
+         Map<String, Object> forecastInfo = forecast.getMoreInfo();
+         out.writeInt(forecastInfo.size());
+         for (Map.Entry<String, Object> me : forecastInfo.entrySet()) {
+            out.writeInt(dictionary.ref(me.getKey()));
+            out.writeInt(dictionary.ref(me.getValue() != null ? String.valueOf(me.getValue()) : null));
+         }
+      }
+      
+      out.writeInt(snapshot.getMoreInfo().size());
+      for (Map.Entry<String, String> me : snapshot.getMoreInfo().entrySet()) {
+         out.writeInt(dictionary.ref(me.getKey()));
+         out.writeInt(dictionary.ref(me.getValue()));
+      }
+   }
+   
+   
+   /**
+    * @param in          positioned at the start of a snapshot, is advanced past it
+    * @param dictionary  the Strings it references
+    * @param source      for error messages
+    */
+   protected static ForecastSnapshot readSnapshot(ByteBuffer in, String[] dictionary, Object source) throws IOException {
+      long createdMS = in.getLong();
+      
+      int layoutCount = in.getInt();
+      Map<String, TimeLayout> layouts = new HashMap<String, TimeLayout>(layoutCount * 2);
+      for (int l=0; l<layoutCount; l++) {
+         String key = string(dictionary, in.getInt());
+         boolean isIntervals = in.get() != 0;
+         int size = in.getInt();
+         long[] starts = new long[size];
+         in.asLongBuffer().get(starts);
+         in.position(in.position() + size * 8);
+         long[] stops = starts;
+         if (isIntervals) {
+            stops = new long[size];
+            in.asLongBuffer().get(stops);
+            in.position(in.position() + size * 8);
+         }
+         layouts.put(key, TimeLayout.fromMillis(key, starts, size, stops, isIntervals ? size : 0));
+      }
+      TimeLayout first = layouts.get(string(dictionary, in.getInt()));
+      
+      EnumMap<NDFD, NDFDSeries> seriesMap = new EnumMap<NDFD, NDFDSeries>(NDFD.class);
+      int seriesCount = in.getInt();
+      for (int s=0; s<seriesCount; s++) {
+         String ndfdName = string(dictionary, in.getInt());
+         NDFD ndfd;
+         try {
+            ndfd = NDFD.valueOf(ndfdName);
+         } catch (IllegalArgumentException iae) {
+            throw new IOException("Unknown NDFD " + ndfdName + " in " + source);
+         }
+         TimeLayout layout = layouts.get(string(dictionary, in.getInt()));
+         String units = string(dictionary, in.getInt());
+         byte kind = in.get();
+         int size = in.getInt();
+         if ((kind == NUMERIC) || (kind == NUMERIC_SCALED)) {
+            float[] floats = new float[size];
+            in.asFloatBuffer().get(floats);
+            in.position(in.position() + size * 4);
+            byte[] scales = null;
+            String[] verbatim = null;
+            if (kind == NUMERIC_SCALED) {
+               scales = new byte[size];
+               in.get(scales);
+               for (int i=0; i<size; i++) {
+                  if (scales[i] == NDFDSeries.Numeric.VERBATIM) {
+                     if (verbatim == null)
+                        verbatim = new String[size];
+                     verbatim[i] = string(dictionary, in.getInt());
+                  }
+               }
+            }
+            seriesMap.put(ndfd, new NDFDSeries.Numeric(ndfd, layout, units, floats, scales, verbatim));
+         }
+         else if (kind == STRINGS) {
+            List<String> values = new ArrayList<String>(size);
+            for (int i=0; i<size; i++)
+               values.add(string(dictionary, in.getInt()));
+            seriesMap.put(ndfd, new NDFDSeries(ndfd, layout, units, values));
+         }
+         else
+            throw new IOException("Unknown series kind " + kind + " in " + source);
+      }
+      
+      int forecastCount = in.getInt();
+      List<Forecast> forecasts = new ArrayList<Forecast>(forecastCount);
+      for (int f=0; f<forecastCount; f++) {
+         Date date = new Date(in.getLong());
+         float lowF = in.getFloat();
+         float highF = in.getFloat();
+         Forecast forecast = new Forecast(date, lowF, highF, false, string(dictionary, in.getInt()), string(dictionary, in.getInt()));
+         int infoCount = in.getInt();
+         for (int i=0; i<infoCount; i++)
+            forecast.putMoreInfo(string(dictionary, in.getInt()), string(dictionary, in.getInt()));
+         forecasts.add(new Forecast.ReadOnly(forecast));
+      }
+      
+      int infoCount = in.getInt();
+      Map<String, String> moreInfo = new HashMap<String, String>(infoCount * 2);
+      for (int i=0; i<infoCount; i++)
+         moreInfo.put(string(dictionary, in.getInt()), string(dictionary, in.getInt()));
+      
+      return new ForecastSnapshot(createdMS, layouts, first, seriesMap, forecasts, moreInfo);
+   }
+   
+   
+   static String string(String[] dictionary, int ref) {
+      return ref >= 0 ? dictionary[ref] : null;
+   }
+   
+   
+   // same format as DataOutputStream.writeUTF(), modified UTF-8 with a 2 byte length
+   static String readUTF(ByteBuffer in) throws IOException {
+      int length = in.getShort() & 0xFFFF;
+      char[] chars = new char[length];
+      int count = 0;
+      int end = in.position() + length;
+      while (in.position() < end) {
+         int b = in.get() & 0xFF;
+         if (b < 0x80)
+            chars[count++] = (char) b;
+         else if ((b & 0xE0) == 0xC0)
+            chars[count++] = (char) (((b & 0x1F) << 6) | (in.get() & 0x3F));
+         else if ((b & 0xF0) == 0xE0)
+            chars[count++] = (char) (((b & 0x0F) << 12) | ((in.get() & 0x3F) << 6) | (in.get() & 0x3F));
+         else
+            throw new IOException("Malformed UTF at " + in.position());
+      }
+      return new String(chars, 0, count);
+   }
+   
+   
+   /**
+    * Renames from over to, replacing it
+    * @param from
+    * @param to
+    * @throws IOException
+    */
+   static void replace(File from, File to) throws IOException {
+      if (!from.renameTo(to)) {
+         // e.g. Windows, which won't rename over an existing file
+         if (!to.delete() || !from.renameTo(to))
+            throw new IOException("Cannot rename " + from + " to " + to);
+      }
+   }
+   
+   
+   
+   /**
+    * Counts the bytes written, and throws before writing more than maxBytes
+    */
+   static class CountingOutputStream extends FilterOutputStream {
+      final long maxBytes;
+      final File file;
+      long count = 0;
+      
+      CountingOutputStream(OutputStream out, long maxBytes, File file) {
+         super(out);
+         this.maxBytes = maxBytes;
+         this.file = file;
+      }
+      
+      @Override
+      public void write(int b) throws IOException {
+         reserve(1);
+         out.write(b);
+      }
+      
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+         reserve(len);
+         out.write(b, off, len);
+      }
+      
+      void reserve(int len) throws IOException {
+         if (count + len > maxBytes)
+            throw new IOException("Too large for " + file + ", over " + maxBytes + " bytes");
+         count += len;
+      }
+   }
+   
+   
+   /**
+    * Assigns each distinct String a reference, in order of first use
+    */
+   static class Dictionary {
+      final Map<String, Integer> refs = new HashMap<String, Integer>();
+      final List<String> strings = new ArrayList<String>();
+      
+      int ref(String s) {
+         if (s == null)
+            return -1;
+         Integer ref = refs.get(s);
+         if (ref == null) {
+            ref = strings.size();
+            refs.put(s, ref);
+            strings.add(s);
+         }
+         return ref.intValue();
+      }
+   }
+}
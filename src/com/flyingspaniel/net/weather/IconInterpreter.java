@@ -0,0 +1,234 @@
+package com.flyingspaniel.net.weather;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * Interprets NOAA's icon names, e.g. "http://www.nws.noaa.gov/weather/images/fcicons/hi_ntsra20.jpg" becomes
+ * "Rain and Thunderstorms (20%) (high)".  Used by {@link NOAAWeather#interpretIconName(String)}.
+ * 
+ * <p>NOAA only uses a few dozen icons, so results are memoized by the full icon name, and most lookups are a single
+ * ConcurrentHashMap get.  When there are more than maxEntries the memo is cleared, so it stays bounded.
+ * 
+ * <p>Misses are parsed by scanning the chars and walking a trie of {@link NOAAWeather#ICON_NAMES_TO_MEANINGS}, 
+ * without the substrings of the original, which is kept as {@link #interpretWithStrings(String)} for comparison.
+ * 
+ * <p>Thread safe.
+ * 
+ * @author Morgan Conrad
+ * @since Copyright(c) 2013  Morgan Conrad
+ *
+ * @see <a href="http://www.gnu.org/copyleft/lesser.html">This software is released under the LGPL</a>
+ */
+public class IconInterpreter {
+
+   public static final int DEFAULT_MAX_ENTRIES = 1024;
+   
+   static final String CANNOT_INTERPRET = "Cannot interpret ";
+   static final TrieNode sTrie = buildTrie(NOAAWeather.ICON_NAMES_TO_MEANINGS);
+   
+   private static class Holder {
+      static final IconInterpreter sDefault = new IconInterpreter(DEFAULT_MAX_ENTRIES);
+   }
+   
+   protected final int maxEntries;
+   protected final ConcurrentMap<String, String> memo = new ConcurrentHashMap<String, String>();
+   
+   
+   /**
+    * Constructor
+    * @param maxEntries  maximum number of memoized icon names
+    */
+   public IconInterpreter(int maxEntries) {
+      this.maxEntries = maxEntries;
+   }
+   
+   
+   /**
+    * The shared instance
+    */
+   public static IconInterpreter getDefault() {
+      return Holder.sDefault;
+   }
+   
+   
+   /**
+    * Provides user-friendly interpretation of the icon provided by NOAA
+    * 
+    * @param iconName     may or may not have the full path (contain a /) or end with .jpg
+    * @return never null
+    */
+   public String interpret(String iconName) {
+      String meaning = memo.get(iconName);
+      if (meaning == null) {
+         meaning = scan(iconName);
+         if (memo.size() >= maxEntries)
+            memo.clear();
+         memo.put(iconName, meaning);
+      }
+      
+      return meaning;
+   }
+   
+   
+   /**
+    * Number of memoized icon names
+    */
+   public int size() {
+      return memo.size();
+   }
+   
+   
+   /**
+    * Same results as {@link #interpretWithStrings(String)}, but scans iconName's chars instead of making substrings.
+    * 
+    * <ul>
+    * <li>The short name is between the last '/' and the last '.'
+    * <li>A leading 'n' (night) is skipped, as is any 'n' following a '_', e.g. "hi_ntsra"
+    * <li>A trailing percentage, e.g. "20" or "100", becomes " (20%)".  
+    * <li>If the rest isn't known, but starts with "hi_", try without it, adding " (high)"
+    * </ul>
+    * 
+    * @param iconName  non-null
+    * @return never null
+    */
+   public static String scan(String iconName) {
+      int begin = iconName.lastIndexOf('/') + 1;
+      int end = iconName.lastIndexOf('.');
+      if (end < 0)
+         end = iconName.length();
+      if ((end <= begin) || (iconName.charAt(begin) == 'n') && (++begin == end))
+         return CANNOT_INTERPRET + iconName;
+      
+      // the short name, less any 'n' after a '_'
+      char[] name = new char[end - begin];
+      int len = 0;
+      for (int i=begin; i<end; i++) {
+         char c = iconName.charAt(i);
+         if ((c != 'n') || (i == begin) || (iconName.charAt(i-1) != '_'))
+            name[len++] = c;
+      }
+      
+      int cutoff = len;
+      if (name[len-1] == '0') {
+         if (len < 2)
+            return CANNOT_INTERPRET + iconName;
+         cutoff = (name[len-2] == '0') ? len-3 : len-2;
+         if (cutoff < 0)
+            return CANNOT_INTERPRET + iconName;
+      }
+      
+      String meaning = sTrie.find(name, 0, cutoff);
+      boolean high = false;
+      if ((meaning == null) && (cutoff >= 3) && (name[0] == 'h') && (name[1] == 'i') && (name[2] == '_')) {
+         meaning = sTrie.find(name, 3, cutoff);
+         high = true;
+      }
+      if (meaning == null)
+         return CANNOT_INTERPRET + iconName;
+      
+      if ((cutoff == len) && !high)
+         return meaning;
+      
+      StringBuilder sb = new StringBuilder(meaning.length() + 16).append(meaning);
+      if (cutoff < len)
+         sb.append(" (").append(name, cutoff, len - cutoff).append("%)");
+      if (high)
+         sb.append(" (high)");
+      return sb.toString();
+   }
+   
+   
+   /**
+    * The original interpretation, with substrings and replace(), kept for comparison and benchmarks
+    * 
+    * @param iconName     may or may not have the full path (contain a /) or end with .jpg
+    * @return never null
+    */
+   public static String interpretWithStrings(String iconName) {
+     
+      String addendum = "";
+      String meaning = null;
+      try {
+         int lastSlash = iconName.lastIndexOf('/');
+         int lastDot = iconName.lastIndexOf('.');
+         if (lastDot < 0)
+            lastDot = iconName.length();
+         
+         String shortName = iconName.substring(lastSlash + 1, lastDot);
+         
+         if (shortName.charAt(0) == 'n') // in theory we don't have the "night" forecast, but just in case
+            shortName = shortName.substring(1);
+         shortName = shortName.replace("_n", "_");   // replace any possible _n as well
+         
+         int slen = shortName.length();
+         if (shortName.charAt(slen-1) == '0') {  // is there a percentage included?
+            int cutoff = shortName.charAt(slen-2) == '0' ? slen-3 : slen-2;
+            String percent = " (" + shortName.substring(cutoff) + "%)";
+            addendum = addendum + percent;
+            shortName = shortName.substring(0, cutoff);
+         }
+         
+         
+         meaning = NOAAWeather.sIconMeanings.get(shortName);
+         
+         if ((meaning == null) && shortName.startsWith("hi_")) {
+            meaning = NOAAWeather.sIconMeanings.get(shortName.substring(3));  // try again without the "hi_"
+            addendum = addendum + " (high)";
+         }
+      }
+      catch (IndexOutOfBoundsException ioob) {  // catch most of the errors...
+         meaning = null;
+      }
+      
+      return (meaning != null) ? meaning + addendum : CANNOT_INTERPRET + iconName;     
+   }
+   
+   
+   static TrieNode buildTrie(String[][] namesToMeanings) {
+      TrieNode root = new TrieNode();
+      for (String[] nameToMeaning : namesToMeanings) {
+         TrieNode node = root;
+         for (int i=0; i<nameToMeaning[0].length(); i++)
+            node = node.child(nameToMeaning[0].charAt(i), true);
+         node.meaning = nameToMeaning[1];
+      }
+      return root;
+   }
+   
+   
+   
+   /**
+    * Icon names are lowercase ASCII, so each node just has an array of children indexed by char
+    */
+   static class TrieNode {
+      static final int MAX_CHAR = 128;
+      
+      TrieNode[] children = null;
+      String meaning = null;
+      
+      TrieNode child(char c, boolean create) {
+         if (c >= MAX_CHAR)
+            return null;
+         if (children == null) {
+            if (!create)
+               return null;
+            children = new TrieNode[MAX_CHAR];
+         }
+         if ((children[c] == null) && create)
+            children[c] = new TrieNode();
+         return children[c];
+      }
+      
+      /**
+       * @return meaning of chars[start, end), null if none
+       */
+      String find(char[] chars, int start, int end) {
+         TrieNode node = this;
+         for (int i=start; (i<end) && (node != null); i++)
+            node = node.child(chars[i], false);
+         return node != null ? node.meaning : null;
+      }
+   }
+}
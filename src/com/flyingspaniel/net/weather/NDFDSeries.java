@@ -1,12 +1,17 @@
 package com.flyingspaniel.net.weather;
 
+import java.util.AbstractList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.RandomAccess;
 
 /**
  * Represents a time-series of {@link NDFD} measurements, which are linked to a {@link TimeLayout}  
  * 
+ * <p>Numeric measurements should be created with {@link #create(NDFD, TimeLayout, String, List)}, 
+ * which returns the more compact {@link NDFDSeries.Numeric}
+ * 
  * @author Morgan Conrad
  * @since Copyright(c) 2013  Morgan Conrad
  *
@@ -46,6 +51,22 @@ public class NDFDSeries {
    }
    
    
+   /**
+    * Factory method, returns a {@link NDFDSeries.Numeric} if ndfd.isNumeric(), else a plain NDFDSeries
+    * @param ndfd
+    * @param timeLayout
+    * @param units    units of the measurement, such as Fahrenheit, inches, knots
+    * @param values   may be null
+    * @return NDFDSeries
+    */
+   public static NDFDSeries create(NDFD ndfd, TimeLayout timeLayout, String units, List<String> values) {
+      if (ndfd.isNumeric())
+         return new Numeric(ndfd, timeLayout, units, values);
+      else
+         return new NDFDSeries(ndfd, timeLayout, units, values);
+   }
+   
+   
    /**
     * The associated TimeLayout
     */
@@ -96,7 +117,7 @@ public class NDFDSeries {
       int idxInTimeLayout = timeLayout.findClosestTimeIndex(desiredTime, maxHourDiff);
       if (idxInTimeLayout < 0)
          return null;
-      return values.get(idxInTimeLayout);
+      return getValue(idxInTimeLayout);
    }
    
    
@@ -114,4 +135,177 @@ public class NDFDSeries {
       else
          throw new IllegalStateException();
    }
+   
+   
+   
+   /**
+    * An NDFDSeries for numeric measurements, which keeps the values in a float[], parsed once at construction.
+    * Missing or illegal values are Float.NaN.
+    * 
+    * <p>The Strings returned by {@link #getValue(int)} and {@link #getValues()} are derived as needed, 
+    * from the float and the number of decimal places the original value had, so "0.00" stays "0.00".
+    * The few values that can't be reproduced that way, e.g. "x" or "1e3", are kept as they were.
+    * If constructed from just a float[], they are normalized: "" for NaN, no decimal point for whole numbers, 
+    * else as in Float.toString()
+    */
+   public static class Numeric extends NDFDSeries {
+      
+      static final byte VERBATIM = -1;  // scale of a value kept in verbatim
+      static final int MAX_SCALE = 9;
+      static final long[] POWERS_OF_10 = { 1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L };
+      
+      protected final float[] floatValues;
+      protected final byte[] scales;      // decimal places of each original value, or VERBATIM.  null means normalize
+      protected final String[] verbatim;  // null, unless some values couldn't be reproduced from the float
+      
+      private final List<String> valueList = new ValueList();  // stateless over the arrays, so shared
+      
+      /**
+       * Constructor.
+       * @param ndfd
+       * @param timeLayout
+       * @param units    units of the measurement, such as Fahrenheit, inches, knots
+       * @param values   will be parsed with {@link Weather#parseFloat(String)}.  May be null.
+       */
+      public Numeric(NDFD ndfd, TimeLayout timeLayout, String units, List<String> values) {
+         super(ndfd, timeLayout, units, null);
+         int size = values != null ? values.size() : 0;
+         floatValues = new float[size];
+         scales = new byte[size];
+         String[] unusual = null;
+         for (int i=0; i<size; i++) {
+            String value = values.get(i);
+            floatValues[i] = Weather.parseFloat(value);
+            scales[i] = scale(value);
+            if ((value != null) && ((scales[i] == VERBATIM) || !value.equals(toString(floatValues[i], scales[i])))) {
+               if (unusual == null)
+                  unusual = new String[size];
+               unusual[i] = value;
+               scales[i] = VERBATIM;
+            }
+         }
+         verbatim = unusual;
+      }
+      
+      /**
+       * Constructor.
+       * @param ndfd
+       * @param timeLayout
+       * @param units        units of the measurement, such as Fahrenheit, inches, knots
+       * @param floatValues  not copied, so don't modify it afterwards
+       */
+      public Numeric(NDFD ndfd, TimeLayout timeLayout, String units, float[] floatValues) {
+         this(ndfd, timeLayout, units, floatValues, null, null);
+      }
+      
+      /**
+       * Constructor, e.g. for deserializing
+       * @param floatValues  not copied, so don't modify it afterwards
+       * @param scales       decimal places of each value, or VERBATIM.  May be null.  Not copied.
+       * @param verbatim     the values whose scale is VERBATIM, may be null if there are none.  Not copied.
+       */
+      Numeric(NDFD ndfd, TimeLayout timeLayout, String units, float[] floatValues, byte[] scales, String[] verbatim) {
+         super(ndfd, timeLayout, units, null);
+         this.floatValues = floatValues;
+         this.scales = scales;
+         this.verbatim = verbatim;
+      }
+      
+      
+      @Override
+      public int size() {
+         return floatValues.length;
+      }
+      
+      @Override
+      public String getValue(int idx) {
+         if (scales == null)
+            return toString(floatValues[idx]);
+         if (scales[idx] == VERBATIM)
+            return verbatim[idx];
+         return toString(floatValues[idx], scales[idx]);
+      }
+      
+      /**
+       * Get an (unmodifiable) view of the values as Strings.
+       */
+      @Override
+      public List<String> getValues() {
+         return valueList;
+      }
+      
+      @Override
+      public float getFloatValue(int idx) {
+         return floatValues[idx];
+      }
+      
+      /**
+       * Returns a copy of all the values
+       * @return float[], may contain Float.NaN
+       */
+      public float[] getFloatValues() {
+         float[] copy = new float[floatValues.length];
+         System.arraycopy(floatValues, 0, copy, 0, copy.length);
+         return copy;
+      }
+      
+      
+      /**
+       * @param value
+       * @return number of digits after the decimal point, 0 if none, or VERBATIM if too many or an exponent
+       */
+      static byte scale(String value) {
+         if (value == null)
+            return 0;
+         int dot = value.indexOf('.');
+         if ((value.indexOf('e') >= 0) || (value.indexOf('E') >= 0))
+            return VERBATIM;
+         int scale = (dot >= 0) ? value.length() - dot - 1 : 0;
+         return scale <= MAX_SCALE ? (byte)scale : VERBATIM;
+      }
+      
+      /**
+       * @param f
+       * @param scale  0 to MAX_SCALE
+       * @return f with exactly scale digits after the decimal point (none if 0), "" for NaN
+       */
+      static String toString(float f, int scale) {
+         if (Float.isNaN(f))
+            return "";
+         long unscaled = Math.round(f * (double)POWERS_OF_10[scale]);
+         String digits = Long.toString(Math.abs(unscaled));
+         StringBuilder sb = new StringBuilder(digits.length() + 3);
+         if (unscaled < 0)
+            sb.append('-');
+         for (int pad = scale + 1 - digits.length(); pad > 0; pad--)
+            sb.append('0');
+         sb.append(digits);
+         if (scale > 0)
+            sb.insert(sb.length() - scale, '.');
+         return sb.toString();
+      }
+      
+      static String toString(float f) {
+         if (Float.isNaN(f))
+            return "";
+         int i = (int) f;
+         return (i == f) ? Integer.toString(i) : Float.toString(f);
+      }
+      
+      
+      /**
+       * Read-only List view of the values
+       */
+      class ValueList extends AbstractList<String> implements RandomAccess {
+         @Override
+         public String get(int index) {
+            return getValue(index);
+         }
+
+         @Override
+         public int size() {
+            return floatValues.length;
+         }
+      }
+   }
 }
@@ -0,0 +1,163 @@
+package com.flyingspaniel.net.weather;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Gets the weather for many locations using a few multi-point (listLatLon) requests to NOAA,
+ * instead of one request per location.
+ *
+ * <p>The locations are split into chunks of at most {@link #getChunkSize()}.  Each chunk is one request,
+ * and its DWML is parsed once and shared by the chunk's NOAAWeathers, each of which picks out its own
+ * applicable-location ("point1", "point2", ...), which NOAA numbers in the order of the listLatLon.
+ * The parse always uses the {@link NOAAWeather.Engine#STREAMING} engine, which groups the series by applicable-location
+ * in one pass, instead of each NOAAWeather searching the whole Document for its own.
+ *
+ * <pre>
+ *    NOAAWeather template = new NOAAWeather();
+ *    template.setDates(new Date(), 7);
+ *    NOAABatch batch = new NOAABatch(template);
+ *    batch.addLocation(39.096, -94.595);
+ *    batch.addLocation(38.99, -77.01);
+ *    List&lt;NOAAWeather&gt; results = batch.call();   // same order as the locations
+ * </pre>
+ *
+ * @author Morgan Conrad
+ * @since Copyright(c) 2013  Morgan Conrad
+ *
+ * @see <a href="http://www.gnu.org/copyleft/lesser.html">This software is released under the LGPL</a>
+ */
+public class NOAABatch implements Callable<List<NOAAWeather>> {
+
+   /**
+    * NOAA doesn't document a maximum number of points, but rejects overly long request URLs.
+    * If your requests are rejected, e.g. because you ask for many NDFDs, use a smaller {@link #setChunkSize(int)}.
+    */
+   public static final int DEFAULT_CHUNK_SIZE = 200;
+
+   protected final NOAAWeather template;
+   protected final List<double[]> locations = new ArrayList<double[]>();
+   protected int chunkSize = DEFAULT_CHUNK_SIZE;
+   protected NOAAFetcher fetcher = NOAAFetcher.getDefault();
+   protected final AtomicInteger requestCount = new AtomicInteger();
+
+
+   /**
+    * Constructor
+    * @param template  non-null, its dates, NDFDs etc. are used for every location.  Its location and engine are ignored.
+    */
+   public NOAABatch(NOAAWeather template) {
+      this.template = template;
+   }
+
+
+   /**
+    * Add a location
+    * @param latitude
+    * @param longitude
+    * @return this, for chaining
+    */
+   public NOAABatch addLocation(double latitude, double longitude) {
+      locations.add(new double[] { latitude, longitude });
+      return this;
+   }
+
+
+   public int getChunkSize() {
+      return chunkSize;
+   }
+
+   /**
+    * @param newChunkSize  maximum number of locations per request, must be > 0
+    * @return previous value
+    */
+   public int setChunkSize(int newChunkSize) {
+      if (newChunkSize <= 0)
+         throw new IllegalArgumentException("chunkSize=" + newChunkSize);
+      int was = chunkSize;
+      chunkSize = newChunkSize;
+      return was;
+   }
+
+
+   /**
+    * @param newFetcher  if null, use the default
+    */
+   public void setFetcher(NOAAFetcher newFetcher) {
+      fetcher = newFetcher != null ? newFetcher : NOAAFetcher.getDefault();
+   }
+
+
+   /**
+    * How many requests have been made to NOAA by call()
+    */
+   public int getRequestCount() {
+      return requestCount.get();
+   }
+
+
+   /**
+    * Does the requests and all the parsing
+    * @return one fully computed NOAAWeather per location, in the order they were added
+    * @throws IOException
+    */
+   @Override
+   public List<NOAAWeather> call() throws IOException {
+      List<NOAAWeather> results = new ArrayList<NOAAWeather>(locations.size());
+      for (int start=0; start<locations.size(); start+=chunkSize) {
+         int end = Math.min(start + chunkSize, locations.size());
+         results.addAll(callChunk(locations.subList(start, end)));
+      }
+
+      return results;
+   }
+
+
+   /**
+    * One request for up to chunkSize locations
+    * @param chunk
+    * @return List of NOAAWeather, one per location
+    * @throws IOException
+    */
+   protected List<NOAAWeather> callChunk(List<double[]> chunk) throws IOException {
+      List<NOAAWeather> weathers = new ArrayList<NOAAWeather>(chunk.size());
+      StringBuilder where = new StringBuilder("listLatLon=");
+      for (int i=0; i<chunk.size(); i++) {
+         double[] latLong = chunk.get(i);
+         NOAAWeather weather = template.copySettings();
+         weather.setEngine(NOAAWeather.Engine.STREAMING);
+         weather.setLocation(latLong[0], latLong[1]);
+         weather.locationKey = "point" + (i+1);
+         weathers.add(weather);
+
+         if (i > 0)
+            where.append("%20");
+         where.append(latLong[0]).append(',').append(latLong[1]);
+      }
+
+      NOAAWeather first = weathers.get(0);
+      String url = first.createNOAAURL(where.toString());
+      InputStream dwml = first.openFromNOAA(fetcher, url);
+      requestCount.incrementAndGet();
+
+      // parse once, then share
+      try {
+         first.loadFromStream(dwml);
+      }
+      finally {
+         dwml.close();
+      }
+      for (NOAAWeather weather : weathers) {
+         weather.streamed = first.streamed;
+         weather.moreInfo.put(NOAAWeather.MoreInfoKeys.IN_URL.name(), url);
+         weather.call();
+      }
+
+      return weathers;
+   }
+}
@@ -0,0 +1,496 @@
+package com.flyingspaniel.net.weather;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+
+/**
+ * Fetches and parses NOAA forecasts in the background, for {@link NOAAWeather#callAsync()}
+ *
+ * <p>Fetches run on one bounded pool, parses on another, so a slow NOAA never ties up the parsing threads
+ * and no caller thread ever waits on the network.  Requests beyond the pool sizes simply queue.
+ * The HTTP connections are kept alive and reused (the default for HttpURLConnection,
+ * so long as each response is read completely, which we do) and have configurable timeouts.
+ *
+ * <p>By default, gzip or deflate transfer is requested.  DWML compresses about 10:1.
+ * {@link #openStream(String)} decompresses into the parser as the bytes arrive.
+ * {@link #fetchResponse(String)} reads them all first, keeping them compressed, as a {@link Response},
+ * until they are stream-decompressed into the parser.  Optionally, every Response is also written to a {@link DWMLArchive}.
+ *
+ * @author Morgan Conrad
+ * @since Copyright(c) 2013  Morgan Conrad
+ *
+ * @see <a href="http://www.gnu.org/copyleft/lesser.html">This software is released under the LGPL</a>
+ */
+public class NOAAFetcher {
+
+   public static final int DEFAULT_MAX_FETCHES = 16;
+   public static final int DEFAULT_CONNECT_TIMEOUT_MS = 10 * 1000;
+   public static final int DEFAULT_READ_TIMEOUT_MS = 60 * 1000;
+
+   protected final ExecutorService fetchExecutor;
+   protected final ExecutorService parseExecutor;
+
+   protected volatile int connectTimeoutMS = DEFAULT_CONNECT_TIMEOUT_MS;
+   protected volatile int readTimeoutMS = DEFAULT_READ_TIMEOUT_MS;
+   protected volatile boolean acceptCompression = true;
+   protected volatile DWMLArchive archive = null;
+
+
+   /**
+    * Another Initialization On Demand Holder idiom
+    */
+   static class SingletonInstanceHolder {
+      protected static final NOAAFetcher instance =
+            new NOAAFetcher(DEFAULT_MAX_FETCHES, Runtime.getRuntime().availableProcessors());
+   }
+
+
+   /**
+    * The shared instance used by {@link NOAAWeather#callAsync()}
+    * @return NOAAFetcher
+    */
+   public static NOAAFetcher getDefault() {
+      return SingletonInstanceHolder.instance;
+   }
+
+
+   /**
+    * Constructor, creating two fixed pools of daemon threads
+    * @param maxFetches   maximum number of simultaneous fetches
+    * @param parseThreads maximum number of simultaneous parses
+    */
+   public NOAAFetcher(int maxFetches, int parseThreads) {
+      this(Executors.newFixedThreadPool(maxFetches, new DaemonThreadFactory("NOAAFetcher-fetch-")),
+           Executors.newFixedThreadPool(parseThreads, new DaemonThreadFactory("NOAAFetcher-parse-")));
+   }
+
+
+   /**
+    * Constructor using your own ExecutorServices
+    * @param fetchExecutor  non-null, does the network I/O
+    * @param parseExecutor  non-null, does the parsing and computation.  May be the same as fetchExecutor
+    */
+   public NOAAFetcher(ExecutorService fetchExecutor, ExecutorService parseExecutor) {
+      this.fetchExecutor = fetchExecutor;
+      this.parseExecutor = parseExecutor;
+   }
+
+
+   /**
+    * Set the timeouts for subsequent fetches
+    * @param connectMS  0 means forever
+    * @param readMS     0 means forever
+    */
+   public void setTimeouts(int connectMS, int readMS) {
+      connectTimeoutMS = connectMS;
+      readTimeoutMS = readMS;
+   }
+
+
+   /**
+    * @param accept  whether to ask for gzip or deflate transfer, the default is true
+    * @return previous value
+    */
+   public boolean setAcceptCompression(boolean accept) {
+      boolean was = acceptCompression;
+      acceptCompression = accept;
+      return was;
+   }
+
+
+   /**
+    * @param newArchive  if non-null, every successful fetch is written to it
+    * @return previous value
+    */
+   public DWMLArchive setArchive(DWMLArchive newArchive) {
+      DWMLArchive was = archive;
+      archive = newArchive;
+      return was;
+   }
+
+
+   /**
+    * Fetch, then parse, a NOAAWeather in the background.
+    * If it uses a {@link ForecastCache} or setCoalesce(), it goes through call() on a fetch thread instead, 
+    * so it shares fetches and results with every other request, sync or async, just as call() does.
+    * @param weather   non-null, should not be modified until the Future is done
+    * @param callback  may be null.  If the Future is cancelled, told onFailure() with a CancellationException
+    * @return Future, whose get() returns weather or throws an ExecutionException
+    */
+   public Future<NOAAWeather> submit(final NOAAWeather weather, final Weather.Callback<NOAAWeather> callback) {
+      final Result<NOAAWeather> result = new Result<NOAAWeather>(callback);
+      if ((weather.cache != null) || weather.coalesce) {
+         fetchExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+               if (result.isDone())
+                  return;
+               try {
+                  result.succeed(weather.call());
+               } catch (Throwable t) {
+                  result.fail(t);
+               }
+            }
+         });
+         return result;
+      }
+      
+      final String url = weather.createNOAAURL();
+
+      fetchExecutor.execute(new Runnable() {
+         @Override
+         public void run() {
+            if (result.isDone())
+               return;
+            try {
+               final Response response = weather.fetchFromNOAA(NOAAFetcher.this, url);
+               parseExecutor.execute(new Runnable() {
+                  @Override
+                  public void run() {
+                     if (result.isDone())
+                        return;
+                     try {
+                        weather.loadFromStream(response.openStream());
+                        result.succeed(weather.call());
+                     } catch (Throwable t) {
+                        result.fail(t);
+                     }
+                  }
+               });
+            } catch (Throwable t) {
+               result.fail(t);
+            }
+         }
+      });
+
+      return result;
+   }
+
+
+   /**
+    * Fetches the contents of a URL, blocking the calling thread.
+    * @param url
+    * @return bytes, decompressed, never null
+    * @throws IOException including for HTTP errors
+    */
+   public byte[] fetch(String url) throws IOException {
+      return fetchResponse(url).decompress();
+   }
+
+
+   /**
+    * Fetches the contents of a URL, blocking the calling thread, without decompressing them.  
+    * Writes them to the archive, if any.
+    * @param url
+    * @return Response, never null
+    * @throws IOException including for HTTP errors
+    */
+   public Response fetchResponse(String url) throws IOException {
+      HttpURLConnection connection = connect(url);
+      byte[] body = readFully(connection.getInputStream());
+      Response response = new Response(url, System.currentTimeMillis(), connection.getContentEncoding(), body);
+      DWMLArchive a = archive;
+      if (a != null)
+         a.write(response);
+      return response;
+   }
+
+
+   /**
+    * Opens the contents of a URL, blocking the calling thread until the response starts, 
+    * to be read, and decompressed, as they arrive.  They are not archived.
+    * @param url
+    * @return InputStream, close it when done.  Reading it to the end lets the connection be reused.
+    * @throws IOException including for HTTP errors
+    */
+   public InputStream openStream(String url) throws IOException {
+      HttpURLConnection connection = connect(url);
+      return decompressing(connection.getInputStream(), Response.normalize(connection.getContentEncoding()), url);
+   }
+
+
+   /**
+    * Opens the connection and checks the status
+    * @param url
+    * @return HttpURLConnection, ready for getInputStream()
+    * @throws IOException including for HTTP errors
+    */
+   protected HttpURLConnection connect(String url) throws IOException {
+      HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+      connection.setConnectTimeout(connectTimeoutMS);
+      connection.setReadTimeout(readTimeoutMS);
+      if (acceptCompression)
+         connection.setRequestProperty("Accept-Encoding", "gzip, deflate");
+
+      int status = connection.getResponseCode();
+      if (status >= 400) {
+         InputStream error = connection.getErrorStream();
+         if (error != null)
+            readFully(error);  // so the connection may be reused
+         throw new IOException("HTTP " + status + " from " + url);
+      }
+      return connection;
+   }
+
+
+   /**
+    * Stop accepting new requests.  Does not affect the default instance
+    */
+   public void shutdown() {
+      if (this != SingletonInstanceHolder.instance) {
+         fetchExecutor.shutdown();
+         parseExecutor.shutdown();
+      }
+   }
+
+
+   /**
+    * Wraps in, if needed, so that it decompresses as it's read
+    * @param in               closed if contentEncoding isn't supported
+    * @param contentEncoding  normalized, see {@link Response#normalize(String)}, may be null
+    * @param url              for the error message
+    * @return InputStream
+    * @throws IOException  e.g. for an unsupported Content-Encoding
+    */
+   static InputStream decompressing(InputStream in, String contentEncoding, String url) throws IOException {
+      if (contentEncoding == null)
+         return in;
+      if ("gzip".equals(contentEncoding))
+         return new GZIPInputStream(in, 8192);
+      if ("deflate".equals(contentEncoding)) {  // should be zlib wrapped, but some servers send it raw
+         PushbackInputStream pushback = new PushbackInputStream(in, 2);
+         byte[] first = new byte[2];
+         int read = 0;
+         while (read < 2) {
+            int n = pushback.read(first, read, 2 - read);
+            if (n < 0)
+               break;
+            read += n;
+         }
+         pushback.unread(first, 0, read);
+         return new InflaterInputStream(pushback, new Inflater(!Response.isZlib(first, read)), 8192);
+      }
+      
+      in.close();
+      throw new IOException("Unsupported Content-Encoding " + contentEncoding + " from " + url);
+   }
+
+
+   /**
+    * Reads and closes the InputStream
+    * @param in
+    * @return bytes
+    * @throws IOException
+    */
+   static byte[] readFully(InputStream in) throws IOException {
+      try {
+         ByteArrayOutputStream baos = new ByteArrayOutputStream(64 * 1024);
+         byte[] buffer = new byte[8192];
+         int read;
+         while ((read = in.read(buffer)) >= 0)
+            baos.write(buffer, 0, read);
+         return baos.toByteArray();
+      }
+      finally {
+         in.close();
+      }
+   }
+
+
+
+   /**
+    * A response body as received, possibly compressed
+    */
+   public static class Response {
+      public final String url;
+      public final long fetchedMS;
+      
+      /**
+       * "gzip", "deflate", or null if not compressed
+       */
+      public final String contentEncoding;
+      
+      protected final byte[] body;
+      
+      /**
+       * Constructor
+       * @param url
+       * @param fetchedMS
+       * @param contentEncoding  from the Content-Encoding header, may be null
+       * @param body             not copied, so don't modify it afterwards
+       */
+      public Response(String url, long fetchedMS, String contentEncoding, byte[] body) {
+         this.url = url;
+         this.fetchedMS = fetchedMS;
+         this.contentEncoding = normalize(contentEncoding);
+         this.body = body;
+      }
+      
+      /**
+       * Size as received
+       */
+      public int size() {
+         return body.length;
+      }
+      
+      public boolean isCompressed() {
+         return contentEncoding != null;
+      }
+      
+      /**
+       * @return an InputStream that decompresses as it's read
+       * @throws IOException  e.g. for an unsupported Content-Encoding
+       */
+      public InputStream openStream() throws IOException {
+         return decompressing(new ByteArrayInputStream(body), contentEncoding, url);
+      }
+      
+      /**
+       * @return the whole body, decompressed
+       * @throws IOException
+       */
+      public byte[] decompress() throws IOException {
+         return contentEncoding == null ? body : readFully(openStream());
+      }
+      
+      @Override
+      public String toString() {
+         return "Response " + url + " " + body.length + " bytes " + (contentEncoding != null ? contentEncoding : "uncompressed");
+      }
+      
+      static String normalize(String contentEncoding) {
+         if (contentEncoding == null)
+            return null;
+         contentEncoding = contentEncoding.trim().toLowerCase(Locale.ENGLISH);
+         if ((contentEncoding.length() == 0) || "identity".equals(contentEncoding))
+            return null;
+         return "x-gzip".equals(contentEncoding) ? "gzip" : contentEncoding;
+      }
+      
+      // RFC 1950 header: compression method 8, and the first two bytes are a multiple of 31
+      static boolean isZlib(byte[] bytes, int length) {
+         return (length >= 2) && ((bytes[0] & 0x0F) == 8) && ((((bytes[0] & 0xFF) << 8) | (bytes[1] & 0xFF)) % 31 == 0);
+      }
+   }
+
+
+
+   /**
+    * A Future that gets completed by someone else, and then tells the Callback
+    */
+   static class Result<T> implements Future<T> {
+
+      private final Weather.Callback<T> callback;
+      private final CountDownLatch latch = new CountDownLatch(1);
+      private volatile boolean cancelled = false;
+      private T value;
+      private Throwable failure;
+
+      Result(Weather.Callback<T> callback) {
+         this.callback = callback;
+      }
+
+      void succeed(T t) {
+         synchronized(this) {
+            if (isDone())
+               return;
+            value = t;
+            latch.countDown();
+         }
+         if (callback != null)
+            callback.onSuccess(t);
+      }
+
+      void fail(Throwable t) {
+         synchronized(this) {
+            if (isDone())
+               return;
+            failure = t;
+            latch.countDown();
+         }
+         if (callback != null)
+            callback.onFailure(t);
+      }
+
+      @Override
+      public boolean cancel(boolean mayInterruptIfRunning) {
+         synchronized(this) {
+            if (isDone())
+               return false;
+            cancelled = true;
+            latch.countDown();
+         }
+         if (callback != null)
+            callback.onFailure(new CancellationException());
+         return true;
+      }
+
+      @Override
+      public boolean isCancelled() {
+         return cancelled;
+      }
+
+      @Override
+      public boolean isDone() {
+         return latch.getCount() == 0;
+      }
+
+      @Override
+      public T get() throws InterruptedException, ExecutionException {
+         latch.await();
+         return report();
+      }
+
+      @Override
+      public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+         if (!latch.await(timeout, unit))
+            throw new TimeoutException();
+         return report();
+      }
+
+      private synchronized T report() throws ExecutionException {
+         if (cancelled)
+            throw new CancellationException();
+         if (failure != null)
+            throw new ExecutionException(failure);
+         return value;
+      }
+   }
+
+
+   static class DaemonThreadFactory implements ThreadFactory {
+      final String prefix;
+      final AtomicInteger count = new AtomicInteger();
+
+      DaemonThreadFactory(String prefix) {
+         this.prefix = prefix;
+      }
+
+      @Override
+      public Thread newThread(Runnable r) {
+         Thread thread = new Thread(r, prefix + count.incrementAndGet());
+         thread.setDaemon(true);
+         return thread;
+      }
+   }
+}
@@ -0,0 +1,509 @@
+package com.flyingspaniel.net.weather;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Collection;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Keeps the forecasts for many tracked locations up to date, refreshing each one when NOAA's refresh-frequency
+ * for it passes (plus or minus some jitter, so they don't all refresh at once) and telling a {@link Listener}.
+ * 
+ * <ul>
+ * <li>The fetching and parsing run on your Executor.  Since each refresh mostly blocks on the network, 
+ * on Java 21+ <code>Executors.newVirtualThreadPerTaskExecutor()</code> is ideal.  Otherwise, a large cached pool.
+ * <li>At most maxConcurrent refreshes run at once, no matter how many threads the Executor has.
+ * <li>Requests to each host are spaced at no more than {@link #setRatePerHost(double)} per second.
+ * A refresh waits for its slot on the scheduler, not on one of your Executor's threads.
+ * <li>Failed refreshes are retried after {@link #setRetryMS(long)}.
+ * </ul>
+ * 
+ * <pre>
+ *    NOAAWeather template = new NOAAWeather();
+ *    NOAARefresher refresher = new NOAARefresher(template, executor, 64);
+ *    refresher.setListener(myListener);
+ *    refresher.track("KC", 39.096, -94.595, null);
+ *    refresher.start();
+ * </pre>
+ * 
+ * @author Morgan Conrad
+ * @since Copyright(c) 2013  Morgan Conrad
+ *
+ * @see <a href="http://www.gnu.org/copyleft/lesser.html">This software is released under the LGPL</a>
+ */
+public class NOAARefresher {
+
+   public static final long DEFAULT_PERIOD_MS = NOAAWeather.ONE_HOUR;
+   public static final long DEFAULT_RETRY_MS = 5 * 60 * 1000L;
+   public static final double DEFAULT_JITTER = 0.1;
+   public static final int DEFAULT_DAYS = 7;
+   
+   /**
+    * Told of every refresh, on one of the Executor's threads.  Must be thread safe.
+    */
+   public interface Listener {
+      
+      /**
+       * @param id        as passed to track()
+       * @param snapshot  the new forecast
+       * @param previous  the one before, null the first time.  Use {@link ForecastDiff#compare(ForecastSnapshot, ForecastSnapshot)}
+       *                  to pass on only what changed.
+       */
+      public void onUpdate(String id, ForecastSnapshot snapshot, ForecastSnapshot previous);
+      
+      /**
+       * @param id        as passed to track()
+       * @param failure   usually an IOException or a Weather.Exception.  Will be retried.
+       */
+      public void onFailure(String id, Throwable failure);
+   }
+   
+   
+   protected final NOAAWeather template;
+   protected final Executor executor;
+   protected final Semaphore concurrency;
+   protected final RateLimiter rateLimiter = new RateLimiter();
+   protected final ScheduledExecutorService scheduler;
+   protected final Random random = new Random();
+   
+   protected final ConcurrentMap<String, Tracked> tracked = new ConcurrentHashMap<String, Tracked>();
+   
+   protected volatile Listener listener = null;
+   protected volatile long periodMS = DEFAULT_PERIOD_MS;
+   protected volatile long retryMS = DEFAULT_RETRY_MS;
+   protected volatile double jitter = DEFAULT_JITTER;
+   protected volatile int days = DEFAULT_DAYS;
+   protected volatile boolean started = false;
+   
+   protected final AtomicLong refreshes = new AtomicLong();
+   protected final AtomicLong failures = new AtomicLong();
+   
+   
+   /**
+    * Constructor
+    * @param template       non-null, its settings (baseURL, engine, NDFDs, metrics...) are used for every request.  
+    *                       Its location and dates are ignored.
+    * @param executor       non-null, does the fetching and parsing.  Not shut down by stop()
+    * @param maxConcurrent  maximum number of refreshes in progress at once
+    */
+   public NOAARefresher(NOAAWeather template, Executor executor, int maxConcurrent) {
+      if (maxConcurrent <= 0)
+         throw new IllegalArgumentException("maxConcurrent=" + maxConcurrent);
+      this.template = template;
+      this.executor = executor;
+      this.concurrency = new Semaphore(maxConcurrent);
+      
+      ScheduledThreadPoolExecutor stpe = new ScheduledThreadPoolExecutor(1, new NOAAFetcher.DaemonThreadFactory("NOAARefresher-"));
+      stpe.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+      scheduler = stpe;
+   }
+   
+   
+   /**
+    * @param newListener  may be null
+    */
+   public void setListener(Listener newListener) {
+      listener = newListener;
+   }
+   
+   /**
+    * @param requestsPerSecond  to each host, <= 0 means unlimited (the default)
+    */
+   public void setRatePerHost(double requestsPerSecond) {
+      rateLimiter.setRate(requestsPerSecond);
+   }
+   
+   /**
+    * @param ms  how often to refresh when NOAA doesn't send a refresh-frequency
+    */
+   public void setPeriodMS(long ms) {
+      periodMS = ms;
+   }
+   
+   /**
+    * @param ms  how long to wait after a failure
+    */
+   public void setRetryMS(long ms) {
+      retryMS = ms;
+   }
+   
+   /**
+    * @param fraction  each delay is randomly varied by up to +/- this fraction, e.g. 0.1 for 10%
+    */
+   public void setJitter(double fraction) {
+      jitter = fraction;
+   }
+   
+   /**
+    * @param newDays  each refresh asks for the forecast from now until newDays later
+    */
+   public void setDays(int newDays) {
+      days = newDays;
+   }
+   
+   
+   /**
+    * Start tracking a location.  If already started, it gets refreshed right away.
+    * @param id         your name for it, non-null, unique
+    * @param latitude
+    * @param longitude
+    * @param ndfds      added to the template's NDFDs, may be null
+    */
+   public void track(String id, double latitude, double longitude, Collection<NDFD> ndfds) {
+      EnumSet<NDFD> allNDFDs = EnumSet.noneOf(NDFD.class);
+      allNDFDs.addAll(template.NDFDs);
+      if (ndfds != null)
+         allNDFDs.addAll(ndfds);
+      
+      Tracked t = new Tracked(id, latitude, longitude, allNDFDs);
+      Tracked was = tracked.put(id, t);
+      if (was != null)
+         was.cancel();
+      if (started)
+         schedule(t, 0L);
+   }
+   
+   
+   /**
+    * Stop tracking a location
+    * @param id
+    * @return true if it was being tracked
+    */
+   public boolean untrack(String id) {
+      Tracked t = tracked.remove(id);
+      if (t != null)
+         t.cancel();
+      return t != null;
+   }
+   
+   
+   /**
+    * Refresh every tracked location now, then keep them up to date
+    */
+   public synchronized void start() {
+      if (started)
+         return;
+      started = true;
+      for (Tracked t : tracked.values())
+         schedule(t, 0L);
+   }
+   
+   
+   /**
+    * Stop scheduling refreshes.  Those in progress finish, but their next refreshes are not scheduled.
+    * Can't be restarted.
+    */
+   public synchronized void stop() {
+      started = false;
+      scheduler.shutdownNow();
+   }
+   
+   
+   /**
+    * @param id
+    * @return the latest forecast, null if none yet (or not tracked)
+    */
+   public ForecastSnapshot getLatest(String id) {
+      Tracked t = tracked.get(id);
+      return t != null ? t.latest : null;
+   }
+   
+   /**
+    * @return the latest forecasts, by id, for those that have one
+    */
+   public Map<String, ForecastSnapshot> getAllLatest() {
+      Map<String, ForecastSnapshot> all = new HashMap<String, ForecastSnapshot>();
+      for (Tracked t : tracked.values()) {
+         ForecastSnapshot latest = t.latest;
+         if (latest != null)
+            all.put(t.id, latest);
+      }
+      return all;
+   }
+   
+   public int size() {
+      return tracked.size();
+   }
+   
+   /**
+    * Number of successful refreshes
+    */
+   public long getRefreshes() {
+      return refreshes.get();
+   }
+   
+   /**
+    * Number of failed refreshes
+    */
+   public long getFailures() {
+      return failures.get();
+   }
+   
+   
+   protected void schedule(final Tracked t, long delayMS) {
+      if (!started || (tracked.get(t.id) != t))
+         return;
+      try {
+         t.next = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+               dispatch(t);
+            }
+         }, delayMS, TimeUnit.MILLISECONDS);
+      } catch (RejectedExecutionException stopped) {
+         ;
+      }
+   }
+   
+   
+   /**
+    * Reserves t's rate slot, then hands t to the Executor when the slot comes
+    * @param t
+    */
+   protected void dispatch(final Tracked t) {
+      long waitNanos = reserveRateSlot(host(template.baseURL)) - System.nanoTime();
+      if (waitNanos <= 0) {
+         execute(t);
+         return;
+      }
+      
+      try {
+         t.next = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+               execute(t);
+            }
+         }, waitNanos, TimeUnit.NANOSECONDS);
+      } catch (RejectedExecutionException stopped) {
+         ;
+      }
+   }
+   
+   
+   protected void execute(final Tracked t) {
+      try {
+         executor.execute(new Runnable() {
+            @Override
+            public void run() {
+               refresh(t);
+            }
+         });
+      } catch (RejectedExecutionException ree) {
+         failed(t, ree);
+      }
+   }
+   
+   
+   /**
+    * Does one refresh, on the Executor, then schedules the next.
+    * If interrupted while waiting for a concurrency permit, that is a failure, so it gets retried.
+    * @param t
+    */
+   protected void refresh(Tracked t) {
+      try {
+         concurrency.acquire();
+      } catch (InterruptedException ie) {
+         Thread.currentThread().interrupt();
+         failed(t, ie);
+         return;
+      }
+      
+      ForecastSnapshot snapshot = null;
+      Throwable failure = null;
+      try {
+         NOAAWeather weather = template.copySettings();
+         weather.NDFDs.addAll(t.ndfds);
+         weather.setLocation(t.latitude, t.longitude);
+         weather.setDates(new Date(), days);
+         snapshot = weather.callSnapshot();
+      } catch (Throwable th) {
+         failure = th;
+      }
+      finally {
+         concurrency.release();
+      }
+      
+      if (failure != null)
+         failed(t, failure);
+      else
+         updated(t, snapshot);
+   }
+   
+   
+   /**
+    * Reserves the next request to host, without waiting for it
+    * @param host
+    * @return the slot reserved, in System.nanoTime(), see {@link RateLimiter#reserve(String)}
+    */
+   protected long reserveRateSlot(String host) {
+      return rateLimiter.reserve(host);
+   }
+   
+   
+   /**
+    * Tells the Listener, then schedules the next refresh, even if the Listener throws
+    * @param t
+    * @param snapshot
+    */
+   protected void updated(Tracked t, ForecastSnapshot snapshot) {
+      ForecastSnapshot previous = t.latest;
+      t.latest = snapshot;
+      refreshes.incrementAndGet();
+      try {
+         Listener l = listener;
+         if (l != null)
+            l.onUpdate(t.id, snapshot, previous);
+      } catch (Throwable listenerFailure) {
+         ;  // the Listener's problem, keep refreshing
+      }
+      finally {
+         schedule(t, nextDelayMS(snapshot));
+      }
+   }
+   
+   
+   /**
+    * Tells the Listener, then schedules a retry, even if the Listener throws
+    * @param t
+    * @param failure
+    */
+   protected void failed(Tracked t, Throwable failure) {
+      failures.incrementAndGet();
+      try {
+         Listener l = listener;
+         if (l != null)
+            l.onFailure(t.id, failure);
+      } catch (Throwable listenerFailure) {
+         ;  // the Listener's problem, keep retrying
+      }
+      finally {
+         schedule(t, jittered(retryMS));
+      }
+   }
+   
+   
+   /**
+    * How long until the next refresh: NOAA's refresh-frequency, else periodMS, with jitter
+    * @param snapshot
+    * @return ms
+    */
+   protected long nextDelayMS(ForecastSnapshot snapshot) {
+      long ms = ForecastCache.parseDuration(snapshot.getMoreInfo().get(NOAAWeather.MoreInfoKeys.REFRESH_FREQUENCY.name()));
+      return jittered(ms > 0 ? ms : periodMS);
+   }
+   
+   
+   protected long jittered(long ms) {
+      double factor;
+      synchronized(random) {
+         factor = 1.0 + jitter * (2.0 * random.nextDouble() - 1.0);
+      }
+      return Math.max(0L, (long)(ms * factor));
+   }
+   
+   
+   static String host(String url) {
+      try {
+         return new URL(url).getHost();
+      } catch (MalformedURLException mue) {
+         return url;
+      }
+   }
+   
+   
+   
+   /**
+    * One tracked location
+    */
+   static class Tracked {
+      final String id;
+      final double latitude;
+      final double longitude;
+      final EnumSet<NDFD> ndfds;
+      
+      volatile ForecastSnapshot latest = null;
+      volatile ScheduledFuture<?> next = null;
+      
+      Tracked(String id, double latitude, double longitude, EnumSet<NDFD> ndfds) {
+         this.id = id;
+         this.latitude = latitude;
+         this.longitude = longitude;
+         this.ndfds = ndfds;
+      }
+      
+      void cancel() {
+         ScheduledFuture<?> n = next;
+         if (n != null)
+            n.cancel(false);
+      }
+   }
+   
+   
+   
+   /**
+    * Spaces requests to each host at least 1/rate seconds apart.  
+    * Callers reserve the next free slot, then wait until it comes, either in {@link #acquire(String)} or on their own.
+    */
+   public static class RateLimiter {
+      
+      protected final Map<String, Long> nextSlotNanos = new HashMap<String, Long>();
+      protected volatile long intervalNanos = 0L;
+      
+      /**
+       * @param requestsPerSecond  <= 0 means unlimited
+       */
+      public void setRate(double requestsPerSecond) {
+         intervalNanos = requestsPerSecond > 0 ? (long)(1e9 / requestsPerSecond) : 0L;
+      }
+      
+      
+      /**
+       * Blocks until a request to host is allowed
+       * @param host
+       * @return the slot reserved, in System.nanoTime().  Slots for a host are at least 1/rate seconds apart.
+       * @throws InterruptedException
+       */
+      public long acquire(String host) throws InterruptedException {
+         long slot = reserve(host);
+         long waitNanos = slot - System.nanoTime();
+         if (waitNanos > 0)
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+         return slot;
+      }
+      
+      
+      /**
+       * Reserves the next request to host, without waiting
+       * @param host
+       * @return the slot reserved, in System.nanoTime(), now or later.  Slots for a host are at least 1/rate seconds apart.
+       */
+      public long reserve(String host) {
+         long now = System.nanoTime();
+         long interval = intervalNanos;
+         if (interval <= 0)
+            return now;
+         
+         synchronized(nextSlotNanos) {
+            Long next = nextSlotNanos.get(host);
+            long slot = (next != null) && (next.longValue() - now > 0) ? next.longValue() : now;
+            nextSlotNanos.put(host, slot + interval);
+            return slot;
+         }
+      }
+   }
+}
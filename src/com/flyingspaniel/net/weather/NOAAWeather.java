@@ -1,7 +1,9 @@
 package com.flyingspaniel.net.weather;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -14,13 +16,19 @@ import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
 
 import javax.xml.xpath.XPathExpressionException;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
 
+import com.flyingspaniel.metrics.MetricsListener;
 import com.flyingspaniel.ranges.RangesPredicates;
 import com.flyingspaniel.xml.UsesXPath;
 
@@ -29,6 +37,12 @@ import com.flyingspaniel.xml.UsesXPath;
 /**
  * Implementation of IWeather using the NOAA National Weather Service
  * 
+ * <p>If a {@link MetricsListener} is set (see {@link #setMetrics(MetricsListener)}) each call() reports 
+ * the time spent fetching, parsing, extracting and computing, plus the bytes fetched and series computed.  
+ * See the names below, as well as {@link UsesXPath#LOAD_DOM} and {@link TimeLayout#PARSE_XML}.
+ * To time the fetch separately, the DWML is then fetched completely before it is parsed.  
+ * Otherwise it is parsed as it arrives.
+ * 
  * @author Morgan Conrad
  * @since Copyright(c) 2013  Morgan Conrad
  *
@@ -44,7 +58,16 @@ public class NOAAWeather extends UsesXPath implements Weather.Interface<Double[]
    public enum MoreInfoKeys {
       DATE, 
       IN_URL,   // URL we send to NOAA 
-      OUT_URL   // URL they return as a link in moreWeatherInformation
+      OUT_URL,  // URL they return as a link in moreWeatherInformation
+      REFRESH_FREQUENCY  // how often NOAA updates the forecast, e.g. "PT1H"
+   }
+   
+   /**
+    * How the DWML gets parsed
+    */
+   public enum Engine {
+      DOM,       // load a Document, then navigate it with XPath (the default)
+      STREAMING  // single pass through a DWMLStreamParser, no Document is built
    }
    
    
@@ -55,11 +78,34 @@ public class NOAAWeather extends UsesXPath implements Weather.Interface<Double[]
   // NDFDs that are always done
    static final EnumSet<NDFD> STANDARD_NDFDS = EnumSet.of(NDFD.maxt, NDFD.mint, NDFD.temp, NDFD.icons);
    
+   // coalesces concurrent identical requests from all NOAAWeathers that setCoalesce(true) but don't use a ForecastCache
+   static final SingleFlight<String, ForecastSnapshot> sSingleFlight = new SingleFlight<String, ForecastSnapshot>();
+   
+   // names for the MetricsListener
+   public static final String CALL = "noaa.call";
+   public static final String FETCH = "noaa.fetch";
+   public static final String FETCH_BYTES = "noaa.fetch.bytes";
+   public static final String STREAM_PARSE = "noaa.streamParse";
+   public static final String EXTRACT = "noaa.extract";
+   public static final String ICONS = "noaa.icons";
+   public static final String FORECASTS = "noaa.forecasts";
+   public static final String SERIES = "noaa.series";
+   
    static final String TIME_LAYOUT = "time-layout";
    static final long ONE_HOUR = 1000L*60*60;
    
+   protected Engine engine = Engine.DOM;
+   protected String baseURL = BASE_URL;
+   protected String locationKey = null;  // for multi-point DWML, e.g. "point2".  null means the first (usually only)
+   protected ForecastCache cache = null;
+   protected boolean coalesce = false;  // if true (and no cache), share fetches with concurrent identical requests
+   protected TimestampTable timestampTable = null;  // if null, a new one per document
+   protected boolean releaseDocument = false;  // if true, drop the document as soon as call() is done with it
+   protected Executor extractExecutor = null;  // if non-null, Engine.STREAMING creates the NDFDSeries in parallel
+   
    protected Document document = null;
    protected Node mainNode = null;       // "dwml/data"
+   protected DWMLStreamParser streamed = null;   // used instead of document by Engine.STREAMING
    
    protected List<Forecast> forecasts;
    protected List<Date> forecastPreferredDates;
@@ -138,6 +184,7 @@ public class NOAAWeather extends UsesXPath implements Weather.Interface<Double[]
       this.startDate = startDate;
       this.endDate = endDate;   
       document = null;
+      streamed = null;
    }
    
    @Override
@@ -154,53 +201,360 @@ public class NOAAWeather extends UsesXPath implements Weather.Interface<Double[]
       latitude = latLong[0];
       longitude = latLong[1];
       document = null;
+      streamed = null;
    }
    
+   /**
+    * Select how the DWML gets parsed.  Results are identical either way.
+    * @param newEngine  non-null
+    * @return previous value
+    */
+   public Engine setEngine(Engine newEngine) {
+      if (newEngine == null)
+         throw new IllegalArgumentException();
+      Engine was = engine;
+      engine = newEngine;
+      return was;
+   }
+   
+   
+   public Engine getEngine() {
+      return engine;
+   }
+   
+   
+   /**
+    * A new NOAAWeather with the same settings (dates, NDFDs, engine, etc.) but no location or results
+    * @return NOAAWeather
+    */
+   public NOAAWeather copySettings() {
+      NOAAWeather copy = new NOAAWeather();
+      copy.engine = engine;
+      copy.baseURL = baseURL;
+      copy.cache = cache;
+      copy.coalesce = coalesce;
+      copy.timestampTable = timestampTable;
+      copy.metrics = metrics;
+      copy.releaseDocument = releaseDocument;
+      copy.extractExecutor = extractExecutor;
+      copy.NDFDs.addAll(NDFDs);
+      copy.preferredHour = preferredHour;
+      copy.maxHourDiff = maxHourDiff;
+      copy.startDate = startDate;
+      copy.endDate = endDate;
+      return copy;
+   }
+   
+   
+   /**
+    * Change the URL of the NOAA REST service, e.g. to use a mirror or a test server
+    * @param newBaseURL  if null, use BASE_URL
+    * @return previous value
+    */
+   public String setBaseURL(String newBaseURL) {
+      String was = baseURL;
+      baseURL = newBaseURL != null ? newBaseURL : BASE_URL;
+      return was;
+   }
+   
+   
+   /**
+    * For long lived NOAAWeathers, drop the Document (or DWMLStreamParser) once call() has extracted the results,
+    * which are typically a few KB, vs. several MB for the Document.  
+    * Everything but re-extraction, e.g. getNDFDSeries(), works from the extracted results.
+    * @param release  default is false
+    * @return previous value
+    */
+   public boolean setReleaseDocument(boolean release) {
+      boolean was = releaseDocument;
+      releaseDocument = release;
+      return was;
+   }
+   
+   
+   /**
+    * Extract the NDFDSeries in parallel, which helps when many NDFDs (or, with {@link NOAABatch}, many locations) are requested.
+    * Only affects Engine.STREAMING, whose single pass collects each series' values, which are then converted 
+    * independently, see {@link DWMLStreamParser#setExecutor(Executor)}.  The results are identical to the sequential extraction.
+    * Engine.DOM always extracts sequentially, since DOM implementations don't promise that concurrent reads are safe.
+    * @param executor  e.g. a ForkJoinPool or a fixed thread pool.  null (the default) means sequential
+    * @return previous value
+    */
+   public Executor setExtractExecutor(Executor executor) {
+      Executor was = extractExecutor;
+      extractExecutor = executor;
+      return was;
+   }
+   
+   
+   /**
+    * Share parsed results with other NOAAWeathers making the same request, as normalized by {@link #getRequestKey()}.
+    * What is fetched, and shared, is the normalized request, e.g. the forecast for 37.54,-122.5 when asked for 37.541,-122.4999
+    * @param newCache  if null, don't cache
+    * @return previous value
+    */
+   public ForecastCache setCache(ForecastCache newCache) {
+      ForecastCache was = cache;
+      cache = newCache;
+      return was;
+   }
+   
+   
+   public ForecastCache getCache() {
+      return cache;
+   }
+   
+   
+   /**
+    * Share the fetch and parse with other NOAAWeathers making exactly the same request at the same time,
+    * i.e. the same NOAA URL, locationKey and Engine.  Like using a cache, the results are copied from the shared one, 
+    * so the Document (or DWMLStreamParser) isn't kept.  Ignored if there is a cache, which coalesces on its own.
+    * @param newCoalesce  default is false
+    * @return previous value
+    */
+   public boolean setCoalesce(boolean newCoalesce) {
+      boolean was = coalesce;
+      coalesce = newCoalesce;
+      return was;
+   }
+   
+   
+   /**
+    * Share parsed timestamps across documents, e.g. with {@link TimestampTable#forCurrentThread()}.
+    * The table is not thread safe, so only share one between NOAAWeathers used on the same thread.
+    * @param newTable  if null, use a new TimestampTable for each document
+    * @return previous value
+    */
+   public TimestampTable setTimestampTable(TimestampTable newTable) {
+      TimestampTable was = timestampTable;
+      timestampTable = newTable;
+      return was;
+   }
+   
+   
+   /**
+    * Like call(), but returns immediately. The fetch and parse are done by the default {@link NOAAFetcher}
+    * @return Future, whose get() returns this or throws an ExecutionException
+    */
+   public Future<NOAAWeather> callAsync() {
+      return callAsync(NOAAFetcher.getDefault(), null);
+   }
+   
+   
+   /**
+    * Like call(), but returns immediately. 
+    * Don't modify this NOAAWeather until the Future is done.
+    * 
+    * @param fetcher   non-null, does the fetch and parse
+    * @param callback  may be null
+    * @return Future, whose get() returns this or throws an ExecutionException
+    */
+   public Future<NOAAWeather> callAsync(NOAAFetcher fetcher, Weather.Callback<NOAAWeather> callback) {
+      return fetcher.submit(this, callback);
+   }
+   
+   
    @Override
    public NOAAWeather call() throws IOException {
-
+      long start = System.nanoTime();
       try {
          NDFDs.addAll(STANDARD_NDFDS);
-         if (document == null)
-            document = loadDocFromNOAA();
-
-         mainNode = getNodeFromXPath(document, "dwml/data");
-
-         NodeList timeLayouts = getNodeListFromXPath(mainNode, TIME_LAYOUT);
-         for (int n=0; n<timeLayouts.getLength(); n++) {
-            TimeLayout timeLayout = TimeLayout.parseXML(timeLayouts.item(n));
-            this.timeLayoutMap.put(timeLayout.layoutKey, timeLayout);
-            
-            if (n == 0)
-               timeLayout0 = timeLayout;
-         }
-         
-        //  NDFDs.addAll(STANDARD_NDFDS);
-         for (NDFD ndfd : NDFDs) {
-            NDFDSeries series = parseNDFDSeries(ndfd);
-            ndfdSeriesMap.put(series.ndfd, series);
+         if ((document == null) && (streamed == null) && ((cache != null) || coalesce)) {
+            // going to NOAA, share the work with any identical requests
+            Callable<ForecastSnapshot> loader = new Callable<ForecastSnapshot>() {
+               @Override
+               public ForecastSnapshot call() throws IOException {
+                  return loadForCache();
+               }
+            };
+            copyResultsFrom(cache != null ? cache.get(this, loader) : sSingleFlight.execute(getCoalescingKey(), loader));
          }
-         
-         // icons get computed afterwards...
-         if (NDFDs.contains(NDFD.icons)) {
-            NDFDSeries series = computeIconInterpretations(ndfdSeriesMap.get(NDFD.icons));
-            ndfdSeriesMap.put(series.ndfd, series);
+         else {
+            compute();
+            if (releaseDocument)
+               releaseDocument();
          }
-         
-         computeMoreInfo(document);
-         
-         forecasts = computeDailyForecasts();
 
       } catch (IOException ioe) {
+         metrics.error(CALL, ioe);
          throw ioe;
       } catch (Exception ex) {
+         metrics.error(CALL, ex);
          throw new Weather.Exception(ex);
       }
       
+      metrics.timing(CALL, System.nanoTime() - start);
       return this;
    }
    
+   
+   /**
+    * call(), then return an immutable snapshot of the results, dropping the Document (or DWMLStreamParser) 
+    * and this NOAAWeather's reference to it, so only the snapshot needs to be kept.
+    * @return ForecastSnapshot
+    * @throws IOException
+    */
+   public ForecastSnapshot callSnapshot() throws IOException {
+      call();
+      ForecastSnapshot snapshot = snapshot();
+      releaseDocument();
+      return snapshot;
+   }
+   
+   
+   /**
+    * Drop the Document (or DWMLStreamParser), keeping only the extracted results
+    */
+   protected void releaseDocument() {
+      document = null;
+      mainNode = null;
+      streamed = null;
+   }
+   
+   
+   /**
+    * An immutable copy of the results of the last call(), safe to share between threads
+    * @return ForecastSnapshot
+    * @throws IllegalStateException if there has been no call()
+    */
+   public ForecastSnapshot snapshot() {
+      return new ForecastSnapshot(this);
+   }
+   
+   
+   /**
+    * Does the work of call(), uncoalesced, fetching from NOAA only if there is no document or streamed
+    * @throws IOException
+    * @throws XPathExpressionException
+    * @throws ParseException
+    */
+   protected void compute() throws IOException, XPathExpressionException, ParseException {
+      if ((engine == Engine.STREAMING) && (document == null)) {
+         if (streamed == null)
+            streamed = streamFromNOAA();
+         
+         extractFromStream(streamed);
+      }
+      else {
+         if (document == null)
+            document = loadDocFromNOAA();
+         
+         extractFromDocument(document);
+      }
+      
+      // icons get computed afterwards...
+      long start = System.nanoTime();
+      if (NDFDs.contains(NDFD.icons)) {
+         NDFDSeries series = computeIconInterpretations(ndfdSeriesMap.get(NDFD.icons));
+         ndfdSeriesMap.put(series.ndfd, series);
+         metrics.timing(ICONS, System.nanoTime() - start);
+         start = System.nanoTime();
+      }
+      
+      forecasts = computeDailyForecasts();
+      metrics.timing(FORECASTS, System.nanoTime() - start);
+      metrics.count(SERIES, ndfdSeriesMap.size());
+   }
+   
   
+   /**
+    * Does a fresh, uncoalesced, fetch and compute() for the same request.
+    * When caching, for the normalized request, so that the result matches its {@link #getRequestKey()}
+    * @return ForecastSnapshot, to be shared
+    * @throws IOException
+    */
+   protected ForecastSnapshot loadForCache() throws IOException {
+      NOAAWeather loaded = copySettings();
+      loaded.cache = null;
+      loaded.coalesce = false;
+      loaded.locationKey = locationKey;
+      loaded.latitude = latitude;
+      loaded.longitude = longitude;
+      if (cache != null) {
+         loaded.latitude = roundToKey(latitude);
+         loaded.longitude = roundToKey(longitude);
+         loaded.startDate = truncateToHour(startDate);
+         loaded.endDate = truncateToHour(endDate);
+      }
+      try {
+         loaded.compute();
+      } catch (IOException ioe) {
+         throw ioe;
+      } catch (Exception ex) {
+         throw new Weather.Exception(ex);
+      }
+      
+      return loaded.snapshot();
+   }
+   
+   
+   /**
+    * Copies the results of a snapshot, with modifiable copies of the Forecasts
+    * @param snapshot
+    */
+   protected void copyResultsFrom(ForecastSnapshot snapshot) {
+      timeLayoutMap.putAll(snapshot.getTimeLayouts());
+      timeLayout0 = snapshot.getFirstTimeLayout();
+      ndfdSeriesMap.putAll(snapshot.getNDFDSeriesMap());
+      moreInfo.putAll(snapshot.getMoreInfo());
+      forecasts = new ArrayList<Forecast>(snapshot.getForecasts().size());
+      for (Forecast forecast : snapshot.getForecasts())
+         forecasts.add(new Forecast(forecast));
+   }
+   
+   
+   /**
+    * Extracts the TimeLayouts, NDFDSeries and moreInfo from the Document, using XPath
+    * @param document
+    * @throws XPathExpressionException
+    * @throws ParseException
+    */
+   protected void extractFromDocument(Document document) throws XPathExpressionException, ParseException {
+      long start = System.nanoTime();
+      mainNode = getNodeFromXPath(document, "dwml/data");
+
+      NodeList timeLayouts = getNodeListFromXPath(mainNode, TIME_LAYOUT);
+      TimestampTable table = timestampTable != null ? timestampTable : new TimestampTable();
+      for (int n=0; n<timeLayouts.getLength(); n++) {
+         TimeLayout timeLayout = TimeLayout.parseXML(timeLayouts.item(n), table, metrics);
+         this.timeLayoutMap.put(timeLayout.layoutKey, timeLayout);
+         
+         if (n == 0)
+            timeLayout0 = timeLayout;
+      }
+      
+      for (NDFD ndfd : NDFDs) {
+         NDFDSeries series = parseNDFDSeries(ndfd);
+         ndfdSeriesMap.put(series.ndfd, series);
+      }
+      
+      computeMoreInfo(document);
+      metrics.timing(EXTRACT, System.nanoTime() - start);
+   }
+   
+   
+   /**
+    * Copies the TimeLayouts, NDFDSeries and moreInfo from a completed DWMLStreamParser
+    * @param parser
+    */
+   protected void extractFromStream(DWMLStreamParser parser) {
+      timeLayoutMap.putAll(parser.getTimeLayouts());
+      timeLayout0 = parser.getFirstTimeLayout();
+      
+      Map<NDFD, NDFDSeries> parsed = parser.getNDFDSeriesMap(locationKey);
+      if (parsed == null)
+         throw new Weather.Exception("No location " + locationKey);
+      for (NDFD ndfd : NDFDs) {
+         NDFDSeries series = parsed.get(ndfd);
+         if (series == null)
+            throw new Weather.Exception("Not parsed: " + ndfd);
+         ndfdSeriesMap.put(series.ndfd, series);
+      }
+      
+      moreInfo.putAll(parser.getMoreInfo(locationKey));
+   }
+   
+   
    /**
     * Loads the doc from a previously stored file.  (generally for unit tests)
     * @param file
@@ -218,12 +572,227 @@ public class NOAAWeather extends UsesXPath implements Weather.Interface<Double[]
    }
    
    
+   /**
+    * Loads the DWML from a stream, e.g. one that was fetched separately, using the current engine.
+    * Follow with call() to finish the computations.
+    * @param in   not closed here
+    * @throws IOException
+    */
+   protected void loadFromStream(InputStream in) throws IOException {
+      NDFDs.addAll(STANDARD_NDFDS);
+      try {
+         if (engine == Engine.STREAMING) {
+            streamed = streamParse(in);
+            document = null;
+         }
+         else {
+            document = loadDOM(in);
+            streamed = null;
+         }
+      } catch (IOException ioe) {
+         throw ioe;
+      } catch (Exception ex) {
+         throw new Weather.Exception(ex);
+      }
+   }
+   
+   
+   /**
+    * Stream parses, reporting to the MetricsListener as STREAM_PARSE
+    * @param in   not closed here
+    * @return DWMLStreamParser holding the results
+    * @throws IOException
+    * @throws SAXException
+    */
+   protected DWMLStreamParser streamParse(InputStream in) throws IOException, SAXException {
+      long start = System.nanoTime();
+      try {
+         DWMLStreamParser parser = newStreamParser().parse(in);
+         metrics.timing(STREAM_PARSE, System.nanoTime() - start);
+         return parser;
+      } catch (IOException ioe) {
+         metrics.error(STREAM_PARSE, ioe);
+         throw ioe;
+      } catch (SAXException saxe) {
+         metrics.error(STREAM_PARSE, saxe);
+         throw saxe;
+      }
+   }
+   
+   
+   protected DWMLStreamParser newStreamParser() {
+      DWMLStreamParser parser = new DWMLStreamParser(NDFDs);
+      if (timestampTable != null)
+         parser.setTimestampTable(timestampTable);
+      parser.setExecutor(extractExecutor);
+      return parser;
+   }
+   
+   
+   /**
+    * Stream parses a previously stored file.  (generally for unit tests)
+    * @param file
+    * @return DWMLStreamParser holding the results
+    * @throws IOException
+    */
+   protected DWMLStreamParser streamFromFile(File file) throws IOException {
+      NDFDs.addAll(STANDARD_NDFDS);
+      InputStream in = new FileInputStream(file);
+      try {
+         return streamParse(in);
+      } catch (SAXException saxe) {
+         throw new Weather.Exception(saxe);
+      }
+      finally {
+         in.close();
+      }
+   }
+   
+   
+   /**
+    * Stream parses the DWML from the NOAA REST service
+    * @return DWMLStreamParser holding the results
+    * @throws IOException
+    */
+   protected DWMLStreamParser streamFromNOAA() throws IOException {
+      InputStream in = openFromNOAA(NOAAFetcher.getDefault(), createNOAAURL());
+      try {
+         return streamParse(in);
+      } catch (SAXException saxe) {
+         throw new Weather.Exception(saxe);
+      }
+      finally {
+         in.close();
+      }
+   }
+   
+   
    /**
     * Loads the XML Document from the NOAA REST service
     * @return XML Document
     * @throws IOException
     */
    protected Document loadDocFromNOAA() throws IOException {
+      InputStream in = openFromNOAA(NOAAFetcher.getDefault(), createNOAAURL());
+      
+      try {
+         return loadDOM(in);
+      }
+      catch (IOException ioe) {
+         throw ioe;
+      }
+      catch (Exception ex) {
+         throw new Weather.Exception(ex);
+      }
+      finally {
+         in.close();
+      }
+   }
+   
+   
+   /**
+    * Opens the DWML, to be parsed as it arrives.  
+    * Only if fetcher has an archive, or there is a MetricsListener to report FETCH to, is it fetched completely first, 
+    * see {@link #fetchFromNOAA(NOAAFetcher, String)}.
+    * @param fetcher  non-null
+    * @param url
+    * @return InputStream, decompressed as it is read.  Close it when done.
+    * @throws IOException
+    */
+   protected InputStream openFromNOAA(NOAAFetcher fetcher, String url) throws IOException {
+      if ((fetcher.archive != null) || (metrics != MetricsListener.NONE))
+         return fetchFromNOAA(fetcher, url).openStream();
+      return fetcher.openStream(url);
+   }
+   
+   
+   /**
+    * Fetches the DWML, reporting to the MetricsListener as FETCH and FETCH_BYTES (as received, so usually compressed).
+    * Fetching completely before parsing keeps the network time separate from the parse time.
+    * @param fetcher  non-null
+    * @param url
+    * @return Response, still compressed, use openStream() to parse it
+    * @throws IOException
+    */
+   protected NOAAFetcher.Response fetchFromNOAA(NOAAFetcher fetcher, String url) throws IOException {
+      long start = System.nanoTime();
+      try {
+         NOAAFetcher.Response dwml = fetcher.fetchResponse(url);
+         metrics.timing(FETCH, System.nanoTime() - start);
+         metrics.count(FETCH_BYTES, dwml.size());
+         return dwml;
+      } catch (IOException ioe) {
+         metrics.error(FETCH, ioe);
+         throw ioe;
+      }
+   }
+   
+   
+   /**
+    * Identifies the request, normalized so that requests NOAA would answer the same way are equal:
+    * latitude and longitude rounded to 0.01 degrees (the precision NOAA returns) and dates truncated to the hour.
+    * It looks like a URL, but is not meant to be sent to NOAA.  Used by ForecastCache.
+    * @return String
+    */
+   public String getRequestKey() {
+      NDFDs.addAll(STANDARD_NDFDS);
+      StringBuilder key = new StringBuilder();
+      key.append(baseURL);
+      key.append("?lat=" + roundToKey(latitude));
+      key.append("&lon=" + roundToKey(longitude));
+      key.append("&beginHour=" + (startDate != null ? startDate.getTime() / ONE_HOUR : ""));
+      key.append("&endHour=" + (endDate != null ? endDate.getTime() / ONE_HOUR : ""));
+      for (NDFD ndfd : NDFDs)  // EnumSet, so always in the same order
+         key.append("&" + ndfd.name());
+      if (locationKey != null)
+         key.append("&point=" + locationKey);
+      
+      return key.toString();
+   }
+   
+   
+   /**
+    * @param degrees  latitude or longitude
+    * @return rounded to 0.01 degrees, as in getRequestKey()
+    */
+   static double roundToKey(double degrees) {
+      return Math.round(degrees * 100) / 100.0;
+   }
+   
+   
+   /**
+    * @param date  may be null
+    * @return date truncated to the hour, as in getRequestKey()
+    */
+   static Date truncateToHour(Date date) {
+      return date != null ? new Date(date.getTime() / ONE_HOUR * ONE_HOUR) : null;
+   }
+   
+   
+   /**
+    * Identifies the request exactly, for setCoalesce(): the Engine, the locationKey and the URL sent to NOAA
+    * @return String
+    */
+   protected String getCoalescingKey() {
+      return engine + " " + locationKey + " " + createNOAAURL();
+   }
+   
+   
+   /**
+    * Creates the URL for the NOAA REST service, and saves it in moreInfo as IN_URL
+    * @return String
+    */
+   protected String createNOAAURL() {
+      return createNOAAURL("lat=" + latitude + "&lon=" + longitude);
+   }
+   
+   
+   /**
+    * Creates the URL for the NOAA REST service, and saves it in moreInfo as IN_URL
+    * @param where  the location part of the query, e.g. "lat=38.99&lon=-77.01" or "listLatLon=..."
+    * @return String
+    */
+   protected String createNOAAURL(String where) {
       String begin;
       String end;
       
@@ -232,10 +801,10 @@ public class NOAAWeather extends UsesXPath implements Weather.Interface<Double[]
          end = startDate != null ? DATE_TIME_FORMAT.format(startDate) : "";
       }
       
+      NDFDs.addAll(STANDARD_NDFDS);
       StringBuilder url = new StringBuilder();
-      url.append(BASE_URL);
-      url.append("?lat=" + latitude);
-      url.append("&lon=" + longitude);
+      url.append(baseURL);
+      url.append("?" + where);
       url.append("&product=time-series");
       url.append("&begin=" + begin);
       url.append("&end=" + end);
@@ -245,20 +814,16 @@ public class NOAAWeather extends UsesXPath implements Weather.Interface<Double[]
       }    
       
       moreInfo.put(MoreInfoKeys.IN_URL.name(), url.toString());
-      
-      try {
-         return loadDOM(url.toString());
-      }
-      catch (IOException ioe) {
-         throw ioe;
-      }
-      catch (Exception ex) {
-         throw new Weather.Exception(ex);
-      }
+      return url.toString();
    }
    
    
    public Forecast getConditionAtTime(Date date) {
+      return conditionAtTime(forecasts, date);
+   }
+   
+   
+   static Forecast conditionAtTime(List<Forecast> forecasts, Date date) {
       if (date == null)
          date = new Date();
       TimeInterval now = new TimeInterval(date);
@@ -309,18 +874,25 @@ public class NOAAWeather extends UsesXPath implements Weather.Interface<Double[]
    
  
    public Map<NDFD, List<Condition>> getAllConditionsFor(TimeInterval ti) {
+      return allConditionsFor(ndfdSeriesMap.values(), ti);
+   }
+   
+   
+   static Map<NDFD, List<Condition>> allConditionsFor(Collection<NDFDSeries> allSeries, TimeInterval ti) {
       
       Map<NDFD, List<Condition>> map = new EnumMap<NDFD, List<Condition>>(NDFD.class);
       
-      for ( NDFDSeries series :ndfdSeriesMap.values()) {
+      for ( NDFDSeries series :allSeries) {
          // TODO skip series that aren't conditions...
+         TimeLayout timeLayout = series.timeLayout;
+         if (timeLayout == null)
+            continue;
          
          List<Condition> conditions = new ArrayList<Condition>();
-         List<TimeInterval> intervals = series.timeLayout.intervals;
          
-         int[] indices = RangesPredicates.exemplarAcceptsIndices(ti, intervals, RangesPredicates.Contains);
+         int[] indices = timeLayout.getIndex().exemplarAcceptsIndices(ti.startMS, ti.stopMS, RangesPredicates.Contains);
          for (int idx : indices)
-            conditions.add(new Condition(intervals.get(idx), series.ndfd, series.getValue(idx)));
+            conditions.add(new Condition(timeLayout.getInterval(idx), series.ndfd, series.getValue(idx)));
          
          map.put(series.ndfd, conditions);
       }
@@ -382,66 +954,23 @@ public class NOAAWeather extends UsesXPath implements Weather.Interface<Double[]
 
    
    /**
-    * Provides user-friendly interpretation of the icon provided by NOAA
+    * Provides user-friendly interpretation of the icon provided by NOAA, memoized by the shared {@link IconInterpreter}
     * 
     * @param iconName     may or may not have the full path (contain a /) or end with .jpg
     * @return never null
     */
    public String interpretIconName(String iconName) {
-     
-      String addendum = "";
-      String meaning = null;
-      try {
-         int lastSlash = iconName.lastIndexOf('/');
-         int lastDot = iconName.lastIndexOf('.');
-         if (lastDot < 0)
-            lastDot = iconName.length();
-         
-         String shortName = iconName.substring(lastSlash + 1, lastDot);
-         
-         if (shortName.charAt(0) == 'n') // in theory we don't have the "night" forecast, but just in case
-            shortName = shortName.substring(1);
-         shortName = shortName.replace("_n", "_");   // replace any possible _n as well
-         
-         int slen = shortName.length();
-         if (shortName.charAt(slen-1) == '0') {  // is there a percentage included?
-            int cutoff = shortName.charAt(slen-2) == '0' ? slen-3 : slen-2;
-            String percent = " (" + shortName.substring(cutoff) + "%)";
-            addendum = addendum + percent;
-            shortName = shortName.substring(0, cutoff);
-         }
-         
-         
-         meaning = sIconMeanings.get(shortName);
-         
-         if ((meaning == null) && shortName.startsWith("hi_")) {
-            meaning = sIconMeanings.get(shortName.substring(3));  // try again without the "hi_"
-            addendum = addendum + " (high)";
-         }
-      }
-      catch (IndexOutOfBoundsException ioob) {  // catch most of the errors...
-         meaning = null;
-      }
-      
-      return (meaning != null) ? meaning + addendum : "Cannot interpret " + iconName;     
+      return IconInterpreter.getDefault().interpret(iconName);
    }
    
    /**
-    * Set the preferred hour (0-23) for our forecasts
-    * May be called before or after doing the forecasts
+    * Set the preferred hour (0-23), see {@link #adjustDateToPreferredHour(Date)}
+    * May be called before or after doing the forecasts, the daily Forecasts do not depend on it.
     * 
     * @param hour
     */
    public void setPreferredHour(int hour) {
       preferredHour = hour;
-      
-      if (mainNode != null) {  // recalculate
-         try {
-            call();
-         } catch (Exception xpee) {
-            throw new Weather.Exception(xpee);
-         }
-      }
    }
    
    
@@ -462,7 +991,7 @@ public class NOAAWeather extends UsesXPath implements Weather.Interface<Double[]
 
    
    protected List<Forecast> computeDailyForecasts() throws XPathExpressionException, ParseException {      
-      List<TimeInterval> dailyDates = timeLayout0.intervals;
+      TimeLayout dailyDates = timeLayout0;
       
       NDFDSeries maxtSeries = ndfdSeriesMap.get(NDFD.maxt);
       NDFDSeries mintSeries = ndfdSeriesMap.get(NDFD.mint);
@@ -479,7 +1008,7 @@ public class NOAAWeather extends UsesXPath implements Weather.Interface<Double[]
          float high = maxtSeries.getFloatValue(f);
          float low = mintSeries.getFloatValue(f);
          
-         Forecast forecast = new Forecast(new Date(dailyDates.get(f).startMS), low, high, inCelsius, 
+         Forecast forecast = new Forecast(new Date(dailyDates.getStartMS(f)), low, high, inCelsius, 
                iconInterpretationSeries.getValue(f), iconSeries.getValue(f));
          forecasts.add(forecast);
       }
@@ -491,14 +1020,14 @@ public class NOAAWeather extends UsesXPath implements Weather.Interface<Double[]
    
    protected NDFDSeries parseNDFDSeries(NDFD ndfd) throws XPathExpressionException {  
      if (ndfd.xPathToNode != null) {  // a few special cases get parsed specially later...
-         Node node = getNodeFromXPath(mainNode, ndfd.xPathToNode);
+         Node node = getNodeFromXPath(mainNode, forLocation(ndfd.xPathToNode));
          if (node == null)
             System.out.println("foo");
          String timeLayoutName = getAttribute(node, NOAAWeather.TIME_LAYOUT);
          String units = getAttribute(node, "units");
          NodeList nodeList = getNodeListFromXPath(node, ndfd.listTag);
          List<String> values = ndfd.parseValues(nodeList);
-         NDFDSeries ndfdSeries = new NDFDSeries(ndfd, timeLayoutMap.get(timeLayoutName), units, values);
+         NDFDSeries ndfdSeries = NDFDSeries.create(ndfd, timeLayoutMap.get(timeLayoutName), units, values);
          return ndfdSeries;         
       }
      else
@@ -509,9 +1038,25 @@ public class NOAAWeather extends UsesXPath implements Weather.Interface<Double[]
    
    
    
+   /**
+    * For multi-point DWML, restricts an XPath starting with "parameters" or "moreWeatherInformation" to our locationKey
+    * @param xPath
+    * @return xPath, possibly modified
+    */
+   protected String forLocation(String xPath) {
+      if (locationKey == null)
+         return xPath;
+      
+      int slash = xPath.indexOf('/');
+      if (slash < 0)
+         slash = xPath.length();
+      return xPath.substring(0, slash) + "[@applicable-location='" + locationKey + "']" + xPath.substring(slash);
+   }
+   
+   
    protected NDFDSeries computeIconInterpretations(NDFDSeries iconSeries) {
-      ArrayList<String> interpretations = new ArrayList<String>(iconSeries.values.size());
-      for (String iconName : iconSeries.values) {
+      ArrayList<String> interpretations = new ArrayList<String>(iconSeries.size());
+      for (String iconName : iconSeries.getValues()) {
          interpretations.add(interpretIconName(iconName));
       }
       
@@ -535,12 +1080,15 @@ public class NOAAWeather extends UsesXPath implements Weather.Interface<Double[]
    
    protected void computeMoreInfo(Document document) {
       try {
-         String moreInfoURL = getNodeFromXPath(mainNode, "moreWeatherInformation").getTextContent();
+         String moreInfoURL = getNodeFromXPath(mainNode, forLocation("moreWeatherInformation")).getTextContent();
          moreInfo.put(MoreInfoKeys.OUT_URL.name(), moreInfoURL); 
          
          if (document != null) {
             String moreInfoDate = getStringFromXPath(document, "dwml/head/product/creation-date");
             moreInfo.put(MoreInfoKeys.DATE.name(), moreInfoDate);
+            String refreshFrequency = getStringFromXPath(document, "dwml/head/product/creation-date/@refresh-frequency");
+            if (refreshFrequency.length() > 0)
+               moreInfo.put(MoreInfoKeys.REFRESH_FREQUENCY.name(), refreshFrequency);
          }
          
       }
@@ -553,31 +1101,27 @@ public class NOAAWeather extends UsesXPath implements Weather.Interface<Double[]
    
    
    /**
-    * Parse an RFC 3339 timestamp
+    * Parse an RFC 3339 timestamp.  Thread safe, see {@link RFC3339}
     * 
     * @param  dateString
     * @return Date
     * @throws ParseException
     * @see <a href="http://www.ietf.org/rfc/rfc3339.txt">IETF RFC Document</a>
     */
-   public static synchronized Date parseRFC3339(String dateString) throws ParseException {
-      int len = dateString.length();
-      String removeLastColon = dateString.substring(0, len-3) + dateString.substring(len-2);
-      return DATE_TIME_FORMAT.parse(removeLastColon);
+   public static Date parseRFC3339(String dateString) throws ParseException {
+      return new Date(RFC3339.parseMillis(dateString));
    }
 
    /**
-    * Generate an RFC 3339 timestamp
+    * Generate an RFC 3339 timestamp, in the default TimeZone.  Thread safe, see {@link RFC3339}
     * 
     * @param  inDate
     * @return String representation
     * @throws ParseException
     * @see <a href="http://www.ietf.org/rfc/rfc3339.txt">IETF RFC Document</a>
     */
-   public static synchronized String formatRFC3339(Date inDate) throws ParseException {
-      String withoutColon = DATE_TIME_FORMAT.format(inDate);
-      int len = withoutColon.length();
-      return withoutColon.substring(0, len-2) + ":" + withoutColon.substring(len-2);
+   public static String formatRFC3339(Date inDate) throws ParseException {
+      return RFC3339.format(inDate.getTime(), TimeZone.getDefault());
    }
 
    
@@ -0,0 +1,230 @@
+package com.flyingspaniel.net.weather;
+
+import java.text.ParseException;
+import java.util.TimeZone;
+
+
+/**
+ * Lock free, allocation light, parsing and formatting of RFC 3339 timestamps, e.g. "2012-08-20T08:00:00-07:00".
+ *
+ * <p>Goes straight from chars to epoch milliseconds, with no Calendar, SimpleDateFormat or substrings.
+ * Accepts 'Z' or a numeric offset (with or without the colon), and optional fractional seconds.
+ * Like a lenient SimpleDateFormat, a leap second of 60 rolls over into the next minute.
+ *
+ * @author Morgan Conrad
+ * @since Copyright(c) 2013  Morgan Conrad
+ *
+ * @see <a href="http://www.gnu.org/copyleft/lesser.html">This software is released under the LGPL</a>
+ * @see <a href="http://www.ietf.org/rfc/rfc3339.txt">IETF RFC Document</a>
+ */
+public final class RFC3339 {
+
+   static final long MS_PER_MINUTE = 60 * 1000L;
+   static final long MS_PER_DAY = 24 * 60 * MS_PER_MINUTE;
+
+   private RFC3339() {}
+
+
+   /**
+    * Parse an RFC 3339 timestamp
+    * @param s  non-null
+    * @return epoch milliseconds
+    * @throws ParseException
+    */
+   public static long parseMillis(CharSequence s) throws ParseException {
+      return parseMillis(s, 0, s.length());
+   }
+
+
+   /**
+    * Parse an RFC 3339 timestamp, from part of a CharSequence
+    * @param s      non-null
+    * @param start  inclusive
+    * @param end    exclusive
+    * @return epoch milliseconds
+    * @throws ParseException
+    */
+   public static long parseMillis(CharSequence s, int start, int end) throws ParseException {
+      if (end - start < 20)
+         throw new ParseException("Too short for RFC 3339: " + s, start);
+
+      int i = start;
+      int year = digits(s, i, 4);
+      expect(s, i+4, '-');
+      int month = digits(s, i+5, 2);
+      expect(s, i+7, '-');
+      int day = digits(s, i+8, 2);
+      char t = s.charAt(i+10);
+      if ((t != 'T') && (t != 't') && (t != ' '))
+         throw new ParseException("Expected T in " + s, i+10);
+      int hour = digits(s, i+11, 2);
+      expect(s, i+13, ':');
+      int minute = digits(s, i+14, 2);
+      expect(s, i+16, ':');
+      int second = digits(s, i+17, 2);
+      i += 19;
+
+      if ((month < 1) || (month > 12) || (day < 1) || (day > daysInMonth(year, month)) ||
+          (hour > 23) || (minute > 59) || (second > 60))
+         throw new ParseException("Field out of range in " + s, start);
+
+      int millis = 0;
+      if (s.charAt(i) == '.') {
+         int scale = 100;
+         i++;
+         int fractionStart = i;
+         while ((i < end) && isDigit(s.charAt(i))) {
+            millis += (s.charAt(i) - '0') * scale;
+            scale /= 10;
+            i++;
+         }
+         if (i == fractionStart)
+            throw new ParseException("Expected fractional seconds in " + s, i);
+      }
+
+      if (i >= end)
+         throw new ParseException("Missing offset in " + s, i);
+
+      long offsetMS;
+      char sign = s.charAt(i);
+      if ((sign == 'Z') || (sign == 'z')) {
+         offsetMS = 0;
+         i++;
+      }
+      else if ((sign == '+') || (sign == '-')) {
+         int offsetHours = digits(s, i+1, 2);
+         int minutesAt = (i+3 < end) && (s.charAt(i+3) == ':') ? i+4 : i+3;
+         int offsetMinutes = digits(s, minutesAt, 2);
+         if ((offsetHours > 23) || (offsetMinutes > 59))
+            throw new ParseException("Offset out of range in " + s, i);
+         offsetMS = (offsetHours * 60 + offsetMinutes) * MS_PER_MINUTE;
+         if (sign == '-')
+            offsetMS = -offsetMS;
+         i = minutesAt + 2;
+      }
+      else
+         throw new ParseException("Expected Z or offset in " + s, i);
+
+      if (i != end)
+         throw new ParseException("Unexpected characters at the end of " + s, i);
+
+      long ms = daysFromCivil(year, month, day) * MS_PER_DAY;
+      ms += ((hour * 60L + minute) * 60L + second) * 1000L + millis;
+      return ms - offsetMS;
+   }
+
+
+   /**
+    * Generate an RFC 3339 timestamp, to the second, e.g. "2012-08-20T08:00:00-07:00"
+    * @param ms  epoch milliseconds
+    * @param tz  non-null
+    * @return String
+    */
+   public static String format(long ms, TimeZone tz) {
+      int offsetMS = tz.getOffset(ms);
+      long local = ms + offsetMS;
+      long days = floorDiv(local, MS_PER_DAY);
+      int msOfDay = (int)(local - days * MS_PER_DAY);
+
+      // civil from days, see daysFromCivil()
+      long z = days + 719468;
+      long era = floorDiv(z, 146097);
+      int doe = (int)(z - era * 146097);
+      int yoe = (doe - doe/1460 + doe/36524 - doe/146096) / 365;
+      int doy = doe - (365*yoe + yoe/4 - yoe/100);
+      int mp = (5*doy + 2) / 153;
+      int day = doy - (153*mp + 2)/5 + 1;
+      int month = mp < 10 ? mp+3 : mp-9;
+      long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+
+      char[] c = new char[25];
+      put(c, 0, (int)year, 4);
+      c[4] = '-';
+      put(c, 5, month, 2);
+      c[7] = '-';
+      put(c, 8, day, 2);
+      c[10] = 'T';
+      int seconds = msOfDay / 1000;
+      put(c, 11, seconds / 3600, 2);
+      c[13] = ':';
+      put(c, 14, (seconds / 60) % 60, 2);
+      c[16] = ':';
+      put(c, 17, seconds % 60, 2);
+      int offsetMinutes = offsetMS / (int)MS_PER_MINUTE;
+      c[19] = offsetMinutes < 0 ? '-' : '+';
+      offsetMinutes = Math.abs(offsetMinutes);
+      put(c, 20, offsetMinutes / 60, 2);
+      c[22] = ':';
+      put(c, 23, offsetMinutes % 60, 2);
+
+      return new String(c);
+   }
+
+
+   /**
+    * Days since 1970-01-01 of a proleptic Gregorian date
+    * @see <a href="http://howardhinnant.github.io/date_algorithms.html">Howard Hinnant's date algorithms</a>
+    */
+   static long daysFromCivil(long year, int month, int day) {
+      year -= month <= 2 ? 1 : 0;
+      long era = floorDiv(year, 400);
+      int yoe = (int)(year - era * 400);
+      int doy = (153*(month > 2 ? month-3 : month+9) + 2)/5 + day-1;
+      int doe = yoe * 365 + yoe/4 - yoe/100 + doy;
+      return era * 146097 + doe - 719468;
+   }
+
+
+   static int daysInMonth(int year, int month) {
+      switch (month) {
+         case 2:  return ((year % 4 == 0) && ((year % 100 != 0) || (year % 400 == 0))) ? 29 : 28;
+         case 4:
+         case 6:
+         case 9:
+         case 11: return 30;
+         default: return 31;
+      }
+   }
+
+
+   // Math.floorDiv is Java 8
+   static long floorDiv(long x, long y) {
+      long q = x / y;
+      if (((x % y) != 0) && ((x ^ y) < 0))
+         q--;
+      return q;
+   }
+
+
+   static int digits(CharSequence s, int at, int count) throws ParseException {
+      if (at + count > s.length())
+         throw new ParseException("Too short for RFC 3339: " + s, at);
+      int value = 0;
+      for (int i=at; i<at+count; i++) {
+         char c = s.charAt(i);
+         if (!isDigit(c))
+            throw new ParseException("Expected a digit in " + s, i);
+         value = value*10 + (c - '0');
+      }
+      return value;
+   }
+
+
+   static void expect(CharSequence s, int at, char expected) throws ParseException {
+      if (s.charAt(at) != expected)
+         throw new ParseException("Expected " + expected + " in " + s, at);
+   }
+
+
+   static boolean isDigit(char c) {
+      return (c >= '0') && (c <= '9');
+   }
+
+
+   static void put(char[] c, int at, int value, int width) {
+      for (int i=at+width-1; i>=at; i--) {
+         c[i] = (char)('0' + value % 10);
+         value /= 10;
+      }
+   }
+}
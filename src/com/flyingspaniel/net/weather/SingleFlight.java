@@ -0,0 +1,103 @@
+package com.flyingspaniel.net.weather;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Coalesces concurrent calls for the same key: the first caller does the work, later callers
+ * that arrive while it is in progress wait for, and share, its result (or failure).
+ * Nothing is remembered once the work is done, for that use a {@link ForecastCache}.
+ *
+ * @author Morgan Conrad
+ * @since Copyright(c) 2013  Morgan Conrad
+ *
+ * @see <a href="http://www.gnu.org/copyleft/lesser.html">This software is released under the LGPL</a>
+ */
+public class SingleFlight<K, V> {
+
+   protected final Map<K, FutureTask<V>> inFlight = new HashMap<K, FutureTask<V>>();
+
+   protected final AtomicLong executions = new AtomicLong();
+   protected final AtomicLong shared = new AtomicLong();
+
+
+   /**
+    * Calls callable, unless a call for the same key is already in progress, in which case wait for its result
+    *
+    * @param key       non-null
+    * @param callable  non-null
+    * @return the result, which is shared, so treat as immutable
+    * @throws IOException from callable
+    */
+   public V execute(K key, Callable<V> callable) throws IOException {
+      FutureTask<V> task;
+      boolean runHere = false;
+
+      synchronized(inFlight) {
+         task = inFlight.get(key);
+         if (task == null) {
+            task = new FutureTask<V>(callable);
+            inFlight.put(key, task);
+            runHere = true;
+         }
+      }
+
+      if (runHere) {
+         executions.incrementAndGet();
+         try {
+            task.run();
+         }
+         finally {
+            synchronized(inFlight) {
+               inFlight.remove(key);
+            }
+         }
+      }
+      else
+         shared.incrementAndGet();
+
+      try {
+         return task.get();
+      } catch (ExecutionException ee) {
+         Throwable cause = ee.getCause();
+         if (cause instanceof IOException)
+            throw (IOException) cause;
+         if (cause instanceof RuntimeException)
+            throw (RuntimeException) cause;
+         throw new Weather.Exception(cause);
+      } catch (InterruptedException ie) {
+         Thread.currentThread().interrupt();
+         throw new Weather.Exception(ie);
+      }
+   }
+
+
+   /**
+    * How many times a callable was actually called
+    */
+   public long getExecutions() {
+      return executions.get();
+   }
+
+   /**
+    * How many times a caller shared the result of another's call
+    */
+   public long getShared() {
+      return shared.get();
+   }
+
+   /**
+    * How many calls are in progress right now
+    */
+   public int getInFlight() {
+      synchronized(inFlight) {
+         return inFlight.size();
+      }
+   }
+}
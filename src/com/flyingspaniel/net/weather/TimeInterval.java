@@ -1,17 +1,12 @@
 package com.flyingspaniel.net.weather;
 
-import static com.flyingspaniel.ranges.Ranges.Comparison.CONTAINED_BY;
-import static com.flyingspaniel.ranges.Ranges.Comparison.CONTAINS;
-import static com.flyingspaniel.ranges.Ranges.Comparison.EQ;
-import static com.flyingspaniel.ranges.Ranges.Comparison.OVERLAPS_GT;
-import static com.flyingspaniel.ranges.Ranges.Comparison.OVERLAPS_LT;
-import static com.flyingspaniel.ranges.Ranges.Comparison.STRICTLY_GT;
-import static com.flyingspaniel.ranges.Ranges.Comparison.STRICTLY_LT;
 
 import java.util.Date;
 import java.util.List;
+import java.util.RandomAccess;
 
 import com.flyingspaniel.ranges.Ranges;
+import com.flyingspaniel.ranges.RangesIndex;
 
 
 /**
@@ -25,7 +20,7 @@ import com.flyingspaniel.ranges.Ranges;
  * @see <a href="http://www.gnu.org/copyleft/lesser.html">This software is released under the LGPL</a>
  *
  */
-public class TimeInterval implements Ranges.Comparable<TimeInterval> {
+public class TimeInterval implements Ranges.Comparable<TimeInterval>, Ranges.LongRange {
 
    public static final long HOURL = 1000L*60*60;
    public static final float HOURF = 1000.0f*60*60;
@@ -198,81 +193,220 @@ public class TimeInterval implements Ranges.Comparable<TimeInterval> {
    
    @Override
    public int compareRange(TimeInterval o) {
-	   
-	   // test equals first to avoid trick boundary cases
-  	 if ((startMS == o.startMS) && (stopMS == o.stopMS))
-  		 return EQ;
-  	 
-       if (stopMS <= o.startMS)
-          return STRICTLY_LT;
-       if (startMS >= o.stopMS)
-          return STRICTLY_GT;
-       
-       int startCmp = compareLong(startMS, o.startMS);
-       int stopCmp = compareLong(stopMS, o.stopMS);
-       switch(startCmp) {
-          case -1: return stopCmp >= 0 ? CONTAINS : OVERLAPS_LT;
-          case  1: return stopCmp > 0 ? OVERLAPS_GT : CONTAINED_BY;
-          case  0: switch(stopCmp) {
-             case -1: return CONTAINED_BY;
-             case  0: return EQ;
-             case  1: return CONTAINS;
-          }
-       }
-       
-       // should not get here
-       throw new RuntimeException();
+      return RangesIndex.compareRange(startMS, stopMS, o.startMS, o.stopMS);
+   }
+   
+   
+   /**
+    * For {@link Ranges.LongRange}
+    * @return startMS
+    */
+   @Override
+   public long getMin() {
+      return startMS;
+   }
+   
+   /**
+    * For {@link Ranges.LongRange}
+    * @return stopMS
+    */
+   @Override
+   public long getMax() {
+      return stopMS;
    }
    
  
    
    /**
-    * Finds the index of the closest TimeInterval 
+    * Finds the index of the closest TimeInterval, using a binary search.
+    * The intervals must be sorted in ascending order, see {@link #isSorted(List)}.
+    * If they might not be, use {@link #findClosestTimeUnsorted(List, Date, double)}
+    * 
+    * <p>A desiredTime in the gap between two intervals returns the later one, 
+    * if either of them is within maxHourDiff, even when the earlier one is closer.
+    * 
     * @param intervals    non-null
     * @param desiredTime
     * @param maxHourDiff
     * @return  -1 if none are within maxHourDiff
     */
    public static <T  extends TimeInterval> int findClosestTime(List<T> intervals, Date desiredTime, double maxHourDiff) {
-      int lastInterval = intervals.size()-1;
-      if (lastInterval < 0)
-         return -1;
-      
+      int size = intervals.size();
       long desiredMS = desiredTime.getTime();
-           
-      int idx = -1;
-      float hoursDiff;
       
-      // test 1st and last cases first...
-      TimeInterval ti0 = intervals.get(0);
-      if (ti0.after(desiredMS)) {
-         hoursDiff = hourDiff(desiredMS, ti0.startMS);
-         return (hoursDiff < maxHourDiff) ? 0 : -1;
+      // find the first interval whose stop is >= desiredMS
+      int idx;
+      if (intervals instanceof RandomAccess) {
+         int lo = 0;
+         int hi = size;
+         while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (intervals.get(mid).stopMS < desiredMS)
+               lo = mid + 1;
+            else
+               hi = mid;
+         }
+         idx = lo;
       }
       else {
-         TimeInterval tilast = intervals.get(lastInterval);
-         if (tilast.before(desiredMS)) {
-            hoursDiff = hourDiff(tilast.stopMS, desiredMS);
-            return (hoursDiff < maxHourDiff) ? lastInterval : -1;
+         idx = 0;
+         for (T ti : intervals) {
+            if (ti.stopMS >= desiredMS)
+               break;
+            idx++;
          }
       }
-            
-      idx = 1;  // we know 0 is not correct, so start at 1
-      while (desiredMS > intervals.get(idx).stopMS)
+      
+      long startAtIdx = (idx < size) ? intervals.get(idx).startMS : 0L;
+      long stopBefore = (idx > 0) ? intervals.get(idx-1).stopMS : 0L;
+      return choose(idx, size, startAtIdx, stopBefore, desiredMS, maxHourDiff);
+   }
+   
+   
+   /**
+    * Finds the index of the closest TimeInterval, with no assumptions about their order.  Uses a linear scan.
+    * 
+    * @param intervals    non-null
+    * @param desiredTime
+    * @param maxHourDiff
+    * @return  -1 if none are within maxHourDiff, for ties the lowest index
+    */
+   public static <T  extends TimeInterval> int findClosestTimeUnsorted(List<T> intervals, Date desiredTime, double maxHourDiff) {
+      long desiredMS = desiredTime.getTime();
+      int closest = -1;
+      float closestHours = Float.MAX_VALUE;
+      int idx = 0;
+      for (T ti : intervals) {
+         float hours = ti.hoursApart(desiredMS);
+         if (hours < closestHours) {
+            closest = idx;
+            closestHours = hours;
+         }
          idx++;
+      }
       
-      // at this point, intervals(idx).stopMS is greater than the desiredTime
-      TimeInterval maybeMatch1 = intervals.get(idx);
-      if (maybeMatch1.contains(desiredMS))
-         return idx;
+      return (closestHours <= maxHourDiff) ? closest : -1;
+   }
+   
+   
+   /**
+    * Whether the intervals are sorted, so that both their starts and their stops are in ascending order
+    * @param intervals  non-null
+    */
+   public static <T  extends TimeInterval> boolean isSorted(List<T> intervals) {
+      TimeInterval previous = null;
+      for (T ti : intervals) {
+         if ((previous != null) && ((ti.startMS < previous.startMS) || (ti.stopMS < previous.stopMS)))
+            return false;
+         previous = ti;
+      }
+      return true;
+   }
+   
+   
+   /**
+    * Whether intervals held in parallel arrays are sorted, so that both starts and stops are in ascending order
+    * @param startMS  non-null
+    * @param stopMS   non-null
+    * @param size     how many elements of the arrays are in use
+    */
+   public static boolean isSorted(long[] startMS, long[] stopMS, int size) {
+      for (int i=1; i<size; i++)
+         if ((startMS[i] < startMS[i-1]) || (stopMS[i] < stopMS[i-1]))
+            return false;
+      return true;
+   }
+   
+   
+   /**
+    * Finds the index of the closest interval, where the intervals are held in parallel arrays
+    * sorted in ascending order.  Uses a binary search.
+    * Like {@link #findClosestTime(List, Date, double)}, a gap between two intervals returns the later one.
+    * 
+    * @param startMS      non-null
+    * @param stopMS       non-null
+    * @param size         how many elements of the arrays are in use
+    * @param desiredMS
+    * @param maxHourDiff
+    * @return  -1 if none are within maxHourDiff
+    */
+   public static int findClosestTime(long[] startMS, long[] stopMS, int size, long desiredMS, double maxHourDiff) {
+      // find the first interval whose stop is >= desiredMS
+      int lo = 0;
+      int hi = size;
+      while (lo < hi) {
+         int mid = (lo + hi) >>> 1;
+         if (stopMS[mid] < desiredMS)
+            lo = mid + 1;
+         else
+            hi = mid;
+      }
       
-      TimeInterval maybeMatch2 = intervals.get(idx-1);
+      return choose(startMS, stopMS, size, lo, desiredMS, maxHourDiff);
+   }
+   
+   
+   /**
+    * Batch version of {@link #findClosestTime(long[], long[], int, long, double)}. 
+    * When desiredMS is sorted, all are resolved in a single merge pass, 
+    * otherwise each one gets a binary search.
+    * 
+    * @param startMS      non-null
+    * @param stopMS       non-null
+    * @param size         how many elements of the arrays are in use
+    * @param desiredMS    non-null, ideally sorted in ascending order
+    * @param maxHourDiff
+    * @return  int[] the same length as desiredMS, holding indices or -1
+    */
+   public static int[] findClosestTimes(long[] startMS, long[] stopMS, int size, long[] desiredMS, double maxHourDiff) {
+      int[] result = new int[desiredMS.length];
+      int idx = 0;
+      for (int q=0; q<desiredMS.length; q++) {
+         long ms = desiredMS[q];
+         if ((q > 0) && (ms < desiredMS[q-1])) {  // not sorted, search from scratch
+            result[q] = findClosestTime(startMS, stopMS, size, ms, maxHourDiff);
+            idx = 0;
+            continue;
+         }
+         
+         while ((idx < size) && (stopMS[idx] < ms))
+            idx++;
+         result[q] = choose(startMS, stopMS, size, idx, ms, maxHourDiff);
+      }
+      
+      return result;
+   }
+   
+   
+   static int choose(long[] startMS, long[] stopMS, int size, int idx, long desiredMS, double maxHourDiff) {
+      long startAtIdx = (idx < size) ? startMS[idx] : 0L;
+      long stopBefore = (idx > 0) ? stopMS[idx-1] : 0L;
+      return choose(idx, size, startAtIdx, stopBefore, desiredMS, maxHourDiff);
+   }
+   
+   
+   /**
+    * Common logic once we know idx, the first interval whose stop is >= desiredMS (size if there is none)
+    * @param startAtIdx  start of interval idx, if idx < size
+    * @param stopBefore  stop of interval idx-1, if idx > 0
+    */
+   static int choose(int idx, int size, long startAtIdx, long stopBefore, long desiredMS, double maxHourDiff) {
+      if (size == 0)
+         return -1;
+      
+      if (idx == size)  // after the last one
+         return (hourDiff(stopBefore, desiredMS) <= maxHourDiff) ? idx-1 : -1;
+      
+      if (startAtIdx <= desiredMS)  // contains it
+         return idx;
       
-      long d1 = maybeMatch1.startMS - desiredMS;
-      long d2 = desiredMS - maybeMatch2.stopMS;
-      hoursDiff = msToHours(Math.min(d1, d2));
+      if (idx == 0)  // before the first one
+         return (hourDiff(desiredMS, startAtIdx) <= maxHourDiff) ? 0 : -1;
       
-      return (hoursDiff <= maxHourDiff) ? idx : -1;
+      // in the gap between idx-1 and idx, as before the binary search, idx if either is close enough
+      long d1 = startAtIdx - desiredMS;
+      long d2 = desiredMS - stopBefore;
+      return (msToHours(Math.min(d1, d2)) <= maxHourDiff) ? idx : -1;
    }
    
    
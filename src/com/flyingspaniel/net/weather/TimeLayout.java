@@ -1,19 +1,27 @@
 package com.flyingspaniel.net.weather;
 
 import java.text.ParseException;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.RandomAccess;
 
 import javax.xml.xpath.XPathExpressionException;
 
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
+import com.flyingspaniel.metrics.MetricsListener;
+import com.flyingspaniel.ranges.RangesIndex;
 import com.flyingspaniel.xml.UsesXPath;
 
 
 /**
  * Represents a single TimeLayout from the NOAA weather REST API
+ * 
+ * <p>The intervals are stored as parallel arrays of start and stop times, TimeIntervals are created on demand.
+ * 
  * @author Morgan Conrad
  * @since Copyright(c) 2013  Morgan Conrad 
  *
@@ -32,12 +40,21 @@ import com.flyingspaniel.xml.UsesXPath;
 public class TimeLayout {
 
    static final UsesXPath xPath = new UsesXPath();
+   
+   // names for the MetricsListener
+   public static final String PARSE_XML = "timeLayout.parseXML";
+   public static final String PARSE_XML_TIMES = "timeLayout.parseXML.times";
       
    // the name of this time layout, e.g. "k-p24h-n7-1"
    public final String layoutKey;
    
-   // the intervals
-   final ArrayList<TimeInterval> intervals = new ArrayList<TimeInterval>();
+   // the intervals, in ms since 1970
+   protected long[] startMS = new long[0];
+   protected long[] stopMS = new long[0];
+   protected int size = 0;
+   protected boolean sorted = true;   // allows a binary search
+   
+   private volatile RangesIndex index = null;   // created as needed
    
    // true if end-valid-time tags exist.
    protected boolean isIntervals = false;
@@ -56,6 +73,72 @@ public class TimeLayout {
    }
    
    
+   /**
+    * Number of intervals
+    */
+   public int size() {
+      return size;
+   }
+   
+   /**
+    * Start of an interval
+    * @param idx
+    * @return ms since 1970
+    */
+   public long getStartMS(int idx) {
+      checkIndex(idx);
+      return startMS[idx];
+   }
+   
+   /**
+    * Stop of an interval
+    * @param idx
+    * @return ms since 1970
+    */
+   public long getStopMS(int idx) {
+      checkIndex(idx);
+      return stopMS[idx];
+   }
+   
+   /**
+    * Get a TimeInterval for an interval
+    * @param idx
+    * @return a new TimeInterval
+    */
+   public TimeInterval getInterval(int idx) {
+      checkIndex(idx);
+      return new TimeInterval(startMS[idx], stopMS[idx]);
+   }
+   
+   /**
+    * Get an unmodifiable List view of the intervals, see {@link #getInterval(int)}
+    */
+   public List<TimeInterval> getIntervals() {
+      return new IntervalList();
+   }
+   
+   /**
+    * An index of the intervals, for fast {@link com.flyingspaniel.ranges.RangesPredicates} style queries
+    * @return RangesIndex, created on the first call
+    */
+   public RangesIndex getIndex() {
+      RangesIndex result = index;
+      if (result == null) {
+         result = new RangesIndex(startMS, stopMS, size);
+         index = result;
+      }
+      return result;
+   }
+   
+   
+   /**
+    * Whether end-valid-time tags existed.  If not, each interval is an instant.
+    */
+   public boolean isIntervals() {
+      return isIntervals;
+   }
+   
+   
    /**
     * Utility to find the index (within this.intervals) closest to desiredTime
     * @param desiredTime
@@ -63,7 +146,55 @@ public class TimeLayout {
     * @return  -1 if none found
     */
    public int findClosestTimeIndex(Date desiredTime, double maxHourDiff) {
-      return TimeInterval.findClosestTime(intervals, desiredTime, maxHourDiff);
+      if (sorted)
+         return TimeInterval.findClosestTime(startMS, stopMS, size, desiredTime.getTime(), maxHourDiff);
+      else
+         return TimeInterval.findClosestTimeUnsorted(getIntervals(), desiredTime, maxHourDiff);
+   }
+   
+   
+   /**
+    * Batch version of {@link #findClosestTimeIndex(Date, double)}, fastest when desiredMS is sorted
+    * @param desiredMS    non-null, ms since 1970
+    * @param maxHourDiff
+    * @return  int[] the same length as desiredMS, holding indices or -1
+    */
+   public int[] findClosestTimeIndices(long[] desiredMS, double maxHourDiff) {
+      if (sorted)
+         return TimeInterval.findClosestTimes(startMS, stopMS, size, desiredMS, maxHourDiff);
+      
+      int[] result = new int[desiredMS.length];
+      for (int q=0; q<desiredMS.length; q++)
+         result[q] = TimeInterval.findClosestTimeUnsorted(getIntervals(), new Date(desiredMS[q]), maxHourDiff);
+      return result;
+   }
+   
+   
+   /**
+    * Whether the intervals are in ascending order (they always should be)
+    */
+   public boolean isSorted() {
+      return sorted;
+   }
+   
+   
+   /**
+    * Adds an interval at the end
+    * @param start  ms since 1970
+    * @param stop   ms since 1970
+    */
+   void add(long start, long stop) {
+      if (size == startMS.length) {
+         int newLength = Math.max(8, size + (size >> 1));
+         startMS = copyOf(startMS, newLength);
+         stopMS = copyOf(stopMS, newLength);
+      }
+      if ((size > 0) && ((start < startMS[size-1]) || (stop < stopMS[size-1])))
+         sorted = false;
+      startMS[size] = start;
+      stopMS[size] = stop;
+      size++;
+      index = null;
    }
    
    
@@ -75,24 +206,140 @@ public class TimeLayout {
     * @throws ParseException
     */
    public static TimeLayout parseXML(Node timeLayout) throws XPathExpressionException, ParseException {
-      String key = xPath.getStringFromXPath(timeLayout, "layout-key");
-      NodeList allStartTimes = xPath.getNodeListFromXPath(timeLayout, "start-valid-time" );
-      NodeList allEndTimes = xPath.getNodeListFromXPath(timeLayout, "end-valid-time" );
-      int allEndTimesLen = allEndTimes != null ? allEndTimes.getLength() : 0;
+      return parseXML(timeLayout, new TimestampTable());
+   }
+   
+   
+   /**
+    * Parses an XML Node representing the TimeLayout
+    * @param  timeLayout  XML Node
+    * @param  table       non-null, usually shared by all the TimeLayouts in a document
+    * @return TimeLayout  never null
+    * @throws XPathExpressionException
+    * @throws ParseException
+    */
+   public static TimeLayout parseXML(Node timeLayout, TimestampTable table) throws XPathExpressionException, ParseException {
+      return parseXML(timeLayout, table, MetricsListener.NONE);
+   }
+   
+   
+   /**
+    * Parses an XML Node representing the TimeLayout, reporting the time taken as PARSE_XML
+    * and the number of start and end times as PARSE_XML_TIMES
+    * @param  timeLayout  XML Node
+    * @param  table       non-null, usually shared by all the TimeLayouts in a document
+    * @param  metrics     non-null
+    * @return TimeLayout  never null
+    * @throws XPathExpressionException
+    * @throws ParseException
+    */
+   public static TimeLayout parseXML(Node timeLayout, TimestampTable table, MetricsListener metrics) 
+         throws XPathExpressionException, ParseException {
+      long start = System.nanoTime();
+      try {
+         String key = xPath.getStringFromXPath(timeLayout, "layout-key");
+         NodeList allStartTimes = xPath.getNodeListFromXPath(timeLayout, "start-valid-time" );
+         NodeList allEndTimes = xPath.getNodeListFromXPath(timeLayout, "end-valid-time" );
+         
+         TimeLayout parsed = parseStrings(key, textContents(allStartTimes), textContents(allEndTimes), table);
+         metrics.timing(PARSE_XML, System.nanoTime() - start);
+         metrics.count(PARSE_XML_TIMES, allStartTimes.getLength() + allEndTimes.getLength());
+         return parsed;
+      }
+      catch (XPathExpressionException xpe) {
+         metrics.error(PARSE_XML, xpe);
+         throw xpe;
+      }
+      catch (ParseException pe) {
+         metrics.error(PARSE_XML, pe);
+         throw pe;
+      }
+   }
+   
+   
+   /**
+    * Creates a TimeLayout from the text of the start-valid-time and end-valid-time tags
+    * @param  layoutKey   non-null
+    * @param  startTimes  RFC 3339 timestamps
+    * @param  endTimes    RFC 3339 timestamps, may be empty.  Paired with startTimes by index.
+    * @return TimeLayout  never null
+    * @throws ParseException
+    */
+   public static TimeLayout parseStrings(String layoutKey, List<String> startTimes, List<String> endTimes) throws ParseException {
+      return parseStrings(layoutKey, startTimes, endTimes, new TimestampTable());
+   }
+   
+   
+   /**
+    * Creates a TimeLayout from the text of the start-valid-time and end-valid-time tags
+    * @param  layoutKey   non-null
+    * @param  startTimes  RFC 3339 timestamps
+    * @param  endTimes    RFC 3339 timestamps, may be empty.  Paired with startTimes by index.
+    * @param  table       non-null, usually shared by all the TimeLayouts in a document
+    * @return TimeLayout  never null
+    * @throws ParseException
+    */
+   public static TimeLayout parseStrings(String layoutKey, List<String> startTimes, List<String> endTimes, 
+                                         TimestampTable table) throws ParseException {
+      int allEndTimesLen = endTimes != null ? endTimes.size() : 0;
+      
+      long[] starts = new long[startTimes.size()];
+      for (int n=0; n<starts.length; n++)
+         starts[n] = table.parseMillis(startTimes.get(n));
+      long[] ends = new long[allEndTimesLen];
+      for (int n=0; n<ends.length; n++)
+         ends[n] = table.parseMillis(endTimes.get(n));
       
-      TimeLayout result = new TimeLayout(key);
-      result.isIntervals = allEndTimesLen > 0;
+      return fromMillis(layoutKey, starts, starts.length, ends, ends.length);
+   }
+   
+   
+   /**
+    * Creates a TimeLayout from already parsed start-valid-time and end-valid-time tags
+    * @param  layoutKey   non-null
+    * @param  starts      ms since 1970
+    * @param  startCount  how many of starts are used
+    * @param  ends        ms since 1970, paired with starts by index
+    * @param  endCount    how many of ends are used, if 0 the intervals are instants
+    * @return TimeLayout  never null
+    */
+   static TimeLayout fromMillis(String layoutKey, long[] starts, int startCount, long[] ends, int endCount) {
+      TimeLayout result = new TimeLayout(layoutKey);
+      result.isIntervals = endCount > 0;
+      result.startMS = new long[startCount];
+      result.stopMS = new long[startCount];
 
-      for (int n=0; n<allStartTimes.getLength(); n++) {
-         String dateS = allStartTimes.item(n).getTextContent();
-         Date start = NOAAWeather.parseRFC3339(dateS);
-         Date stop = (n < allEndTimesLen) ? NOAAWeather.parseRFC3339(allEndTimes.item(n).getTextContent()) : start;
-         result.intervals.add(new TimeInterval(start, stop));           
+      for (int n=0; n<startCount; n++) {
+         long start = starts[n];
+         long stop = (n < endCount) ? ends[n] : start;
+         result.add(start, stop);
       }
       
       return result;
    }
    
+   
+   protected void checkIndex(int idx) {
+      if ((idx < 0) || (idx >= size))
+         throw new IndexOutOfBoundsException("Index: " + idx + ", Size: " + size);
+   }
+   
+   // some versions of Android don't have Arrays.copyOf
+   static long[] copyOf(long[] array, int newLength) {
+      long[] copy = new long[newLength];
+      System.arraycopy(array, 0, copy, 0, Math.min(array.length, newLength));
+      return copy;
+   }
+   
+   
+   static List<String> textContents(NodeList nodeList) {
+      int len = nodeList != null ? nodeList.getLength() : 0;
+      List<String> list = new ArrayList<String>(len);
+      for (int n=0; n<len; n++)
+         list.add(nodeList.item(n).getTextContent());
+      return list;
+   }
+   
 
 
    /*
@@ -117,4 +364,20 @@ public class TimeLayout {
    public int hashCode() {
       return layoutKey.hashCode();
    }
+   
+   
+   /**
+    * Read-only List view of the intervals
+    */
+   class IntervalList extends AbstractList<TimeInterval> implements RandomAccess {
+      @Override
+      public TimeInterval get(int index) {
+         return getInterval(index);
+      }
+
+      @Override
+      public int size() {
+         return size;
+      }
+   }
 }
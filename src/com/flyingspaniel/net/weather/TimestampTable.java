@@ -0,0 +1,145 @@
+package com.flyingspaniel.net.weather;
+
+import java.text.ParseException;
+
+
+/**
+ * Dedup table for the timestamps in DWML, which repeats the same start-valid-time and end-valid-time text
+ * many times across its time-layouts (and, for multi-point or repeated requests, across documents).
+ *
+ * <p>Maps timestamp text to epoch milliseconds, so each distinct timestamp is parsed only once,
+ * and looking up text that's already there, even from a StringBuilder, allocates nothing.
+ * TimeLayouts keep just the long milliseconds, so no TimeIntervals are created here.
+ *
+ * <p>Not thread safe.  Use one per parse, or {@link #forCurrentThread()} to share across documents.
+ *
+ * @author Morgan Conrad
+ * @since Copyright(c) 2013  Morgan Conrad
+ *
+ * @see <a href="http://www.gnu.org/copyleft/lesser.html">This software is released under the LGPL</a>
+ */
+public class TimestampTable {
+
+   // forCurrentThread() tables are cleared when they hold more than this many timestamps
+   public static final int MAX_THREAD_TABLE_SIZE = 4096;
+
+   static final ThreadLocal<TimestampTable> sThreadTables = new ThreadLocal<TimestampTable>() {
+      @Override
+      protected TimestampTable initialValue() {
+         return new TimestampTable();
+      }
+   };
+
+   // open addressing, keyed by the timestamp text
+   protected String[] texts = new String[64];
+   protected long[] millis = new long[64];
+   protected int textCount = 0;
+
+   protected long lookups = 0;
+   protected long parses = 0;
+
+
+   /**
+    * A table for this thread, that lives across documents
+    * @return TimestampTable, never null
+    */
+   public static TimestampTable forCurrentThread() {
+      TimestampTable table = sThreadTables.get();
+      if (table.textCount > MAX_THREAD_TABLE_SIZE)
+         table.clear();
+      return table;
+   }
+
+
+   /**
+    * Returns the epoch milliseconds for an RFC 3339 timestamp, parsing only if it's new
+    * @param text  non-null, may be mutable, e.g. a StringBuilder, as a copy is kept
+    * @return epoch milliseconds
+    * @throws ParseException
+    */
+   public long parseMillis(CharSequence text) throws ParseException {
+      lookups++;
+      int mask = texts.length - 1;
+      int i = hash(text) & mask;
+      for (String s = texts[i]; s != null; s = texts[i]) {
+         if (contentEquals(s, text))
+            return millis[i];
+         i = (i + 1) & mask;
+      }
+
+      long ms = RFC3339.parseMillis(text);
+      parses++;
+      texts[i] = text.toString();
+      millis[i] = ms;
+      if (++textCount * 2 > texts.length)
+         growTexts();
+      return ms;
+   }
+
+
+   /**
+    * Number of distinct timestamps
+    */
+   public int size() {
+      return textCount;
+   }
+
+   /**
+    * Number of calls to parseMillis()
+    */
+   public long getLookups() {
+      return lookups;
+   }
+
+   /**
+    * Number of calls to parseMillis() that actually parsed
+    */
+   public long getParses() {
+      return parses;
+   }
+
+
+   public void clear() {
+      texts = new String[64];
+      millis = new long[64];
+      textCount = 0;
+   }
+
+
+   protected void growTexts() {
+      String[] oldTexts = texts;
+      long[] oldMillis = millis;
+      texts = new String[oldTexts.length * 2];
+      millis = new long[oldTexts.length * 2];
+      int mask = texts.length - 1;
+      for (int o=0; o<oldTexts.length; o++) {
+         if (oldTexts[o] != null) {
+            int i = hash(oldTexts[o]) & mask;
+            while (texts[i] != null)
+               i = (i + 1) & mask;
+            texts[i] = oldTexts[o];
+            millis[i] = oldMillis[o];
+         }
+      }
+   }
+
+
+   // same as String.hashCode(), then spread
+   static int hash(CharSequence text) {
+      int h = 0;
+      for (int i=0; i<text.length(); i++)
+         h = 31*h + text.charAt(i);
+      return h ^ (h >>> 16);
+   }
+
+   static boolean contentEquals(String s, CharSequence text) {
+      int len = s.length();
+      if (len != text.length())
+         return false;
+      for (int i=0; i<len; i++) {
+         if (s.charAt(i) != text.charAt(i))
+            return false;
+      }
+      return true;
+   }
+}
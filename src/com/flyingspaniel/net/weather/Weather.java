@@ -108,6 +108,27 @@ public class Weather {
    }
    
    
+   /**
+    * Callback for asynchronous calls
+    *
+    * @param <T>  the type of the result
+    */
+   public interface Callback<T> {
+      
+      /**
+       * Called (on some background thread) when the call succeeds
+       * @param result
+       */
+      public void onSuccess(T result);
+      
+      /**
+       * Called (on some background thread) when the call fails, or (on the cancelling thread) when it is cancelled
+       * @param failure  usually an IOException or a Weather.Exception, a CancellationException if cancelled
+       */
+      public void onFailure(Throwable failure);
+   }
+   
+   
    /**
     * Our API will throw IOExceptions cause they are somewhat "expected"
     * This Runtime Exception wraps less unexpected Exceptions (e.g. XPathExceptions)
@@ -27,6 +27,17 @@ public class Ranges {
    }
    
    
+   /**
+    * Implement this interface if the range has numeric (long) bounds, 
+    * e.g. times in ms, so that it can be put in a {@link RangesIndex}.
+    * The bounds are inclusive, and getMin() must be <= getMax()
+    */
+   public interface LongRange {
+      public long getMin();
+      public long getMax();
+   }
+   
+   
    /**
     * Similar to java.util{@link java.util.Comparator}.  
     * Implement this interface if a class <i>separate</i> from the range does the comparison.
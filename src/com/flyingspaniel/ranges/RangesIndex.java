@@ -0,0 +1,351 @@
+package com.flyingspaniel.ranges;
+
+import static com.flyingspaniel.ranges.Ranges.Comparison.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * An immutable index over a collection of ranges with long bounds,
+ * for answering the same questions as {@link RangesPredicates#exemplarAcceptsIndices} without a linear scan.
+ *
+ * <p>The ranges are kept in parallel arrays sorted by min (then max), arranged as an implicit, balanced
+ * interval tree where each subtree knows the smallest and largest max within it.
+ * A query first converts each comparison the predicate accepts into bounds on the min and max of acceptable ranges,
+ * visits only the subtrees that could lie within those bounds, then applies the predicate itself
+ * to each candidate using {@link #compareRange(long, long, long, long)}.
+ * So the results are always identical to the linear utilities, and for the usual predicates
+ * (Contains, ContainedBy, Overlaps, StrictlyLT, StrictlyGT) take roughly O(log n + k).
+ *
+ * <p>Comparisons follow the same rules as {@link Ranges.Comparable} implementations such as TimeInterval.
+ *
+ * @author Morgan Conrad
+ * @since Copyright(c) 2013 Morgan Conrad
+ *
+ * @see <a href="http://www.gnu.org/copyleft/lesser.html">This software is released under the LGPL</a>
+ *
+ */
+public class RangesIndex {
+
+   static final int[] ALL_COMPARISONS = { STRICTLY_LT, OVERLAPS_LT, CONTAINED_BY, EQ, CONTAINS, OVERLAPS_GT, STRICTLY_GT };
+
+   protected final int size;
+
+   // sorted by min, then max
+   protected final long[] mins;
+   protected final long[] maxes;
+   protected final int[] originalIndices;   // null if the input was already sorted
+
+   // for the subtree whose root is at [i], the smallest and largest max
+   protected final long[] subtreeMinOfMax;
+   protected final long[] subtreeMaxOfMax;
+
+
+   /**
+    * Constructor
+    * @param mins    non-null, will not be modified
+    * @param maxes   non-null, will not be modified
+    * @param size    how many elements of the arrays are in use
+    */
+   public RangesIndex(long[] mins, long[] maxes, int size) {
+      this.size = size;
+      this.mins = new long[size];
+      this.maxes = new long[size];
+
+      if (isSorted(mins, maxes, size)) {
+         System.arraycopy(mins, 0, this.mins, 0, size);
+         System.arraycopy(maxes, 0, this.maxes, 0, size);
+         originalIndices = null;
+      }
+      else {
+         originalIndices = sortedOrder(mins, maxes, size);
+         for (int i=0; i<size; i++) {
+            this.mins[i] = mins[originalIndices[i]];
+            this.maxes[i] = maxes[originalIndices[i]];
+         }
+      }
+
+      subtreeMinOfMax = new long[size];
+      subtreeMaxOfMax = new long[size];
+      summarize(0, size);
+   }
+
+
+   /**
+    * Constructor
+    * @param ranges  non-null, may be empty
+    */
+   public RangesIndex(List<? extends Ranges.LongRange> ranges) {
+      this(mins(ranges), maxes(ranges), ranges.size());
+   }
+
+
+   public int size() {
+      return size;
+   }
+
+
+   /**
+    * Returns the indices of all ranges R such that predicate.accept(exemplar.compareRange(R)) is true
+    *
+    * @param exemplarMin  the range you want to match
+    * @param exemplarMax
+    * @param predicate    how to match
+    * @return int[]       indices, in ascending order, non-null but may be 0 length
+    */
+   public int[] exemplarAcceptsIndices(long exemplarMin, long exemplarMax, Ranges.Predicate predicate) {
+      return query(exemplarMin, exemplarMax, predicate, false);
+   }
+
+
+   /**
+    * Returns the indices of all ranges R such that predicate.accept(R.compareRange(exemplar)) is true
+    *
+    * @param exemplarMin  the range you want to match
+    * @param exemplarMax
+    * @param predicate    how to match
+    * @return int[]       indices, in ascending order, non-null but may be 0 length
+    */
+   public int[] listAcceptsExemplarIndices(long exemplarMin, long exemplarMax, Ranges.Predicate predicate) {
+      return query(exemplarMin, exemplarMax, predicate, true);
+   }
+
+
+   /**
+    * Convenience form of {@link #exemplarAcceptsIndices(long, long, Ranges.Predicate)}
+    */
+   public int[] exemplarAcceptsIndices(Ranges.LongRange exemplar, Ranges.Predicate predicate) {
+      return exemplarAcceptsIndices(exemplar.getMin(), exemplar.getMax(), predicate);
+   }
+
+   /**
+    * Convenience form of {@link #listAcceptsExemplarIndices(long, long, Ranges.Predicate)}
+    */
+   public int[] listAcceptsExemplarIndices(Ranges.LongRange exemplar, Ranges.Predicate predicate) {
+      return listAcceptsExemplarIndices(exemplar.getMin(), exemplar.getMax(), predicate);
+   }
+
+
+
+   /**
+    * Compares range A to range B, following the same rules as TimeInterval.compareRange()
+    *
+    * @return a {@link Ranges.Comparison} constant
+    */
+   public static int compareRange(long aMin, long aMax, long bMin, long bMax) {
+      // test equals first to avoid trick boundary cases
+      if ((aMin == bMin) && (aMax == bMax))
+         return EQ;
+
+      if (aMax <= bMin)
+         return STRICTLY_LT;
+      if (aMin >= bMax)
+         return STRICTLY_GT;
+
+      if (aMin < bMin)
+         return aMax >= bMax ? CONTAINS : OVERLAPS_LT;
+      if (aMin > bMin)
+         return aMax > bMax ? OVERLAPS_GT : CONTAINED_BY;
+
+      return aMax < bMax ? CONTAINED_BY : CONTAINS;
+   }
+
+
+
+   protected int[] query(long aMin, long aMax, Ranges.Predicate predicate, boolean inverse) {
+      // bounds on the min and max of any range B that could be accepted, one "box" per acceptable comparison
+      long[][] boxes = new long[ALL_COMPARISONS.length][];
+      int boxCount = 0;
+      for (int comparison : ALL_COMPARISONS) {
+         if (predicate.accept(inverse ? -comparison : comparison))
+            boxes[boxCount++] = boundsFor(comparison, aMin, aMax);
+      }
+
+      IntBuffer found = new IntBuffer();
+      if (boxCount > 0)
+         collect(0, size, aMin, aMax, boxes, boxCount, predicate, inverse, found);
+
+      int[] result = found.toArray();
+      if (originalIndices != null) {
+         for (int i=0; i<result.length; i++)
+            result[i] = originalIndices[result[i]];
+         Arrays.sort(result);
+      }
+
+      return result;
+   }
+
+
+   /**
+    * For a comparison of A to B, the (inclusive) bounds on B:  { minLo, minHi, maxLo, maxHi }
+    * These only need to be loose enough, the actual comparison is always done as well.
+    */
+   static long[] boundsFor(int comparison, long aMin, long aMax) {
+      switch(comparison) {
+         case EQ:           return new long[] { aMin, aMin, aMax, aMax };
+         case STRICTLY_LT:  return new long[] { aMax, Long.MAX_VALUE, aMax, Long.MAX_VALUE };
+         case STRICTLY_GT:  return new long[] { Long.MIN_VALUE, aMin, Long.MIN_VALUE, aMin };
+         case CONTAINS:     return new long[] { aMin, aMax, Long.MIN_VALUE, aMax };
+         case CONTAINED_BY: return new long[] { Long.MIN_VALUE, aMin, aMax, Long.MAX_VALUE };
+         case OVERLAPS_LT:  return new long[] { aMin, aMax, aMax, Long.MAX_VALUE };
+         case OVERLAPS_GT:  return new long[] { Long.MIN_VALUE, aMin, aMin, aMax };
+         default:           return new long[] { Long.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE };
+      }
+   }
+
+
+   // in order traversal of the implicit tree [lo, hi), whose root is at the middle
+   protected void collect(int lo, int hi, long aMin, long aMax, long[][] boxes, int boxCount,
+                          Ranges.Predicate predicate, boolean inverse, IntBuffer found) {
+      if (lo >= hi)
+         return;
+
+      int mid = (lo + hi) >>> 1;
+      long minsLo = mins[lo];
+      long minsHi = mins[hi-1];
+      long maxesLo = subtreeMinOfMax[mid];
+      long maxesHi = subtreeMaxOfMax[mid];
+
+      boolean any = false;
+      for (int b=0; b<boxCount; b++) {
+         long[] box = boxes[b];
+         if ((minsLo > box[1]) || (minsHi < box[0]) || (maxesLo > box[3]) || (maxesHi < box[2]))
+            continue;  // no overlap with this box
+         
+         if ((minsLo >= box[0]) && (minsHi <= box[1]) && (maxesLo >= box[2]) && (maxesHi <= box[3])) {
+            // entirely inside, no point in descending further
+            for (int i=lo; i<hi; i++)
+               check(i, aMin, aMax, boxes, boxCount, predicate, inverse, found);
+            return;
+         }
+         any = true;
+      }
+      if (!any)
+         return;
+
+      collect(lo, mid, aMin, aMax, boxes, boxCount, predicate, inverse, found);
+      check(mid, aMin, aMax, boxes, boxCount, predicate, inverse, found);
+      collect(mid+1, hi, aMin, aMax, boxes, boxCount, predicate, inverse, found);
+   }
+
+
+   protected void check(int i, long aMin, long aMax, long[][] boxes, int boxCount,
+                        Ranges.Predicate predicate, boolean inverse, IntBuffer found) {
+      long bMin = mins[i];
+      long bMax = maxes[i];
+      for (int b=0; b<boxCount; b++) {
+         long[] box = boxes[b];
+         if ((bMin >= box[0]) && (bMin <= box[1]) && (bMax >= box[2]) && (bMax <= box[3])) {
+            int comparison = inverse ? compareRange(bMin, bMax, aMin, aMax) : compareRange(aMin, aMax, bMin, bMax);
+            if (predicate.accept(comparison))
+               found.add(i);
+            return;
+         }
+      }
+   }
+
+
+   protected void summarize(int lo, int hi) {
+      if (lo >= hi)
+         return;
+      int mid = (lo + hi) >>> 1;
+      summarize(lo, mid);
+      summarize(mid+1, hi);
+
+      long minOfMax = maxes[mid];
+      long maxOfMax = maxes[mid];
+      if (lo < mid) {
+         int left = (lo + mid) >>> 1;
+         minOfMax = Math.min(minOfMax, subtreeMinOfMax[left]);
+         maxOfMax = Math.max(maxOfMax, subtreeMaxOfMax[left]);
+      }
+      if (mid+1 < hi) {
+         int right = (mid + 1 + hi) >>> 1;
+         minOfMax = Math.min(minOfMax, subtreeMinOfMax[right]);
+         maxOfMax = Math.max(maxOfMax, subtreeMaxOfMax[right]);
+      }
+      subtreeMinOfMax[mid] = minOfMax;
+      subtreeMaxOfMax[mid] = maxOfMax;
+   }
+
+
+   static boolean isSorted(long[] mins, long[] maxes, int size) {
+      for (int i=1; i<size; i++) {
+         if (mins[i] < mins[i-1])
+            return false;
+         if ((mins[i] == mins[i-1]) && (maxes[i] < maxes[i-1]))
+            return false;
+      }
+      return true;
+   }
+
+
+   // stable merge sort of the indices, by min then max, so no per item objects get created
+   static int[] sortedOrder(long[] mins, long[] maxes, int size) {
+      int[] order = new int[size];
+      for (int i=0; i<size; i++)
+         order[i] = i;
+      int[] temp = new int[size];
+
+      for (int width=1; width<size; width*=2) {
+         for (int lo=0; lo<size-width; lo+=2*width) {
+            int mid = lo + width;
+            int hi = Math.min(lo + 2*width, size);
+            int i = lo, j = mid, k = lo;
+            while ((i < mid) && (j < hi)) {
+               int a = order[i];
+               int b = order[j];
+               boolean bFirst = (mins[b] < mins[a]) || ((mins[b] == mins[a]) && (maxes[b] < maxes[a]));
+               temp[k++] = bFirst ? order[j++] : order[i++];
+            }
+            while (i < mid)
+               temp[k++] = order[i++];
+            while (j < hi)
+               temp[k++] = order[j++];
+            System.arraycopy(temp, lo, order, lo, hi - lo);
+         }
+      }
+
+      return order;
+   }
+
+
+   static long[] mins(List<? extends Ranges.LongRange> ranges) {
+      long[] mins = new long[ranges.size()];
+      for (int i=0; i<mins.length; i++)
+         mins[i] = ranges.get(i).getMin();
+      return mins;
+   }
+
+   static long[] maxes(List<? extends Ranges.LongRange> ranges) {
+      long[] maxes = new long[ranges.size()];
+      for (int i=0; i<maxes.length; i++)
+         maxes[i] = ranges.get(i).getMax();
+      return maxes;
+   }
+
+
+   /**
+    * Minimal growable int[]
+    */
+   static class IntBuffer {
+      int[] array = new int[16];
+      int size = 0;
+
+      void add(int i) {
+         if (size == array.length) {
+            int[] bigger = new int[size * 2];
+            System.arraycopy(array, 0, bigger, 0, size);
+            array = bigger;
+         }
+         array[size++] = i;
+      }
+
+      int[] toArray() {
+         int[] result = new int[size];
+         System.arraycopy(array, 0, result, 0, size);
+         return result;
+      }
+   }
+}
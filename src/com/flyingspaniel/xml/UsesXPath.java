@@ -2,6 +2,10 @@ package com.flyingspaniel.xml;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.xml.namespace.NamespaceContext;
 import javax.xml.parsers.DocumentBuilder;
@@ -18,6 +22,8 @@ import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
+import com.flyingspaniel.metrics.MetricsListener;
+
 
 /**
  * Base class for classes that use XPath to navigate a DOM
@@ -26,11 +32,17 @@ import org.xml.sax.SAXException;
  * 
  * <p>The base class, UsesXPath, shares a single static DocumentBuilderFactory and XPathFactory for all instances.
  * <br>Since neither DocumentBuilderFactory nor XPathFactory are thread safe, their calls, 
- * <br>{@link #loadDOM(File)}, {@link #loadDOM(String)} and {@link #compile(String)}, are explicitly synchronized.
+ * <br>{@link #loadDOM(File)}, {@link #loadDOM(String)} and the creation of each thread's XPath, are explicitly synchronized.
  * 
  * <p>If you are using this class on a high-load application, use {@link UsesXPath.HighLoad} instead,
  * where each instance has it's own factory.
  * 
+ * <p>Compiled expressions are kept in an {@link ExpressionCache}, so repeated calls with the same xpath String
+ * (and NamespaceContext) do not recompile, nor, after the first call on each thread, lock the factory.
+ * 
+ * <p>If a {@link MetricsListener} is set, loadDOM reports its time as {@link #LOAD_DOM}, 
+ * and the number of Nodes in the Document as {@link #LOAD_DOM_NODES}.
+ * 
  * @author Morgan Conrad
  * @since Copyright(c) 2013  Morgan Conrad
  *
@@ -38,7 +50,17 @@ import org.xml.sax.SAXException;
  */
 public class UsesXPath {
 
+   /**
+    * Default maximum number of compiled expressions cached per thread
+    */
+   public static final int DEFAULT_CACHE_SIZE = 64;
+   
+   // names for the MetricsListener
+   public static final String LOAD_DOM = "xml.loadDOM";
+   public static final String LOAD_DOM_NODES = "xml.loadDOM.nodes";
+   
    protected volatile NamespaceContext namespaceContext = null;
+   protected volatile MetricsListener metrics = MetricsListener.NONE;
    
    /**
     * Initialization On Demand Holder idiom, see Josh Bloch Effective Java 2nd ed. page 283 or
@@ -48,6 +70,7 @@ public class UsesXPath {
    static class SingletonFactoryHolder {
       protected static final DocumentBuilderFactory sDocumentBuilderFactory = DocumentBuilderFactory.newInstance();
       protected static final XPathFactory sXPathfactory = XPathFactory.newInstance();
+      protected static final ExpressionCache sExpressionCache = new ExpressionCache(sXPathfactory, DEFAULT_CACHE_SIZE);
       
       static {
          sDocumentBuilderFactory.setNamespaceAware(true);
@@ -85,9 +108,41 @@ public class UsesXPath {
    }
    
    
+   /**
+    * Set where to report metrics
+    * @param newMetrics  if null, use MetricsListener.NONE
+    * @return previous value
+    */
+   public MetricsListener setMetrics(MetricsListener newMetrics) {
+      MetricsListener was = metrics;
+      metrics = newMetrics != null ? newMetrics : MetricsListener.NONE;
+      return was;
+   }
+   
+   
+   /**
+    * @return MetricsListener, never null
+    */
+   public MetricsListener getMetrics() {
+      return metrics;
+   }
+   
+   
+   /**
+    * The cache of compiled expressions used by {@link #compile(String, NamespaceContext)}
+    * This (default) implementation returns a single static instance, shared by all UsesXPaths
+    * 
+    * @return ExpressionCache
+    */
+   public ExpressionCache getExpressionCache() {
+      return SingletonFactoryHolder.sExpressionCache;
+   }
+   
+   
    /**
     * Compile the String to an XPathExpression with an optional NamespaceContext
-    * This (default) implementation uses synchronized access to a single static instance
+    * The result comes from {@link #getExpressionCache()}, and belongs to the calling thread,
+    * since XPathExpressions are not thread safe.  Don't hand it to another thread.
     * 
     * @param  xpathString
     * @param  nsContext if non-null overrides any namespaceContext set in @link {@link #setNamespaceContext}
@@ -95,14 +150,7 @@ public class UsesXPath {
     * @throws XPathExpressionException
     */
    public XPathExpression compile(String xpathString, NamespaceContext nsContext) throws XPathExpressionException {
-      synchronized(SingletonFactoryHolder.sXPathfactory) {
-         XPath xpath = SingletonFactoryHolder.sXPathfactory.newXPath();
-         if (nsContext != null)
-            xpath.setNamespaceContext(nsContext);
-         else if (namespaceContext != null)
-            xpath.setNamespaceContext(namespaceContext);
-         return xpath.compile(xpathString);
-      }
+      return getExpressionCache().compile(xpathString, nsContext != null ? nsContext : namespaceContext);
    }
    
    
@@ -213,8 +261,7 @@ public class UsesXPath {
       synchronized(SingletonFactoryHolder.sXPathfactory) {
          db = getDocumentBuilderFactory().newDocumentBuilder();
       }
-      Document doc = db.parse(url);
-      return doc;
+      return parse(db, url);
    }
  
    
@@ -233,8 +280,86 @@ public class UsesXPath {
       synchronized(SingletonFactoryHolder.sXPathfactory) {
          db = getDocumentBuilderFactory().newDocumentBuilder();
       }
-      Document doc = db.parse(file);
-      return doc;
+      return parse(db, file);
+   }
+   
+   
+   /**
+    * Loads a DOM from an InputStream
+    * This (default) implementation synchronized access to a single static instance
+    * 
+    * @param in   not closed here
+    * @return XML Document
+    * @throws SAXException
+    * @throws IOException
+    * @throws ParserConfigurationException
+    */
+   public Document loadDOM(InputStream in) throws SAXException, IOException, ParserConfigurationException {   
+      DocumentBuilder db;
+      synchronized(SingletonFactoryHolder.sXPathfactory) {
+         db = getDocumentBuilderFactory().newDocumentBuilder();
+      }
+      return parse(db, in);
+   }
+
+   
+   
+   /**
+    * Parses, reporting to the MetricsListener
+    * @param db
+    * @param source  a String URL, File or InputStream
+    * @return XML Document
+    * @throws SAXException
+    * @throws IOException
+    */
+   protected Document parse(DocumentBuilder db, Object source) throws SAXException, IOException {
+      long start = System.nanoTime();
+      try {
+         Document doc;
+         if (source instanceof File)
+            doc = db.parse((File)source);
+         else if (source instanceof InputStream)
+            doc = db.parse((InputStream)source);
+         else
+            doc = db.parse((String)source);
+         
+         MetricsListener listener = metrics;
+         if (listener != MetricsListener.NONE) {
+            listener.timing(LOAD_DOM, System.nanoTime() - start);
+            listener.count(LOAD_DOM_NODES, countNodes(doc));
+         }
+         return doc;
+      }
+      catch (IOException ioe) {
+         metrics.error(LOAD_DOM, ioe);
+         throw ioe;
+      }
+      catch (SAXException saxe) {
+         metrics.error(LOAD_DOM, saxe);
+         throw saxe;
+      }
+   }
+   
+   
+   /**
+    * Counts the node and all it's descendants, without recursion
+    * @param node  may be null
+    * @return count
+    */
+   public static int countNodes(Node node) {
+      int count = 0;
+      Node n = node;
+      while (n != null) {
+         count++;
+         Node next = n.getFirstChild();
+         while ((next == null) && (n != node)) {
+            next = n.getNextSibling();
+            if (next == null)
+               n = n.getParentNode();
+         }
+         n = next;
+      }
+      return count;
    }
 
    
@@ -246,19 +371,23 @@ public class UsesXPath {
       protected final XPathFactory localPathFactory = XPathFactory.newInstance();
       protected final DocumentBuilderFactory localDocumentBuilderFactory = DocumentBuilderFactory.newInstance();
       
-      @Override
-      public XPathExpression compile(String xpathString, NamespaceContext nsContext) throws XPathExpressionException {
-         XPath xpath = localPathFactory.newXPath();
-         if (nsContext != null)
-            xpath.setNamespaceContext(nsContext);
-         else if (namespaceContext != null)
-            xpath.setNamespaceContext(namespaceContext);
-         return xpath.compile(xpathString);
+      protected final ExpressionCache localExpressionCache;
+      
+      /**
+       * Constructor
+       * @param maxCachedExpressions  per thread, 0 means no caching
+       */
+      public HighLoad(int maxCachedExpressions) {
+         localExpressionCache = new ExpressionCache(localPathFactory, maxCachedExpressions);
+      }
+      
+      public HighLoad() {
+         this(DEFAULT_CACHE_SIZE);
       }
       
       @Override
-      public XPathExpression compile(String xpathString) throws XPathExpressionException {
-         return compile(xpathString, null);
+      public ExpressionCache getExpressionCache() {
+         return localExpressionCache;
       }
       
       
@@ -269,12 +398,159 @@ public class UsesXPath {
 
       @Override
       public Document loadDOM(String url) throws SAXException, IOException, ParserConfigurationException {
-         return localDocumentBuilderFactory.newDocumentBuilder().parse(url);
+         return parse(localDocumentBuilderFactory.newDocumentBuilder(), url);
       }
       
       @Override
       public Document loadDOM(File file) throws SAXException, IOException, ParserConfigurationException {
-         return localDocumentBuilderFactory.newDocumentBuilder().parse(file);
+         return parse(localDocumentBuilderFactory.newDocumentBuilder(), file);
+      }
+      
+      @Override
+      public Document loadDOM(InputStream in) throws SAXException, IOException, ParserConfigurationException {
+         return parse(localDocumentBuilderFactory.newDocumentBuilder(), in);
+      }
+   }
+   
+   
+   
+   /**
+    * Bounded cache of compiled XPathExpressions, keyed by the xpath String and the NamespaceContext.
+    * 
+    * <p>Neither XPath nor XPathExpression are thread safe, so each thread gets it's own XPath and it's own
+    * LRU map of expressions.  The factory is only locked when a thread creates it's XPath.
+    * Hit and miss counts are totals over all threads.
+    */
+   public static class ExpressionCache {
+      
+      protected final XPathFactory factory;
+      protected final int maxSize;
+      
+      protected final AtomicLong hits = new AtomicLong();
+      protected final AtomicLong misses = new AtomicLong();
+      
+      private final ThreadLocal<PerThread> perThread = new ThreadLocal<PerThread>() {
+         @Override
+         protected PerThread initialValue() {
+            synchronized(factory) {
+               return new PerThread(factory.newXPath(), maxSize);
+            }
+         }
+      };
+      
+      /**
+       * Constructor
+       * @param factory  non-null, will be synchronized upon when creating XPaths
+       * @param maxSize  maximum number of expressions per thread, 0 means no caching
+       */
+      public ExpressionCache(XPathFactory factory, int maxSize) {
+         if (maxSize < 0)
+            throw new IllegalArgumentException("maxSize=" + maxSize);
+         this.factory = factory;
+         this.maxSize = maxSize;
+      }
+      
+      
+      /**
+       * Return the compiled expression, compiling it only if this thread has not already done so
+       * @param xpathString
+       * @param nsContext  may be null
+       * @return XPathExpression, for use only by the calling thread
+       * @throws XPathExpressionException
+       */
+      public XPathExpression compile(String xpathString, NamespaceContext nsContext) throws XPathExpressionException {
+         PerThread cache = perThread.get();
+         Key key = new Key(xpathString, nsContext);
+         XPathExpression expression = cache.get(key);
+         if (expression != null) {
+            hits.incrementAndGet();
+            return expression;
+         }
+         
+         misses.incrementAndGet();
+         XPath xpath = cache.xpath;
+         xpath.reset();
+         if (nsContext != null)
+            xpath.setNamespaceContext(nsContext);
+         expression = xpath.compile(xpathString);
+         if (maxSize > 0)
+            cache.put(key, expression);
+         return expression;
+      }
+      
+      
+      /**
+       * Empties the cache <i>for the calling thread only</i>.  Counts are unaffected.
+       */
+      public void clear() {
+         perThread.get().clear();
+      }
+      
+      /**
+       * Number of calls to compile that were found in the cache
+       */
+      public long getHits() {
+         return hits.get();
+      }
+      
+      /**
+       * Number of calls to compile that had to compile
+       */
+      public long getMisses() {
+         return misses.get();
+      }
+      
+      public int getMaxSize() {
+         return maxSize;
+      }
+      
+      @Override
+      public String toString() {
+         return "hits=" + hits + " misses=" + misses + " maxSize=" + maxSize;
+      }
+      
+      
+      @SuppressWarnings("serial")
+      static class PerThread extends LinkedHashMap<Key, XPathExpression> {
+         final XPath xpath;
+         final int maxSize;
+         
+         PerThread(XPath xpath, int maxSize) {
+            super(16, 0.75f, true);  // access order, for LRU
+            this.xpath = xpath;
+            this.maxSize = maxSize;
+         }
+         
+         @Override
+         protected boolean removeEldestEntry(Map.Entry<Key, XPathExpression> eldest) {
+            return size() > maxSize;
+         }
+      }
+      
+      
+      // NamespaceContexts seldom implement equals, so compare them by identity
+      static class Key {
+         final String xpathString;
+         final NamespaceContext nsContext;
+         
+         Key(String xpathString, NamespaceContext nsContext) {
+            this.xpathString = xpathString;
+            this.nsContext = nsContext;
+         }
+         
+         @Override
+         public boolean equals(Object obj) {
+            if (obj instanceof Key) {
+               Key o = (Key) obj;
+               return xpathString.equals(o.xpathString) && (nsContext == o.nsContext);
+            }
+            return false;
+         }
+         
+         @Override
+         public int hashCode() {
+            return xpathString.hashCode() ^ System.identityHashCode(nsContext);
+         }
       }
    }
    
@@ -0,0 +1,53 @@
+package com.flyingspaniel.metrics;
+
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+public class HistogramMetricsTest extends TestCase {
+
+   public void testHistogram() {
+      HistogramMetrics.Histogram histogram = new HistogramMetrics.Histogram();
+      assertEquals(0, histogram.getPercentile(50));
+      assertEquals(0, histogram.getMax());
+      
+      for (int i=1; i<=100; i++)
+         histogram.record(i);
+      assertEquals(100, histogram.getCount());
+      assertEquals(5050, histogram.getSum());
+      assertEquals(1, histogram.getMin());
+      assertEquals(100, histogram.getMax());
+      assertEquals(50.5, histogram.getMean(), 0.001);
+      
+      // power of two buckets, so 50 is in [32, 64) and 99 is in [64, 128), capped by the max
+      assertEquals(63, histogram.getPercentile(50));
+      assertEquals(100, histogram.getPercentile(99));
+      assertEquals(1, histogram.getPercentile(0));
+      
+      histogram.record(-5);
+      assertEquals(0, histogram.getMin());
+      histogram.record(Long.MAX_VALUE);
+      assertEquals(Long.MAX_VALUE, histogram.getPercentile(100));
+   }
+   
+   
+   public void testListener() {
+      HistogramMetrics metrics = new HistogramMetrics();
+      metrics.timing("a", 1000);
+      metrics.timing("a", 3000);
+      metrics.count("a.bytes", 42);
+      metrics.error("a", new IOException());
+      
+      assertEquals(2, metrics.getTimings("a").getCount());
+      assertEquals(2000.0, metrics.getTimings("a").getMean(), 0.001);
+      assertEquals(42, metrics.getCounts("a.bytes").getSum());
+      assertEquals(1, metrics.getErrors("a"));
+      assertEquals(0, metrics.getErrors("b"));
+      assertNull(metrics.getTimings("b"));
+      assertTrue(metrics.toString().contains("a count=2"));
+      assertTrue(metrics.toString().contains("a errors=1"));
+      
+      metrics.clear();
+      assertNull(metrics.getTimings("a"));
+   }
+}
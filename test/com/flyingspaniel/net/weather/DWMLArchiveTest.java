@@ -0,0 +1,166 @@
+package com.flyingspaniel.net.weather;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.TestCase;
+
+public class DWMLArchiveTest extends TestCase {
+
+   File directory;
+   byte[] dwml;
+   
+   @Override
+   protected void setUp() throws Exception {
+      directory = File.createTempFile("DWMLArchiveTest", "");
+      directory.delete();
+      dwml = NOAAFetcher.readFully(new FileInputStream(new File("testdata/noaaweather.xml")));
+   }
+   
+   @Override
+   protected void tearDown() throws Exception {
+      for (File file : DWMLArchive.listFiles(directory))
+         file.delete();
+      directory.delete();
+   }
+   
+   
+   public void testRolling() throws Exception {
+      byte[] gzipped = DWMLArchive.gzip(dwml);
+      DWMLArchive archive = new DWMLArchive(directory, gzipped.length * 2 + 200, 2);
+      for (int i=0; i<7; i++) {
+         if (i % 2 == 0)
+            archive.write(new NOAAFetcher.Response("http://noaa/" + i, i, "gzip", gzipped));
+         else
+            archive.write(new NOAAFetcher.Response("http://noaa/" + i, i, null, dwml));
+      }
+      archive.close();
+      assertNull(archive.getFailure());
+      assertEquals(7, archive.getRecordCount());
+      
+      // 3 records per file, only the last 2 files are kept
+      List<File> files = archive.getFiles();
+      assertEquals(2, files.size());
+      List<NOAAFetcher.Response> responses = DWMLArchive.readAll(directory);
+      assertEquals(4, responses.size());
+      for (int i=0; i<responses.size(); i++) {
+         NOAAFetcher.Response response = responses.get(i);
+         assertEquals("http://noaa/" + (i+3), response.url);
+         assertEquals(i+3, response.fetchedMS);
+         assertEquals("gzip", response.contentEncoding);
+         assertTrue(response.size() * 5 < dwml.length);
+         assertTrue(Arrays.equals(dwml, response.decompress()));
+      }
+   }
+   
+   
+   public void testPartialRecord() throws Exception {
+      DWMLArchive archive = new DWMLArchive(directory);
+      archive.write(new NOAAFetcher.Response("http://noaa/1", 1, null, dwml));
+      archive.close();
+      
+      File file = archive.getFiles().get(0);
+      FileOutputStream out = new FileOutputStream(file, true);
+      out.write(new byte[] { 0x44, 0x57, 0x4D, 0x4C, 0, 3, 'h' });
+      out.close();
+      
+      List<NOAAFetcher.Response> responses = DWMLArchive.read(file);
+      assertEquals(1, responses.size());
+      assertTrue(Arrays.equals(dwml, responses.get(0).decompress()));
+   }
+   
+   
+   public void testFailedWrite() throws Exception {
+      DWMLArchive archive = new DWMLArchive(directory) {
+         int files = 0;
+         
+         @Override
+         protected void roll() throws IOException {
+            super.roll();
+            if (files++ == 0) {
+               // the first file fails part way through the second record
+               out = new FilterOutputStream(out) {
+                  int written = 0;
+                  
+                  @Override
+                  public void write(byte[] b, int off, int len) throws IOException {
+                     if (written > 0)
+                        super.write(b, off, 100);
+                     if ((written += len) > len)
+                        throw new IOException("disk full");
+                     super.write(b, off, len);
+                  }
+               };
+            }
+         }
+      };
+      for (int i=0; i<3; i++)
+         archive.write(new NOAAFetcher.Response("http://noaa/" + i, i, null, dwml));
+      archive.close();
+      assertEquals("disk full", archive.getFailure().getMessage());
+      assertEquals(2, archive.getRecordCount());
+      
+      // the partial record is at the end of the first file
+      assertEquals(2, archive.getFiles().size());
+      List<NOAAFetcher.Response> responses = DWMLArchive.readAll(directory);
+      assertEquals(2, responses.size());
+      assertEquals("http://noaa/0", responses.get(0).url);
+      assertEquals("http://noaa/2", responses.get(1).url);
+   }
+   
+   
+   public void testDropsWhenFull() throws Exception {
+      final CountDownLatch blocked = new CountDownLatch(1);
+      DWMLArchive archive = new DWMLArchive(directory, DWMLArchive.DEFAULT_MAX_FILE_BYTES, 10, 2) {
+         @Override
+         protected void writeRecord(NOAAFetcher.Response response) {
+            try {
+               blocked.await();
+            } catch (InterruptedException ie) {
+               ;
+            }
+            super.writeRecord(response);
+         }
+      };
+      
+      // one being written, two queued, the rest dropped, none blocking the caller
+      for (int i=0; i<10; i++)
+         archive.write(new NOAAFetcher.Response("http://noaa/" + i, i, null, dwml));
+      assertEquals(7, archive.getDropped());
+      blocked.countDown();
+      archive.close();
+      assertEquals(3, archive.getRecordCount());
+      assertEquals(3, DWMLArchive.readAll(directory).size());
+   }
+   
+   
+   public void testWriterGoesIdle() throws Exception {
+      DWMLArchive archive = new DWMLArchive(directory);
+      archive.close();  // nothing written, nothing to wait for
+      
+      archive.write(new NOAAFetcher.Response("http://noaa/1", 1, null, dwml));
+      archive.close();
+      for (int i=0; i<50 && isWriterRunning(archive); i++)
+         Thread.sleep(100);
+      assertFalse(isWriterRunning(archive));
+      
+      // a new writer starts for the next one
+      archive.write(new NOAAFetcher.Response("http://noaa/2", 2, null, dwml));
+      archive.close();
+      assertEquals(2, archive.getRecordCount());
+      assertEquals(2, DWMLArchive.readAll(directory).size());
+   }
+   
+   
+   static boolean isWriterRunning(DWMLArchive archive) {
+      synchronized(archive) {
+         return archive.writerRunning;
+      }
+   }
+}
@@ -0,0 +1,129 @@
+package com.flyingspaniel.net.weather;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.EnumSet;
+
+import junit.framework.TestCase;
+
+public class DWMLGeneratorTest extends TestCase {
+
+   public void testDeterministic() throws Exception {
+      DWMLGenerator generator = new DWMLGenerator(42L);
+      generator.setPoints(3);
+      generator.setNDFDs(EnumSet.allOf(NDFD.class));
+      byte[] dwml = generator.generate();
+      assertTrue(Arrays.equals(dwml, generator.generate()));
+      
+      DWMLGenerator sameSeed = new DWMLGenerator(42L);
+      sameSeed.setPoints(3);
+      sameSeed.setNDFDs(EnumSet.allOf(NDFD.class));
+      ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+      sameSeed.write(streamed);
+      assertTrue(Arrays.equals(dwml, streamed.toByteArray()));
+      
+      DWMLGenerator otherSeed = new DWMLGenerator(43L);
+      otherSeed.setPoints(3);
+      otherSeed.setNDFDs(EnumSet.allOf(NDFD.class));
+      assertFalse(Arrays.equals(dwml, otherSeed.generate()));
+   }
+   
+   
+   public void testParse() throws Exception {
+      DWMLGenerator generator = new DWMLGenerator(7L);
+      generator.setPoints(3);
+      generator.setNDFDs(EnumSet.allOf(NDFD.class));
+      generator.setLayoutVariants(2);
+      generator.setHazardDensity(0.25);
+      generator.setMissingRatio(0.1);
+      byte[] dwml = generator.generate();
+      
+      NOAAWeather dom = parse(dwml, NOAAWeather.Engine.DOM, generator.getNDFDs());
+      NOAAWeather streaming = parse(dwml, NOAAWeather.Engine.STREAMING, generator.getNDFDs());
+      assertEquals(dom.getForecasts().toString(), streaming.getForecasts().toString());
+      assertEquals(7, dom.getForecasts().size());
+      assertEquals("k-p24h-n7-1", dom.timeLayout0.layoutKey);
+      
+      // day, night, 1h and 1h shifted, 3h and 3h shifted, 6h accumulations and shifted, 6h waves, 1h hazards
+      assertEquals(10, dom.timeLayoutMap.size());
+      assertEquals(dom.timeLayoutMap.keySet(), streaming.timeLayoutMap.keySet());
+      
+      int missing = 0;
+      int values = 0;
+      for (NDFD ndfd : generator.getNDFDs()) {
+         NDFDSeries series = dom.getNDFDSeries(ndfd);
+         assertEquals(ndfd.name(), series.getValues(), streaming.getNDFDSeries(ndfd).getValues());
+         if (ndfd.isNumeric()) {
+            for (int i=0; i<series.getValues().size(); i++, values++)
+               if (Float.isNaN(series.getFloatValue(i)))
+                  missing++;
+         }
+      }
+      assertTrue(missing > values / 20);
+      assertTrue(missing < values / 5);
+      
+      assertEquals(168, dom.getNDFDSeries(NDFD.temp).getValues().size());
+      assertEquals(167, dom.getNDFDSeries(NDFD.dew).getValues().size());
+      assertEquals(dom.getNDFDSeries(NDFD.temp).getTimeLayout(), dom.getNDFDSeries(NDFD.sky).getTimeLayout());
+      
+      int hazards = 0;
+      for (String hazard : dom.getNDFDSeries(NDFD.wwa).getValues())
+         if (hazard.contains(" @link:http"))
+            hazards++;
+      assertTrue(hazards > 168 / 8);
+      assertTrue(hazards < 168 / 2);
+   }
+   
+   
+   public void testStepHours() throws Exception {
+      DWMLGenerator generator = new DWMLGenerator();
+      generator.setPoints(2);
+      generator.setHours(48);
+      generator.setStepHours(6);
+      generator.setNDFDs(EnumSet.of(NDFD.maxt, NDFD.mint, NDFD.temp, NDFD.icons, NDFD.qpf));
+      NOAAWeather weather = parse(generator.generate(), NOAAWeather.Engine.STREAMING, generator.getNDFDs());
+      assertEquals(8, weather.getNDFDSeries(NDFD.temp).getValues().size());
+      assertEquals(8, weather.getNDFDSeries(NDFD.icons).getValues().size());
+      assertEquals(8, weather.getNDFDSeries(NDFD.qpf).getValues().size());
+      assertEquals(2, weather.getNDFDSeries(NDFD.maxt).getValues().size());
+      assertEquals(DWMLGenerator.DEFAULT_HAZARD_DENSITY, generator.setHazardDensity(0.0), 0.0);
+   }
+   
+   
+   public void testLarge() throws Exception {
+      DWMLGenerator generator = new DWMLGenerator();
+      generator.setPoints(200);
+      generator.setNDFDs(EnumSet.allOf(NDFD.class));
+      CountingOutputStream counter = new CountingOutputStream();
+      generator.write(counter);
+      assertTrue(counter.count > 5 * 1024 * 1024);
+   }
+   
+   
+   NOAAWeather parse(byte[] dwml, NOAAWeather.Engine engine, EnumSet<NDFD> ndfds) throws Exception {
+      NOAAWeather weather = new NOAAWeather();
+      weather.setEngine(engine);
+      weather.NDFDs.addAll(ndfds);
+      weather.locationKey = "point2";
+      weather.loadFromStream(new ByteArrayInputStream(dwml));
+      weather.call();
+      return weather;
+   }
+   
+   
+   static class CountingOutputStream extends OutputStream {
+      long count = 0;
+      
+      @Override
+      public void write(int b) {
+         count++;
+      }
+      
+      @Override
+      public void write(byte[] b, int off, int len) {
+         count += len;
+      }
+   }
+}
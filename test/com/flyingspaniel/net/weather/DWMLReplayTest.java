@@ -0,0 +1,100 @@
+package com.flyingspaniel.net.weather;
+
+import java.io.File;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class DWMLReplayTest extends TestCase {
+
+   File directory;
+   
+   @Override
+   protected void setUp() throws Exception {
+      directory = File.createTempFile("DWMLReplayTest", "");
+      directory.delete();
+   }
+   
+   @Override
+   protected void tearDown() throws Exception {
+      for (File file : DWMLArchive.listFiles(directory))
+         file.delete();
+      directory.delete();
+   }
+   
+   
+   public void testLoad() throws Exception {
+      List<NOAAFetcher.Response> plain = DWMLReplay.load(new File("testdata"));
+      assertEquals(3, plain.size());
+      assertFalse(plain.get(0).isCompressed());
+      
+      DWMLArchive archive = new DWMLArchive(directory);
+      for (NOAAFetcher.Response response : plain)
+         archive.write(response);
+      archive.close();
+      List<NOAAFetcher.Response> archived = DWMLReplay.load(directory);
+      assertEquals(3, archived.size());
+      assertTrue(archived.get(0).isCompressed());
+      
+      NOAAWeather template = new NOAAWeather();
+      assertEquals(new DWMLReplay(template, plain).getTotalBytes(), new DWMLReplay(template, archived).getTotalBytes());
+   }
+   
+   
+   public void testReplay() throws Exception {
+      // noaaweather1.xml lacks hourly temperatures, so call() fails on it
+      List<NOAAFetcher.Response> documents = DWMLReplay.load(new File("testdata/noaaweather.xml"));
+      documents.addAll(DWMLReplay.load(new File("testdata/noaaweather-multi.xml")));
+      documents.add(new NOAAFetcher.Response("gzipped", 0L, "gzip", DWMLArchive.gzip(documents.get(0).decompress())));
+      for (NOAAWeather.Engine engine : NOAAWeather.Engine.values()) {
+         NOAAWeather template = new NOAAWeather();
+         template.setEngine(engine);
+         DWMLReplay replay = new DWMLReplay(template, documents);
+         replay.setThreads(3);
+         replay.setPasses(4);
+         DWMLReplay.Result result = replay.call();
+         
+         assertEquals(engine, result.engine);
+         assertEquals(12, result.documents);
+         assertEquals(0, result.errors);
+         assertEquals(replay.getTotalBytes() * 4, result.bytes);
+         assertTrue(result.getDocsPerSecond() > 0);
+         assertTrue(result.getMBPerSecond() > 0);
+         assertTrue(result.getLatencyPercentile(50) > 0);
+         assertTrue(result.getLatencyPercentile(50) <= result.getLatencyPercentile(99));
+         assertTrue(result.getLatencyPercentile(99) <= result.elapsedNanos);
+         assertTrue(result.getAllocatedBytesPerDoc() != 0);
+         assertEquals(12, result.metrics.getTimings(DWMLReplay.PARSE).getCount());
+         assertEquals(12, result.metrics.getTimings(NOAAWeather.CALL).getCount());
+         assertNull(result.metrics.getTimings(NOAAWeather.FETCH));
+      }
+   }
+   
+   
+   public void testErrors() throws Exception {
+      List<NOAAFetcher.Response> documents = DWMLReplay.load(new File("testdata/noaaweather.xml"));
+      documents.add(new NOAAFetcher.Response("bad", 0L, null, "<dwml><data>".getBytes("UTF-8")));
+      DWMLReplay replay = new DWMLReplay(new NOAAWeather(), documents);
+      replay.setWarmupPasses(0);
+      DWMLReplay.Result result = replay.call();
+      assertEquals(2, result.documents);
+      assertEquals(1, result.errors);
+      assertNotNull(result.firstFailure);
+   }
+   
+   
+   public void testResult() {
+      long[] latencies = new long[100];
+      for (int i=0; i<latencies.length; i++)
+         latencies[i] = (i+1) * 1000L;
+      DWMLReplay.Result result = new DWMLReplay.Result(NOAAWeather.Engine.DOM, 1, 100, 2L*1024*1024, 2000000000L, latencies, 
+                                                       -1L, 0, null, null);
+      assertEquals(50.0, result.getDocsPerSecond(), 1e-9);
+      assertEquals(1.0, result.getMBPerSecond(), 1e-9);
+      assertEquals(50000L, result.getLatencyPercentile(50));
+      assertEquals(99000L, result.getLatencyPercentile(99));
+      assertEquals(100000L, result.getLatencyPercentile(100));
+      assertEquals(1000L, result.getLatencyPercentile(0));
+      assertEquals(-1L, result.getAllocatedBytesPerDoc());
+   }
+}
@@ -0,0 +1,50 @@
+package com.flyingspaniel.net.weather;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.openjdk.jol.info.GraphLayout;
+
+/**
+ * Retained size of a long lived NOAAWeather, with and without setReleaseDocument(true).
+ * Sizes are measured with JOL, as of this writing (JDK 17, compressed oops) they are
+ * <pre>
+ * Retained bytes for testdata/noaaweather.xml, 15 NDFDs
+ *    keeping the Document     713888
+ *    releaseDocument           34656
+ *    ForecastSnapshot          34440
+ * </pre>
+ */
+public class FootprintTest extends TestCase {
+
+   static final String[] MORE_NDFDS = { "dew", "qpf", "rh", "sky", "snow", "waveh", "wdir", "wgust", "wspd", "wwa", "wx" };
+   
+   
+   public void testReleaseDocument() throws IOException {
+      NOAAWeather keeping = create(false);
+      NOAAWeather releasing = create(true);
+      assertNotNull(keeping.document);
+      assertNull(releasing.document);
+      assertNull(releasing.mainNode);
+      assertEquals(keeping.getForecasts().toString(), releasing.getForecasts().toString());
+      
+      long keptBytes = GraphLayout.parseInstance(keeping).totalSize();
+      long releasedBytes = GraphLayout.parseInstance(releasing).totalSize();
+      long snapshotBytes = GraphLayout.parseInstance(releasing.snapshot()).totalSize();
+      
+      assertTrue("kept " + keptBytes + " released " + releasedBytes, keptBytes > 5 * releasedBytes);
+      assertTrue("snapshot " + snapshotBytes + " released " + releasedBytes, snapshotBytes <= releasedBytes);
+   }
+   
+   
+   NOAAWeather create(boolean release) throws IOException {
+      NOAAWeather weather = new NOAAWeather();
+      weather.setReleaseDocument(release);
+      weather.addNDFDParameters(MORE_NDFDS);
+      weather.document = weather.loadDocFromFile(new File("testdata/noaaweather.xml"));
+      weather.call();
+      return weather;
+   }
+}
@@ -0,0 +1,140 @@
+package com.flyingspaniel.net.weather;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import junit.framework.TestCase;
+
+public class ForecastCacheTest extends TestCase {
+
+   static final String TUESDAY = "Tuesday, August 21, 2012 : Foggy High=143.6 Low=125.6";
+
+   StubNOAA noaa;
+   String baseURL;
+   final AtomicInteger requests = new AtomicInteger();
+   final List<String> queries = new ArrayList<String>();
+
+   @Override
+   protected void setUp() throws Exception {
+      final byte[] dwml = NOAAFetcher.readFully(new FileInputStream(new File("testdata/noaaweather.xml")));
+
+      noaa = new StubNOAA(new HttpHandler() {
+         @Override
+         public void handle(HttpExchange exchange) throws IOException {
+            requests.incrementAndGet();
+            synchronized(queries) {
+               queries.add(exchange.getRequestURI().getQuery());
+            }
+            try {
+               Thread.sleep(100);  // so that concurrent requests overlap
+            } catch (InterruptedException ie) {
+               ;
+            }
+            StubNOAA.send(exchange, null, dwml);
+         }
+      });
+      baseURL = noaa.getBaseURL();
+   }
+
+   @Override
+   protected void tearDown() throws Exception {
+      noaa.stop();
+   }
+
+
+   NOAAWeather create(ForecastCache cache, double lat, double lon) {
+      NOAAWeather weather = new NOAAWeather();
+      weather.setBaseURL(baseURL);
+      weather.setCache(cache);
+      weather.setLocation(lat, lon);
+      return weather;
+   }
+
+
+   public void testHitsAndEvictions() throws IOException {
+      ForecastCache cache = new ForecastCache(1, ForecastCache.DEFAULT_TTL_MS);
+
+      // what is fetched is the rounded point, so the cached forecast matches its key
+      assertEquals(TUESDAY, create(cache, 37.5401, -122.4999).call().getForecasts().get(1).toString());
+      assertTrue(queries.get(0), queries.get(0).startsWith("lat=37.54&lon=-122.5&"));
+      NOAAWeather again = create(cache, 37.541, -122.4999).call();  // rounds to the same point
+      assertEquals(TUESDAY, again.getForecasts().get(1).toString());
+      assertEquals("PT1H", again.getMoreInfo().get(NOAAWeather.MoreInfoKeys.REFRESH_FREQUENCY.name()));
+      assertEquals(1, requests.get());
+      assertEquals(1, cache.getHits());
+      assertEquals(1, cache.getMisses());
+      assertEquals(0.5, cache.getHitRate());
+
+      NOAAWeather withDew = create(cache, 37.54, -122.50);
+      withDew.addNDFDParameters(NDFD.dew);
+      withDew.call();
+      assertEquals(2, requests.get());
+      assertEquals(1, cache.getEvictions());
+      assertEquals(1, cache.size());
+
+      create(cache, 37.54, -122.50).call();
+      assertEquals(3, requests.get());
+   }
+
+
+   public void testExpiration() throws IOException {
+      ForecastCache cache = new ForecastCache(10, 0L) {
+         @Override
+         protected long ttlFor(ForecastSnapshot loaded) {
+            return -1L;
+         }
+      };
+
+      create(cache, 37.54, -122.50).call();
+      create(cache, 37.54, -122.50).call();
+      assertEquals(2, requests.get());
+      assertEquals(1, cache.getExpirations());
+      assertEquals(0, cache.getHits());
+   }
+
+
+   public void testCoalescing() throws Exception {
+      final ForecastCache cache = new ForecastCache();
+      ExecutorService executor = Executors.newFixedThreadPool(8);
+      List<Future<NOAAWeather>> futures = new ArrayList<Future<NOAAWeather>>();
+      for (int i=0; i<8; i++) {
+         futures.add(executor.submit(new Callable<NOAAWeather>() {
+            @Override
+            public NOAAWeather call() throws Exception {
+               return create(cache, 37.54, -122.50).call();
+            }
+         }));
+      }
+
+      for (Future<NOAAWeather> future : futures)
+         assertEquals(TUESDAY, future.get().getForecasts().get(1).toString());
+      executor.shutdown();
+
+      assertEquals(1, requests.get());
+      assertEquals(1, cache.getMisses());
+      assertEquals(7, cache.getHits() + cache.getCoalesced());
+   }
+
+
+   public void testParseDuration() {
+      assertEquals(NOAAWeather.ONE_HOUR, ForecastCache.parseDuration("PT1H"));
+      assertEquals(30 * NOAAWeather.ONE_HOUR, ForecastCache.parseDuration("P1DT6H"));
+      assertEquals(90 * 1000L, ForecastCache.parseDuration("PT1M30S"));
+      assertEquals(1500L, ForecastCache.parseDuration("PT1.5S"));
+      assertEquals(-1L, ForecastCache.parseDuration("P1M"));
+      assertEquals(-1L, ForecastCache.parseDuration("PT1"));
+      assertEquals(-1L, ForecastCache.parseDuration("1H"));
+      assertEquals(-1L, ForecastCache.parseDuration(null));
+   }
+}
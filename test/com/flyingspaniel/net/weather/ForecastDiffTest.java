@@ -0,0 +1,154 @@
+package com.flyingspaniel.net.weather;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class ForecastDiffTest extends TestCase {
+
+   static final String HOUR0 = "2012-08-20T00:00:00-07:00";
+   static final String HOUR1 = "2012-08-20T01:00:00-07:00";
+   static final String HOUR2 = "2012-08-20T02:00:00-07:00";
+   static final String HOUR3 = "2012-08-20T03:00:00-07:00";
+   
+   
+   public void testSnapshots() throws Exception {
+      String xml = new String(NOAAFetcher.readFully(new FileInputStream(new File("testdata/noaaweather.xml"))), "UTF-8");
+      ForecastSnapshot before = snapshot(xml);
+      
+      ForecastDiff same = ForecastDiff.compare(before, snapshot(xml));
+      assertTrue(same.toString(), same.isEmpty());
+      assertTrue(same.getUnchangedCount() > 100);
+      assertEquals(same.getUnchangedCount(), ForecastDiff.compare(before, before).getUnchangedCount());
+      
+      // first maximum temperature goes from 62 to 70
+      String warmer = xml.replace("<name>Daily Maximum Temperature</name>\n        <value>62</value>", 
+                                  "<name>Daily Maximum Temperature</name>\n        <value>70</value>");
+      assertFalse(warmer.equals(xml));
+      ForecastDiff diff = ForecastDiff.compare(before, snapshot(warmer));
+      assertEquals(1, diff.getChanges().size());
+      ForecastDiff.Change change = diff.getChanges().get(0);
+      assertEquals(ForecastDiff.Kind.CHANGED, change.kind);
+      assertEquals(NDFD.maxt, change.ndfd);
+      assertEquals("k-p24h-n7-1", change.layoutKey);
+      assertEquals("62", change.oldValue);
+      assertEquals("70", change.newValue);
+      assertEquals(1, diff.getChangedForecasts().size());
+      assertEquals(before.getForecasts().get(0).getDate(), diff.getChangedForecasts().get(0).getDate());
+      
+      // interpretation is derived from icons, so only the icon is reported
+      String sunny = xml.replaceFirst("wtf/nfg\\.jpg", "wtf/skc.jpg");
+      diff = ForecastDiff.compare(before, snapshot(sunny));
+      assertEquals(1, diff.getChanges().size());
+      assertEquals(NDFD.icons, diff.getChanges().get(0).ndfd);
+      
+      ForecastDiff first = ForecastDiff.compare(null, before);
+      assertEquals(same.getUnchangedCount(), first.getChanges(ForecastDiff.Kind.ADDED).size());
+      assertEquals(before.getForecasts().size(), first.getChangedForecasts().size());
+   }
+   
+   
+   public void testIntervals() throws Exception {
+      TimeLayout layout1 = TimeLayout.parseStrings("k-p1h-n3-1", Arrays.asList(HOUR0, HOUR1, HOUR2), null);
+      TimeLayout layout2 = TimeLayout.parseStrings("k-p1h-n3-2", Arrays.asList(HOUR1, HOUR2, HOUR3), null);
+      NDFDSeries before = NDFDSeries.create(NDFD.temp, layout1, "Fahrenheit", Arrays.asList("60", "61", ""));
+      NDFDSeries after = NDFDSeries.create(NDFD.temp, layout2, "Fahrenheit", Arrays.asList("62", "", "63"));
+      
+      ForecastDiff diff = new ForecastDiff();
+      diff.compareSeries(NDFD.temp, before, after);
+      assertEquals(1, diff.getUnchangedCount());  // HOUR2, NaN to NaN
+      
+      List<ForecastDiff.Change> changed = diff.getChanges(ForecastDiff.Kind.CHANGED);
+      assertEquals(1, changed.size());
+      assertEquals(layout2.getInterval(0), changed.get(0).interval);
+      assertEquals("61", changed.get(0).oldValue);
+      assertEquals("62", changed.get(0).newValue);
+      
+      List<ForecastDiff.Change> added = diff.getChanges(ForecastDiff.Kind.ADDED);
+      assertEquals(1, added.size());
+      assertEquals(layout2.getInterval(2), added.get(0).interval);
+      assertEquals("k-p1h-n3-2", added.get(0).layoutKey);
+      
+      List<ForecastDiff.Change> expired = diff.getChanges(ForecastDiff.Kind.EXPIRED);
+      assertEquals(1, expired.size());
+      assertEquals(layout1.getInterval(0), expired.get(0).interval);
+      assertEquals("k-p1h-n3-1", expired.get(0).layoutKey);
+      assertEquals("60", expired.get(0).oldValue);
+      assertNull(expired.get(0).newValue);
+      
+      // a repeated interval is matched by occurrence
+      TimeLayout repeats1 = TimeLayout.parseStrings("k-p1h-n3-3", Arrays.asList(HOUR0, HOUR0, HOUR1), null);
+      TimeLayout repeats2 = TimeLayout.parseStrings("k-p1h-n3-4", Arrays.asList(HOUR0, HOUR0), null);
+      before = NDFDSeries.create(NDFD.temp, repeats1, "Fahrenheit", Arrays.asList("60", "70", "61"));
+      after = NDFDSeries.create(NDFD.temp, repeats2, "Fahrenheit", Arrays.asList("60", "71"));
+      diff = new ForecastDiff();
+      diff.compareSeries(NDFD.temp, before, after);
+      assertEquals(1, diff.getUnchangedCount());
+      changed = diff.getChanges(ForecastDiff.Kind.CHANGED);
+      assertEquals(1, changed.size());
+      assertEquals("70", changed.get(0).oldValue);
+      assertEquals("71", changed.get(0).newValue);
+      expired = diff.getChanges(ForecastDiff.Kind.EXPIRED);
+      assertEquals(1, expired.size());
+      assertEquals("61", expired.get(0).oldValue);
+   }
+   
+   
+   public void testHazards() throws Exception {
+      TimeLayout layout = TimeLayout.parseStrings("k-p1h-n2-8", Arrays.asList(HOUR0, HOUR1), null);
+      NDFDSeries before = NDFDSeries.create(NDFD.wwa, layout, "?", Arrays.asList("", "  HT Y @link:http://h"));
+      NDFDSeries after = NDFDSeries.create(NDFD.wwa, layout, "?", Arrays.asList("  FW A @link:http://f", "  FW A @link:http://f"));
+      
+      ForecastDiff diff = new ForecastDiff();
+      diff.compareSeries(NDFD.wwa, before, after);
+      assertEquals(0, diff.getChanges(ForecastDiff.Kind.CHANGED).size());
+      
+      List<ForecastDiff.Change> issued = diff.getChanges(ForecastDiff.Kind.HAZARD_ISSUED);
+      assertEquals(2, issued.size());
+      assertEquals("FW A @link:http://f", issued.get(0).newValue);
+      assertEquals(layout.getInterval(1), issued.get(1).interval);
+      
+      List<ForecastDiff.Change> cleared = diff.getChanges(ForecastDiff.Kind.HAZARD_CLEARED);
+      assertEquals(1, cleared.size());
+      assertEquals("HT Y @link:http://h", cleared.get(0).oldValue);
+      assertEquals(layout.getInterval(1), cleared.get(0).interval);
+      
+      // hazards in intervals that come and go are only reported as hazards
+      TimeLayout later = TimeLayout.parseStrings("k-p1h-n2-9", Arrays.asList(HOUR1, HOUR2), null);
+      NDFDSeries moved = NDFDSeries.create(NDFD.wwa, later, "?", Arrays.asList("  HT Y @link:http://h", "  WS W @link:http://w"));
+      diff = new ForecastDiff();
+      diff.compareSeries(NDFD.wwa, before, moved);
+      assertEquals(0, diff.getChanges(ForecastDiff.Kind.ADDED).size());
+      assertEquals(0, diff.getChanges(ForecastDiff.Kind.EXPIRED).size());
+      assertEquals(1, diff.getUnchangedCount());
+      assertEquals(1, diff.getChanges().size());  // HOUR0 had no hazard, so nothing cleared
+      issued = diff.getChanges(ForecastDiff.Kind.HAZARD_ISSUED);
+      assertEquals(1, issued.size());
+      assertEquals("WS W @link:http://w", issued.get(0).newValue);
+      assertEquals(later.getInterval(1), issued.get(0).interval);
+      
+      before = NDFDSeries.create(NDFD.wwa, layout, "?", Arrays.asList("  HT Y @link:http://h", ""));
+      diff = new ForecastDiff();
+      diff.compareSeries(NDFD.wwa, before, moved);
+      cleared = diff.getChanges(ForecastDiff.Kind.HAZARD_CLEARED);
+      assertEquals(1, cleared.size());
+      assertEquals("HT Y @link:http://h", cleared.get(0).oldValue);
+      assertEquals(layout.getInterval(0), cleared.get(0).interval);
+      assertEquals("k-p1h-n2-8", cleared.get(0).layoutKey);
+      
+      assertEquals(Arrays.asList("FW A @link:http://f", "HT Y @link:http://h"), 
+                   Arrays.asList(ForecastDiff.splitHazards("  FW A @link:http://f  HT Y @link:http://h").toArray()));
+      assertTrue(ForecastDiff.splitHazards("").isEmpty());
+   }
+   
+   
+   static ForecastSnapshot snapshot(String xml) throws Exception {
+      NOAAWeather weather = new NOAAWeather();
+      weather.loadFromStream(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+      return weather.callSnapshot();
+   }
+}
@@ -0,0 +1,219 @@
+package com.flyingspaniel.net.weather;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+import junit.framework.TestCase;
+
+public class ForecastHistoryTest extends TestCase {
+
+   static final long HOUR = NOAAWeather.ONE_HOUR;
+   static final long ISSUED = RFC3339Millis("2012-08-20T00:40:20Z");
+   static final String[] LOCATIONS = { "SF", "KC", "DC" };
+   
+   File directory;
+   ForecastSnapshot base;
+   
+   @Override
+   protected void setUp() throws Exception {
+      directory = File.createTempFile("ForecastHistoryTest", "");
+      directory.delete();
+      
+      NOAAWeather weather = new NOAAWeather();
+      weather.document = weather.loadDocFromFile(new File("testdata/noaaweather.xml"));
+      base = weather.callSnapshot();
+   }
+   
+   @Override
+   protected void tearDown() throws Exception {
+      File[] files = directory.listFiles();
+      if (files != null)
+         for (File file : files)
+            file.delete();
+      directory.delete();
+   }
+   
+   
+   public void testAppendScanCompact() throws Exception {
+      assertEquals(RFC3339Millis("2012-08-20T06:40:20Z"), ForecastHistory.issuedMS(base));
+      
+      ForecastHistory history = new ForecastHistory(directory);
+      // 2 days of hourly forecasts, for 3 locations
+      for (int h=0; h<48; h++)
+         for (String location : LOCATIONS)
+            assertEquals(ISSUED + h * HOUR, history.append(location, issuedAt(ISSUED + h * HOUR)));
+      assertEquals(2, history.getSegmentCount());
+      
+      checkScans(history);
+      assertEquals(2, history.compact());
+      assertEquals(0, history.compact());
+      assertTrue(new File(directory, "20120820-0000.idx").exists());
+      assertTrue(new File(directory, "20120821-0000.idx").exists());
+      checkScans(history);
+      
+      // late arrivals go after the compacted part
+      history.append("KC", issuedAt(ISSUED + 5 * HOUR + 1000));
+      SortedMap<Long, ForecastSnapshot> kc = history.scan("KC", ISSUED, ISSUED + 6 * HOUR);
+      assertEquals(8, kc.size());
+      assertTrue(kc.containsKey(ISSUED + 5 * HOUR + 1000));
+      assertEquals(1, history.compact());
+      assertEquals(kc.keySet(), history.scan("KC", ISSUED, ISSUED + 6 * HOUR).keySet());
+      history.close();
+      
+      // reopen
+      history = new ForecastHistory(directory);
+      assertEquals(2, history.getSegmentCount());
+      assertEquals(kc.keySet(), history.scan("KC", ISSUED, ISSUED + 6 * HOUR).keySet());
+      checkScans(history);
+      history.close();
+   }
+   
+   
+   public void testTornRecord() throws Exception {
+      ForecastHistory history = new ForecastHistory(directory);
+      history.append("KC", issuedAt(ISSUED));
+      history.close();
+      
+      File segment = new File(directory, "20120820-0000.seg");
+      long length = segment.length();
+      FileOutputStream out = new FileOutputStream(segment, true);
+      out.write(new byte[] { 0, 0, 1, 0, 1, 2, 3, 4, 5 });  // a partial record
+      out.close();
+      
+      history = new ForecastHistory(directory);
+      assertEquals(1, history.scan("KC", 0, Long.MAX_VALUE - HOUR * 48).size());
+      history.append("KC", issuedAt(ISSUED + HOUR));
+      assertEquals(2, history.scan("KC", ISSUED, ISSUED + HOUR).size());
+      history.close();
+      assertTrue(segment.length() > length);
+      
+      // a complete header, but only part of the payload
+      length = segment.length();
+      RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+      raf.seek(length);
+      raf.writeInt(1000);
+      raf.writeInt(ForecastHistory.lengthCRC(1000));
+      raf.writeInt(0);
+      raf.write(new byte[100]);
+      raf.close();
+      
+      history = new ForecastHistory(directory);
+      assertEquals(2, history.scan("KC", ISSUED, ISSUED + HOUR).size());
+      history.close();
+      assertEquals(length, segment.length());
+   }
+   
+   
+   public void testCorruptRecord() throws Exception {
+      ForecastHistory history = new ForecastHistory(directory);
+      history.append("KC", issuedAt(ISSUED));
+      history.append("KC", issuedAt(ISSUED + HOUR));
+      history.close();
+      
+      // damage the first record's payload, not its length
+      File segment = new File(directory, "20120820-0000.seg");
+      long length = segment.length();
+      RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+      raf.seek(ForecastHistory.HEADER_SIZE + 10);
+      int b = raf.read();
+      raf.seek(ForecastHistory.HEADER_SIZE + 10);
+      raf.write(b ^ 0xFF);
+      raf.close();
+      
+      history = new ForecastHistory(directory);
+      try {
+         history.scan("KC", ISSUED, ISSUED + HOUR);
+         fail("corrupt record");
+      } catch (IOException expected) {
+         assertTrue(expected.getMessage().contains("Corrupt record at 0"));
+      }
+      try {
+         history.append("KC", issuedAt(ISSUED + 2 * HOUR));
+         fail("corrupt record");
+      } catch (IOException expected) {
+         ;
+      }
+      history.close();
+      assertEquals(length, segment.length());
+      
+      // damage the first record's length, making it look like it runs past the end
+      raf = new RandomAccessFile(segment, "rw");
+      raf.seek(ForecastHistory.HEADER_SIZE + 10);
+      raf.write(b);
+      raf.seek(0);
+      raf.writeInt(Integer.MAX_VALUE / 2);
+      raf.close();
+      
+      history = new ForecastHistory(directory);
+      try {
+         history.scan("KC", ISSUED, ISSUED + HOUR);
+         fail("corrupt length");
+      } catch (IOException expected) {
+         assertTrue(expected.getMessage().contains("Corrupt record at 0"));
+      }
+      history.close();
+      assertEquals(length, segment.length());
+   }
+   
+   
+   public void testBackgroundCompaction() throws Exception {
+      ForecastHistory history = new ForecastHistory(directory, HOUR);
+      for (int h=0; h<4; h++)
+         history.append("KC", issuedAt(ISSUED + h * HOUR));
+      assertEquals(4, history.getSegmentCount());
+      
+      history.startCompaction(10);
+      File index = new File(directory, "20120820-0300.idx");
+      for (int i=0; (i<500) && !index.exists(); i++)
+         Thread.sleep(10);
+      assertTrue(index.exists());
+      assertNull(history.getCompactionFailure());
+      assertEquals(4, history.scan("KC", ISSUED, ISSUED + 3 * HOUR).size());
+      history.close();
+   }
+   
+   
+   void checkScans(ForecastHistory history) throws Exception {
+      SortedMap<Long, ForecastSnapshot> kc = history.scan("KC", ISSUED + 10 * HOUR, ISSUED + 30 * HOUR);
+      assertEquals(21, kc.size());
+      assertEquals(ISSUED + 10 * HOUR, kc.firstKey().longValue());
+      assertEquals(ISSUED + 30 * HOUR, kc.lastKey().longValue());
+      ForecastSnapshot first = kc.get(kc.firstKey());
+      assertEquals(base.getForecasts().toString(), first.getForecasts().toString());
+      
+      SortedMap<Long, NDFDSeries> maxts = history.scanSeries("SF", NDFD.maxt, ISSUED, ISSUED + 47 * HOUR);
+      assertEquals(48, maxts.size());
+      assertEquals(base.getNDFDSeries(NDFD.maxt).getValues().toString(), maxts.get(ISSUED + 47 * HOUR).getValues().toString());
+      assertTrue(history.scanSeries("SF", NDFD.wwa, ISSUED, ISSUED + 47 * HOUR).isEmpty());
+      
+      assertTrue(history.scan("Nowhere", ISSUED, ISSUED + 47 * HOUR).isEmpty());
+      assertTrue(history.scan("KC", ISSUED - 48 * HOUR, ISSUED - 1).isEmpty());
+      assertEquals(1, history.scan("DC", ISSUED + 47 * HOUR, ISSUED + 100 * HOUR).size());
+   }
+   
+   
+   ForecastSnapshot issuedAt(long issuedMS) {
+      Map<String, String> moreInfo = new HashMap<String, String>(base.getMoreInfo());
+      moreInfo.put(NOAAWeather.MoreInfoKeys.DATE.name(), RFC3339.format(issuedMS, java.util.TimeZone.getTimeZone("UTC")));
+      List<Forecast> forecasts = new ArrayList<Forecast>(base.getForecasts());
+      return new ForecastSnapshot(base.getCreatedMS(), new HashMap<String, TimeLayout>(base.getTimeLayouts()), base.getFirstTimeLayout(), 
+                                  new EnumMap<NDFD, NDFDSeries>(base.getNDFDSeriesMap()), forecasts, moreInfo);
+   }
+   
+   
+   static long RFC3339Millis(String s) {
+      try {
+         return RFC3339.parseMillis(s);
+      } catch (java.text.ParseException pe) {
+         throw new IllegalStateException(pe);
+      }
+   }
+}
@@ -0,0 +1,153 @@
+package com.flyingspaniel.net.weather;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class ForecastSnapshotFileTest extends TestCase {
+
+   File file;
+   
+   @Override
+   protected void setUp() throws Exception {
+      file = File.createTempFile("ForecastSnapshotFileTest", ".bin");
+   }
+   
+   @Override
+   protected void tearDown() throws Exception {
+      file.delete();
+   }
+   
+   
+   public void testRoundTrip() throws Exception {
+      NOAAWeather weather = new NOAAWeather();
+      weather.addNDFDParameters(NDFD.wx, NDFD.wwa, NDFD.sky, NDFD.wspd);
+      weather.document = weather.loadDocFromFile(new File("testdata/noaaweather.xml"));
+      ForecastSnapshot kc = weather.callSnapshot();
+      
+      NOAAWeather multi = new NOAAWeather();
+      multi.addNDFDParameters(NDFD.wwa);
+      multi.locationKey = "point2";
+      multi.document = multi.loadDocFromFile(new File("testdata/noaaweather-multi.xml"));
+      ForecastSnapshot sf = multi.callSnapshot();
+      
+      Map<String, ForecastSnapshot> snapshots = new LinkedHashMap<String, ForecastSnapshot>();
+      snapshots.put("KC", kc);
+      snapshots.put("SF", sf);
+      snapshots.put("KC again", kc);
+      ForecastSnapshotFile.write(file, snapshots);
+      
+      ForecastSnapshotFile read = ForecastSnapshotFile.open(file);
+      assertEquals(Arrays.asList("KC", "SF", "KC again"), Arrays.asList(read.ids().toArray()));
+      assertNull(read.get("nowhere"));
+      
+      Map<String, ForecastSnapshot> all = read.getAll();
+      for (String id : snapshots.keySet()) {
+         ForecastSnapshot before = snapshots.get(id);
+         ForecastSnapshot after = all.get(id);
+         assertTrue(id, ForecastDiff.compare(before, after).isEmpty());
+         assertEquals(before.getCreatedMS(), after.getCreatedMS());
+         assertEquals(before.getForecasts().toString(), after.getForecasts().toString());
+         assertEquals(before.getMoreInfo(), after.getMoreInfo());
+         assertEquals(before.getNDFDSeriesMap().keySet(), after.getNDFDSeriesMap().keySet());
+         assertEquals(before.getTimeLayouts().keySet(), after.getTimeLayouts().keySet());
+         assertEquals(before.getFirstTimeLayout().layoutKey, after.getFirstTimeLayout().layoutKey);
+         for (NDFD ndfd : before.getNDFDSeriesMap().keySet()) {
+            NDFDSeries b = before.getNDFDSeries(ndfd);
+            NDFDSeries a = after.getNDFDSeries(ndfd);
+            assertEquals(b.getClass(), a.getClass());
+            assertEquals(b.getUnits(), a.getUnits());
+            assertEquals(b.getValues().toString(), a.getValues().toString());
+            assertEquals(b.getTimeLayout().getIntervals(), a.getTimeLayout().getIntervals());
+            assertEquals(b.getTimeLayout().isIntervals(), a.getTimeLayout().isIntervals());
+         }
+      }
+      assertEquals(kc.getForecasts().get(1).toString(), all.get("KC").getForecasts().get(1).toString());
+      
+      // the Strings are only stored once
+      assertTrue(read.toString(), read.dictionary.length < 200);
+      assertTrue(file.length() < 40000);
+   }
+   
+   
+   public void testNotOne() throws Exception {
+      FileOutputStream out = new FileOutputStream(file);
+      out.write(new byte[100]);
+      out.close();
+      try {
+         ForecastSnapshotFile.open(file);
+         fail();
+      } catch (IOException expected) {
+         ;
+      }
+      
+      ForecastSnapshotFile.write(file, new LinkedHashMap<String, ForecastSnapshot>());
+      assertEquals(0, ForecastSnapshotFile.open(file).size());
+      
+      RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      raf.seek(4);
+      raf.writeInt(ForecastSnapshotFile.VERSION + 1);
+      raf.close();
+      try {
+         ForecastSnapshotFile.open(file);
+         fail();
+      } catch (IOException expected) {
+         assertTrue(expected.getMessage().contains("version"));
+      }
+   }
+   
+   
+   public void testTooLarge() throws Exception {
+      NOAAWeather weather = new NOAAWeather();
+      weather.document = weather.loadDocFromFile(new File("testdata/noaaweather.xml"));
+      Map<String, ForecastSnapshot> snapshots = new LinkedHashMap<String, ForecastSnapshot>();
+      snapshots.put("KC", weather.callSnapshot());
+      
+      ForecastSnapshotFile.write(file, snapshots);
+      long length = file.length();
+      ForecastSnapshotFile.write(file, snapshots, length);
+      assertEquals(length, file.length());
+      try {
+         ForecastSnapshotFile.write(file, snapshots, length - 1);
+         fail();
+      } catch (IOException expected) {
+         assertTrue(expected.getMessage().contains("Too large"));
+      }
+      
+      // the old file is still there, and nothing is left behind
+      assertEquals(length, file.length());
+      assertNotNull(ForecastSnapshotFile.open(file).get("KC"));
+      assertEquals(0, file.getParentFile().listFiles(new FilenameFilter() {
+         public boolean accept(File dir, String name) {
+            return name.startsWith(file.getName()) && name.endsWith(".tmp");
+         }
+      }).length);
+   }
+   
+   
+   public void testRewriteWhileOpen() throws Exception {
+      NOAAWeather weather = new NOAAWeather();
+      weather.document = weather.loadDocFromFile(new File("testdata/noaaweather.xml"));
+      ForecastSnapshot kc = weather.callSnapshot();
+      Map<String, ForecastSnapshot> snapshots = new LinkedHashMap<String, ForecastSnapshot>();
+      snapshots.put("KC", kc);
+      ForecastSnapshotFile.write(file, snapshots);
+      ForecastSnapshotFile before = ForecastSnapshotFile.open(file);
+      
+      snapshots.clear();
+      snapshots.put("Kansas City", kc);
+      ForecastSnapshotFile.write(file, snapshots);
+      
+      // the old mapping still reads the old contents
+      assertEquals(Arrays.asList("KC"), Arrays.asList(before.ids().toArray()));
+      assertEquals(kc.getForecasts().toString(), before.get("KC").getForecasts().toString());
+      assertEquals(Arrays.asList("Kansas City"), Arrays.asList(ForecastSnapshotFile.open(file).ids().toArray()));
+   }
+}
@@ -0,0 +1,119 @@
+package com.flyingspaniel.net.weather;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+
+public class ForecastSnapshotTest extends TestCase {
+
+   static final String TUESDAY = "Tuesday, August 21, 2012 : Foggy High=143.6 Low=125.6";
+   
+   
+   public void testSnapshot() throws Exception {
+      NOAAWeather weather = new NOAAWeather();
+      try {
+         weather.snapshot();
+         fail();
+      } catch (IllegalStateException expected) {
+         ;
+      }
+      
+      weather.document = weather.loadDocFromFile(new File("testdata/noaaweather.xml"));
+      ForecastSnapshot snapshot = weather.callSnapshot();
+      assertNull(weather.document);
+      assertNull(weather.mainNode);
+      
+      assertEquals(TUESDAY, snapshot.getForecasts().get(1).toString());
+      assertEquals(weather.getForecasts().toString(), snapshot.getForecasts().toString());
+      assertSame(weather.getNDFDSeries(NDFD.maxt), snapshot.getNDFDSeries(NDFD.maxt));
+      assertEquals(weather.timeLayoutMap.keySet(), snapshot.getTimeLayouts().keySet());
+      assertEquals("PT1H", snapshot.getMoreInfo().get(NOAAWeather.MoreInfoKeys.REFRESH_FREQUENCY.name()));
+      assertEquals(weather.getConditionAtTime(new Date("August 20, 2012")).toString(), 
+                   snapshot.getConditionAtTime(new Date("August 20, 2012")).toString());
+      
+      // changing the NOAAWeather doesn't change the snapshot
+      weather.getForecasts().get(1).setHigh(0.0f, false);
+      weather.getMoreInfo().clear();
+      assertEquals(TUESDAY, snapshot.getForecasts().get(1).toString());
+      assertEquals("PT1H", snapshot.getMoreInfo().get(NOAAWeather.MoreInfoKeys.REFRESH_FREQUENCY.name()));
+   }
+   
+   
+   public void testImmutable() throws Exception {
+      NOAAWeather weather = new NOAAWeather();
+      weather.document = weather.loadDocFromFile(new File("testdata/noaaweather.xml"));
+      ForecastSnapshot snapshot = weather.callSnapshot();
+      Forecast forecast = snapshot.getForecasts().get(1);
+      
+      try {
+         snapshot.getForecasts().clear();
+         fail();
+      } catch (UnsupportedOperationException expected) {
+         ;
+      }
+      try {
+         forecast.setHigh(0.0f, false);
+         fail();
+      } catch (UnsupportedOperationException expected) {
+         ;
+      }
+      try {
+         forecast.putMoreInfo("foo", "bar");
+         fail();
+      } catch (UnsupportedOperationException expected) {
+         ;
+      }
+      try {
+         snapshot.getMoreInfo().put("foo", "bar");
+         fail();
+      } catch (UnsupportedOperationException expected) {
+         ;
+      }
+      try {
+         snapshot.getNDFDSeriesMap().remove(NDFD.maxt);
+         fail();
+      } catch (UnsupportedOperationException expected) {
+         ;
+      }
+      
+      forecast.getDate().setTime(0L);
+      assertEquals(TUESDAY, forecast.toString());
+      
+      // and a copy is modifiable again
+      Forecast copy = new Forecast(forecast);
+      copy.setHigh(50.0f, false);
+      assertEquals("Tuesday, August 21, 2012 : Foggy High=50.0 Low=125.6", copy.toString());
+   }
+   
+   
+   public void testSharedByThreads() throws Exception {
+      NOAAWeather weather = new NOAAWeather();
+      weather.setEngine(NOAAWeather.Engine.STREAMING);
+      weather.streamed = weather.streamFromFile(new File("testdata/noaaweather.xml"));
+      final ForecastSnapshot snapshot = weather.callSnapshot();
+      assertNull(weather.streamed);
+      
+      ExecutorService executor = Executors.newFixedThreadPool(8);
+      List<Future<String>> futures = new ArrayList<Future<String>>();
+      for (int i=0; i<32; i++) {
+         futures.add(executor.submit(new Callable<String>() {
+            @Override
+            public String call() {
+               TimeInterval tuesday = snapshot.getForecasts().get(1);
+               snapshot.getAllConditionsFor(new TimeInterval(tuesday.startMS, tuesday.startMS + 24 * TimeInterval.HOURL));
+               return snapshot.getForecasts().get(1).toString();
+            }
+         }));
+      }
+      for (Future<String> future : futures)
+         assertEquals(TUESDAY, future.get());
+      executor.shutdown();
+   }
+}
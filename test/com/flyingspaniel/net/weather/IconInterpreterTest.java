@@ -0,0 +1,55 @@
+package com.flyingspaniel.net.weather;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class IconInterpreterTest extends TestCase {
+
+   static final String[] PREFIXES = { "", "n", "hi_", "hi_n", "nhi_", "nhi_n", "n_n", "http://www.nws.noaa.gov/weather/images/fcicons/",
+                                      "http://www.nws.noaa.gov/weather/images/fcicons/n", "a.b/", "/" };
+   static final String[] SUFFIXES = { "", "0", "00", "10", "20", "100", "5", ".jpg", "30.jpg", "100.png", "_nn", "_n0" };
+   static final String[] ODDITIES = { "", "n", "nn", "0", "00", "10", "n0", "n00", ".jpg", "/.jpg", "x.y/z", "hi_", "hi_0", 
+                                      "hi_hi_fg", "fgé", "__nfg", "ra1", "ra10", "nsvrtsra" };
+   
+   
+   public void testSameAsWithStrings() {
+      List<String> names = new ArrayList<String>();
+      for (String[] nameToMeaning : NOAAWeather.ICON_NAMES_TO_MEANINGS)
+         for (String prefix : PREFIXES)
+            for (String suffix : SUFFIXES)
+               names.add(prefix + nameToMeaning[0] + suffix);
+      for (String oddity : ODDITIES) {
+         names.add(oddity);
+         names.add("http://x/" + oddity);
+      }
+      
+      for (String name : names)
+         assertEquals(name, IconInterpreter.interpretWithStrings(name), IconInterpreter.scan(name));
+   }
+   
+   
+   public void testMemo() throws Exception {
+      IconInterpreter interpreter = new IconInterpreter(3);
+      String s = interpreter.interpret("hi_ntsra20.jpg");
+      assertEquals("Thunderstorms in Vicinity (20%)", s);
+      assertSame(s, interpreter.interpret("hi_ntsra20.jpg"));
+      assertEquals(1, interpreter.size());
+      
+      assertEquals("Foggy (40%) (high)", interpreter.interpret("nhi_fg40"));
+      assertEquals("Cannot interpret n", interpreter.interpret("n"));
+      assertEquals(3, interpreter.size());
+      assertEquals("Freezing Rain (100%)", interpreter.interpret("fzra100"));
+      assertEquals(1, interpreter.size());  // cleared when full
+      
+      NOAAWeather weather = new NOAAWeather();
+      weather.document = weather.loadDocFromFile(new File("testdata/noaaweather.xml"));
+      weather.call();
+      NDFDSeries icons = weather.getNDFDSeries(NDFD.icons);
+      NDFDSeries interpretations = weather.getNDFDSeries(NDFD.interpretation);
+      for (int i=0; i<icons.size(); i++)
+         assertEquals(IconInterpreter.interpretWithStrings(icons.getValue(i)), interpretations.getValue(i));
+   }
+}
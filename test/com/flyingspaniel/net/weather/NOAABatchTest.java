@@ -0,0 +1,72 @@
+package com.flyingspaniel.net.weather;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import junit.framework.TestCase;
+
+public class NOAABatchTest extends TestCase {
+
+   StubNOAA noaa;
+   NOAAFetcher fetcher;
+   final List<String> queries = new ArrayList<String>();
+
+   @Override
+   protected void setUp() throws Exception {
+      final byte[] dwml = NOAAFetcher.readFully(new FileInputStream(new File("testdata/noaaweather-multi.xml")));
+
+      noaa = new StubNOAA(new HttpHandler() {
+         @Override
+         public void handle(HttpExchange exchange) throws IOException {
+            synchronized(queries) {
+               queries.add(exchange.getRequestURI().getQuery());
+            }
+            StubNOAA.send(exchange, null, dwml);
+         }
+      });
+      fetcher = new NOAAFetcher(2, 1);
+   }
+
+   @Override
+   protected void tearDown() throws Exception {
+      fetcher.shutdown();
+      noaa.stop();
+   }
+
+
+   public void testBatch() throws Exception {
+      for (NOAAWeather.Engine engine : NOAAWeather.Engine.values()) {
+         queries.clear();
+         NOAAWeather template = new NOAAWeather();
+         template.setEngine(engine);
+         template.setBaseURL(noaa.getBaseURL());
+
+         NOAABatch batch = new NOAABatch(template);
+         batch.setFetcher(fetcher);
+         batch.setChunkSize(2);  // our canned response has 2 points
+         batch.addLocation(37.54, -122.50).addLocation(37.77, -122.42);
+         batch.addLocation(37.54, -122.50).addLocation(37.77, -122.42);
+
+         List<NOAAWeather> results = batch.call();
+         assertEquals(2, batch.getRequestCount());
+         assertEquals(2, queries.size());
+         assertTrue(queries.get(0), queries.get(0).contains("listLatLon=37.54,-122.5 37.77,-122.42&"));
+
+         assertEquals(4, results.size());
+         for (int i=0; i<results.size(); i+=2) {
+            assertNull(results.get(i).document);  // each chunk parsed once, by streaming, whatever the engine
+            assertNotNull(results.get(i).streamed);
+            assertSame(results.get(i).streamed, results.get(i+1).streamed);
+            assertEquals("Tuesday, August 21, 2012 : Foggy High=143.6 Low=125.6", results.get(i).getForecasts().get(1).toString());
+            assertEquals("Tuesday, August 21, 2012 : Foggy High=161.59999 Low=125.6", results.get(i+1).getForecasts().get(1).toString());
+            assertTrue(results.get(i+1).getMoreInfo().get(NOAAWeather.MoreInfoKeys.OUT_URL.name()).contains("textField1=37.77"));
+         }
+      }
+   }
+}
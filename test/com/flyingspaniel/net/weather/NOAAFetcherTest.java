@@ -0,0 +1,222 @@
+package com.flyingspaniel.net.weather;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import junit.framework.TestCase;
+
+public class NOAAFetcherTest extends TestCase {
+
+   StubNOAA noaa;
+   String baseURL;
+   NOAAFetcher fetcher;
+   byte[] dwml;
+   final AtomicInteger requests = new AtomicInteger();
+
+   @Override
+   protected void setUp() throws Exception {
+      dwml = NOAAFetcher.readFully(new FileInputStream(new File("testdata/noaaweather.xml")));
+
+      noaa = new StubNOAA(new HttpHandler() {
+         @Override
+         public void handle(HttpExchange exchange) throws IOException {
+            requests.incrementAndGet();
+            String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            if ((accept != null) && accept.contains("gzip"))
+               StubNOAA.send(exchange, "gzip", DWMLArchive.gzip(dwml));
+            else
+               StubNOAA.send(exchange, null, dwml);
+         }
+      });
+      noaa.addContext("/deflate.php", new HttpHandler() {
+         @Override
+         public void handle(HttpExchange exchange) throws IOException {
+            StubNOAA.send(exchange, "deflate", deflate(dwml, false));
+         }
+      });
+      noaa.addContext("/rawdeflate.php", new HttpHandler() {
+         @Override
+         public void handle(HttpExchange exchange) throws IOException {
+            StubNOAA.send(exchange, "deflate", deflate(dwml, true));
+         }
+      });
+
+      baseURL = noaa.getURL("");
+      fetcher = new NOAAFetcher(4, 2);
+   }
+
+   @Override
+   protected void tearDown() throws Exception {
+      fetcher.shutdown();
+      noaa.stop();
+   }
+
+
+   public void testCallAsync() throws Exception {
+      for (NOAAWeather.Engine engine : NOAAWeather.Engine.values()) {
+         NOAAWeather weather = new NOAAWeather();
+         weather.setEngine(engine);
+         weather.setLocation(38.99, -77.01);
+         weather.setBaseURL(baseURL + "/ndfdXMLclient.php");
+
+         Future<NOAAWeather> future = weather.callAsync(fetcher, null);
+         assertSame(weather, future.get(30, TimeUnit.SECONDS));
+         assertTrue(future.isDone());
+         assertEquals("Tuesday, August 21, 2012 : Foggy High=143.6 Low=125.6", weather.getForecasts().get(1).toString());
+         assertTrue(weather.getMoreInfo().get(NOAAWeather.MoreInfoKeys.IN_URL.name()).startsWith(baseURL));
+      }
+   }
+   
+   
+   public void testCallAsyncCached() throws Exception {
+      ForecastCache cache = new ForecastCache();
+      List<Future<NOAAWeather>> futures = new ArrayList<Future<NOAAWeather>>();
+      for (int i=0; i<4; i++) {
+         NOAAWeather weather = new NOAAWeather();
+         weather.setCache(cache);
+         weather.setLocation(38.99, -77.01);
+         weather.setBaseURL(baseURL + "/ndfdXMLclient.php");
+         futures.add(weather.callAsync(fetcher, null));
+      }
+      for (Future<NOAAWeather> future : futures)
+         assertEquals("Tuesday, August 21, 2012 : Foggy High=143.6 Low=125.6", future.get(30, TimeUnit.SECONDS).getForecasts().get(1).toString());
+      assertEquals(1, requests.get());
+      
+      // and with call()
+      NOAAWeather sync = new NOAAWeather();
+      sync.setCache(cache);
+      sync.setLocation(38.99, -77.01);
+      sync.setBaseURL(baseURL + "/ndfdXMLclient.php");
+      sync.call();
+      assertEquals(1, requests.get());
+   }
+   
+   
+   public void testCancel() throws Exception {
+      final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+      NOAAFetcher.Result<String> result = new NOAAFetcher.Result<String>(new Weather.Callback<String>() {
+         @Override
+         public void onSuccess(String s) {
+            fail("cancelled");
+         }
+         @Override
+         public void onFailure(Throwable t) {
+            failure.set(t);
+         }
+      });
+      
+      assertTrue(result.cancel(false));
+      assertTrue(failure.get() instanceof CancellationException);
+      assertFalse(result.cancel(false));
+      result.succeed("too late");
+      assertTrue(result.isCancelled());
+   }
+   
+   
+   static byte[] deflate(byte[] bytes, boolean raw) throws IOException {
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      DeflaterOutputStream out = new DeflaterOutputStream(baos, new Deflater(Deflater.DEFAULT_COMPRESSION, raw));
+      out.write(bytes);
+      out.close();
+      return baos.toByteArray();
+   }
+
+
+   public void testCompression() throws Exception {
+      NOAAFetcher.Response response = fetcher.fetchResponse(baseURL + "/ndfdXMLclient.php");
+      assertEquals("gzip", response.contentEncoding);
+      assertTrue(response.toString(), response.size() * 5 < dwml.length);
+      assertTrue(Arrays.equals(dwml, response.decompress()));
+      assertTrue(Arrays.equals(dwml, NOAAFetcher.readFully(response.openStream())));
+      assertTrue(Arrays.equals(dwml, fetcher.fetch(baseURL + "/ndfdXMLclient.php")));
+      
+      for (String path : new String[] { "/deflate.php", "/rawdeflate.php" }) {
+         response = fetcher.fetchResponse(baseURL + path);
+         assertEquals("deflate", response.contentEncoding);
+         assertTrue(path, Arrays.equals(dwml, response.decompress()));
+      }
+      
+      // or decompressed as it arrives
+      for (String path : new String[] { "/ndfdXMLclient.php", "/deflate.php", "/rawdeflate.php" })
+         assertTrue(path, Arrays.equals(dwml, NOAAFetcher.readFully(fetcher.openStream(baseURL + path))));
+      
+      assertTrue(fetcher.setAcceptCompression(false));
+      response = fetcher.fetchResponse(baseURL + "/ndfdXMLclient.php");
+      assertFalse(response.isCompressed());
+      assertEquals(dwml.length, response.size());
+   }
+   
+   
+   public void testArchive() throws Exception {
+      File directory = File.createTempFile("NOAAFetcherTest", "");
+      directory.delete();
+      DWMLArchive archive = new DWMLArchive(directory);
+      fetcher.setArchive(archive);
+      
+      NOAAWeather weather = new NOAAWeather();
+      weather.setLocation(38.99, -77.01);
+      weather.setBaseURL(baseURL + "/ndfdXMLclient.php");
+      weather.callAsync(fetcher, null).get(30, TimeUnit.SECONDS);
+      fetcher.fetchResponse(baseURL + "/deflate.php");
+      archive.close();  // waits for the writes
+      assertEquals(2, archive.getRecordCount());
+      
+      List<NOAAFetcher.Response> archived = DWMLArchive.readAll(directory);
+      assertEquals(2, archived.size());
+      assertEquals(weather.getMoreInfo().get(NOAAWeather.MoreInfoKeys.IN_URL.name()), archived.get(0).url);
+      for (NOAAFetcher.Response response : archived)
+         assertTrue(Arrays.equals(dwml, response.decompress()));
+      
+      for (File file : archive.getFiles())
+         file.delete();
+      directory.delete();
+   }
+
+
+   public void testFailure() throws Exception {
+      NOAAWeather weather = new NOAAWeather();
+      weather.setLocation(38.99, -77.01);
+      weather.setBaseURL(baseURL + "/nowhere.php");
+
+      final CountDownLatch latch = new CountDownLatch(1);
+      final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+      Future<NOAAWeather> future = weather.callAsync(fetcher, new Weather.Callback<NOAAWeather>() {
+         @Override
+         public void onSuccess(NOAAWeather result) {
+            latch.countDown();
+         }
+         @Override
+         public void onFailure(Throwable t) {
+            failure.set(t);
+            latch.countDown();
+         }
+      });
+
+      try {
+         future.get(30, TimeUnit.SECONDS);
+         fail("should have thrown");
+      } catch (ExecutionException expected) {
+         assertTrue(expected.getCause().getMessage().startsWith("HTTP 404"));
+      }
+
+      assertTrue(latch.await(30, TimeUnit.SECONDS));
+      assertTrue(failure.get() instanceof IOException);
+   }
+}
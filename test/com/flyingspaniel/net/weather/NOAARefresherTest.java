@@ -0,0 +1,228 @@
+package com.flyingspaniel.net.weather;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import junit.framework.TestCase;
+
+public class NOAARefresherTest extends TestCase {
+
+   StubNOAA noaa;
+   ExecutorService executor;
+   NOAARefresher refresher;
+   final BlockingQueue<String> updates = new LinkedBlockingQueue<String>();
+   final BlockingQueue<String> failures = new LinkedBlockingQueue<String>();
+   final List<Long> rateSlots = new ArrayList<Long>();
+   final AtomicInteger inProgress = new AtomicInteger();
+   final AtomicInteger maxInProgress = new AtomicInteger();
+   volatile boolean failLat50 = true;
+
+   @Override
+   protected void setUp() throws Exception {
+      String xml = new String(NOAAFetcher.readFully(new FileInputStream(new File("testdata/noaaweather.xml"))), "UTF-8");
+      final byte[] dwml = xml.replace("refresh-frequency=\"PT1H\"", "refresh-frequency=\"PT0.3S\"").getBytes("UTF-8");
+
+      noaa = new StubNOAA(new HttpHandler() {
+         @Override
+         public void handle(HttpExchange exchange) throws IOException {
+            int now = inProgress.incrementAndGet();
+            for (int max = maxInProgress.get(); now > max; max = maxInProgress.get())
+               maxInProgress.compareAndSet(max, now);
+            try {
+               Thread.sleep(20);
+            } catch (InterruptedException ie) {
+               ;
+            }
+            inProgress.decrementAndGet();
+
+            if (failLat50 && exchange.getRequestURI().getQuery().contains("lat=50.0")) {
+               exchange.sendResponseHeaders(500, -1);
+               exchange.close();
+               return;
+            }
+            StubNOAA.send(exchange, null, dwml);
+         }
+      });
+
+      NOAAWeather template = new NOAAWeather();
+      template.setBaseURL(noaa.getBaseURL());
+      executor = Executors.newCachedThreadPool();
+      refresher = new NOAARefresher(template, executor, 3) {
+         @Override
+         protected long reserveRateSlot(String host) {
+            long slot = super.reserveRateSlot(host);
+            synchronized(rateSlots) {
+               rateSlots.add(slot);
+            }
+            return slot;
+         }
+      };
+      refresher.setListener(new NOAARefresher.Listener() {
+         @Override
+         public void onUpdate(String id, ForecastSnapshot snapshot, ForecastSnapshot previous) {
+            assertEquals("Tuesday, August 21, 2012 : Foggy High=143.6 Low=125.6", snapshot.getForecasts().get(1).toString());
+            if (previous != null)
+               assertTrue(ForecastDiff.compare(previous, snapshot).isEmpty());
+            updates.add(id);
+         }
+
+         @Override
+         public void onFailure(String id, Throwable failure) {
+            failures.add(id);
+         }
+      });
+   }
+
+   @Override
+   protected void tearDown() throws Exception {
+      refresher.stop();
+      executor.shutdownNow();
+      noaa.stop();
+   }
+
+
+   public void testConcurrencyLimit() throws Exception {
+      for (int i=0; i<12; i++)
+         refresher.track("loc" + i, 30.0 + i, -100.0, EnumSet.of(NDFD.icons));
+      refresher.start();
+
+      List<String> ids = new ArrayList<String>();
+      for (int i=0; i<12; i++)
+         ids.add(updates.poll(10, TimeUnit.SECONDS));
+      assertFalse(ids.contains(null));
+      assertTrue(maxInProgress.get() <= 3);
+      assertEquals(12, refresher.getAllLatest().size());
+      assertNotNull(refresher.getLatest("loc5"));
+      assertNull(refresher.getLatest("nowhere"));
+   }
+
+
+   public void testRatePerHost() throws Exception {
+      refresher.setRatePerHost(20.0);
+      for (int i=0; i<6; i++)
+         refresher.track("loc" + i, 30.0 + i, -100.0, null);
+      refresher.start();
+
+      for (int i=0; i<6; i++)
+         assertNotNull(updates.poll(10, TimeUnit.SECONDS));
+      // the slots the limiter handed out are 50ms apart.  (When the requests reach the server also depends on thread scheduling)
+      List<Long> slots;
+      synchronized(rateSlots) {
+         slots = new ArrayList<Long>(rateSlots);
+      }
+      Collections.sort(slots);
+      assertTrue(slots.size() >= 6);
+      for (int i=1; i<slots.size(); i++) {
+         long gapNanos = slots.get(i) - slots.get(i-1);
+         assertTrue("gap " + gapNanos, gapNanos >= 50000000L);
+      }
+   }
+
+
+   public void testListenerThrows() throws Exception {
+      refresher.setListener(new NOAARefresher.Listener() {
+         @Override
+         public void onUpdate(String id, ForecastSnapshot snapshot, ForecastSnapshot previous) {
+            updates.add(id);
+            throw new IllegalStateException("onUpdate");
+         }
+
+         @Override
+         public void onFailure(String id, Throwable failure) {
+            failures.add(id);
+            throw new IllegalStateException("onFailure");
+         }
+      });
+      refresher.setRetryMS(100);
+      refresher.track("good", 40.0, -100.0, null);
+      refresher.track("bad", 50.0, -100.0, null);
+      refresher.start();
+
+      // both keep being rescheduled
+      for (int i=0; i<2; i++) {
+         assertEquals("good", updates.poll(5, TimeUnit.SECONDS));
+         assertEquals("bad", failures.poll(5, TimeUnit.SECONDS));
+      }
+   }
+
+
+   public void testRescheduleAndRetry() throws Exception {
+      refresher.setRetryMS(100);
+      refresher.track("good", 40.0, -100.0, null);
+      refresher.track("bad", 50.0, -100.0, null);
+      refresher.start();
+
+      // refresh-frequency is PT0.3S, so "good" keeps refreshing
+      for (int i=0; i<3; i++)
+         assertEquals("good", updates.poll(5, TimeUnit.SECONDS));
+
+      // "bad" fails, is retried, then succeeds once the server recovers
+      assertEquals("bad", failures.poll(5, TimeUnit.SECONDS));
+      assertEquals("bad", failures.poll(5, TimeUnit.SECONDS));
+      failLat50 = false;
+      long deadline = System.currentTimeMillis() + 5000;
+      while ((refresher.getLatest("bad") == null) && (System.currentTimeMillis() < deadline))
+         Thread.sleep(20);
+      assertNotNull(refresher.getLatest("bad"));
+      assertTrue(refresher.getFailures() >= 2);
+
+      assertTrue(refresher.untrack("good"));
+      assertFalse(refresher.untrack("good"));
+      assertEquals(1, refresher.size());
+   }
+
+
+   public void testInterrupted() throws Exception {
+      // every refresh runs on an interrupted thread
+      NOAARefresher interrupted = new NOAARefresher(refresher.template, new Executor() {
+         @Override
+         public void execute(final Runnable command) {
+            new Thread() {
+               @Override
+               public void run() {
+                  interrupt();
+                  command.run();
+               }
+            }.start();
+         }
+      }, 3);
+      interrupted.setListener(refresher.listener);
+      interrupted.setRetryMS(50);
+      interrupted.track("good", 40.0, -100.0, null);
+      interrupted.start();
+      try {
+         // reported, and retried
+         assertEquals("good", failures.poll(5, TimeUnit.SECONDS));
+         assertEquals("good", failures.poll(5, TimeUnit.SECONDS));
+         assertTrue(updates.isEmpty());
+      }
+      finally {
+         interrupted.stop();
+      }
+   }
+   
+   
+   public void testJitter() {
+      refresher.setJitter(0.1);
+      for (int i=0; i<100; i++) {
+         long ms = refresher.jittered(1000L);
+         assertTrue(ms >= 900 && ms <= 1100);
+      }
+      assertEquals("localhost", NOAARefresher.host("http://localhost:1234/ndfdXMLclient.php"));
+   }
+}
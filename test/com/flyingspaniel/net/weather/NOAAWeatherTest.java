@@ -2,11 +2,20 @@ package com.flyingspaniel.net.weather;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 import junit.framework.TestCase;
 
+import com.flyingspaniel.metrics.HistogramMetrics;
+import com.flyingspaniel.xml.UsesXPath;
+
 public class NOAAWeatherTest extends TestCase {
 
    
@@ -27,6 +36,210 @@ public class NOAAWeatherTest extends TestCase {
       assertEquals("Monday, August 20, 2012 : Foggy High=143.6 Low=125.6", weather.getConditionAtTime(aug202012).toString());
    }
    
+   public void testStreamingEngine() throws Exception {
+      NOAAWeather dom = new NOAAWeather();
+      dom.addNDFDParameters("dew", "qpf", "rh", "sky", "snow", "waveh", "wdir", "wgust", "wspd", "wwa", "wx");
+      dom.document = dom.loadDocFromFile(new File("testdata/noaaweather.xml"));
+      dom.call();
+      
+      NOAAWeather streaming = new NOAAWeather();
+      streaming.setEngine(NOAAWeather.Engine.STREAMING);
+      streaming.addNDFDParameters(dom.NDFDs);
+      streaming.streamed = streaming.streamFromFile(new File("testdata/noaaweather.xml"));
+      streaming.call();
+      
+      assertSameResults(dom, streaming);
+      assertEquals("Tuesday, August 21, 2012 : Foggy High=143.6 Low=125.6", streaming.getForecasts().get(1).toString());
+      
+      // noaaweather1.xml lacks hourly temperatures, so skip call() and just compare what gets extracted
+      EnumSet<NDFD> ndfds = EnumSet.of(NDFD.maxt, NDFD.mint, NDFD.icons, NDFD.sky, NDFD.wwa, NDFD.wx);
+      dom = new NOAAWeather();
+      dom.NDFDs = ndfds;
+      dom.extractFromDocument(dom.loadDocFromFile(new File("testdata/noaaweather1.xml")));
+      streaming = new NOAAWeather();
+      streaming.NDFDs = ndfds;
+      streaming.extractFromStream(new DWMLStreamParser(ndfds).parse(new File("testdata/noaaweather1.xml")));
+      
+      assertSameResults(dom, streaming);
+      assertTrue(streaming.getNDFDSeries(NDFD.wwa).getValues().toString().contains("  Fire Weather Watch @link:http"));
+   }
+   
+   
+   void assertSameResults(NOAAWeather expected, NOAAWeather actual) {
+      assertEquals(expected.getMoreInfo(), actual.getMoreInfo());
+      assertEquals(expected.timeLayout0.layoutKey, actual.timeLayout0.layoutKey);
+      assertEquals(expected.timeLayoutMap.keySet(), actual.timeLayoutMap.keySet());
+      for (TimeLayout layout : expected.timeLayoutMap.values())
+         assertEquals(layout.getIntervals(), actual.timeLayoutMap.get(layout.layoutKey).getIntervals());
+      
+      assertEquals(expected.ndfdSeriesMap.keySet(), actual.ndfdSeriesMap.keySet());
+      for (NDFDSeries series : expected.ndfdSeriesMap.values()) {
+         NDFDSeries other = actual.getNDFDSeries(series.ndfd);
+         assertEquals(series.ndfd.name(), series.getValues(), other.getValues());
+         assertEquals(series.getUnits(), other.getUnits());
+         assertEquals(series.getTimeLayout(), other.getTimeLayout());
+      }
+      
+      if (expected.getForecasts() != null)
+         assertEquals(expected.getForecasts().toString(), actual.getForecasts().toString());
+   }
+   
+   
+   public void testNumericSeries() throws IOException {
+      NOAAWeather weather = new NOAAWeather();
+      weather.addNDFDParameters(NDFD.qpf, NDFD.waveh, NDFD.wx);
+      weather.document = weather.loadDocFromFile(new File("testdata/noaaweather.xml"));
+      weather.call();
+      
+      NDFDSeries qpf = weather.getNDFDSeries(NDFD.qpf);
+      assertTrue(qpf instanceof NDFDSeries.Numeric);
+      assertEquals(0.0f, qpf.getFloatValue(0));
+      assertEquals("0.00", qpf.getValue(0));  // as in the DWML
+      
+      NDFDSeries waves = weather.getNDFDSeries(NDFD.waveh);
+      assertTrue(Float.isNaN(waves.getFloatValue(0)));
+      assertEquals("", waves.getValues().get(0));
+      assertSame(waves.getValues(), waves.getValues());
+      
+      assertFalse(weather.getNDFDSeries(NDFD.wx) instanceof NDFDSeries.Numeric);
+      assertEquals(NDFDSeries.Numeric.class, NDFDSeries.create(NDFD.temp, null, "F", Arrays.asList("70.5", "", "x")).getClass());
+      List<String> values = Arrays.asList("70.5", "", "x", "0.10", "-3", "-0.5", "1e3", "12.340", "0.1234567890");
+      NDFDSeries numeric = NDFDSeries.create(NDFD.temp, null, "F", values);
+      assertEquals(values, numeric.getValues());
+      assertEquals(0.1f, numeric.getFloatValue(3));
+      assertTrue(Float.isNaN(numeric.getFloatValue(2)));
+      assertEquals(1000f, numeric.getFloatValue(6));
+   }
+   
+   
+   public void testMultiPoint() throws Exception {
+      File multi = new File("testdata/noaaweather-multi.xml");
+      NOAAWeather single = new NOAAWeather();
+      single.document = single.loadDocFromFile(new File("testdata/noaaweather.xml"));
+      single.call();
+      
+      NOAAWeather dom1 = new NOAAWeather();
+      dom1.document = dom1.loadDocFromFile(multi);
+      dom1.call();
+      assertSameResults(single, dom1);
+      
+      NOAAWeather dom2 = new NOAAWeather();
+      dom2.locationKey = "point2";
+      dom2.document = dom1.document;
+      dom2.call();
+      assertEquals("Tuesday, August 21, 2012 : Foggy High=161.59999 Low=125.6", dom2.getForecasts().get(1).toString());
+      assertTrue(dom2.getMoreInfo().get(NOAAWeather.MoreInfoKeys.OUT_URL.name()).contains("textField1=37.77"));
+      
+      NOAAWeather streaming2 = new NOAAWeather();
+      streaming2.setEngine(NOAAWeather.Engine.STREAMING);
+      streaming2.locationKey = "point2";
+      streaming2.streamed = streaming2.streamFromFile(multi);
+      streaming2.call();
+      assertSameResults(dom2, streaming2);
+      assertEquals(Arrays.asList("point1", "point2"), streaming2.streamed.getLocationKeys());
+      
+      NOAAWeather streaming1 = new NOAAWeather();
+      streaming1.setEngine(NOAAWeather.Engine.STREAMING);
+      streaming1.streamed = streaming2.streamed;
+      streaming1.call();
+      assertSameResults(single, streaming1);
+   }
+   
+   
+   public void testParallelExtraction() throws Exception {
+      NOAAWeather sequential = new NOAAWeather();
+      sequential.setEngine(NOAAWeather.Engine.STREAMING);
+      sequential.addNDFDParameters("dew", "qpf", "rh", "sky", "snow", "waveh", "wdir", "wgust", "wspd", "wwa", "wx");
+      sequential.streamed = sequential.streamFromFile(new File("testdata/noaaweather.xml"));
+      sequential.call();
+      
+      NOAAWeather sequential2 = new NOAAWeather();
+      sequential2.setEngine(NOAAWeather.Engine.STREAMING);
+      sequential2.locationKey = "point2";
+      sequential2.streamed = sequential2.streamFromFile(new File("testdata/noaaweather-multi.xml"));
+      sequential2.call();
+      
+      ExecutorService pool = Executors.newFixedThreadPool(4);
+      ExecutorService oneThread = Executors.newSingleThreadExecutor();
+      try {
+         for (int i=0; i<20; i++) {
+            Executor executor = i % 2 == 0 ? pool : oneThread;
+            assertSameResults(sequential, parallelCopy(sequential, executor, "testdata/noaaweather.xml"));
+            assertSameResults(sequential2, parallelCopy(sequential2, executor, "testdata/noaaweather-multi.xml"));
+         }
+      }
+      finally {
+         pool.shutdown();
+         oneThread.shutdown();
+      }
+      
+      // a saturated executor doesn't block, nor does a rejecting one, since the parsing thread runs the tasks
+      Executor neverRuns = new Executor() {
+         @Override
+         public void execute(Runnable command) {
+            ;
+         }
+      };
+      assertSameResults(sequential, parallelCopy(sequential, neverRuns, "testdata/noaaweather.xml"));
+      Executor rejects = new Executor() {
+         @Override
+         public void execute(Runnable command) {
+            throw new RejectedExecutionException();
+         }
+      };
+      assertSameResults(sequential, parallelCopy(sequential, rejects, "testdata/noaaweather.xml"));
+   }
+   
+   
+   NOAAWeather parallelCopy(NOAAWeather template, Executor executor, String filename) throws IOException {
+      NOAAWeather parallel = template.copySettings();
+      parallel.locationKey = template.locationKey;
+      parallel.setExtractExecutor(executor);
+      parallel.streamed = parallel.streamFromFile(new File(filename));
+      return parallel.call();
+   }
+   
+   
+   public void testMetrics() throws Exception {
+      HistogramMetrics metrics = new HistogramMetrics();
+      NOAAWeather dom = new NOAAWeather();
+      dom.setMetrics(metrics);
+      dom.document = dom.loadDocFromFile(new File("testdata/noaaweather.xml"));
+      dom.call();
+      
+      assertEquals(1, metrics.getTimings(UsesXPath.LOAD_DOM).getCount());
+      assertTrue(metrics.getCounts(UsesXPath.LOAD_DOM_NODES).getSum() > 1000);
+      assertEquals(dom.timeLayoutMap.size(), metrics.getTimings(TimeLayout.PARSE_XML).getCount());
+      assertTrue(metrics.getCounts(TimeLayout.PARSE_XML_TIMES).getSum() > 100);
+      for (String name : new String[] { NOAAWeather.EXTRACT, NOAAWeather.ICONS, NOAAWeather.FORECASTS, NOAAWeather.CALL })
+         assertEquals(name, 1, metrics.getTimings(name).getCount());
+      assertEquals(5, metrics.getCounts(NOAAWeather.SERIES).getSum());  // the 4 standard + interpretations
+      assertNull(metrics.getTimings(NOAAWeather.STREAM_PARSE));
+      
+      NOAAWeather streaming = new NOAAWeather();
+      streaming.setEngine(NOAAWeather.Engine.STREAMING);
+      streaming.setMetrics(metrics);
+      streaming.streamed = streaming.streamFromFile(new File("testdata/noaaweather.xml"));
+      streaming.call();
+      assertEquals(1, metrics.getTimings(NOAAWeather.STREAM_PARSE).getCount());
+      assertEquals(2, metrics.getTimings(NOAAWeather.CALL).getCount());
+      assertEquals(1, metrics.getTimings(UsesXPath.LOAD_DOM).getCount());
+      
+      NOAAWeather refused = new NOAAWeather();
+      refused.setMetrics(metrics);
+      refused.setBaseURL("http://127.0.0.1:1/ndfdXMLclient.php");
+      try {
+         refused.call();
+         fail();
+      } catch (IOException expected) {
+         ;
+      }
+      assertEquals(1, metrics.getErrors(NOAAWeather.FETCH));
+      assertEquals(1, metrics.getErrors(NOAAWeather.CALL));
+      assertEquals(2, metrics.getTimings(NOAAWeather.CALL).getCount());
+   }
+   
+   
    public void testReal() throws IOException {
       NOAAWeather weather = new NOAAWeather();
       weather.setDates(null, null);
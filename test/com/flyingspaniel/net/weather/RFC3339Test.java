@@ -0,0 +1,98 @@
+package com.flyingspaniel.net.weather;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+public class RFC3339Test extends TestCase {
+
+   static final Pattern TIMESTAMP = Pattern.compile("\\d{4}-\\d\\d-\\d\\dT\\d\\d:\\d\\d:\\d\\d([+-]\\d\\d:\\d\\d|Z)");
+   
+   
+   // the old, SimpleDateFormat based, implementation
+   static long legacyParse(String s) throws ParseException {
+      SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
+      int len = s.length();
+      String removeLastColon = s.substring(0, len-3) + s.substring(len-2);
+      return sdf.parse(removeLastColon).getTime();
+   }
+   
+   
+   public void testAgainstTestData() throws Exception {
+      Set<String> timestamps = new HashSet<String>();
+      for (String file : new String[] { "testdata/noaaweather.xml", "testdata/noaaweather1.xml" }) {
+         String xml = new String(NOAAFetcher.readFully(new FileInputStream(new File(file))), "UTF-8");
+         Matcher matcher = TIMESTAMP.matcher(xml);
+         while (matcher.find())
+            timestamps.add(matcher.group());
+      }
+      assertTrue(timestamps.size() > 100);
+      
+      for (String s : timestamps) {
+         if (s.endsWith("Z"))  // the old code couldn't do these
+            assertEquals(s, legacyParse(s.replace("Z", "+00:00")), RFC3339.parseMillis(s));
+         else
+            assertEquals(s, legacyParse(s), RFC3339.parseMillis(s));
+         assertEquals(s, RFC3339.parseMillis(s), NOAAWeather.parseRFC3339(s).getTime());
+      }
+   }
+   
+   
+   public void testVariations() throws ParseException {
+      long expected = RFC3339.parseMillis("2012-08-20T15:00:00Z");
+      assertEquals(expected, RFC3339.parseMillis("2012-08-20T08:00:00-07:00"));
+      assertEquals(expected, RFC3339.parseMillis("2012-08-20T08:00:00-0700"));
+      assertEquals(expected, RFC3339.parseMillis("2012-08-20t20:30:00+05:30"));
+      assertEquals(expected, RFC3339.parseMillis("2012-08-20 15:00:00z"));
+      assertEquals(expected + 250, RFC3339.parseMillis("2012-08-20T15:00:00.25Z"));
+      assertEquals(expected + 123, RFC3339.parseMillis("2012-08-20T15:00:00.123456+00:00"));
+      assertEquals(expected, RFC3339.parseMillis("xx2012-08-20T15:00:00Zyy", 2, 22));
+      
+      assertEquals(0L, RFC3339.parseMillis("1970-01-01T00:00:00Z"));
+      assertEquals(951782400000L, RFC3339.parseMillis("2000-02-29T00:00:00Z"));
+      assertEquals(-86400000L, RFC3339.parseMillis("1969-12-31T00:00:00Z"));
+      
+      String[] bad = { "2012-08-20T15:00:00", "2012-08-20T15:00Z", "2012-13-20T15:00:00Z", "2013-02-29T15:00:00Z", 
+                       "2012-08-20T24:00:00Z", "2012-08-20X15:00:00Z", "2012-08-20T15:00:00+7:00", 
+                       "2012-08-20T15:00:00.Z", "2012-08-20T15:00:00Z ", "2012/08/20T15:00:00Z" };
+      for (String s : bad) {
+         try {
+            RFC3339.parseMillis(s);
+            fail(s);
+         } catch (ParseException expectedPE) {
+            ;
+         }
+      }
+   }
+   
+   
+   public void testFormat() throws ParseException {
+      TimeZone pacific = TimeZone.getTimeZone("America/Los_Angeles");
+      assertEquals("2012-08-20T08:00:00-07:00", RFC3339.format(RFC3339.parseMillis("2012-08-20T15:00:00Z"), pacific));
+      assertEquals("2012-12-20T07:00:00-08:00", RFC3339.format(RFC3339.parseMillis("2012-12-20T15:00:00Z"), pacific));
+      assertEquals("2012-08-20T20:30:00+05:30", RFC3339.format(RFC3339.parseMillis("2012-08-20T15:00:00Z"), TimeZone.getTimeZone("Asia/Kolkata")));
+      assertEquals("1969-12-31T23:59:59+00:00", RFC3339.format(-1000L, TimeZone.getTimeZone("UTC")));
+      
+      Random random = new Random(3339);
+      for (TimeZone tz : new TimeZone[] { pacific, TimeZone.getTimeZone("UTC"), TimeZone.getTimeZone("Australia/Adelaide") }) {
+         SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
+         sdf.setTimeZone(tz);
+         for (int i=0; i<1000; i++) {
+            long ms = (random.nextLong() % (200L * 365 * 24 * 3600)) * 1000L;  // within 200 years of 1970, to the second
+            String formatted = RFC3339.format(ms, tz);
+            assertEquals(ms, RFC3339.parseMillis(formatted));
+            assertEquals(sdf.format(new Date(ms)), formatted.substring(0, 22) + formatted.substring(23));
+         }
+      }
+   }
+}
@@ -0,0 +1,137 @@
+package com.flyingspaniel.net.weather;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import junit.framework.TestCase;
+
+/**
+ * Stress test of the coalescing of concurrent NOAAWeather.call()s, against a local stub of NOAA
+ */
+public class SingleFlightTest extends TestCase {
+
+   static final int THREADS = 64;
+   static final String TUESDAY = "Tuesday, August 21, 2012 : Foggy High=143.6 Low=125.6";
+
+   StubNOAA noaa;
+   String baseURL;
+   final AtomicInteger upstreamHits = new AtomicInteger();
+   ExecutorService executor;
+
+   @Override
+   protected void setUp() throws Exception {
+      final byte[] dwml = NOAAFetcher.readFully(new FileInputStream(new File("testdata/noaaweather.xml")));
+
+      noaa = new StubNOAA(new HttpHandler() {
+         @Override
+         public void handle(HttpExchange exchange) throws IOException {
+            upstreamHits.incrementAndGet();
+            try {
+               Thread.sleep(500);  // a slow NOAA, so that the callers pile up
+            } catch (InterruptedException ie) {
+               ;
+            }
+            boolean fail = exchange.getRequestURI().getQuery().contains("lat=0.0");
+            exchange.sendResponseHeaders(fail ? 500 : 200, fail ? -1 : dwml.length);
+            OutputStream os = exchange.getResponseBody();
+            if (!fail)
+               os.write(dwml);
+            os.close();
+         }
+      });
+      baseURL = noaa.getBaseURL();
+      executor = Executors.newFixedThreadPool(THREADS);
+   }
+
+   @Override
+   protected void tearDown() throws Exception {
+      executor.shutdown();
+      noaa.stop();
+   }
+
+
+   List<Future<NOAAWeather>> callAll(final double[] latitudes, final NOAAWeather.Engine engine) {
+      final CyclicBarrier barrier = new CyclicBarrier(THREADS);
+      List<Future<NOAAWeather>> futures = new ArrayList<Future<NOAAWeather>>();
+      for (int t=0; t<THREADS; t++) {
+         final double latitude = latitudes[t % latitudes.length];
+         futures.add(executor.submit(new Callable<NOAAWeather>() {
+            @Override
+            public NOAAWeather call() throws Exception {
+               NOAAWeather weather = new NOAAWeather();
+               weather.setEngine(engine);
+               weather.setBaseURL(baseURL);
+               weather.setCoalesce(true);
+               weather.setLocation(latitude, -122.50);
+               barrier.await();
+               return weather.call();
+            }
+         }));
+      }
+      return futures;
+   }
+
+
+   public void testStress() throws Exception {
+      long executionsBefore = NOAAWeather.sSingleFlight.getExecutions();
+      for (Future<NOAAWeather> future : callAll(new double[] { 37.54 }, NOAAWeather.Engine.DOM))
+         assertEquals(TUESDAY, future.get().getForecasts().get(1).toString());
+      assertEquals(1, upstreamHits.get());
+      assertEquals(1, NOAAWeather.sSingleFlight.getExecutions() - executionsBefore);
+
+      upstreamHits.set(0);
+      for (Future<NOAAWeather> future : callAll(new double[] { 37.54, 38.54, 39.54 }, NOAAWeather.Engine.STREAMING))
+         assertEquals(TUESDAY, future.get().getForecasts().get(1).toString());
+      assertEquals(3, upstreamHits.get());
+      assertEquals(0, NOAAWeather.sSingleFlight.getInFlight());
+   }
+
+
+   public void testNotCoalescedByDefault() throws Exception {
+      NOAAWeather weather = new NOAAWeather();
+      weather.setBaseURL(baseURL);
+      weather.setLocation(37.54, -122.50);
+      NOAAWeather nearby = weather.copySettings();
+      nearby.setLocation(37.541, -122.50);
+      weather.setCoalesce(true);
+      nearby.setCoalesce(true);
+      assertFalse(weather.getCoalescingKey().equals(nearby.getCoalescingKey()));
+      nearby.setEngine(NOAAWeather.Engine.STREAMING);
+      nearby.setLocation(37.54, -122.50);
+      assertFalse(weather.getCoalescingKey().equals(nearby.getCoalescingKey()));
+      
+      weather.setCoalesce(false);
+      long executionsBefore = NOAAWeather.sSingleFlight.getExecutions();
+      assertEquals(TUESDAY, weather.call().getForecasts().get(1).toString());
+      assertNotNull(weather.document);  // computed right here
+      assertEquals(0, NOAAWeather.sSingleFlight.getExecutions() - executionsBefore);
+      assertEquals(1, upstreamHits.get());
+   }
+
+
+   public void testSharedFailure() throws Exception {
+      for (Future<NOAAWeather> future : callAll(new double[] { 0.0 }, NOAAWeather.Engine.DOM)) {
+         try {
+            future.get();
+            fail("should have thrown");
+         } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof IOException);
+         }
+      }
+      assertEquals(1, upstreamHits.get());
+   }
+}
@@ -0,0 +1,88 @@
+package com.flyingspaniel.net.weather;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+
+/**
+ * A local stand-in for the NOAA REST service, for the tests.  Started by the constructor,
+ * requests are handled on its own thread pool, which {@link #stop()} shuts down along with the server.
+ */
+class StubNOAA {
+
+   static final String PATH = "/ndfdXMLclient.php";
+
+   protected final ExecutorService pool = Executors.newCachedThreadPool();
+   protected final HttpServer server;
+
+
+   /**
+    * Constructor
+    * @param handler  non-null, answers requests to {@link #PATH}
+    * @throws IOException
+    */
+   StubNOAA(HttpHandler handler) throws IOException {
+      server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+      server.setExecutor(pool);
+      server.createContext(PATH, handler);
+      server.start();
+   }
+
+
+   /**
+    * Answer requests to another path
+    * @param path     e.g. "/deflate.php"
+    * @param handler  non-null
+    * @return this, for convenience
+    */
+   StubNOAA addContext(String path, HttpHandler handler) {
+      server.createContext(path, handler);
+      return this;
+   }
+
+
+   /**
+    * The URL of {@link #PATH}, for NOAAWeather.setBaseURL()
+    */
+   String getBaseURL() {
+      return getURL(PATH);
+   }
+
+
+   /**
+    * @param path  e.g. "/deflate.php"
+    */
+   String getURL(String path) {
+      return "http://localhost:" + server.getAddress().getPort() + path;
+   }
+
+
+   void stop() {
+      server.stop(0);
+      pool.shutdownNow();
+   }
+
+
+   /**
+    * Sends a 200 response
+    * @param exchange
+    * @param contentEncoding  may be null
+    * @param body
+    * @throws IOException
+    */
+   static void send(HttpExchange exchange, String contentEncoding, byte[] body) throws IOException {
+      if (contentEncoding != null)
+         exchange.getResponseHeaders().set("Content-Encoding", contentEncoding);
+      exchange.sendResponseHeaders(200, body.length);
+      OutputStream os = exchange.getResponseBody();
+      os.write(body);
+      os.close();
+   }
+}
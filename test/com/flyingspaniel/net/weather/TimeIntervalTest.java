@@ -0,0 +1,114 @@
+package com.flyingspaniel.net.weather;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class TimeIntervalTest extends TestCase {
+
+   static final long H = TimeInterval.HOURL;
+   
+   
+   public void testFindClosestTime() {
+      // 0..1h, 3h..4h, 10h (an instant), 12h..14h
+      TimeLayout layout = new TimeLayout("test");
+      layout.add(0, H);
+      layout.add(3*H, 4*H);
+      layout.add(10*H, 10*H);
+      layout.add(12*H, 14*H);
+      List<TimeInterval> intervals = new ArrayList<TimeInterval>(layout.getIntervals());
+      
+      // in a gap, the sorted search returns the later interval, the unsorted one the closest
+      long[] desired =   { -4*H, 0, H/2, 2*H-1, 2*H+1, 7*H-1, 10*H, 13*H, 15*H, 20*H };
+      int[] expected =   {   -1, 0,   0,     1,     1,     2,    2,    3,    3,   -1 };
+      int[] closest  =   {   -1, 0,   0,     0,     1,     1,    2,    3,    3,   -1 };
+      for (int q=0; q<desired.length; q++) {
+         Date date = new Date(desired[q]);
+         assertEquals("q=" + q, expected[q], layout.findClosestTimeIndex(date, 3.0));
+         assertEquals("q=" + q, expected[q], TimeInterval.findClosestTime(intervals, date, 3.0));
+         assertEquals("q=" + q, expected[q], TimeInterval.findClosestTime(new LinkedList<TimeInterval>(intervals), date, 3.0));
+         assertEquals("q=" + q, closest[q], TimeInterval.findClosestTimeUnsorted(intervals, date, 3.0));
+      }
+      
+      assertEquals(Arrays.toString(expected), Arrays.toString(layout.findClosestTimeIndices(desired, 3.0)));
+      
+      assertEquals(-1, TimeInterval.findClosestTime(new ArrayList<TimeInterval>(), new Date(), 3.0));
+      assertEquals(-1, new TimeLayout("empty").findClosestTimeIndex(new Date(), 3.0));
+   }
+   
+   
+   public void testRandomLayouts() {
+      Random random = new Random(1234);
+      for (int trial=0; trial<200; trial++) {
+         TimeLayout layout = new TimeLayout("random");
+         long t = random.nextInt(10) * H;
+         int size = random.nextInt(30);
+         for (int i=0; i<size; i++) {
+            long duration = random.nextInt(3) * H;
+            layout.add(t, t + duration);
+            t += duration + random.nextInt(5) * H;
+         }
+         assertTrue(layout.isSorted());
+         
+         long[] desired = new long[50];
+         for (int q=0; q<desired.length; q++)
+            desired[q] = (random.nextInt((int)(t/H) + 20) - 10) * H + random.nextInt(60) * 60000L;
+         int[] batchUnsorted = layout.findClosestTimeIndices(desired, 2.5);
+         for (int q=0; q<desired.length; q++)
+            assertEquals(layout.findClosestTimeIndex(new Date(desired[q]), 2.5), batchUnsorted[q]);
+         
+         Arrays.sort(desired);
+         int[] batch = layout.findClosestTimeIndices(desired, 2.5);
+         
+         for (int q=0; q<desired.length; q++) {
+            Date date = new Date(desired[q]);
+            int linear = linearFindClosestTime(layout.getIntervals(), desired[q], 2.5);
+            int binary = layout.findClosestTimeIndex(date, 2.5);
+            assertEquals(linear, binary);
+            assertEquals(linear < 0, TimeInterval.findClosestTimeUnsorted(layout.getIntervals(), date, 2.5) < 0);
+            assertEquals(binary, batch[q]);
+         }
+      }
+   }
+   
+   
+   /**
+    * The linear scan findClosestTime() used before the binary search
+    */
+   static int linearFindClosestTime(List<TimeInterval> intervals, long desiredMS, double maxHourDiff) {
+      int idx = 0;
+      while ((idx < intervals.size()) && (intervals.get(idx).stopMS < desiredMS))
+         idx++;
+      
+      if (idx == intervals.size())  // after the last one
+         return (idx > 0) && (intervals.get(idx-1).hoursApart(desiredMS) <= maxHourDiff) ? idx-1 : -1;
+      
+      float hours = intervals.get(idx).hoursApart(desiredMS);
+      if (idx > 0)
+         hours = Math.min(hours, intervals.get(idx-1).hoursApart(desiredMS));
+      return (hours <= maxHourDiff) ? idx : -1;
+   }
+   
+   
+   public void testUnsortedLayout() {
+      TimeLayout layout = new TimeLayout("unsorted");
+      layout.add(10*H, 11*H);
+      layout.add(0, H);
+      assertFalse(layout.isSorted());
+      assertFalse(TimeInterval.isSorted(layout.getIntervals()));
+      
+      List<TimeInterval> reversed = new ArrayList<TimeInterval>(layout.getIntervals());
+      Collections.reverse(reversed);
+      assertTrue(TimeInterval.isSorted(reversed));
+      
+      assertEquals(1, layout.findClosestTimeIndex(new Date(H/2), 1.0));
+      assertEquals(0, layout.findClosestTimeIndex(new Date(10*H), 1.0));
+      assertEquals("[1, 0]", Arrays.toString(layout.findClosestTimeIndices(new long[] { 0, 10*H }, 1.0)));
+   }
+}
@@ -0,0 +1,50 @@
+package com.flyingspaniel.net.weather;
+
+import java.io.File;
+import java.util.EnumSet;
+import java.util.TimeZone;
+
+import junit.framework.TestCase;
+
+public class TimestampTableTest extends TestCase {
+
+   public void testTable() throws Exception {
+      TimestampTable table = new TimestampTable();
+      TimeZone pacific = TimeZone.getTimeZone("America/Los_Angeles");
+      for (int pass=0; pass<2; pass++) {
+         for (int i=0; i<1000; i++) {
+            long ms = 1345478400000L + i * TimeInterval.HOURL;
+            assertEquals(ms, table.parseMillis(new StringBuilder(RFC3339.format(ms, pacific))));
+         }
+      }
+      assertEquals(1000, table.size());
+      assertEquals(2000, table.getLookups());
+      assertEquals(1000, table.getParses());
+      
+      table.clear();
+      assertEquals(0, table.size());
+   }
+   
+   
+   public void testDocument() throws Exception {
+      File file = new File("testdata/noaaweather.xml");
+      TimestampTable table = new TimestampTable();
+      DWMLStreamParser parser = new DWMLStreamParser(EnumSet.of(NDFD.maxt)).setTimestampTable(table).parse(file);
+      assertTrue(table.getParses() < table.getLookups() / 2);
+      
+      TimeLayout[] layouts = parser.getTimeLayouts().values().toArray(new TimeLayout[0]);
+      
+      // across documents, nothing new to parse
+      long parses = table.getParses();
+      new DWMLStreamParser(EnumSet.of(NDFD.maxt)).setTimestampTable(table).parse(file);
+      assertEquals(parses, table.getParses());
+      
+      // DOM engine gets the same results
+      NOAAWeather weather = new NOAAWeather();
+      weather.setTimestampTable(table);
+      weather.document = weather.loadDocFromFile(file);
+      weather.call();
+      assertEquals(parses, table.getParses());
+      assertEquals(layouts[0].getIntervals(), weather.timeLayoutMap.get(layouts[0].layoutKey).getIntervals());
+   }
+}
@@ -0,0 +1,124 @@
+package com.flyingspaniel.ranges;
+
+import static com.flyingspaniel.ranges.Ranges.Comparison.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class RangesIndexTest extends TestCase {
+
+   static final RangesPredicates[] PREDICATES = {
+      RangesPredicates.Contains, RangesPredicates.ContainedBy, RangesPredicates.Overlaps, RangesPredicates.Equals,
+      RangesPredicates.None, RangesPredicates.StrictlyContains, RangesPredicates.StrictlyContainedBy, 
+      RangesPredicates.StrictlyOverlaps, RangesPredicates.StrictlyLT, RangesPredicates.StrictlyGT
+   };
+   
+   
+   public void testMatchesLinear() {
+      Random random = new Random(42);
+      for (int trial=0; trial<50; trial++) {
+         List<Range> ranges = new ArrayList<Range>();
+         int size = random.nextInt(200);
+         for (int i=0; i<size; i++)
+            ranges.add(Range.random(random));
+         if ((trial & 1) == 0)  // try some already sorted
+            ranges = sorted(ranges);
+         
+         RangesIndex index = new RangesIndex(ranges);
+         assertEquals(size, index.size());
+         
+         for (int q=0; q<50; q++) {
+            Range exemplar = Range.random(random);
+            if ((q % 5 == 0) && (size > 0))
+               exemplar = ranges.get(random.nextInt(size));  // make sure we get some EQ
+            
+            for (RangesPredicates predicate : PREDICATES) {
+               int[] linear = RangesPredicates.exemplarAcceptsIndices(exemplar, ranges, predicate);
+               assertEquals(Arrays.toString(linear), Arrays.toString(index.exemplarAcceptsIndices(exemplar, predicate)));
+               
+               List<Range> inverse = predicate.listAcceptsExemplar(ranges, exemplar);
+               int[] indices = index.listAcceptsExemplarIndices(exemplar, predicate);
+               assertEquals(inverse.size(), indices.length);
+               for (int i=0; i<indices.length; i++)
+                  assertSame(inverse.get(i), ranges.get(indices[i]));
+            }
+         }
+      }
+   }
+   
+   
+   public void testCompareRange() {
+      for (int a0=0; a0<5; a0++)
+         for (int a1=a0; a1<5; a1++)
+            for (int b0=0; b0<5; b0++)
+               for (int b1=b0; b1<5; b1++)
+                  assertEquals(new Range(a0,a1).compareRange(new Range(b0,b1)), RangesIndex.compareRange(a0, a1, b0, b1));
+   }
+   
+   
+   static List<Range> sorted(List<Range> ranges) {
+      Range[] array = ranges.toArray(new Range[ranges.size()]);
+      Arrays.sort(array, new java.util.Comparator<Range>() {
+         @Override
+         public int compare(Range r1, Range r2) {
+            return (r1.min != r2.min) ? (r1.min < r2.min ? -1 : 1) : (r1.max < r2.max ? -1 : (r1.max == r2.max ? 0 : 1));
+         }
+      });
+      return Arrays.asList(array);
+   }
+   
+   
+   // compareRange is an independent copy of the original TimeInterval logic
+   static class Range implements Ranges.Comparable<Range>, Ranges.LongRange {
+      final long min;
+      final long max;
+      
+      Range(long min, long max) {
+         this.min = min;
+         this.max = max;
+      }
+      
+      static Range random(Random random) {
+         long min = random.nextInt(100);
+         return new Range(min, min + (random.nextBoolean() ? 0 : random.nextInt(20)));
+      }
+      
+      @Override
+      public long getMin() {
+         return min;
+      }
+      
+      @Override
+      public long getMax() {
+         return max;
+      }
+      
+      @Override
+      public int compareRange(Range o) {
+         if ((min == o.min) && (max == o.max))
+            return EQ;
+         if (max <= o.min)
+            return STRICTLY_LT;
+         if (min >= o.max)
+            return STRICTLY_GT;
+         
+         int minCmp = Long.valueOf(min).compareTo(o.min);
+         int maxCmp = Long.valueOf(max).compareTo(o.max);
+         if (minCmp < 0)
+            return maxCmp >= 0 ? CONTAINS : OVERLAPS_LT;
+         else if (minCmp > 0)
+            return maxCmp > 0 ? OVERLAPS_GT : CONTAINED_BY;
+         else
+            return maxCmp < 0 ? CONTAINED_BY : CONTAINS;
+      }
+      
+      @Override
+      public String toString() {
+         return " " + min + ".." + max + " ";
+      }
+   }
+}
@@ -0,0 +1,60 @@
+package com.flyingspaniel.xml;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+
+import javax.xml.xpath.XPathExpression;
+
+import org.w3c.dom.Document;
+
+import junit.framework.TestCase;
+
+public class UsesXPathTest extends TestCase {
+
+   public void testExpressionCache() throws Exception {
+      UsesXPath uxp = new UsesXPath.HighLoad(2);
+      UsesXPath.ExpressionCache cache = uxp.getExpressionCache();
+      Document doc = uxp.loadDOM(new File("testdata/noaaweather.xml"));
+
+      XPathExpression first = uxp.compile("dwml/data");
+      assertSame(first, uxp.compile("dwml/data"));
+      assertEquals(1, cache.getHits());
+      assertEquals(1, cache.getMisses());
+      
+      assertEquals("k-p24h-n7-1", uxp.getStringFromXPath(doc, "dwml/data/time-layout/layout-key"));
+      uxp.compile("dwml/head");   // pushes "dwml/data" out, maxSize is 2
+      assertNotSame(first, uxp.compile("dwml/data"));
+      assertEquals(4, cache.getMisses());
+   }
+   
+   
+   public void testCountNodes() throws Exception {
+      Document doc = new UsesXPath().loadDOM(new ByteArrayInputStream("<a><b>text</b><c/><d><e/></d></a>".getBytes("UTF-8")));
+      assertEquals(7, UsesXPath.countNodes(doc));  // document, a, b, text, c, d, e
+      assertEquals(2, UsesXPath.countNodes(doc.getDocumentElement().getFirstChild()));  // b, text
+      assertEquals(0, UsesXPath.countNodes(null));
+   }
+   
+   
+   public void testPerThread() throws Exception {
+      final UsesXPath uxp = new UsesXPath.HighLoad();
+      final XPathExpression mine = uxp.compile("dwml/data");
+      final XPathExpression[] theirs = new XPathExpression[1];
+      Thread thread = new Thread() {
+         @Override
+         public void run() {
+            try {
+               theirs[0] = uxp.compile("dwml/data");
+            } catch (Exception e) {
+               throw new RuntimeException(e);
+            }
+         }
+      };
+      thread.start();
+      thread.join();
+      
+      assertNotNull(theirs[0]);
+      assertNotSame(mine, theirs[0]);
+      assertEquals(2, uxp.getExpressionCache().getMisses());
+   }
+}